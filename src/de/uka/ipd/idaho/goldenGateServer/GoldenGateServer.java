@@ -29,19 +29,30 @@ package de.uka.ipd.idaho.goldenGateServer;
 
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.SequenceInputStream;
 import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -55,6 +66,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import de.uka.ipd.idaho.easyIO.EasyIO;
 import de.uka.ipd.idaho.easyIO.IoProvider;
@@ -66,6 +81,10 @@ import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActi
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActionNetwork;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.ChunkedInputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.ChunkedOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.CompressingOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.DecompressingInputStream;
 import de.uka.ipd.idaho.stringUtils.StringVector;
 
 /**
@@ -86,8 +105,13 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 	private static ComponentLoadError[] serverComponentLoadErrors;
 	
 	private static int networkInterfaceTimeout = defaultNetworkInterfaceTimeout;
+	private static int keepAliveTimeout = (5 * 1000); // 5 seconds by default
+	private static int maxKeepAliveRequests = 256;
+	private static int compressionThreshold = 4096; // replies smaller than this go out uncompressed
 	private static int port = -1; 
 	private static ServerThread serverThread = null;
+	private static boolean useNioNetworkInterface = false;
+	private static int nioSelectorThreadCount = 2;
 	
 	private static File rootFolder;
 	
@@ -323,18 +347,18 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		//	redirect System.out and System.err to logging methods
 		System.setOut(new RedirectPrintStream() {
 			void redirectLine(String line) {
-				Thread ct = Thread.currentThread();
-				if (ct instanceof GoldenGateServerActivityLogger)
-					((GoldenGateServerActivityLogger) ct).logInfo(line);
+				GoldenGateServerActivityLogger gsal = getActivityLogger();
+				if (gsal != null)
+					gsal.logInfo(line);
 				else logBackground(line, GoldenGateServerActivityLogger.LOG_LEVEL_INFO);
 			}
 		});
 		startSystemOut.println("   - System.out redirected");
 		System.setErr(new RedirectPrintStream() {
 			void redirectLine(String line) {
-				Thread ct = Thread.currentThread();
-				if (ct instanceof GoldenGateServerActivityLogger)
-					((GoldenGateServerActivityLogger) ct).logError(line);
+				GoldenGateServerActivityLogger gsal = getActivityLogger();
+				if (gsal != null)
+					gsal.logError(line);
 				else logBackground(line, GoldenGateServerActivityLogger.LOG_LEVEL_ERROR);
 			}
 		});
@@ -397,8 +421,19 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		try {
 			port = Integer.parseInt(settings.getSetting(PORT_SETTING_NAME, ("" + port)));
 			networkInterfaceTimeout = Integer.parseInt(settings.getSetting("networkInterfaceTimeout", ("" + networkInterfaceTimeout)));
-			maxServiceThreadQueueSize = Integer.parseInt(settings.getSetting("maxIdleServiceThreads", ("" + maxServiceThreadQueueSize)));
+			keepAliveTimeout = Integer.parseInt(settings.getSetting("keepAliveTimeout", ("" + keepAliveTimeout)));
+			maxKeepAliveRequests = Integer.parseInt(settings.getSetting("maxKeepAliveRequests", ("" + maxKeepAliveRequests)));
+			compressionThreshold = Integer.parseInt(settings.getSetting("compressionThreshold", ("" + compressionThreshold)));
+			serviceThreadPool.maxIdleThreads = Integer.parseInt(settings.getSetting("maxIdleServiceThreads", ("" + serviceThreadPool.maxIdleThreads)));
+			serviceThreadPool.coreThreads = Integer.parseInt(settings.getSetting("minServiceThreads", ("" + serviceThreadPool.coreThreads)));
+			serviceThreadPool.maxThreads = Integer.parseInt(settings.getSetting("maxServiceThreads", ("" + serviceThreadPool.maxThreads)));
+			serviceThreadPool.maxBacklog = Integer.parseInt(settings.getSetting("maxServiceRequestBacklog", ("" + serviceThreadPool.maxBacklog)));
+			nioSelectorThreadCount = Integer.parseInt(settings.getSetting("nioSelectorThreads", ("" + nioSelectorThreadCount)));
+			defaultActionLimit = Math.max(1, Integer.parseInt(settings.getSetting("defaultActionLimit", ("" + defaultActionLimit))));
+			serviceActionScheduler.maxRunningWeight = Integer.parseInt(settings.getSetting("maxRunningActionWeight", ("" + serviceActionScheduler.maxRunningWeight)));
 		} catch (NumberFormatException nfe) {}
+		useNioNetworkInterface = "nio".equalsIgnoreCase(settings.getSetting("networkInterfaceMode", "blocking"));
+		serviceThreadPool.useVirtualThreads = "virtual".equalsIgnoreCase(settings.getSetting("serviceThreadMode", "pooled"));
 		
 		//	get database access and email output data
 		ioProviderSettings = settings.getSubset("EasyIO");
@@ -525,8 +560,13 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 			}
 		}
 		
+		//	pre-start core service threads (or set up virtual threads)
+		serviceThreadPool.start();
+		if (serviceThreadPool.useVirtualThreads)
+			System.out.println("   - " + ((serviceThreadPool.virtualThreadFactory == null) ? "virtual threads not supported by JVM, using service thread pool" : "using virtual threads for service requests"));
+		
 		//	start server and wait for it
-		ServerThread st = new ServerThread();
+		ServerThread st = (useNioNetworkInterface ? new NioServerThread() : new ServerThread());
 		synchronized (st) {
 			st.start();
 			try {
@@ -537,7 +577,7 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		//	check if startup successful
 		if (st.isRunning()) {
 			serverThread = st;
-			System.out.println("   - network interface activated");
+			System.out.println("   - network interface activated" + (useNioNetworkInterface ? " in NIO mode" : ""));
 		}
 		
 		//	shutdown otherwise
@@ -557,7 +597,11 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 			return (proxiedServiceThreadIDs.get() != null);
 		}
 		public boolean isClientRequest() {
-			return (Thread.currentThread() instanceof ServiceThread);
+			return (currentServiceRequests.get() != null);
+		}
+		public GoldenGateServerRequestContext getRequestContext() {
+			ServiceRequest request = ((ServiceRequest) currentServiceRequests.get());
+			return ((request == null) ? null : request.getContext());
 		}
 		
 		public GoldenGateServerComponent getServerComponent(String className) {
@@ -571,54 +615,70 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		}
 		
 		public void logError(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logError(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logError(message);
 			else logBackground(message, LOG_LEVEL_ERROR);
 		}
 		public void logError(Throwable error) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logError(error);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logError(error);
 			else logBackground(error);
 		}
 		public void logWarning(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logWarning(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logWarning(message);
 			else logBackground(message, LOG_LEVEL_WARNING);
 		}
 		public void logInfo(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logInfo(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logInfo(message);
 			else logBackground(message, LOG_LEVEL_INFO);
 		}
 		public void logDebug(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logDebug(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logDebug(message);
 			else logBackground(message, LOG_LEVEL_DEBUG);
 		}
 		public void logActivity(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logActivity(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logActivity(message);
 		}
 		public void logAlways(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logAlways(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logAlways(message);
 			else logBackground(message, -1);
 		}
 		public void logResult(String message) {
-			Thread ct = Thread.currentThread();
-			if (ct instanceof GoldenGateServerActivityLogger)
-				((GoldenGateServerActivityLogger) ct).logResult(message);
+			GoldenGateServerActivityLogger gsal = getActivityLogger();
+			if (gsal != null)
+				gsal.logResult(message);
 			else logBackground(message, LOG_LEVEL_INFO);
 		}
 	}
 	
+	/* Requests are represented by the ServiceRequest they are executing in,
+	 * regardless of the kind of thread they run on, so pooled service threads
+	 * and virtual threads alike are recognized as client requests, and log
+	 * activity to the right request. */
+	private static ThreadLocal currentServiceRequests = new ThreadLocal();
+	
+	private static GoldenGateServerActivityLogger getActivityLogger() {
+		GoldenGateServerActivityLogger gsal = ((GoldenGateServerActivityLogger) currentServiceRequests.get());
+		if (gsal != null)
+			return gsal;
+		Thread ct = Thread.currentThread();
+		if (ct instanceof GoldenGateServerActivityLogger)
+			return ((GoldenGateServerActivityLogger) ct);
+		return null;
+	}
+	
 	private static void logNetwork(String message, int messageLogLevel) {
 		if (messageLogLevel <= logLevelNetwork)
 			doLogNetwork(message, messageLogLevel);
@@ -701,23 +761,7 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		System.out.println("- server thread shut down");
 		
 		//	shut down service threads
-		while (serviceThreadList.size() != 0) {
-			ServiceThread st = ((ServiceThread) serviceThreadList.removeFirst());
-			
-			//	check if thread is servicing
-			if (st.isInService()) {
-				
-				//	re-enqueue thread so it can finish its current request
-				serviceThreadList.addLast(st);
-				
-				try { // wait for a little to avoid overload when only servicing threads remain
-					Thread.sleep(25);
-				} catch (InterruptedException ie) {}
-			}
-			
-			//	shut it down if not
-			else st.shutdown();
-		}
+		serviceThreadPool.shutdown();
 		System.out.println("- service threads terminated");
 		
 		//	shut down components
@@ -777,25 +821,8 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 					Socket socket = serverSocket.accept();
 					socket.setSoTimeout(networkInterfaceTimeout);
 					
-					//	create streams
-					final BufferedLineInputStream requestIn = new BufferedLineInputStream(socket.getInputStream(), ENCODING);
-					final BufferedLineOutputStream responseOut = new BufferedLineOutputStream(socket.getOutputStream(), ENCODING);
-					
-					logNetwork(LOG_TIMESTAMP_FORMATTER.format(new Date()) + ": Handling request from " + socket.getRemoteSocketAddress(), GoldenGateServerActivityLogger.LOG_LEVEL_INFO);
-					
-					ServiceThread st = getServiceThread();
-					
-					//	stopping or stopped, report error
-					if (st == null) {
-						responseOut.write("Cannot process request, server is stopped");
-						responseOut.newLine();
-						
-						responseOut.flush();
-						socket.close();
-					}
-					
-					//	process request
-					else st.service(new ServiceRequest(socket, requestIn, responseOut));
+					//	hand request to service thread
+					dispatchRequest(socket, socket.getInputStream(), -1);
 				}
 				
 				//	catch Exceptions caused by single incoming connection requests
@@ -839,6 +866,382 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		}
 	}
 	
+	private static void dispatchRequest(Socket socket, InputStream socketIn, int keepAliveRequests) throws IOException {
+		
+		//	create streams
+		BufferedLineInputStream requestIn = new BufferedLineInputStream(socketIn, ENCODING);
+		BufferedLineOutputStream responseOut = new BufferedLineOutputStream(socket.getOutputStream(), socket.getChannel(), ENCODING); // socket only has a channel in NIO mode
+		
+		logNetwork(LOG_TIMESTAMP_FORMATTER.format(new Date()) + ": Handling request from " + socket.getRemoteSocketAddress(), GoldenGateServerActivityLogger.LOG_LEVEL_INFO);
+		
+		ServiceRequest request = new ServiceRequest(socket, requestIn, responseOut, keepAliveRequests);
+		
+		//	stopping or stopped, report error
+		if (!isRunning())
+			request.reject("Cannot process request, server is stopped");
+		
+		//	hand request to service thread pool, and reject it right away if pool and backlog are full
+		else if (!serviceThreadPool.service(request)) {
+			logNetwork(("Rejected request from " + socket.getRemoteSocketAddress() + ", server is busy"), GoldenGateServerActivityLogger.LOG_LEVEL_WARNING);
+			request.reject("Cannot process request, server is busy");
+		}
+	}
+	
+	/* Rejected requests still need to receive their error message in the
+	 * framing the client expects, i.e., chunked on keep-alive connections,
+	 * and compressed if the client negotiated compression. This requires
+	 * reading the request head, which we do not want to do on the threads
+	 * accepting connections or reading request heads in NIO mode, so we do
+	 * it on a single background thread, waiting only briefly for each client,
+	 * and simply closing the connection if too many rejections are pending. */
+	private static final int REJECTION_READ_TIMEOUT = 1000; // clients send their request head right away, no use waiting long
+	private static final int MAX_PENDING_REJECTIONS = 64;
+	private static final int MAX_REJECTION_DRAIN = 65536; // rest of request we read and discard before closing rejected connection
+	private static RequestRejecter requestRejecter = null;
+	private static synchronized RequestRejecter getRequestRejecter() {
+		if (requestRejecter == null) {
+			requestRejecter = new RequestRejecter();
+			requestRejecter.start();
+		}
+		return requestRejecter;
+	}
+	
+	private static class RequestRejecter extends Thread {
+		private LinkedList pendingRequests = new LinkedList();
+		RequestRejecter() {
+			super("GgServerRequestRejecter");
+			this.setDaemon(true);
+		}
+		public void run() {
+			while (true) {
+				ServiceRequest request;
+				synchronized (this.pendingRequests) {
+					while (this.pendingRequests.isEmpty()) try {
+						this.pendingRequests.wait();
+					} catch (InterruptedException ie) {}
+					request = ((ServiceRequest) this.pendingRequests.removeFirst());
+				}
+				request.sendRejection();
+			}
+		}
+		boolean enqueue(ServiceRequest request) {
+			synchronized (this.pendingRequests) {
+				if (MAX_PENDING_REJECTIONS <= this.pendingRequests.size())
+					return false;
+				this.pendingRequests.addLast(request);
+				this.pendingRequests.notify();
+				return true;
+			}
+		}
+	}
+	
+	/* Network interface based on non-blocking channels: the master thread
+	 * accepts incoming connections and hands them to a small set of selector
+	 * threads, which read the head of each request (the command line, plus
+	 * the actual command after a 'PROXIED' marker) without blocking. Only
+	 * once the request head is complete, the connection is switched back to
+	 * blocking mode and handed to a service thread, together with any bytes
+	 * read so far. This way, idle or slow clients do not pin down a service
+	 * thread before their request actually is ready to execute. The same
+	 * applies to keep-alive connections between requests: service threads
+	 * hand idle ones back to the selector threads rather than waiting for
+	 * the next request themselves. */
+	private static class NioServerThread extends ServerThread {
+		private ServerSocketChannel serverChannel;
+		private NioSelectorThread[] selectorThreads;
+		private int nextSelectorThread = 0;
+		
+		NioServerThread() {
+			super();
+		}
+		
+		public void run() {
+			try {
+				//	create and open server socket channel (we accept in blocking mode, only reading request heads is non-blocking)
+				ServerSocketChannel ssc = ServerSocketChannel.open();
+				ssc.socket().setReuseAddress(true);
+				ssc.socket().bind(new InetSocketAddress(port));
+				
+				//	start selector threads
+				NioSelectorThread[] nsts = new NioSelectorThread[Math.max(1, nioSelectorThreadCount)];
+				for (int t = 0; t < nsts.length; t++) {
+					nsts[t] = new NioSelectorThread(t + 1);
+					nsts[t].start();
+				}
+				this.selectorThreads = nsts;
+				this.serverChannel = ssc;
+				
+				//	notify startup complete
+				synchronized (this) {
+					this.notify();
+				}
+				
+				//	run until shutdown() is called
+				while (this.serverChannel != null) try {
+					
+					//	wait for incoming connections
+					SocketChannel sc = this.serverChannel.accept();
+					sc.configureBlocking(false);
+					
+					//	hand connection to next selector thread
+					this.register(new NioRequestHead(sc, -1));
+				}
+				
+				//	catch Exceptions caused by single incoming connection requests
+				catch (Throwable t) {
+					if (this.serverChannel == null)
+						logNetwork("Server socket closed.", GoldenGateServerActivityLogger.LOG_LEVEL_WARNING);
+					else {
+						logNetwork(("Error handling request - " + t.getMessage()), GoldenGateServerActivityLogger.LOG_LEVEL_ERROR);
+						logNetwork(t);
+					}
+				}
+			}
+			
+			//	shut down if the server socket couldn't be opened
+			catch (Throwable t) {
+				System.out.println("Error creating server socket channel: " + t.getMessage());
+				t.printStackTrace(System.out);
+				
+				//	notify if startup fails
+				synchronized (this) {
+					this.notify();
+				}
+			}
+		}
+		
+		synchronized boolean register(NioRequestHead nrh) {
+			if (this.serverChannel == null)
+				return false;
+			
+			//	hand request head to next selector thread (wrapping counter explicitly, as it would turn negative on overflow)
+			this.selectorThreads[this.nextSelectorThread].register(nrh);
+			this.nextSelectorThread = ((this.nextSelectorThread + 1) % this.selectorThreads.length);
+			return true;
+		}
+		
+		boolean isRunning() {
+			return (this.serverChannel != null);
+		}
+		
+		void shutdown() {
+			ServerSocketChannel ssc = this.serverChannel;
+			this.serverChannel = null;
+			
+			if (ssc != null) try {
+				ssc.close();
+			}
+			catch (IOException ioe) {
+				System.out.println("Error closing main server socket channel - " + ioe.getMessage());
+				ioe.printStackTrace(System.out);
+			}
+			
+			if (this.selectorThreads != null) {
+				for (int t = 0; t < this.selectorThreads.length; t++)
+					this.selectorThreads[t].shutdown();
+			}
+		}
+	}
+	
+	private static class NioSelectorThread extends Thread {
+		private Selector selector;
+		private LinkedList pendingRequestHeads = new LinkedList();
+		private boolean keepRunning = true;
+		
+		NioSelectorThread(int number) throws IOException {
+			super("GgServerSelectorThread-" + number);
+			this.selector = Selector.open();
+		}
+		
+		void register(NioRequestHead nrh) {
+			synchronized (this.pendingRequestHeads) {
+				this.pendingRequestHeads.addLast(nrh);
+			}
+			this.selector.wakeup();
+		}
+		
+		public void run() {
+			ArrayList completeRequestHeads = new ArrayList();
+			long lastTimeoutCheck = System.currentTimeMillis();
+			
+			//	run until shutdown() is called
+			while (this.keepRunning) try {
+				
+				//	wait for data (waking up at least once a second to check timeouts)
+				this.selector.select(1000);
+				
+				//	register newly accepted connections, as well as idle keep-alive connections handed back by service threads
+				synchronized (this.pendingRequestHeads) {
+					while (this.pendingRequestHeads.size() != 0) {
+						NioRequestHead nrh = ((NioRequestHead) this.pendingRequestHeads.removeFirst());
+						try {
+							nrh.channel.register(this.selector, SelectionKey.OP_READ, nrh);
+						}
+						catch (IOException ioe) {
+							closeChannel(nrh.channel);
+						}
+					}
+				}
+				
+				//	read available data
+				for (Iterator skit = this.selector.selectedKeys().iterator(); skit.hasNext();) {
+					SelectionKey sk = ((SelectionKey) skit.next());
+					skit.remove();
+					if (!sk.isValid())
+						continue;
+					NioRequestHead nrh = ((NioRequestHead) sk.attachment());
+					try {
+						if (!nrh.read()) {
+							sk.cancel();
+							closeChannel(nrh.channel);
+						}
+						else if (nrh.isComplete()) {
+							sk.cancel();
+							completeRequestHeads.add(nrh);
+						}
+					}
+					catch (IOException ioe) {
+						sk.cancel();
+						closeChannel(nrh.channel);
+					}
+				}
+				
+				//	close connections that have not sent a complete request head in time, as well as keep-alive connections idle for too long
+				long time = System.currentTimeMillis();
+				if ((lastTimeoutCheck + 1000) < time) {
+					for (Iterator skit = this.selector.keys().iterator(); skit.hasNext();) {
+						SelectionKey sk = ((SelectionKey) skit.next());
+						NioRequestHead nrh = ((NioRequestHead) sk.attachment());
+						if (nrh.isKeepAlive() && (nrh.dataLength == 0)) {
+							if ((nrh.lastRead + keepAliveTimeout) < time) {
+								logNetwork(("Keep-alive connection from " + nrh.channel.socket().getRemoteSocketAddress() + " idle for too long, closing"), GoldenGateServerActivityLogger.LOG_LEVEL_DEBUG);
+								sk.cancel();
+								closeChannel(nrh.channel);
+							}
+						}
+						else if ((nrh.lastRead + networkInterfaceTimeout) < time) {
+							logNetwork(("Request from " + nrh.channel.socket().getRemoteSocketAddress() + " timed out before command was complete"), GoldenGateServerActivityLogger.LOG_LEVEL_INFO);
+							sk.cancel();
+							closeChannel(nrh.channel);
+						}
+					}
+					lastTimeoutCheck = time;
+				}
+				
+				//	nothing to dispatch
+				if (completeRequestHeads.isEmpty())
+					continue;
+				
+				//	flush cancelled keys so channels can go back to blocking mode
+				this.selector.selectNow();
+				
+				//	hand complete requests to service threads
+				for (int r = 0; r < completeRequestHeads.size(); r++) {
+					NioRequestHead nrh = ((NioRequestHead) completeRequestHeads.get(r));
+					try {
+						nrh.channel.configureBlocking(true);
+						Socket socket = nrh.channel.socket();
+						socket.setSoTimeout(networkInterfaceTimeout);
+						dispatchRequest(socket, new SequenceInputStream(new ByteArrayInputStream(nrh.data, 0, nrh.dataLength), socket.getInputStream()), nrh.keepAliveRequests);
+					}
+					catch (Throwable t) {
+						logNetwork(("Error handling request - " + t.getMessage()), GoldenGateServerActivityLogger.LOG_LEVEL_ERROR);
+						logNetwork(t);
+						closeChannel(nrh.channel);
+					}
+				}
+				completeRequestHeads.clear();
+			}
+			catch (Throwable t) {
+				logNetwork(("Error in network selector - " + t.getMessage()), GoldenGateServerActivityLogger.LOG_LEVEL_ERROR);
+				logNetwork(t);
+			}
+			
+			//	close any connections still pending
+			try {
+				for (Iterator skit = this.selector.keys().iterator(); skit.hasNext();)
+					closeChannel(((SelectionKey) skit.next()).channel());
+				this.selector.close();
+			} catch (IOException ioe) {}
+		}
+		
+		void shutdown() {
+			this.keepRunning = false;
+			this.selector.wakeup();
+		}
+		
+		private static void closeChannel(Channel channel) {
+			try {
+				channel.close();
+			} catch (IOException ioe) {}
+		}
+	}
+	
+	private static class NioRequestHead {
+		private static final int MAX_HEAD_SIZE = (64 * 1024);
+		final SocketChannel channel;
+		final int keepAliveRequests; // number of requests already served on keep-alive connection, -1 for new connections
+		byte[] data = new byte[1024];
+		int dataLength = 0;
+		long lastRead;
+		NioRequestHead(SocketChannel channel, int keepAliveRequests) {
+			this.channel = channel;
+			this.keepAliveRequests = keepAliveRequests;
+			this.lastRead = System.currentTimeMillis();
+		}
+		boolean isKeepAlive() {
+			return (this.keepAliveRequests != -1);
+		}
+		boolean read() throws IOException {
+			if (this.dataLength == this.data.length) {
+				byte[] data = new byte[this.data.length * 2];
+				System.arraycopy(this.data, 0, data, 0, this.dataLength);
+				this.data = data;
+			}
+			int read = this.channel.read(ByteBuffer.wrap(this.data, this.dataLength, (this.data.length - this.dataLength)));
+			if (read == -1)
+				return false;
+			this.dataLength += read;
+			this.lastRead = System.currentTimeMillis();
+			return true;
+		}
+		boolean isComplete() throws IOException {
+			
+			//	head getting too large, let service thread handle the rest
+			if (MAX_HEAD_SIZE <= this.dataLength)
+				return true;
+			
+			//	skip chunk length preceding command on keep-alive connection
+			int commandStart = 0;
+			if (this.isKeepAlive()) {
+				commandStart = this.findLineEnd(0);
+				if (commandStart == -1)
+					return false;
+			}
+			
+			//	check for complete command line
+			int commandEnd = this.findLineEnd(commandStart);
+			if (commandEnd == -1)
+				return false;
+			
+			//	wait for actual command if request is proxied
+			if ("PROXIED".equals(new String(this.data, commandStart, (commandEnd - commandStart), ENCODING).trim()))
+				return (this.findLineEnd(commandEnd) != -1);
+			else return true;
+		}
+		private int findLineEnd(int from) {
+			for (int b = from; b < this.dataLength; b++) {
+				if (this.data[b] == '\n')
+					return (b + 1);
+				
+				//	make sure not to split up a cross platform line break
+				if ((this.data[b] == '\r') && ((b + 1) < this.dataLength))
+					return (b + ((this.data[b + 1] == '\n') ? 2 : 1));
+			}
+			return -1;
+		}
+	}
+	
 	private static ThreadLocal proxiedServiceThreadIDs = new ThreadLocal();
 	
 	private static abstract class LoggingThread extends Thread implements GoldenGateServerActivityLogger {
@@ -867,9 +1270,8 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		
 		private ServiceRequest request = null;
 		
-		ServiceThread() {
-			super("GgServerServiceThread-" + (serviceThreadList.size() + 1));
-			serviceThreadList.add(this);
+		ServiceThread(int number) {
+			super("GgServerServiceThread-" + number);
 		}
 		
 		public void run() {
@@ -886,7 +1288,7 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 				
 				//	execute action if given
 				if (this.request != null) try {
-					this.request.execute(this);
+					this.request.execute();
 				}
 				
 				//	catch whatever might go wrong
@@ -901,20 +1303,9 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 //					logOut.shrinkBuffer();
 				}
 				
-				//	re-enqueue if not shut down ...
-				if (this.keepRunning)
-					synchronized (serviceThreadQueue) {
-						
-						//	but only if less than maximum idle threads in list
-						if (serviceThreadQueue.size() < maxServiceThreadQueueSize)
-							serviceThreadQueue.addLast(this);
-						
-						//	shut down otherwise
-						else {
-							serviceThreadList.remove(this);
-							this.keepRunning = false;
-						}
-					}
+				//	get next request from backlog, or go idle, or retire if pool has enough idle threads
+				if (this.keepRunning && !serviceThreadPool.serviceFinished(this))
+					this.keepRunning = false;
 			}
 		}
 		
@@ -949,9 +1340,10 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 			GoldenGateServer.logNetwork(error);
 		}
 		public void logActivity(String message) {
-			if (this.request == null)
+			ServiceRequest request = this.request;
+			if (request == null)
 				this.log(message, LOG_LEVEL_WARNING); // something is hinky, so generally go for warning
-			else this.request.logActivity(message); // run this past request (we don't want to count any waiting time)
+			else request.logActivity(message); // run this past request (we don't want to count any waiting time)
 		}
 		public void logResult(String message) {
 			this.logInfo(message); // treat results as information level messages in network activity
@@ -961,59 +1353,206 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		}
 	}
 	
-	private static class ServiceRequest {
+	private static class VirtualServiceRunner implements Runnable {
+		private ServiceRequest request;
+		VirtualServiceRunner(ServiceRequest request) {
+			this.request = request;
+		}
+		public void run() {
+			while (this.request != null) {
+				try {
+					this.request.execute();
+				}
+				
+				//	catch whatever might go wrong
+				catch (Throwable t) {
+					this.request.logError("Error handling request - " + t.getClass().getName() + " (" + t.getMessage() + ")");
+					this.request.logError(t);
+				}
+				
+				//	clean up, and take over next request from backlog (if any)
+				finally {
+					this.request = serviceThreadPool.virtualServiceFinished();
+				}
+			}
+		}
+	}
+	
+	private static class ServiceRequest implements GoldenGateServerActivityLogger {
 		private Socket socket;
 		private BufferedLineInputStream requestIn;
 		private BufferedLineOutputStream responseOut;
+		private BufferedLineOutputStream actionOut = null;
 		
 		private ServiceAction threadAction = null;
+		private long received;
+		private GoldenGateServerRequestContext context = null;
+		long backlogged = -1;
 		private long activityLogStart = -1;
 		private long activityLogEnd = -1;
 		private ArrayList activityLogMessages = null;
+		private String rejection = null;
+		private int keepAliveRequests; // number of requests already served on keep-alive connection, -1 if not (yet) known to be one
 		
-		ServiceRequest(Socket socket, BufferedLineInputStream requestIn, BufferedLineOutputStream responseOut) {
+		ServiceRequest(Socket socket, BufferedLineInputStream requestIn, BufferedLineOutputStream responseOut, int keepAliveRequests) {
 			this.socket = socket;
 			this.requestIn = requestIn;
 			this.responseOut = responseOut;
+			this.keepAliveRequests = keepAliveRequests;
+			this.received = System.currentTimeMillis();
 		}
 		
-		void execute(ServiceThread thread) throws Exception {
-			Long threadId = new Long(thread.getId());
+		void execute() throws Exception {
+			currentServiceRequests.set(this);
+			boolean handedBack = false;
 			try {
 				
-				//	read command
-				String command = this.requestIn.readLine();
-				thread.logInfo("Command is " + command);
+				//	read command (keep-alive connections handed back by selector threads continue right with next chunked request)
+				String command = ((this.keepAliveRequests == -1) ? this.requestIn.readLine() : KEEP_ALIVE_MARKER);
+				
+				//	catch 'KEEP_ALIVE' marker, and handle chunked requests until client closes connection
+				if (KEEP_ALIVE_MARKER.equals(command)) {
+					if (this.keepAliveRequests == -1) {
+						this.logInfo("Keep-alive connection from " + this.socket.getRemoteSocketAddress());
+						this.keepAliveRequests = 0;
+					}
+					for (; this.keepAliveRequests < maxKeepAliveRequests; this.keepAliveRequests++) {
+						
+						//	in NIO mode, leave waiting for next request to selector threads
+						if (this.handBackIdleConnection()) {
+							handedBack = true;
+							return;
+						}
+						if (!this.awaitNextRequest())
+							break;
+						
+						BufferedLineInputStream chunkedRequestIn = new BufferedLineInputStream(new ChunkedInputStream(this.requestIn), ENCODING);
+						ChunkedOutputStream chunkedOut = new ChunkedOutputStream(this.responseOut);
+						
+						//	tell client to drop socket after last request, and when we close it if idle
+						if ((this.keepAliveRequests + 1) == maxKeepAliveRequests)
+							chunkedOut.setEndMarkerExtension(KEEP_ALIVE_CLOSE);
+						else chunkedOut.setEndMarkerExtension(KEEP_ALIVE_TIMEOUT_PREFIX + keepAliveTimeout);
+						BufferedLineOutputStream chunkedResponseOut = new BufferedLineOutputStream(chunkedOut, ENCODING);
+						try {
+							this.executeAction(chunkedRequestIn.readLine(), chunkedRequestIn, chunkedResponseOut);
+						}
+						finally {
+							chunkedRequestIn.close(); // skips anything the action did not read
+						}
+					}
+				}
+				
+				//	handle plain single request
+				else this.executeAction(command, this.requestIn, this.responseOut);
+				
+				//	send response
+				this.responseOut.flush();
+				this.responseOut.close();
+			}
+			finally {
+				currentServiceRequests.remove();
+				if (!handedBack)
+					this.socket.close();
+			}
+		}
+		
+		private boolean handBackIdleConnection() throws IOException {
+			
+			//	no selector to hand back to
+			ServerThread st = serverThread;
+			if (!(st instanceof NioServerThread))
+				return false;
+			
+			//	next request already (partially) read, no use waiting for it in selector
+			if (this.requestIn.available() != 0)
+				return false;
+			
+			//	send response and hand socket to selector
+			this.responseOut.flush();
+			SocketChannel channel = this.socket.getChannel();
+			channel.configureBlocking(false);
+			if (((NioServerThread) st).register(new NioRequestHead(channel, this.keepAliveRequests)))
+				return true;
+			
+			//	selector shutting down, wait for next request right here
+			channel.configureBlocking(true);
+			return false;
+		}
+		
+		private boolean awaitNextRequest() throws IOException {
+			this.socket.setSoTimeout(keepAliveTimeout);
+			try {
+				this.requestIn.mark(1);
+				if (this.requestIn.read() == -1)
+					return false;
+				this.requestIn.reset();
+				this.socket.setSoTimeout(networkInterfaceTimeout);
+				this.received = System.currentTimeMillis();
+				return true;
+			}
+			catch (SocketTimeoutException ste) {
+				return false;
+			}
+		}
+		
+		private void executeAction(String command, BufferedLineInputStream actionIn, BufferedLineOutputStream actionOut) throws Exception {
+			Thread thread = Thread.currentThread();
+			Long threadId = new Long(thread.getId());
+			this.actionOut = actionOut;
+			try {
+				this.logInfo("Command is " + command);
 				
 				//	catch 'PROXIED' property
 				if ("PROXIED".equals(command)) {
 					proxiedServiceThreadIDs.set(threadId);
-					command = this.requestIn.readLine();
-					thread.logInfo("Command is " + command);
+					command = actionIn.readLine();
+					this.logInfo("Command is " + command);
 				}
 				
-				//	TODO split headers off action command, starting at first '<'
+				//	split headers off action command, starting at first '<'
+				this.context = GoldenGateServerRequestContext.parse(command, this.received);
+				if (this.context.getHeaderNames().size() != 0) {
+					command = this.context.getCommand();
+					this.logInfo("Headers are " + this.context.getHeaderNames() + ((this.context.getRequestId() == null) ? "" : (", request ID is " + this.context.getRequestId())));
+				}
+				
+				//	client sends and accepts compressed data, wrap streams (this also covers any error messages)
+				if (this.context.acceptsCompression(CompressingOutputStream.COMPRESSION_GZIP)) {
+					actionIn = new BufferedLineInputStream(new DecompressingInputStream(actionIn), ENCODING);
+					actionOut = new BufferedLineOutputStream(new CompressingOutputStream(actionOut, compressionThreshold), ENCODING);
+					this.actionOut = actionOut;
+				}
 				
 				//	get action
 				ComponentActionNetwork action = ((ComponentActionNetwork) serverComponentActions.get(command));
 				
 				//	invalid action, send error
 				if (action == null) {
-					this.responseOut.write("Invalid action '" + command + "'");
-					this.responseOut.newLine();
+					actionOut.write("Invalid action '" + command + "'");
+					actionOut.newLine();
 				}
 				
+				//	client gave up waiting before we even got to the request, don't waste any effort
+				else if (this.context.isExpired())
+					this.dropExpired(command, actionOut);
+				
 				//	action found
 				else {
 					
 					//	mark action as running
-					this.threadAction = new ServiceAction(command, thread);
-					
-					//	TODO once we introduce headers, maybe read them here, and store in ThreadLocal
+					this.threadAction = new ServiceAction(command, thread, this);
+					this.threadAction.priority = getPriority(this.context.getPriority());
 					
 					//	report action as running (this will queue us up and wait if too many other requests are on same action)
 					startServiceAction(this.threadAction);
 					
+					//	client gave up while we were waiting for other requests to finish
+					if (this.context.isExpired()) {
+						this.dropExpired(command, actionOut);
+						return;
+					}
+					
 					//	set up activity logging
 					this.activityLogStart = System.currentTimeMillis();
 					long activityLogTimeout = action.getActivityLogTimeout();
@@ -1021,32 +1560,133 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 					this.activityLogMessages = new ArrayList();
 					
 					//	perform action
-					action.performActionNetwork(this.requestIn, this.responseOut);
+					action.performActionNetwork(actionIn, actionOut);
 				}
 				
 				//	send response
-				this.responseOut.flush();
-				this.responseOut.close();
+				actionOut.flush();
+				actionOut.close();
 			}
 			finally {
 				proxiedServiceThreadIDs.remove();
 				finishServiceAction(this.threadAction, true);
-				this.socket.close();
+				this.threadAction = null;
+				this.context = null;
+				this.activityLogStart = -1;
+				this.activityLogEnd = -1;
+				this.activityLogMessages = null;
+			}
+		}
+		
+		private void dropExpired(String command, BufferedLineOutputStream actionOut) throws IOException {
+			this.logWarning("Request to '" + command + "' dropped, deadline expired " + (System.currentTimeMillis() - this.context.getDeadline()) + "ms ago");
+			actionOut.write("Request to '" + command + "' dropped, deadline expired");
+			actionOut.newLine();
+			actionOut.flush();
+			actionOut.close();
+		}
+		
+		GoldenGateServerRequestContext getContext() {
+			return this.context;
+		}
+		
+		void reject(String message) throws IOException {
+			this.rejection = message;
+			if (!getRequestRejecter().enqueue(this))
+				this.socket.close(); // too many rejections pending, just drop connection
+		}
+		
+		void sendRejection() {
+			try {
+				this.socket.setSoTimeout(REJECTION_READ_TIMEOUT);
+				
+				//	read command, switching to chunked streams on keep-alive connections
+				BufferedLineInputStream requestIn = this.requestIn;
+				OutputStream socketOut = new FilterOutputStream(this.responseOut) {
+					public void write(byte[] b, int off, int len) throws IOException {
+						this.out.write(b, off, len);
+					}
+					public void close() throws IOException {
+						this.out.flush(); // keep socket open for consuming rest of request
+					}
+				};
+				BufferedLineOutputStream responseOut = new BufferedLineOutputStream(socketOut, ENCODING);
+				String command = ((this.keepAliveRequests == -1) ? requestIn.readLine() : KEEP_ALIVE_MARKER);
+				if (KEEP_ALIVE_MARKER.equals(command)) {
+					requestIn = new BufferedLineInputStream(new ChunkedInputStream(this.requestIn), ENCODING);
+					ChunkedOutputStream chunkedOut = new ChunkedOutputStream(socketOut);
+					chunkedOut.setEndMarkerExtension(KEEP_ALIVE_CLOSE); // we're closing the connection right away
+					responseOut = new BufferedLineOutputStream(chunkedOut, ENCODING);
+					command = requestIn.readLine();
+				}
+				if ("PROXIED".equals(command))
+					command = requestIn.readLine();
+				if (command == null)
+					return; // client gone
+				
+				//	compress message if client negotiated that
+				if (GoldenGateServerRequestContext.parse(command, this.received).acceptsCompression(CompressingOutputStream.COMPRESSION_GZIP))
+					responseOut = new BufferedLineOutputStream(new CompressingOutputStream(responseOut, compressionThreshold), ENCODING);
+				
+				//	send message
+				responseOut.write(this.rejection);
+				responseOut.newLine();
+				responseOut.flush();
+				responseOut.close();
+				
+				//	consume rest of request (up to some limit), as closing socket with unread input resets connection before client gets to read rejection
+				this.socket.shutdownOutput();
+				byte[] drainBuffer = new byte[1024];
+				try {
+					for (int drained = 0, read; (drained < MAX_REJECTION_DRAIN) && ((read = this.requestIn.read(drainBuffer)) != -1);)
+						drained += read;
+				} catch (IOException ioe) { /* rejection is out, client just didn't finish in time */ }
+			}
+			catch (IOException ioe) {
+				this.logInfo("Could not send rejection to " + this.socket.getRemoteSocketAddress() + ": " + ioe.getMessage());
+			}
+			finally {
+				try {
+					this.socket.close();
+				} catch (IOException ioe) {}
 			}
 		}
 		
 		void cancel() throws Exception {
 			//proxiedServiceThreadIDs.remove(); // no use doing this from console thread
-			finishServiceAction(this.threadAction, false);
+			ServiceAction threadAction = this.threadAction;
+			finishServiceAction(threadAction, false);
 			if (this.socket.isClosed())
 				return;
-			this.responseOut.write("Request to '" + this.threadAction.command + "' terminated forcefully");
-			this.responseOut.newLine();
-			this.responseOut.flush();
+			BufferedLineOutputStream actionOut = ((this.actionOut == null) ? this.responseOut : this.actionOut);
+			actionOut.write("Request to '" + ((threadAction == null) ? "<unknown>" : threadAction.command) + "' terminated forcefully");
+			actionOut.newLine();
+			actionOut.flush();
 			this.socket.close();
 		}
 		
-		void logActivity(String message) {
+		public void logError(String message) {
+			logNetwork(message, LOG_LEVEL_ERROR);
+		}
+		public void logError(Throwable error) {
+			logNetwork(error);
+		}
+		public void logWarning(String message) {
+			logNetwork(message, LOG_LEVEL_WARNING);
+		}
+		public void logInfo(String message) {
+			logNetwork(message, LOG_LEVEL_INFO);
+		}
+		public void logDebug(String message) {
+			logNetwork(message, LOG_LEVEL_DEBUG);
+		}
+		public void logAlways(String message) {
+			logNetwork(message, -1);
+		}
+		public void logResult(String message) {
+			this.logInfo(message); // treat results as information level messages in network activity
+		}
+		public void logActivity(String message) {
 			
 			//	log level debug, output message right away
 			if (GoldenGateServerActivityLogger.LOG_LEVEL_DEBUG <= logLevelNetwork) {
@@ -1084,33 +1724,53 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 		final String command;
 		final Thread thread;
 		final String threadName;
+		final ServiceRequest request;
+		int priority = -1; // priority requested by client, can only lower the one configured for the action
 		private String status = "running";
 		long waited = -1;
 		long started;
-		ServiceAction(String command, Thread thread) {
+		ServiceAction(String command, Thread thread, ServiceRequest request) {
 			this.startTime = System.currentTimeMillis();
 			this.command = command;
 			this.thread = thread;
 			this.threadName = this.thread.getName();
+			this.request = request;
 			this.started = this.startTime;
 		}
-		synchronized void suspend() throws InterruptedException {
-			/* we've been told to resume before getting around to actually
-			 * suspending despite being told to ... pathological case, but
-			 * appears to happen occasionally, causing an action to wait
-			 * indefinitely, as management data structures have it in running
-			 * status ... */
-			if (this.waited != -1)
-				return;
-			this.status = "waiting";
-			this.wait();
+		/* lock and condition rather than monitor, as waiting in the latter
+		 * pins the carrier thread if we're running in a virtual thread */
+		private final Lock suspendLock = new ReentrantLock();
+		private final Condition resumed = this.suspendLock.newCondition();
+		void suspend() throws InterruptedException {
+			this.suspendLock.lock();
+			try {
+				/* we've been told to resume before getting around to actually
+				 * suspending despite being told to ... pathological case, but
+				 * appears to happen occasionally, causing an action to wait
+				 * indefinitely, as management data structures have it in running
+				 * status ... */
+				if (this.waited != -1)
+					return;
+				this.status = "waiting";
+				while (this.waited == -1)
+					this.resumed.await();
+			}
+			finally {
+				this.suspendLock.unlock();
+			}
 		}
-		synchronized void resume() {
-			this.status = "running";
-			long ctm = System.currentTimeMillis();
-			this.waited = (ctm - this.started);
-			this.started = ctm;
-			this.notify();
+		void resume() {
+			this.suspendLock.lock();
+			try {
+				this.status = "running";
+				long ctm = System.currentTimeMillis();
+				this.waited = (ctm - this.started);
+				this.started = ctm;
+				this.resumed.signal();
+			}
+			finally {
+				this.suspendLock.unlock();
+			}
 		}
 		public int compareTo(Object obj) {
 			ServiceAction sa = ((ServiceAction) obj);
@@ -1147,75 +1807,407 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 	
 	private static void startServiceAction(ServiceAction sa) throws InterruptedException {
 		if (sa != null)
-			((ServiceActionCoordinator) serviceActionCoordinators.get(sa.command)).startServiceAction(sa);
+			serviceActionScheduler.startServiceAction(sa);
 	}
 	
 	private static void finishServiceAction(ServiceAction sa, boolean isFinished) {
 		if (sa != null)
-			((ServiceActionCoordinator) serviceActionCoordinators.get(sa.command)).finishServiceAction(sa, isFinished);
+			serviceActionScheduler.finishServiceAction(sa, isFinished);
 	}
 	
+	private static final int PRIORITY_HIGH = 0;
+	private static final int PRIORITY_NORMAL = 1;
+	private static final int PRIORITY_LOW = 2;
+	private static final String[] PRIORITY_NAMES = {"high", "normal", "low"};
+	
+	private static int getPriority(String priorityName) {
+		for (int p = 0; p < PRIORITY_NAMES.length; p++) {
+			if (PRIORITY_NAMES[p].equalsIgnoreCase(priorityName))
+				return p;
+		}
+		return -1;
+	}
+	
+	private static int defaultActionLimit = 4;
+	
+	/* Per-command settings: the maximum number of concurrently running
+	 * requests ('actionLimit.<command>'), the weight of each running request
+	 * against the global limit ('actionWeight.<command>'), and the priority
+	 * lane waiting requests queue up in ('actionPriority.<command>') */
 	private static class ServiceActionCoordinator {
-		private TreeSet runningActions = new TreeSet();
-		private LinkedList queuedActions = new LinkedList();
-		private String actionCommand;
+		final String actionCommand;
+		final int limit;
+		final int weight;
+		final int priority;
+		int running = 0;
 		ServiceActionCoordinator(String actionCommand) {
 			this.actionCommand = actionCommand;
+			this.limit = readActionSetting("actionLimit", actionCommand, defaultActionLimit);
+			this.weight = readActionSetting("actionWeight", actionCommand, 1);
+			String priority = ((settings == null) ? null : settings.getSetting("actionPriority." + actionCommand));
+			if (priority == null)
+				priority = ((actionCommand.startsWith("GGS_NMI_") || "PING".equals(actionCommand)) ? "high" : "normal"); // pings and network monitoring should never get stuck
+			if ("high".equalsIgnoreCase(priority))
+				this.priority = PRIORITY_HIGH;
+			else if ("low".equalsIgnoreCase(priority))
+				this.priority = PRIORITY_LOW;
+			else this.priority = PRIORITY_NORMAL;
+		}
+		private static int readActionSetting(String name, String actionCommand, int def) {
+			if (settings == null)
+				return def;
+			try {
+				return Math.max(1, Integer.parseInt(settings.getSetting((name + "." + actionCommand), ("" + def))));
+			}
+			catch (NumberFormatException nfe) {
+				return def;
+			}
 		}
+	}
+	
+	private static ServiceActionScheduler serviceActionScheduler = new ServiceActionScheduler();
+	
+	/* Coordinates running network actions across all action commands: each
+	 * command can have only so many requests running at the same time, and
+	 * all normal and low priority requests together can have only so much
+	 * weight running at the same time (if a global limit is set at all).
+	 * Waiting requests queue up in their priority lane, and whenever a
+	 * request finishes, we start waiting requests highest priority lane
+	 * first, in order of arrival within each lane, stopping at the first
+	 * request that cannot start yet. New requests only start right away if
+	 * no requests are waiting in their own lane or any higher one, so they
+	 * cannot overtake waiting ones. Requests in the high priority lane are
+	 * exempt from the global limit, so cheap calls like pings never get stuck
+	 * behind a bunch of long running uploads. Clients can lower the priority
+	 * of a request, but not raise it, and a request whose priority a client
+	 * lowered is subject to the global limit like any other in its lane. */
+	private static class ServiceActionScheduler {
+		int maxRunningWeight = 0; // no global limit by default
+		private int runningWeight = 0;
+		private TreeSet runningActions = new TreeSet();
+		private LinkedList[] waitingActions = {new LinkedList(), new LinkedList(), new LinkedList()};
+		
 		void startServiceAction(ServiceAction sa) throws InterruptedException {
+			String command = sa.command;
 			sa = this.doStartServiceAction(sa);
-			//	we need to release the monitor on the coordinator before suspending on the one of the action
+			//	we need to release the monitor on the scheduler before suspending the action
 			if (sa != null)
 				sa.suspend();
-			notifyNetworkActionStarted(this.actionCommand, ((sa == null) ? -1 : ((int) sa.waited)));
+			notifyNetworkActionStarted(command, ((sa == null) ? -1 : ((int) sa.waited)));
 		}
-		private synchronized ServiceAction doStartServiceAction(ServiceAction sa) throws InterruptedException {
+		private synchronized ServiceAction doStartServiceAction(ServiceAction sa) {
 			activeServiceActions.add(sa);
-			if (this.runningActions.size() < 4) { // TODO make this threshold configurable
-				this.runningActions.add(sa);
-				return null;
+			ServiceActionCoordinator sac = ((ServiceActionCoordinator) serviceActionCoordinators.get(sa.command));
+			int lane = getLane(sa, sac);
+			if (this.hasWaitingActions(lane) || !this.canStart(sac, lane)) {
+				this.waitingActions[lane].addLast(sa);
+				return sa;
 			}
 			else {
-				this.queuedActions.addLast(sa);
-				return sa;
+				this.markRunning(sa, sac, lane);
+				return null;
 			}
 		}
+		private static int getLane(ServiceAction sa, ServiceActionCoordinator sac) {
+			return Math.max(sac.priority, sa.priority); // client can lower priority, but not raise it
+		}
+		private boolean hasWaitingActions(int lane) {
+			for (int p = 0; p <= lane; p++) {
+				if (this.waitingActions[p].size() != 0)
+					return true;
+			}
+			return false;
+		}
+		private boolean canStart(ServiceActionCoordinator sac, int lane) {
+			if (sac.limit <= sac.running)
+				return false;
+			if (lane == PRIORITY_HIGH)
+				return true;
+			if (this.maxRunningWeight < 1)
+				return true;
+			return ((this.runningWeight + sac.weight) <= this.maxRunningWeight);
+		}
+		private void markRunning(ServiceAction sa, ServiceActionCoordinator sac, int lane) {
+			this.runningActions.add(sa);
+			sac.running++;
+			if (lane != PRIORITY_HIGH)
+				this.runningWeight += sac.weight;
+		}
 		void finishServiceAction(ServiceAction sa, boolean isFinished) {
 			if (isFinished)
-				notifyNetworkActionFinished(this.actionCommand, ((int) sa.waited), ((int) (System.currentTimeMillis() - sa.started)));
-			sa = this.doFinishServiceAction(sa, isFinished);
-			//	we need to release the monitor on the coordinator before acquiring the one on the action
-			if (sa != null)
-				sa.resume();
-		}
-		private synchronized ServiceAction doFinishServiceAction(ServiceAction sa, boolean isFinished) {
+				notifyNetworkActionFinished(sa.command, ((int) sa.waited), ((int) (System.currentTimeMillis() - sa.started)));
+			ArrayList resumeActions = this.doFinishServiceAction(sa);
+			//	we need to release the monitor on the scheduler before acquiring the ones on the actions
+			for (int a = 0; a < resumeActions.size(); a++)
+				((ServiceAction) resumeActions.get(a)).resume();
+		}
+		private synchronized ArrayList doFinishServiceAction(ServiceAction sa) {
+			ArrayList resumeActions = new ArrayList(1);
 			activeServiceActions.remove(sa);
-			this.runningActions.remove(sa);
-			if (this.queuedActions.isEmpty())
-				return null;
-			if (!isFinished)
-				return null;
-			sa = ((ServiceAction) this.queuedActions.removeFirst());
-			this.runningActions.add(sa);
-			return sa;
+			ServiceActionCoordinator sac = ((ServiceActionCoordinator) serviceActionCoordinators.get(sa.command));
+			
+			int lane = getLane(sa, sac);
+			
+			//	action was waiting (request canceled), simply remove it (might unblock ones queued up behind it, though)
+			if (!this.runningActions.remove(sa))
+				this.waitingActions[lane].remove(sa);
+			
+			//	release resources held by running action
+			else {
+				sac.running--;
+				if (lane != PRIORITY_HIGH)
+					this.runningWeight -= sac.weight;
+			}
+			
+			//	start waiting actions, highest priority lane first, and in order of arrival, stopping at first one that cannot start
+			for (int p = 0; p < this.waitingActions.length; p++)
+				while (this.waitingActions[p].size() != 0) {
+					ServiceAction wsa = ((ServiceAction) this.waitingActions[p].getFirst());
+					ServiceActionCoordinator wsac = ((ServiceActionCoordinator) serviceActionCoordinators.get(wsa.command));
+					if (!this.canStart(wsac, p))
+						return resumeActions;
+					this.waitingActions[p].removeFirst();
+					this.markRunning(wsa, wsac, p);
+					resumeActions.add(wsa);
+				}
+			return resumeActions;
+		}
+		synchronized String getStatus() {
+			return (this.runningActions.size() + " actions running" + ((this.maxRunningWeight < 1) ? "" : (" (weight " + this.runningWeight + " of " + this.maxRunningWeight + ")")) + ", waiting " + this.waitingActions[PRIORITY_HIGH].size() + " " + PRIORITY_NAMES[PRIORITY_HIGH] + ", " + this.waitingActions[PRIORITY_NORMAL].size() + " " + PRIORITY_NAMES[PRIORITY_NORMAL] + ", " + this.waitingActions[PRIORITY_LOW].size() + " " + PRIORITY_NAMES[PRIORITY_LOW] + " priority");
 		}
 	}
 	
-	private static LinkedList serviceThreadList = new LinkedList(); 
-	private static LinkedList serviceThreadQueue = new LinkedList();
-	private static int maxServiceThreadQueueSize = 128;
+	private static ServiceThreadPool serviceThreadPool = new ServiceThreadPool();
 	
-	private static ServiceThread getServiceThread() {
-		if (!isRunning())
+	/* Virtual threads only exist from Java 21 onward, so we have to go
+	 * through reflection for obtaining a factory for them, namely the one
+	 * from Thread.ofVirtual().name(prefix, start).factory() */
+	private static ThreadFactory getVirtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null, new Object[0]);
+			Class builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", new Class[] {String.class, long.class}).invoke(builder, new Object[] {"GgServerVirtualServiceThread-", new Long(1)});
+			ThreadFactory vtf = ((ThreadFactory) builderClass.getMethod("factory", new Class[0]).invoke(builder, new Object[0]));
+			
+			//	make sure virtual threads actually work (they might be a disabled preview feature)
+			Thread vt = vtf.newThread(new Runnable() {
+				public void run() {}
+			});
+			vt.start();
+			vt.join();
+			return vtf;
+		}
+		catch (Throwable t) {
+			System.out.println("Virtual threads not available: " + t.getClass().getName() + " (" + t.getMessage() + ")");
 			return null;
+		}
+	}
+	
+	/* Bounded pool of service threads: requests go to an idle thread if
+	 * there is one, to a new thread as long as the pool is below its maximum
+	 * size, and to a bounded backlog otherwise. If the backlog is full as
+	 * well, the request is rejected right away, which is way better than
+	 * spawning hundreds of threads under a load spike. With virtual threads,
+	 * the same limits apply to the number of concurrently running requests,
+	 * only without any idle threads kept around. */
+	private static class ServiceThreadPool {
+		int coreThreads = 8;
+		int maxThreads = 256;
+		int maxIdleThreads = 128;
+		int maxBacklog = 256;
+		boolean useVirtualThreads = false;
+		ThreadFactory virtualThreadFactory = null;
+		private int virtualThreads = 0;
+		private int maxVirtualThreadsUsed = 0;
+		
+		private LinkedList threads = new LinkedList();
+		private LinkedList idleThreads = new LinkedList();
+		private LinkedList backlog = new LinkedList();
+		private int threadNumber = 0;
+		private boolean shutdown = false;
+		
+		private long serviced = 0;
+		private long backlogged = 0;
+		private long backlogWait = 0;
+		private long rejected = 0;
+		private long finished = 0;
+		private int maxThreadsUsed = 0;
+		private int maxBacklogUsed = 0;
+		
+		synchronized void start() {
+			this.maxThreads = Math.max(this.maxThreads, 1);
+			if (this.useVirtualThreads)
+				this.virtualThreadFactory = getVirtualThreadFactory();
+			if (this.virtualThreadFactory != null)
+				return;
+			this.coreThreads = Math.min(Math.max(this.coreThreads, 0), this.maxThreads);
+			while (this.threads.size() < this.coreThreads)
+				this.idleThreads.addLast(this.createThread());
+		}
+		
+		private ServiceThread createThread() {
+			ServiceThread st = new ServiceThread(++this.threadNumber);
+			this.threads.add(st);
+			st.start();
+			this.maxThreadsUsed = Math.max(this.maxThreadsUsed, this.threads.size());
+			return st;
+		}
+		
+		synchronized boolean service(ServiceRequest request) {
+			if (this.shutdown)
+				return false;
+			
+			//	run request in virtual thread if configured that way and below limit
+			if (this.virtualThreadFactory != null) {
+				if (this.virtualThreads < this.maxThreads) {
+					this.virtualThreadFactory.newThread(new VirtualServiceRunner(request)).start();
+					this.virtualThreads++;
+					this.maxVirtualThreadsUsed = Math.max(this.maxVirtualThreadsUsed, this.virtualThreads);
+					this.serviced++;
+					return true;
+				}
+			}
+			
+			//	use idle thread if available
+			else if (this.idleThreads.size() != 0) {
+				((ServiceThread) this.idleThreads.removeFirst()).service(request);
+				this.serviced++;
+				return true;
+			}
+			
+			//	create new thread if below limit
+			else if (this.threads.size() < this.maxThreads) {
+				this.createThread().service(request);
+				this.serviced++;
+				return true;
+			}
+			
+			//	enqueue request if backlog not full
+			if (this.backlog.size() < this.maxBacklog) {
+				request.backlogged = System.currentTimeMillis();
+				this.backlog.addLast(request);
+				this.backlogged++;
+				this.maxBacklogUsed = Math.max(this.maxBacklogUsed, this.backlog.size());
+				return true;
+			}
+			
+			//	reject request
+			this.rejected++;
+			return false;
+		}
 		
-		synchronized (serviceThreadQueue) {
-			if (serviceThreadQueue.isEmpty()) {
-				ServiceThread st = new ServiceThread();
-				st.start();
-				return st;
+		synchronized boolean serviceFinished(ServiceThread st) {
+			this.finished++;
+			
+			//	hand out next request from backlog
+			if (this.backlog.size() != 0) {
+				ServiceRequest request = ((ServiceRequest) this.backlog.removeFirst());
+				this.backlogWait += (System.currentTimeMillis() - request.backlogged);
+				this.serviced++;
+				st.service(request);
+				return true;
+			}
+			
+			//	go idle if below idle limit, or if we're a core thread
+			if (!this.shutdown && ((this.idleThreads.size() < this.maxIdleThreads) || (this.threads.size() <= this.coreThreads))) {
+				this.idleThreads.addLast(st);
+				return true;
 			}
-			else return ((ServiceThread) serviceThreadQueue.removeFirst());
+			
+			//	retire otherwise
+			this.threads.remove(st);
+			return false;
+		}
+		
+		synchronized ServiceRequest virtualServiceFinished() {
+			this.finished++;
+			
+			//	hand out next request from backlog
+			if (this.backlog.size() != 0) {
+				ServiceRequest request = ((ServiceRequest) this.backlog.removeFirst());
+				this.backlogWait += (System.currentTimeMillis() - request.backlogged);
+				this.serviced++;
+				return request;
+			}
+			
+			//	end virtual thread otherwise
+			this.virtualThreads--;
+			if (this.shutdown)
+				this.notifyAll();
+			return null;
+		}
+		
+		void shutdown() {
+			ServiceRequest[] backlog;
+			synchronized (this) {
+				this.shutdown = true;
+				backlog = ((ServiceRequest[]) this.backlog.toArray(new ServiceRequest[this.backlog.size()]));
+				this.backlog.clear();
+				while (this.idleThreads.size() != 0) {
+					ServiceThread st = ((ServiceThread) this.idleThreads.removeFirst());
+					this.threads.remove(st);
+					st.shutdown();
+				}
+			}
+			
+			//	close connections of any pending requests
+			for (int r = 0; r < backlog.length; r++) try {
+				backlog[r].reject("Cannot process request, server is stopped");
+			} catch (IOException ioe) {}
+			
+			//	wait for requests running in virtual threads to finish
+			synchronized (this) {
+				while (this.virtualThreads > 0) try {
+					this.wait(25);
+				} catch (InterruptedException ie) {}
+			}
+			
+			//	wait for busy threads to finish their current requests
+			while (true) {
+				ServiceThread[] threads;
+				synchronized (this) {
+					threads = ((ServiceThread[]) this.threads.toArray(new ServiceThread[this.threads.size()]));
+				}
+				if (threads.length == 0)
+					break;
+				boolean inService = false;
+				for (int t = 0; t < threads.length; t++) {
+					if (threads[t].isInService())
+						inService = true;
+					else synchronized (this) {
+						this.threads.remove(threads[t]);
+						threads[t].shutdown();
+					}
+				}
+				if (inService) try { // wait for a little to avoid overload when only servicing threads remain
+					Thread.sleep(25);
+				} catch (InterruptedException ie) {}
+			}
+		}
+		
+		synchronized String[] getStats() {
+			if (this.virtualThreadFactory != null) {
+				String[] stats = {
+					(this.virtualThreads + " requests running in virtual threads"),
+					(this.backlog.size() + " requests in backlog"),
+					("pool limits: " + this.maxThreads + " virtual threads max, " + this.maxBacklog + " backlog requests max"),
+					("peak usage: " + this.maxVirtualThreadsUsed + " virtual threads, " + this.maxBacklogUsed + " requests in backlog"),
+					(this.serviced + " requests serviced, " + this.finished + " finished, " + this.rejected + " rejected as server busy"),
+					(this.backlogged + " requests backlogged" + ((this.backlogged == 0) ? "" : (", for " + (this.backlogWait / this.backlogged) + "ms on average"))),
+				};
+				return stats;
+			}
+			String[] stats = {
+				(this.threads.size() + " service threads overall"),
+				(this.idleThreads.size() + " service threads idle"),
+				((this.threads.size() - this.idleThreads.size()) + " service threads active"),
+				(this.backlog.size() + " requests in backlog"),
+				("pool limits: " + this.coreThreads + " core threads, " + this.maxThreads + " threads max, " + this.maxIdleThreads + " idle threads max, " + this.maxBacklog + " backlog requests max"),
+				("peak usage: " + this.maxThreadsUsed + " service threads, " + this.maxBacklogUsed + " requests in backlog"),
+				(this.serviced + " requests serviced, " + this.finished + " finished, " + this.rejected + " rejected as server busy"),
+				(this.backlogged + " requests backlogged" + ((this.backlogged == 0) ? "" : (", for " + (this.backlogWait / this.backlogged) + "ms on average"))),
+			};
+			return stats;
 		}
 	}
 	
@@ -1257,8 +2249,30 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 			if (threadName.equals(threads[t].getName()))
 				return threads[t];
 		}
+		
+		//	virtual threads don't show in thread groups, check active actions
+		synchronized (activeServiceActions) {
+			for (Iterator sait = activeServiceActions.iterator(); sait.hasNext();) {
+				ServiceAction sa = ((ServiceAction) sait.next());
+				if (threadName.equals(sa.threadName))
+					return sa.thread;
+			}
+		}
 		return null;
 	}
+	static ServiceAction findServiceAction(Thread thread) {
+		synchronized (activeServiceActions) {
+			for (Iterator sait = activeServiceActions.iterator(); sait.hasNext();) {
+				ServiceAction sa = ((ServiceAction) sait.next());
+				if (sa.thread == thread)
+					return sa;
+			}
+		}
+		return null;
+	}
+	static boolean isVirtualThread(Thread thread) {
+		return ((serviceThreadPool.virtualThreadFactory != null) && thread.getName().startsWith("GgServerVirtualServiceThread-"));
+	}
 	
 	private static ComponentActionConsole[] getLocalConsoleActions() {
 		rootThreadGroup = Thread.currentThread().getThreadGroup(); // construction is called from main method ... doesn't get any more root than that
@@ -1352,8 +2366,11 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
-				if (arguments.length == 0)
-					this.reportResult("There are currently " + serviceThreadList.size() + " service threads, " + serviceThreadQueue.size() + " of them idle");
+				if (arguments.length == 0) {
+					String[] stats = serviceThreadPool.getStats();
+					for (int s = 0; s < stats.length; s++)
+						this.reportResult(stats[s]);
+				}
 				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 			}
 		};
@@ -1388,8 +2405,9 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the detail and trace flags.");
 			}
 			private void listActions(boolean details, boolean trace) {
+				String schedulerStatus = serviceActionScheduler.getStatus(); // need to get this before locking actions, as scheduler locks actions
 				synchronized (activeServiceActions) {
-					this.reportResult("There are currently " + activeServiceActions.size() + " active actions:");
+					this.reportResult("There are currently " + activeServiceActions.size() + " active actions, " + schedulerStatus + ":");
 					for (Iterator sait = activeServiceActions.iterator(); sait.hasNext();) {
 						ServiceAction sa = ((ServiceAction) sait.next());
 						this.reportResult(sa.toString(" - "));
@@ -1547,6 +2565,21 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 							this.reportError("Thread '" + arguments[0] + "' is not started, cannot kill it");
 						else if (ts == Thread.State.TERMINATED)
 							this.reportError("Thread '" + arguments[0] + "' is terminated, no use killing it");
+						
+						//	virtual threads cannot be stopped, only cancel their request
+						else if (isVirtualThread(thread)) {
+							ServiceAction sa = findServiceAction(thread);
+							if (sa == null)
+								this.reportError("Virtual thread '" + arguments[0] + "' is not executing any action, cannot kill it");
+							else try {
+								sa.request.cancel();
+								this.reportResult("Request handled by virtual thread '" + thread.getName() + "' canceled");
+							}
+							catch (Exception e) {
+								this.reportError("Error canceling request handled by thread '" + thread.getName() + "': " + e.getMessage());
+								this.reportError(e);
+							}
+						}
 						else {
 							if (thread instanceof ServiceThread) try {
 								((ServiceThread) thread).cancelRequest();
@@ -1971,10 +3004,11 @@ public class GoldenGateServer implements GoldenGateServerConstants, GoldenGateSe
 			void doPerformActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
 				output.write(this.getActionCommand());
 				output.newLine();
-				output.write(serviceThreadList.size() + " service threads overall");
-				output.newLine();
-				output.write(serviceThreadQueue.size() + " service threads idle");
-				output.newLine();
+				String[] stats = serviceThreadPool.getStats();
+				for (int s = 0; s < stats.length; s++) {
+					output.write(stats[s]);
+					output.newLine();
+				}
 			}
 		};
 		cal.add(ca);
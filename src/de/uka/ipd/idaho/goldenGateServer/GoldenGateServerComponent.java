@@ -148,7 +148,10 @@ public interface GoldenGateServerComponent extends GoldenGateServerConstants {
 		 * default implementation wraps the argument streams in writers and
 		 * loops them through to the writer based method, which is good for
 		 * handling character based data. Sub classes handling binary data are
-		 * welcome to overwrite this method, though.
+		 * welcome to overwrite this method, though. Sub classes sending data
+		 * stored in files should use the <code>writeFile()</code> method of
+		 * the output stream, which transfers the file data directly to the
+		 * network socket where possible.
 		 * @param	input	the stream to retrieve input from
 		 * @param	output	the stream to write output to
 		 * @throws IOException
@@ -61,6 +61,15 @@ public interface GoldenGateServerComponentHost extends GoldenGateServerActivityL
 	 */
 	public abstract boolean isClientRequest();
 	
+	/**
+	 * Retrieve the context of the current request, holding any headers the
+	 * client sent along with the action command, e.g. a request ID or a
+	 * deadline. This property is based on the executing service thread.
+	 * @return the context of the current request, or null, if there is no
+	 *            current client request
+	 */
+	public abstract GoldenGateServerRequestContext getRequestContext();
+	
 	/**
 	 * Retrieve a global property of the GoldenGATE server environment. There is
 	 * no guarantee that these properties are not changed through respective
@@ -52,6 +52,15 @@ public interface GoldenGateServerConstants {
 	/** The name of the sub folder to the root path where server components will be searched for in jar files */
 	public static final String COMPONENT_FOLDER_NAME = "Components";
 	
+	/** The marker line opening a persistent connection, over which clients can send multiple requests in chunked form, one after another */
+	public static final String KEEP_ALIVE_MARKER = "KEEP_ALIVE";
+	
+	/** The end marker extension of a chunked response indicating that the server will close the persistent connection after that response */
+	public static final String KEEP_ALIVE_CLOSE = "close";
+	
+	/** The prefix of the end marker extension of a chunked response announcing the time (in milliseconds) after which the server closes the idle persistent connection */
+	public static final String KEEP_ALIVE_TIMEOUT_PREFIX = "timeout=";
+	
 	/**
 	 * Generic super class of all events that occur inside GoldenGATE Server.
 	 * 
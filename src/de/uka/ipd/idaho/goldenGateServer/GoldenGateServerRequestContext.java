@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context of a network request, holding the headers sent by the client along
+ * with the action command. Clients append headers to the action command in
+ * the form '&lt;name&gt;value', e.g. 'PING&lt;requestId&gt;1234&lt;timeout&gt;5000'.
+ * Header names must not contain a '&gt;', and header values must not contain
+ * a '&lt;'. The request context of a request currently being handled is
+ * available from the component host.
+ *
+ * @author sautter
+ */
+public class GoldenGateServerRequestContext implements GoldenGateServerConstants {
+	
+	/** the header holding a client assigned request ID, e.g. for matching up client and server side logs */
+	public static final String REQUEST_ID_HEADER = "requestId";
+	
+	/** the header holding the absolute point in time (in milliseconds since 1970) after which the client will no longer wait for the response */
+	public static final String DEADLINE_HEADER = "deadline";
+	
+	/** the header holding the time (in milliseconds since the request was received) after which the client will no longer wait for the response */
+	public static final String TIMEOUT_HEADER = "timeout";
+	
+	/** the header holding the compression methods the client accepts, separated by commas */
+	public static final String COMPRESSION_HEADER = "compression";
+	
+	/** the header holding the priority the client asks for ('high', 'normal', or 'low') */
+	public static final String PRIORITY_HEADER = "priority";
+	
+	private final String command;
+	private final Map headers;
+	private final long received;
+	private final long deadline;
+	
+	private GoldenGateServerRequestContext(String command, Map headers, long received) {
+		this.command = command;
+		this.headers = headers;
+		this.received = received;
+		
+		//	compute deadline, using the earlier one if both absolute and relative limit given
+		long deadline = -1;
+		try {
+			String deadlineStr = this.getHeader(DEADLINE_HEADER);
+			if (deadlineStr != null)
+				deadline = Long.parseLong(deadlineStr.trim());
+		} catch (NumberFormatException nfe) {}
+		try {
+			String timeoutStr = this.getHeader(TIMEOUT_HEADER);
+			if (timeoutStr != null) {
+				long timeoutDeadline = (received + Long.parseLong(timeoutStr.trim()));
+				if ((deadline == -1) || (timeoutDeadline < deadline))
+					deadline = timeoutDeadline;
+			}
+		} catch (NumberFormatException nfe) {}
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Retrieve the action command the request goes to, without any headers.
+	 * @return the action command
+	 */
+	public String getCommand() {
+		return this.command;
+	}
+	
+	/**
+	 * Retrieve the value of a request header.
+	 * @param name the name of the header
+	 * @return the value of the header with the argument name, or null, if
+	 *            the client did not send this header
+	 */
+	public String getHeader(String name) {
+		return ((String) this.headers.get(name));
+	}
+	
+	/**
+	 * Retrieve the names of all headers the client sent with the request.
+	 * @return a set holding the header names
+	 */
+	public Set getHeaderNames() {
+		return Collections.unmodifiableSet(this.headers.keySet());
+	}
+	
+	/**
+	 * Retrieve the client assigned ID of the request, if any.
+	 * @return the request ID
+	 */
+	public String getRequestId() {
+		return this.getHeader(REQUEST_ID_HEADER);
+	}
+	
+	/**
+	 * Retrieve the point in time the request was received.
+	 * @return the time the request was received
+	 */
+	public long getReceived() {
+		return this.received;
+	}
+	
+	/**
+	 * Retrieve the point in time after which the client will no longer wait
+	 * for the response to the request.
+	 * @return the deadline of the request, or -1 if there is none
+	 */
+	public long getDeadline() {
+		return this.deadline;
+	}
+	
+	/**
+	 * Retrieve the time left until the deadline of the request. If the
+	 * request has no deadline, this method returns Long.MAX_VALUE.
+	 * @return the time left until the deadline of the request
+	 */
+	public long getRemainingTime() {
+		return ((this.deadline == -1) ? Long.MAX_VALUE : (this.deadline - System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Check whether or not the deadline of the request has passed, i.e.,
+	 * whether or not the client is still waiting for the response. Long
+	 * running actions can use this method to stop work early.
+	 * @return true if the request has a deadline and the latter has passed
+	 */
+	public boolean isExpired() {
+		return ((this.deadline != -1) && (this.deadline < System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Check whether or not the client accepts some compression method.
+	 * @param method the name of the compression method
+	 * @return true if the client accepts the argument compression method
+	 */
+	public boolean acceptsCompression(String method) {
+		String compression = this.getHeader(COMPRESSION_HEADER);
+		if (compression == null)
+			return false;
+		String[] methods = compression.split("\\s*\\,\\s*");
+		for (int m = 0; m < methods.length; m++) {
+			if (methods[m].trim().equalsIgnoreCase(method))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Retrieve the priority the client asks for.
+	 * @return the requested priority, or null, if the client did not ask for
+	 *            any specific priority
+	 */
+	public String getPriority() {
+		return this.getHeader(PRIORITY_HEADER);
+	}
+	
+	/**
+	 * Parse a raw action command as received from a client into the actual
+	 * action command and any headers appended to it.
+	 * @param rawCommand the command line as received from the client
+	 * @param received the time the request was received
+	 * @return the request context
+	 */
+	public static GoldenGateServerRequestContext parse(String rawCommand, long received) {
+		if (rawCommand == null)
+			return new GoldenGateServerRequestContext(null, Collections.EMPTY_MAP, received);
+		int headerStart = rawCommand.indexOf('<');
+		if (headerStart == -1)
+			return new GoldenGateServerRequestContext(rawCommand, Collections.EMPTY_MAP, received);
+		
+		//	split headers off command, starting at first '<'
+		String command = rawCommand.substring(0, headerStart);
+		Map headers = new LinkedHashMap();
+		for (int h = headerStart; h < rawCommand.length();) {
+			int nameEnd = rawCommand.indexOf('>', (h + 1));
+			if (nameEnd == -1)
+				break; // malformed header, ignore rest
+			int valueEnd = rawCommand.indexOf('<', (nameEnd + 1));
+			if (valueEnd == -1)
+				valueEnd = rawCommand.length();
+			String name = rawCommand.substring((h + 1), nameEnd).trim();
+			if (name.length() != 0)
+				headers.put(name, rawCommand.substring((nameEnd + 1), valueEnd));
+			h = valueEnd;
+		}
+		return new GoldenGateServerRequestContext(command, headers, received);
+	}
+	
+	/**
+	 * Append headers to an action command in the form expected by the parse()
+	 * method. Header names containing a '&gt;' or values containing a '&lt;'
+	 * or a line break are ignored.
+	 * @param command the action command
+	 * @param headers a map holding the headers to append
+	 * @return the action command with the headers appended
+	 */
+	public static String appendHeaders(String command, Map headers) {
+		if ((headers == null) || headers.isEmpty())
+			return command;
+		StringBuffer commandWithHeaders = new StringBuffer(command);
+		for (Iterator hit = headers.keySet().iterator(); hit.hasNext();) {
+			String name = ((String) hit.next());
+			String value = ((String) headers.get(name));
+			if ((name.indexOf('>') != -1) || (name.indexOf('<') != -1))
+				continue;
+			if ((value == null) || (value.indexOf('<') != -1) || (value.indexOf('\n') != -1) || (value.indexOf('\r') != -1))
+				continue;
+			commandWithHeaders.append('<');
+			commandWithHeaders.append(name);
+			commandWithHeaders.append('>');
+			commandWithHeaders.append(value);
+		}
+		return commandWithHeaders.toString();
+	}
+}
@@ -51,6 +51,8 @@ import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActi
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActionNetwork;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.CompressingOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.DecompressingInputStream;
 
 /**
  * A servlet for exposing a GoldenGateServerComponent via HTTP from inside a
@@ -70,12 +72,15 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 	private GoldenGateServerComponent[] serverComponents;
 	private HashMap serverComponentActions = new HashMap();
 	private HashSet clientRequestThreadIDs = new HashSet();
+	private ThreadLocal requestContexts = new ThreadLocal();
 	
 	private Settings ioProviderSettings = new Settings();
 	private Settings environmentSettings = new Settings();
 	
 	private int logLevel = GoldenGateServerActivityLogger.LOG_LEVEL_WARNING;
 	
+	private int compressionThreshold = 4096; // replies smaller than this go out uncompressed
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponentHost#getIoProvider()
 	 */
@@ -106,6 +111,13 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponentHost#getRequestContext()
+	 */
+	public GoldenGateServerRequestContext getRequestContext() {
+		return ((GoldenGateServerRequestContext) this.requestContexts.get());
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponentHost#getServerComponent(java.lang.String)
 	 */
@@ -222,6 +234,11 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 		//	get environment settings
 		this.environmentSettings = settings.getSubset("ENV");
 		
+		//	get compression threshold
+		try {
+			this.compressionThreshold = Integer.parseInt(settings.getSetting("compressionThreshold", ("" + this.compressionThreshold)));
+		} catch (NumberFormatException nfe) {}
+		
 		//	load server components
 		GoldenGateServerComponent[] loadedServerComponents = GoldenGateServerComponentLoader.loadServerComponents(new File(rootPath, COMPONENT_FOLDER_NAME), null);
 		
@@ -317,6 +334,7 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 		BufferedLineOutputStream responseWriter = new BufferedLineOutputStream(response.getOutputStream(), ENCODING);
 		
 		//	read command
+		long received = System.currentTimeMillis();
 		String command = requestReader.readLine();
 		this.writeLogEntry("Command is " + command);
 		
@@ -326,6 +344,16 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 			this.writeLogEntry("Command is " + command);
 		}
 		
+		//	split headers off action command
+		GoldenGateServerRequestContext context = GoldenGateServerRequestContext.parse(command, received);
+		command = context.getCommand();
+		
+		//	client sends and accepts compressed data
+		if (context.acceptsCompression(CompressingOutputStream.COMPRESSION_GZIP)) {
+			requestReader = new BufferedLineInputStream(new DecompressingInputStream(requestReader), ENCODING);
+			responseWriter = new BufferedLineOutputStream(new CompressingOutputStream(responseWriter, this.compressionThreshold), ENCODING);
+		}
+		
 		//	get action
 		ComponentActionNetwork action = ((ComponentActionNetwork) this.serverComponentActions.get(command));
 		
@@ -337,9 +365,20 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 			return;
 		}
 		
+		//	client gave up waiting already
+		else if (context.isExpired()) {
+			responseWriter.write("Request to '" + command + "' dropped, deadline expired");
+			responseWriter.newLine();
+			responseWriter.flush();
+			requestReader.close();
+			responseWriter.close();
+			return;
+		}
+		
 		//	process request
 		else {
 			this.setClientRequest();
+			this.requestContexts.set(context);
 			try {
 				action.performActionNetwork(requestReader, responseWriter);
 			}
@@ -347,8 +386,13 @@ public class GoldenGateServerServlet extends HttpServlet implements GoldenGateSe
 				writeLogEntry("Error handling request - " + ioe.getMessage());
 			}
 			finally {
+				this.requestContexts.remove();
 				this.clearClientRequest();
 			}
+			
+			//	send response (also completes compressed data, if any)
+			responseWriter.flush();
+			responseWriter.close();
 		}
 	}
 	
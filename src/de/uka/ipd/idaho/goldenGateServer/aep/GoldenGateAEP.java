@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
@@ -46,6 +47,7 @@ import de.uka.ipd.idaho.easyIO.SqlQueryResult;
 import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
 import de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.AsynchronousWorkQueue;
+import de.uka.ipd.idaho.goldenGateServer.util.BackgroundWorkThrottle;
 
 /**
  * GoldenGATE Server Asynchronous Event Processor (AEP) is a convenience super
@@ -256,6 +258,87 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 		//	add indexes
 		this.io.indexColumn(EVENT_TABLE_NAME, DATA_ID_COLUMN_NAME);
 		this.io.indexColumn(EVENT_TABLE_NAME, DATA_ID_HASH_COLUMN_NAME);
+		
+		//	configure throughput control
+		try {
+			this.throttle.setRateLimit(Double.parseDouble(this.configuration.getSetting("eventRateLimit", "0")), Integer.parseInt(this.configuration.getSetting("eventRateBurst", "1")));
+		}
+		catch (NumberFormatException nfe) {
+			System.out.println(this.getEventProcessorName() + ": invalid event rate limit - " + nfe.getMessage());
+		}
+		this.throttle.setAdaptive("true".equals(this.configuration.getSetting("adaptiveThrottling", "false")));
+		
+		//	configure event batching
+		try {
+			this.setEventBatchSize(Integer.parseInt(this.configuration.getSetting("eventBatchSize", ("" + this.eventBatchSize))));
+			this.setEventBatchLingerTime(Integer.parseInt(this.configuration.getSetting("eventBatchLinger", ("" + this.eventBatchLingerTime))));
+		}
+		catch (NumberFormatException nfe) {
+			System.out.println(this.getEventProcessorName() + ": invalid event batch size or linger time - " + nfe.getMessage());
+		}
+	}
+	
+	private int eventBatchSize = 1;
+	private int eventBatchLingerTime = 0;
+	
+	/**
+	 * Set the maximum number of events to hand to <code>doUpdateBatch()</code>
+	 * or <code>doDeleteBatch()</code> in a single call. A batch size of 1,
+	 * the default, deactivates batching, and events are handed to
+	 * <code>doUpdate()</code> or <code>doDelete()</code> one by one. The
+	 * batch size is initialized from the configuration setting
+	 * 'eventBatchSize', with the value set in the constructor of a sub class
+	 * serving as the default.
+	 * @param eventBatchSize the maximum number of events per batch
+	 */
+	protected void setEventBatchSize(int eventBatchSize) {
+		this.eventBatchSize = Math.max(eventBatchSize, 1);
+	}
+	
+	/**
+	 * Retrieve the maximum number of events to process in a single batch.
+	 * @return the event batch size
+	 */
+	protected int getEventBatchSize() {
+		return this.eventBatchSize;
+	}
+	
+	/**
+	 * Set the time to wait for further events to come in if fewer events than
+	 * the batch size are pending when processing a batch starts. A linger
+	 * time of 0, the default, hands over whatever is pending right away. The
+	 * linger time does not apply in flushing mode. The linger time is
+	 * initialized from the configuration setting 'eventBatchLinger', with the
+	 * value set in the constructor of a sub class serving as the default.
+	 * @param eventBatchLingerTime the linger time (in milliseconds)
+	 */
+	protected void setEventBatchLingerTime(int eventBatchLingerTime) {
+		this.eventBatchLingerTime = Math.max(eventBatchLingerTime, 0);
+	}
+	
+	/**
+	 * Retrieve the time to wait for further events to come in when
+	 * processing a batch of events.
+	 * @return the linger time (in milliseconds)
+	 */
+	protected int getEventBatchLingerTime() {
+		return this.eventBatchLingerTime;
+	}
+	
+	private final BackgroundWorkThrottle throttle = new BackgroundWorkThrottle();
+	
+	/**
+	 * Retrieve the throttle controlling the throughput of event processing.
+	 * Via the throttle, sub classes can set a rate limit for processing
+	 * events, and have the pauses between events as well as the rate limit
+	 * adapt to the load of the surrounding server. Neither applies in
+	 * flushing mode. The throttle is initialized from the configuration
+	 * settings 'eventRateLimit' (events per second, 0 for no limit, the
+	 * default), 'eventRateBurst', and 'adaptiveThrottling'.
+	 * @return the throttle
+	 */
+	protected BackgroundWorkThrottle getThrottle() {
+		return this.throttle;
 	}
 	
 	/**
@@ -337,6 +420,7 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 		//	shut down event handle
 		if (this.eventQueueMonitor != null)
 			this.eventQueueMonitor.dispose();
+		this.throttle.close();
 		if (this.eventHandler != null)
 			this.eventHandler.shutdown();
 		System.out.println(this.getEventProcessorName() + ": event handler shut down");
@@ -356,6 +440,7 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 	private static final String ENQUEUE_DELETION_COMMAND = "enqueueDelete";
 	private static final String DUMP_STACK_COMMAND = "dumpStack";
 	private static final String PERSIST_QUEUE_COMMAND = "persistQueue";
+	private static final String THROTTLE_COMMAND = "throttle";
 	
 	//	TODO make commands public
 	
@@ -613,6 +698,43 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 		};
 		cal.add(ca);
 		
+		//	adjust throughput control
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return THROTTLE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						THROTTLE_COMMAND + " <rate> <burst>",
+						"Show or set the throughput control for event processing:",
+						"- <rate>: the maximum number of events per second, 0 for no limit, or 'adaptive' or 'fixed' to switch adapting to server load on or off (optional, omit to show current status)",
+						"- <burst>: the maximum number of events to process in immediate succession (optional, defaults to 1)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0)
+					this.reportResult(" Throughput control: " + throttle.getStatus());
+				else if (arguments.length > 2)
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the rate limit and burst size.");
+				else if ("adaptive".equals(arguments[0]) || "fixed".equals(arguments[0])) {
+					if (arguments.length == 1) {
+						throttle.setAdaptive("adaptive".equals(arguments[0]));
+						this.reportResult(" Throughput control set to " + arguments[0] + ".");
+					}
+					else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify only '" + arguments[0] + "'.");
+				}
+				else try {
+					throttle.setRateLimit(Double.parseDouble(arguments[0]), ((arguments.length == 1) ? 1 : Integer.parseInt(arguments[1])));
+					this.reportResult(" Throughput control set to " + throttle.getStatus() + ".");
+				}
+				catch (NumberFormatException nfe) {
+					this.reportError(" Invalid rate limit or burst size '" + arguments[0] + ((arguments.length == 1) ? "" : (" " + arguments[1])) + "'.");
+				}
+			}
+		};
+		cal.add(ca);
+		
 		//	offer function dumpStack printing stack trace of event processor (to help investigating hang-ups)
 		ca = new ComponentActionConsole() {
 			public String getActionCommand() {
@@ -1195,6 +1317,7 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 				
 				//	get next event, or wait until next event available
 				DataEvent de = null;
+				ArrayList des = null;
 				ArrayList pes = null;
 				synchronized (eventQueue) {
 					if (eventQueue.size() == 0) try {
@@ -1204,6 +1327,8 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 						if (this.active) /* only persist events in passive mode */ {
 							de = eventQueue.dequeue();
 							de.status = DataEvent.STATUS_PROCESING;
+							if (eventBatchSize > 1)
+								des = this.dequeueEventBatch(de);
 						}
 						pes = eventQueue.getPersistEvents();
 					}
@@ -1225,8 +1350,14 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 					this.eventEnd = System.currentTimeMillis();
 				}
 				
+				//	got batch of events to process
+				else if (des != null)
+					eventProcessingTime = this.processEventBatch(des);
+				
 				//	got event to process
 				else {
+					if (!this.flushing)
+						throttle.acquire();
 					long eventProcessingStart = System.currentTimeMillis();
 					logInfo(getEventProcessorName() + ": got " + (de.isDeletion() ? "delete" : "update") + " event for object '" + de.dataId + "'");
 					this.eventPriority = de.priority;
@@ -1291,6 +1422,7 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 						(50 * instanceCount) + // a little extra for every instance
 						((eventProcessingTime * (100 - externalWaitPercentage)) / 100) + // the time we just occupied the CPU or other resources
 						0);
+				sleepTime = throttle.adjustPause(sleepTime);
 				logInfo(getEventProcessorName() + ": sleeping for " + sleepTime + "ms");
 				this.sleepStart = this.eventEnd;
 				this.sleepEnd = (this.sleepStart + sleepTime);
@@ -1310,6 +1442,127 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 			}
 		}
 		
+		private ArrayList dequeueEventBatch(DataEvent de) {
+			ArrayList des = new ArrayList(eventBatchSize);
+			des.add(de);
+			
+			//	collect further events, waiting for them to come in for linger time unless flushing (called while holding event queue monitor)
+			long lingerEnd = (this.flushing ? 0 : (System.currentTimeMillis() + eventBatchLingerTime));
+			while (this.running && (des.size() < eventBatchSize)) {
+				if (eventQueue.size() == 0) {
+					long linger = (lingerEnd - System.currentTimeMillis());
+					if (linger <= 0)
+						break;
+					try {
+						eventQueue.wait(linger);
+					}
+					catch (InterruptedException ie) {
+						break;
+					}
+					continue;
+				}
+				DataEvent bde = eventQueue.dequeue();
+				bde.status = DataEvent.STATUS_PROCESING;
+				des.add(bde);
+			}
+			return des;
+		}
+		
+		private long processEventBatch(ArrayList des) {
+			
+			//	wait for rate limit for every event in batch
+			if (!this.flushing)
+				for (int e = 0; e < des.size(); e++) {
+					throttle.acquire();
+				}
+			
+			long eventProcessingStart = System.currentTimeMillis();
+			logInfo(getEventProcessorName() + ": got batch of " + des.size() + " events");
+			char eventPriority = ((char) 0);
+			for (int e = 0; e < des.size(); e++)
+				eventPriority = ((char) Math.max(eventPriority, ((DataEvent) des.get(e)).priority));
+			this.eventPriority = eventPriority;
+			this.eventStart = eventProcessingStart;
+			this.eventEnd = -1;
+			try {
+				
+				//	hand over events in runs of same type, starting new run on repeated data ID to keep order of events per data object
+				int runStart = 0;
+				HashSet runDataIds = new HashSet();
+				for (int e = 0; e < des.size(); e++) {
+					DataEvent de = ((DataEvent) des.get(e));
+					if ((runStart < e) && ((de.isDeletion() != ((DataEvent) des.get(runStart)).isDeletion()) || runDataIds.contains(de.dataId))) {
+						processEventRun(des.subList(runStart, e));
+						runStart = e;
+						runDataIds.clear();
+					}
+					runDataIds.add(de.dataId);
+				}
+				processEventRun(des.subList(runStart, des.size()));
+			}
+			finally {
+				long eventProcessingEnd = System.currentTimeMillis();
+				long eventProcessingTime = (eventProcessingEnd - eventProcessingStart);
+				logInfo("  - batch of " + des.size() + " events processed in " + eventProcessingTime + "ms");
+				
+				//	clean up events after processing (if persisted)
+				ArrayList ces = new ArrayList(des.size());
+				for (int e = 0; e < des.size(); e++) {
+					DataEvent de = ((DataEvent) des.get(e));
+					de.status = DataEvent.STATUS_DONE;
+					if (de.persistStatus == DataEvent.PERSIST_STATUS_PERSISTED)
+						ces.add(de);
+				}
+				cleanupPersistedEvents(ces);
+				
+				//	clear thread local event priority
+				this.eventPriority = ((char) 0);
+				this.eventStart = -1;
+				this.eventEnd = eventProcessingEnd;
+			}
+			return (this.eventEnd - eventProcessingStart);
+		}
+		
+		private void processEventRun(List des) {
+			if (des.isEmpty())
+				return;
+			boolean deletion = ((DataEvent) des.get(0)).isDeletion();
+			String[] dataIds = new String[des.size()];
+			String[] users = new String[des.size()];
+			Properties[] dataAttributes = new Properties[des.size()];
+			long[] params = new long[des.size()];
+			try {
+				for (int e = 0; e < des.size(); e++) {
+					DataEvent de = ((DataEvent) des.get(e));
+					
+					//	load data attributes if not done before
+					if (de.dataAttributes.getDefaults() == null)
+						de.dataAttributes.setDefaults(loadDataAttributes(de.dataId));
+					if (de.isCreation())
+						de.dataAttributes.setProperty(IS_NEW_OBJECT_ATTRIBUTE, "true");
+					dataIds[e] = de.dataId;
+					users[e] = de.user;
+					dataAttributes[e] = de.dataAttributes;
+					params[e] = de.params;
+				}
+				
+				//	deletions
+				if (deletion)
+					doDeleteBatch(dataIds, users, dataAttributes, params);
+				
+				//	updates
+				else doUpdateBatch(dataIds, users, dataAttributes, params);
+			}
+			catch (Exception e) {
+				logError(getEventProcessorName() + ": Error handling batch of " + des.size() + " " + (deletion ? "delete" : "update") + " events for objects " + Arrays.asList(dataIds) + " - " + e.getMessage());
+				logError(e);
+			}
+			catch (Throwable t) {
+				logError(getEventProcessorName() + ": Error handling batch of " + des.size() + " " + (deletion ? "delete" : "update") + " events for objects " + Arrays.asList(dataIds) + " - " + t.getMessage());
+				logError(t);
+			}
+		}
+		
 		private void checkPause() {
 			if (!aepPause)
 				return;
@@ -1498,6 +1751,38 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 		}
 	}
 	
+	private void cleanupPersistedEvents(ArrayList des) {
+		if (des.size() == 0)
+			return;
+		if (des.size() == 1) {
+			this.cleanupPersistedEvent((DataEvent) des.get(0));
+			return;
+		}
+		
+		//	delete records in chunks, matching each one exactly (timestamps might coincide across data objects)
+		for (int c = 0; c < des.size(); c += CLEANUP_BATCH_SIZE) {
+			StringBuffer deleteQuery = new StringBuffer("DELETE FROM " + EVENT_TABLE_NAME + " WHERE");
+			for (int e = c; e < Math.min(des.size(), (c + CLEANUP_BATCH_SIZE)); e++) {
+				DataEvent de = ((DataEvent) des.get(e));
+				if (e != c)
+					deleteQuery.append(" OR");
+				deleteQuery.append(" (" + DATA_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(de.dataId) + "'");
+				deleteQuery.append(" AND " + DATA_ID_HASH_COLUMN_NAME + " = " + de.dataId.hashCode());
+				deleteQuery.append(" AND " + TIMESTAMP_COLUMN_NAME + " = " + de.timestamp + ")");
+			}
+			deleteQuery.append(";");
+			try {
+				this.io.executeUpdateQuery(deleteQuery.toString());
+			}
+			catch (SQLException sqle) {
+				this.logError(getEventProcessorName() + ": " + sqle.getMessage() + " while deleting batch of events after processing.");
+				this.logError("  query was " + deleteQuery.toString());
+			}
+		}
+	}
+	
+	private static final int CLEANUP_BATCH_SIZE = 64;
+	
 	/**
 	 * Aggregate to bit vectors of implementation specific event parameters for
 	 * event aggregation. This default implementation returns the bit-wise OR
@@ -1543,4 +1828,58 @@ public abstract class GoldenGateAEP extends AbstractGoldenGateServerComponent {
 	 * @throws Exception
 	 */
 	protected abstract void doDelete(String dataId, String user, Properties dataAttributes, long params) throws Exception;
+	
+	/**
+	 * Write a batch of updates to the underlying export destination. This
+	 * method is called instead of <code>doUpdate()</code> if the event batch
+	 * size is greater than 1. The argument arrays are of the same length, and
+	 * the entries at the same index belong to the same update event, with the
+	 * same semantics as the arguments to <code>doUpdate()</code>. The data IDs
+	 * are distinct. This default implementation loops through the batch and
+	 * calls <code>doUpdate()</code> for each update individually, logging any
+	 * errors. Sub classes that can write multiple updates in a single call,
+	 * e.g. to a search index or a remote API, are welcome to overwrite it.
+	 * @param dataIds the IDs of the data objects that were updated
+	 * @param users the users responsible for the updates
+	 * @param dataAttributes required attributes of the data objects
+	 * @param params bit vectors bundling implementation specific event
+	 *            processing parameters
+	 * @throws Exception
+	 */
+	protected void doUpdateBatch(String[] dataIds, String[] users, Properties[] dataAttributes, long[] params) throws Exception {
+		for (int d = 0; d < dataIds.length; d++) try {
+			this.doUpdate(dataIds[d], users[d], dataAttributes[d], params[d]);
+		}
+		catch (Exception e) {
+			this.logError(this.getEventProcessorName() + ": Error handling update event for object '" + dataIds[d] + "' - " + e.getMessage());
+			this.logError(e);
+		}
+	}
+	
+	/**
+	 * Write a batch of deletions to the underlying export destination. This
+	 * method is called instead of <code>doDelete()</code> if the event batch
+	 * size is greater than 1. The argument arrays are of the same length, and
+	 * the entries at the same index belong to the same deletion event, with
+	 * the same semantics as the arguments to <code>doDelete()</code>. The data
+	 * IDs are distinct. This default implementation loops through the batch
+	 * and calls <code>doDelete()</code> for each deletion individually,
+	 * logging any errors. Sub classes that can write multiple deletions in a
+	 * single call are welcome to overwrite it.
+	 * @param dataIds the IDs of the data objects that were deleted
+	 * @param users the users responsible for the deletions
+	 * @param dataAttributes required attributes of the data objects
+	 * @param params bit vectors bundling implementation specific event
+	 *            processing parameters
+	 * @throws Exception
+	 */
+	protected void doDeleteBatch(String[] dataIds, String[] users, Properties[] dataAttributes, long[] params) throws Exception {
+		for (int d = 0; d < dataIds.length; d++) try {
+			this.doDelete(dataIds[d], users[d], dataAttributes[d], params[d]);
+		}
+		catch (Exception e) {
+			this.logError(this.getEventProcessorName() + ": Error handling delete event for object '" + dataIds[d] + "' - " + e.getMessage());
+			this.logError(e);
+		}
+	}
 }
\ No newline at end of file
@@ -42,6 +42,14 @@ import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants;
  * remote GoldenGATE Server via an HTTP tunnel</li>
  * <li><b>serverPort</b>: the port the backing GoldenGATE Server listens on; to
  * be omitted for HTTP tunnel connection to the backing GoldenGATE Server</li>
+ * <li><b>serverKeepAlive</b>: keep socket connections to the backing
+ * GoldenGATE Server open for re-use (optional, defaults to false, only
+ * applies if a port is specified)</li>
+ * <li><b>maxServerConnections</b>: the maximum number of HTTP connections to
+ * open to the backing GoldenGATE Server at the same time (optional, only
+ * applies to HTTP tunnel connections; note that this limit is global to the
+ * JVM, so the last servlet to set it determines the limit for all servlets in
+ * the web-app)</li>
  * </ul>
  * Each servlet can have its data stored in a separate folder inside the
  * surrounding web-app's WEB-INF folder, its so-called data path. The default
@@ -79,8 +87,16 @@ public abstract class GgServerClientServlet extends HtmlServlet implements Golde
 		String serverPort = this.getSetting("serverPort");
 		
 		//	produce server connection
-		if (serverPort == null)
+		if (serverPort == null) {
+			String maxServerConnections = this.getSetting("maxServerConnections");
+			if (maxServerConnections != null) try {
+				ServerConnection.setMaxHttpConnectionsPerHost(Integer.parseInt(maxServerConnections.trim()));
+			}
+			catch (NumberFormatException nfe) {
+				ServerConnection.setMaxHttpConnectionsPerHost(0); // fall back to default (no limit)
+			}
 			this.serverConnection = ServerConnection.getServerConnection(serverAddress);
-		else this.serverConnection = ServerConnection.getServerConnection(serverAddress, Integer.parseInt(serverPort));
+		}
+		else this.serverConnection = ServerConnection.getServerConnection(serverAddress, Integer.parseInt(serverPort), "true".equals(this.getSetting("serverKeepAlive")));
 	}
 }
\ No newline at end of file
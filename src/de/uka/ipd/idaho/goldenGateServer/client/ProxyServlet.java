@@ -57,6 +57,9 @@ import de.uka.ipd.idaho.goldenGateServer.client.ServerConnection.Connection;
  */
 public class ProxyServlet extends GgServerClientServlet implements GoldenGateServerConstants {
 	
+	//	large enough to move most requests and responses in one go, backing streams are buffered anyway
+	private static final int BUFFER_SIZE = (64 * 1024);
+	
 	/* (non-Javadoc)
 	 * @see javax.servlet.http.HttpServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
 	 */
@@ -73,7 +76,7 @@ public class ProxyServlet extends GgServerClientServlet implements GoldenGateSer
 			
 			//	send 'PROXIED' property
 			serverOut.write("PROXIED\r\n".getBytes(ENCODING));
-			byte[] buffer = new byte[1024];
+			byte[] buffer = new byte[BUFFER_SIZE];
 			for (int r; (r = requestIn.read(buffer, 0, buffer.length)) != -1;)
 				serverOut.write(buffer, 0, r);
 			serverOut.flush();
@@ -82,7 +85,7 @@ public class ProxyServlet extends GgServerClientServlet implements GoldenGateSer
 			InputStream serverIn = con.getInputStream();
 			response.setContentType("application/octet-stream");
 			response.setHeader("Cache-Control", "no-cache");
-			responseOut = new BufferedOutputStream(response.getOutputStream());
+			responseOut = response.getOutputStream();
 			
 			for (int r; (r = serverIn.read(buffer, 0, buffer.length)) != -1;)
 				responseOut.write(buffer, 0, r);
@@ -28,8 +28,11 @@
 package de.uka.ipd.idaho.goldenGateServer.client;
 
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -40,12 +43,18 @@ import java.net.Socket;
 import java.net.URL;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants;
+import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerRequestContext;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.ChunkedInputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.ChunkedOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.CompressingOutputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.DecompressingInputStream;
 
 /**
  * Factory for generic connections to the backing server, producing Connection
@@ -55,7 +64,7 @@ import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
  */
 public abstract class ServerConnection implements GoldenGateServerConstants {
 	
-	/* TODO introduce connection headers (session ID, etc.):
+	/* TODOne introduce connection headers (session ID, etc.):
 	 * - allow for setting as key/value pairs before output stream retrieved ...
 	 * - ... and throw IllegalStateException afterwards
 	 * - append to action command in IMF attribute syntax ('<key>value<key>value...')
@@ -64,7 +73,7 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 	 *   - open output stream
 	 *   - send action command and any present headers
 	 *   
-	 * ==> automatically set session header in in AuthenticatedClient if logged in
+	 * TODO automatically set session header in in AuthenticatedClient if logged in
 	 */
 	
 	/* TODO facilitate direct (in-JVM) connections:
@@ -106,6 +115,44 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 		private BufferedLineInputStream blis;
 		private BufferedReader br;
 		
+		private Map headers = null;
+		private boolean compress = false;
+		private CompressingOutputStream cos = null;
+		
+		/**
+		 * Set a header to send to the backing server along with the request.
+		 * Headers are appended to the action command, i.e., the first line
+		 * written to the output stream of the connection. Thus, headers have
+		 * to be set before the output stream is retrieved.
+		 * @param name the name of the header
+		 * @param value the value of the header
+		 * @throws IllegalStateException if the output stream has been
+		 *            retrieved already
+		 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerRequestContext
+		 */
+		public void setHeader(String name, String value) {
+			if (this.blos != null)
+				throw new IllegalStateException("Cannot set headers after request started");
+			if (this.headers == null)
+				this.headers = new LinkedHashMap();
+			if (value == null)
+				this.headers.remove(name);
+			else this.headers.put(name, value);
+		}
+		
+		/**
+		 * Set the time after which the client will stop waiting for the
+		 * response. The backing server will not start processing a request if
+		 * that time has passed before it gets around to it. This is a
+		 * shorthand for setting the 'timeout' header.
+		 * @param timeout the timeout (in milliseconds)
+		 * @throws IllegalStateException if the output stream has been
+		 *            retrieved already
+		 */
+		public void setTimeout(long timeout) {
+			this.setHeader(GoldenGateServerRequestContext.TIMEOUT_HEADER, ("" + timeout));
+		}
+		
 		/**
 		 * Produce an InputStream for the underlying connection
 		 * @return an InputStream for the underlying connection
@@ -135,8 +182,20 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 		 * @return an InputStream for reading data from this connection
 		 */
 		public BufferedLineInputStream getInputStream() throws IOException {
-			if (this.blis == null)
-				this.blis = new BufferedLineInputStream(this.produceInputStream(), ENCODING);
+			if (this.blis == null) {
+				
+				//	complete compressed request data before switching to response
+				if (this.cos != null) {
+					if (this.bw != null)
+						this.bw.flush();
+					else this.blos.flush();
+					this.cos.finish();
+				}
+				InputStream in = this.produceInputStream();
+				if (this.compress)
+					in = new DecompressingInputStream(in);
+				this.blis = new BufferedLineInputStream(in, ENCODING);
+			}
 			return this.blis;
 		}
 		
@@ -187,8 +246,17 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 		 * @return an OutputStream for writing data to this connection
 		 */
 		public BufferedLineOutputStream getOutputStream() throws IOException {
-			if (this.blos == null)
-				this.blos = new BufferedLineOutputStream(this.produceOutputStream(), ENCODING);
+			if (this.blos == null) {
+				OutputStream out = this.produceOutputStream();
+				if (this.compress) {
+					this.setHeader(GoldenGateServerRequestContext.COMPRESSION_HEADER, CompressingOutputStream.COMPRESSION_GZIP);
+					this.cos = new CompressingOutputStream(out);
+					out = new HeaderOutputStream(out, GoldenGateServerRequestContext.appendHeaders("", this.headers).getBytes(ENCODING), this.cos);
+				}
+				else if ((this.headers != null) && (this.headers.size() != 0))
+					out = new HeaderOutputStream(out, GoldenGateServerRequestContext.appendHeaders("", this.headers).getBytes(ENCODING), out);
+				this.blos = new BufferedLineOutputStream(out, ENCODING);
+			}
 			return this.blos;
 		}
 		
@@ -230,6 +298,72 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 		}
 	}
 	
+	/* output stream inserting headers before the end of the first line, and
+	 * sending any data after the first line to a dedicated body stream, e.g.
+	 * for compressing it */
+	private static class HeaderOutputStream extends FilterOutputStream {
+		private static final int IN_FIRST_LINE = 0;
+		private static final int AFTER_CARRIAGE_RETURN = 1;
+		private static final int IN_BODY = 2;
+		private byte[] headerBytes;
+		private OutputStream bodyOut;
+		private int state = IN_FIRST_LINE;
+		HeaderOutputStream(OutputStream out, byte[] headerBytes, OutputStream bodyOut) {
+			super(out);
+			this.headerBytes = headerBytes;
+			this.bodyOut = bodyOut;
+		}
+		public void write(int b) throws IOException {
+			this.write(new byte[] {((byte) b)}, 0, 1);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			while ((len > 0) && (this.state != IN_BODY)) {
+				
+				//	line feed after carriage return still belongs to first line
+				if (this.state == AFTER_CARRIAGE_RETURN) {
+					if (b[off] == '\n') {
+						this.out.write(b[off]);
+						off++;
+						len--;
+					}
+					this.state = IN_BODY;
+					break;
+				}
+				
+				//	find end of first line
+				int lineEnd = off;
+				while ((lineEnd < (off + len)) && (b[lineEnd] != '\r') && (b[lineEnd] != '\n'))
+					lineEnd++;
+				this.out.write(b, off, (lineEnd - off));
+				len -= (lineEnd - off);
+				off = lineEnd;
+				if (len == 0)
+					break;
+				
+				//	append headers and line break
+				this.out.write(this.headerBytes);
+				this.out.write(b[off]);
+				this.state = ((b[off] == '\r') ? AFTER_CARRIAGE_RETURN : IN_BODY);
+				off++;
+				len--;
+			}
+			if (len > 0)
+				this.bodyOut.write(b, off, len);
+		}
+		public void flush() throws IOException {
+			if (this.bodyOut == this.out)
+				this.out.flush();
+			else if (this.state == IN_BODY)
+				this.bodyOut.flush();
+			else this.out.flush(); // keep compressed body undecided until actual body data is flushed
+		}
+		public void close() throws IOException {
+			if (this.bodyOut == this.out)
+				this.out.close();
+			else this.bodyOut.close(); // closes underlying stream as well
+		}
+	}
+	
 	/**
 	 * @return true if the argument object is a server connection and connects
 	 *         to the same remote address as this server connection.
@@ -390,14 +524,44 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 	 *         should close the connection when you are done using it.
 	 */
 	public Connection getConnection() throws IOException {
+		Connection con;
 		if (connectorService == null)
-			return this.produceConnection();
+			con = this.produceConnection();
 		else {
 			if (DEBUG) System.out.println("ServerConnection: producing connection asynchronously ...");
 			ConnectionRequest cr = new ConnectionRequest(this);
 			if (DEBUG) System.out.println("  request created");
-			return cr.getConnection();
+			con = cr.getConnection();
 		}
+		con.compress = this.compress;
+		return con;
+	}
+	
+	private boolean compress = false;
+	
+	/**
+	 * Specify whether or not Connections produced by this ServerConnection
+	 * should compress request data and ask the backing server to compress
+	 * response data. Compression happens transparently in the streams
+	 * returned by the Connections, and only if the data exceeds a size
+	 * threshold, so small requests and responses are not penalized. Note
+	 * that ServerConnections are shared for each remote address, so this
+	 * property applies to all clients connecting to the same address.
+	 * Compression should only be activated if the backing server supports
+	 * it.
+	 * @param compress compress data?
+	 */
+	public void setCompression(boolean compress) {
+		this.compress = compress;
+	}
+	
+	/**
+	 * Check whether or not Connections produced by this ServerConnection
+	 * compress request and response data.
+	 * @return true if data is compressed
+	 */
+	public boolean isCompression() {
+		return this.compress;
 	}
 	
 	/**
@@ -456,74 +620,452 @@ public abstract class ServerConnection implements GoldenGateServerConstants {
 		return con;
 	}
 	
+	/**
+	 * Obtain a ServerConnection for communication over Sockets with some host
+	 * on some port, optionally keeping the underlying sockets open after each
+	 * interaction and re-using them for subsequent ones. This saves opening a
+	 * new Socket for each Connection, which can make quite a difference for
+	 * clients making many small requests to the backing server. With
+	 * keep-alive, requests and responses are sent in chunked form, so the
+	 * Connections obtained from the returned ServerConnection should be
+	 * closed properly, and only after the response has been read.
+	 * @param host the host to communicate with
+	 * @param port the port to use for communication
+	 * @param keepAlive keep sockets open for re-use?
+	 * @return the server connection 
+	 */
+	public static ServerConnection getServerConnection(String host, int port, boolean keepAlive) {
+		if (!keepAlive)
+			return getServerConnection(host, port);
+		ServerConnection con = ((ServerConnection) serverConnectionPool.get(host + ":" + port + " (keep-alive)"));
+		if (con == null) {
+			con = new KeepAliveServerConnection(host, port);
+			serverConnectionPool.put(con.toString(), con);
+		}
+		return con;
+	}
+	
+	private static int maxIdleKeepAliveSockets = 8;
+	private static int keepAliveSocketTimeout = (4 * 1000); // a little shorter than server side default, so server doesn't close socket while we're using it
+	
+	/**
+	 * Set the maximum number of idle sockets to keep open per keep-alive
+	 * server connection, as well as the time after which to close idle
+	 * sockets. The latter should be shorter than the keep-alive timeout
+	 * configured on the server side. The defaults are 8 sockets and 4000
+	 * milliseconds. If the server announces its keep-alive timeout along with
+	 * its responses, idle sockets are closed well before that timeout as
+	 * well, regardless of this setting.
+	 * @param maxIdleSockets the maximum number of idle sockets to keep open
+	 * @param idleTimeout the time after which to close idle sockets (in
+	 *            milliseconds)
+	 */
+	public static void setKeepAliveParameters(int maxIdleSockets, int idleTimeout) {
+		maxIdleKeepAliveSockets = Math.max(0, maxIdleSockets);
+		keepAliveSocketTimeout = Math.max(0, idleTimeout);
+	}
+	
+	private static class KeepAliveSocket {
+		final Socket socket;
+		final BufferedLineInputStream in;
+		final OutputStream out;
+		long lastUsed;
+		int serverIdleTimeout = -1;
+		KeepAliveSocket(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedLineInputStream(socket.getInputStream(), ENCODING);
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+			this.lastUsed = System.currentTimeMillis();
+		}
+		boolean isExpired(long time) {
+			if ((this.lastUsed + keepAliveSocketTimeout) < time)
+				return true;
+			//	keep safety margin to server side timeout, so server doesn't close socket while we're sending a request
+			if ((this.serverIdleTimeout != -1) && ((this.lastUsed + ((this.serverIdleTimeout * 4) / 5)) < time))
+				return true;
+			return false;
+		}
+		void close() {
+			try {
+				this.socket.close();
+			} catch (IOException ioe) {}
+		}
+	}
+	
+	private static class KeepAliveServerConnection extends ServerConnection {
+		private final String host;
+		private final int port;
+		private LinkedList idleSockets = new LinkedList();
+		KeepAliveServerConnection(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+		protected Connection produceConnection() throws IOException {
+			final KeepAliveSocket kas = this.getSocket();
+			return new Connection() {
+				private ChunkedOutputStream requestOut = null;
+				private ChunkedInputStream responseIn = null;
+				protected OutputStream produceOutputStream() throws IOException {
+					this.requestOut = new ChunkedOutputStream(kas.out);
+					return this.requestOut;
+				}
+				protected InputStream produceInputStream() throws IOException {
+					if (this.requestOut != null)
+						this.requestOut.close(); // marks end of request
+					this.responseIn = new ChunkedInputStream(kas.in);
+					return this.responseIn;
+				}
+				public void close() throws IOException {
+					boolean reusable = false;
+					try {
+						super.close(); // skips any response data not read by client
+						reusable = ((this.requestOut != null) && (this.responseIn != null) && this.responseIn.isEndReached() && this.checkEndMarkerExtension());
+					}
+					finally {
+						releaseSocket(kas, reusable);
+					}
+				}
+				private boolean checkEndMarkerExtension() {
+					String eme = this.responseIn.getEndMarkerExtension();
+					if (eme == null)
+						return true;
+					if (KEEP_ALIVE_CLOSE.equals(eme))
+						return false; // server closes socket after this response
+					if (eme.startsWith(KEEP_ALIVE_TIMEOUT_PREFIX)) try {
+						kas.serverIdleTimeout = Integer.parseInt(eme.substring(KEEP_ALIVE_TIMEOUT_PREFIX.length()).trim());
+					} catch (NumberFormatException nfe) {}
+					return true;
+				}
+			};
+		}
+		private KeepAliveSocket getSocket() throws IOException {
+			synchronized (this.idleSockets) {
+				long time = System.currentTimeMillis();
+				while (this.idleSockets.size() != 0) {
+					KeepAliveSocket kas = ((KeepAliveSocket) this.idleSockets.removeLast());
+					if (kas.socket.isClosed() || kas.isExpired(time))
+						kas.close();
+					else return kas;
+				}
+			}
+			if (DEBUG) System.out.println("ServerConnection: connecting to " + this.host + " on port " + this.port + " with keep-alive");
+			KeepAliveSocket kas = new KeepAliveSocket(new Socket(this.host, this.port));
+			kas.out.write((KEEP_ALIVE_MARKER + "\r\n").getBytes(ENCODING));
+			return kas;
+		}
+		private void releaseSocket(KeepAliveSocket kas, boolean reusable) {
+			if (reusable) synchronized (this.idleSockets) {
+				if (this.idleSockets.size() < maxIdleKeepAliveSockets) {
+					kas.lastUsed = System.currentTimeMillis();
+					this.idleSockets.addLast(kas);
+					return;
+				}
+			}
+			kas.close();
+		}
+		public String toString() {
+			return (this.host + ":" + this.port + " (keep-alive)");
+		}
+		public boolean isDirectSocket() {
+			return true;
+		}
+	}
+	
 	/**
 	 * Obtain a ServerConnection for communication over HTTP with some server
-	 * identified by a URL.
+	 * identified by a URL. Request data is streamed to the server in chunked
+	 * form rather than buffered in memory, and the underlying HTTP connections
+	 * are kept alive for re-use as long as the responses are read completely
+	 * and the Connections properly closed.
 	 * @param urlStr the URL to communicate with (as a String)
 	 * @return the server connection
 	 */
 	public static ServerConnection getServerConnection(final String urlStr) {
 		ServerConnection srvCon = ((ServerConnection) serverConnectionPool.get(urlStr));
 		if (srvCon == null) {
-			srvCon = new ServerConnection() {
-				protected Connection produceConnection() throws IOException {
-					if (DEBUG) System.out.println("ServerConnection: connecting to " + urlStr);
-					URL url = new URL(urlStr);
-					if (DEBUG) System.out.println(" - got URL: " + url);
-					final HttpURLConnection httpCon = ((HttpURLConnection) url.openConnection());
-					if (DEBUG) System.out.println(" - got connection");
-					httpCon.setDoOutput(true);
-					httpCon.setDoInput(true);
-					httpCon.setUseCaches(false);
-					httpCon.setRequestMethod("POST");
-					httpCon.setRequestProperty("Host", url.getHost());
-					httpCon.setRequestProperty("User-Agent", "GoldenGATE Server Client");
-					httpCon.setRequestProperty("Pragma", "no-cache");
-					httpCon.setRequestProperty("Cache-Control", "no-cache");
-					httpCon.setRequestProperty("Content-Type", "application/octet-stream");
-					if (DEBUG) System.out.println(" - headers set");
-					final boolean[] conWait = {true};
-					if (DEBUG) {
-						final Thread conThread = Thread.currentThread();
-						Thread obsThread = new Thread() {
-							public void run() {
-								while (conWait[0]) {
-									System.out.println();
-									System.out.println("WAITING FOR CONNECT TO RETURN");
-									StackTraceElement[] stes = conThread.getStackTrace();
-									for (int e = 0; e < stes.length; e++)
-										System.out.println(stes[e].toString());
-									try {
-										Thread.sleep(250);
-									} catch (InterruptedException ie) {}
-								}
-							}
-						};
-						obsThread.start();
+			srvCon = new HttpServerConnection(urlStr);
+			serverConnectionPool.put(srvCon.toString(), srvCon);
+		}
+		return srvCon;
+	}
+	
+	private static int maxHttpConnectionsPerHost = 0;
+	private static int httpConnectionWaitTimeout = (60 * 1000);
+	private static Map httpHostConnectionLimits = Collections.synchronizedMap(new HashMap());
+	
+	/**
+	 * Set the maximum number of HTTP connections open to any individual host
+	 * at the same time. Requests for further connections to a host wait until
+	 * one of the open connections is released, which happens when it is
+	 * closed or its response has been read to the end. Setting the maximum to
+	 * 0 (the default) deactivates the limit. Unless specified otherwise via
+	 * the 'http.maxConnections' system property, this method also sets the
+	 * maximum number of idle connections the JVM keeps alive per host; this
+	 * only takes effect if invoked before the first HTTP connection is made.
+	 * Note that the limit is global, i.e., it applies to all HTTP server
+	 * connections in the JVM, counting connections per host rather than per
+	 * server connection.
+	 * @param maxConnections the maximum number of connections per host
+	 */
+	public static void setMaxHttpConnectionsPerHost(int maxConnections) {
+		maxHttpConnectionsPerHost = Math.max(0, maxConnections);
+		if ((maxHttpConnectionsPerHost != 0) && (System.getProperty("http.maxConnections") == null))
+			System.setProperty("http.maxConnections", ("" + maxHttpConnectionsPerHost));
+	}
+	
+	/**
+	 * Set the maximum number of HTTP connections open to any individual host
+	 * at the same time, as well as the time to wait for one of the open
+	 * connections to be released before giving up with an IOException. The
+	 * default wait timeout is 60000 milliseconds. Like the connection limit
+	 * proper, the timeout is global to the JVM.
+	 * @param maxConnections the maximum number of connections per host
+	 * @param waitTimeout the maximum time to wait for a connection (in
+	 *            milliseconds)
+	 * @see de.uka.ipd.idaho.goldenGateServer.client.ServerConnection#setMaxHttpConnectionsPerHost(int)
+	 */
+	public static void setMaxHttpConnectionsPerHost(int maxConnections, int waitTimeout) {
+		httpConnectionWaitTimeout = Math.max(1, waitTimeout);
+		setMaxHttpConnectionsPerHost(maxConnections);
+	}
+	
+	private static HostConnectionLimit getHostConnectionLimit(URL url) {
+		String host = (url.getHost() + ":" + url.getPort());
+		synchronized (httpHostConnectionLimits) {
+			HostConnectionLimit hcl = ((HostConnectionLimit) httpHostConnectionLimits.get(host));
+			if (hcl == null) {
+				hcl = new HostConnectionLimit(host);
+				httpHostConnectionLimits.put(host, hcl);
+			}
+			return hcl;
+		}
+	}
+	
+	private static class HostConnectionLimit {
+		private final String host;
+		private int open = 0;
+		HostConnectionLimit(String host) {
+			this.host = host;
+		}
+		synchronized void acquire() throws IOException {
+			long deadline = (System.currentTimeMillis() + httpConnectionWaitTimeout);
+			while ((maxHttpConnectionsPerHost != 0) && (this.open >= maxHttpConnectionsPerHost)) {
+				long wait = (deadline - System.currentTimeMillis());
+				if (wait <= 0)
+					throw new IOException("Timed out waiting for connection to " + this.host + ", " + this.open + " connections open");
+				try {
+					this.wait(wait);
+				}
+				catch (InterruptedException ie) {
+					throw new IOException("Interrupted waiting for connection");
+				}
+			}
+			this.open++;
+		}
+		synchronized void release() {
+			this.open--;
+			this.notify();
+		}
+	}
+	
+	private static final int HTTP_CHUNK_SIZE = 8192;
+	private static final int MAX_CLOSE_SKIP = 65536; // response data we read to the end on closing to keep connection re-usable
+	
+	private static class HttpServerConnection extends ServerConnection {
+		private final String urlStr;
+		HttpServerConnection(String urlStr) {
+			this.urlStr = urlStr;
+		}
+		public Connection getConnection() throws IOException {
+			
+			//	get connection permit before (potentially) handing over to connector service
+			final HostConnectionLimit hcl = getHostConnectionLimit(new URL(this.urlStr));
+			hcl.acquire();
+			final HttpConnection con;
+			try {
+				con = ((HttpConnection) super.getConnection());
+			}
+			catch (IOException ioe) {
+				hcl.release();
+				throw ioe;
+			}
+			catch (RuntimeException re) {
+				hcl.release();
+				throw re;
+			}
+			con.hostConnectionLimit = hcl;
+			return con;
+		}
+		protected Connection produceConnection() throws IOException {
+			if (DEBUG) System.out.println("ServerConnection: connecting to " + this.urlStr);
+			URL url = new URL(this.urlStr);
+			if (DEBUG) System.out.println(" - got URL: " + url);
+			final HttpURLConnection httpCon = ((HttpURLConnection) url.openConnection());
+			if (DEBUG) System.out.println(" - got connection");
+			httpCon.setDoOutput(true);
+			httpCon.setDoInput(true);
+			httpCon.setUseCaches(false);
+			httpCon.setRequestMethod("POST");
+			httpCon.setChunkedStreamingMode(HTTP_CHUNK_SIZE);
+			httpCon.setRequestProperty("Host", url.getHost());
+			httpCon.setRequestProperty("User-Agent", "GoldenGATE Server Client");
+			httpCon.setRequestProperty("Pragma", "no-cache");
+			httpCon.setRequestProperty("Cache-Control", "no-cache");
+			httpCon.setRequestProperty("Content-Type", "application/octet-stream");
+			if (DEBUG) System.out.println(" - headers set");
+			final boolean[] conWait = {true};
+			if (DEBUG) {
+				final Thread conThread = Thread.currentThread();
+				Thread obsThread = new Thread() {
+					public void run() {
+						while (conWait[0]) {
+							System.out.println();
+							System.out.println("WAITING FOR CONNECT TO RETURN");
+							StackTraceElement[] stes = conThread.getStackTrace();
+							for (int e = 0; e < stes.length; e++)
+								System.out.println(stes[e].toString());
+							try {
+								Thread.sleep(250);
+							} catch (InterruptedException ie) {}
+						}
 					}
-					
-					httpCon.connect();
-					if (DEBUG) System.out.println(" - connected");
-					conWait[0] = false;
-					return new Connection() {
-						protected InputStream produceInputStream() throws IOException {
-							return httpCon.getInputStream();
+				};
+				obsThread.start();
+			}
+			
+			httpCon.connect();
+			if (DEBUG) System.out.println(" - connected");
+			conWait[0] = false;
+			return new HttpConnection(httpCon);
+		}
+		public String toString() {
+			return (this.urlStr);
+		}
+		public boolean isDirectSocket() {
+			return false;
+		}
+	}
+	
+	private static class HttpConnection extends Connection {
+		private final HttpURLConnection httpCon;
+		private OutputStream requestOut = null;
+		private boolean requestSent = false;
+		private InputStream responseIn = null;
+		HostConnectionLimit hostConnectionLimit = null;
+		HttpConnection(HttpURLConnection httpCon) {
+			this.httpCon = httpCon;
+		}
+		protected InputStream produceInputStream() throws IOException {
+			
+			//	streamed request has to be complete before retrieving response
+			if (this.requestOut != null)
+				this.requestOut.close();
+			try {
+				
+				//	release connection permit as soon as response is read to the end or reading fails, even if client code fails to close connection
+				this.responseIn = new FilterInputStream(this.httpCon.getInputStream()) {
+					public int read() throws IOException {
+						try {
+							int r = this.in.read();
+							if (r == -1)
+								releaseHostConnection();
+							return r;
 						}
-						protected OutputStream produceOutputStream() throws IOException {
-							return httpCon.getOutputStream();
+						catch (IOException ioe) {
+							releaseHostConnection();
+							throw ioe;
 						}
-					};
+					}
+					public int read(byte[] b, int off, int len) throws IOException {
+						try {
+							int r = this.in.read(b, off, len);
+							if (r == -1)
+								releaseHostConnection();
+							return r;
+						}
+						catch (IOException ioe) {
+							releaseHostConnection();
+							throw ioe;
+						}
+					}
+					public void close() throws IOException {
+						try {
+							this.in.close();
+						}
+						finally {
+							releaseHostConnection();
+						}
+					}
+				};
+				return this.responseIn;
+			}
+			catch (IOException ioe) {
+				
+				//	consume error response so underlying connection remains re-usable
+				InputStream errorIn = this.httpCon.getErrorStream();
+				if (errorIn != null) {
+					if (skipRemaining(errorIn))
+						errorIn.close();
+					else this.httpCon.disconnect();
 				}
-				public String toString() {
-					return (urlStr);
+				this.releaseHostConnection();
+				throw ioe;
+			}
+		}
+		protected OutputStream produceOutputStream() throws IOException {
+			
+			//	ignore flushing and closing after request sent, as streaming output cannot handle that
+			this.requestOut = new FilterOutputStream(this.httpCon.getOutputStream()) {
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
 				}
-				public boolean isDirectSocket() {
-					return false;
+				public void flush() throws IOException {
+					if (!requestSent)
+						this.out.flush();
+				}
+				public void close() throws IOException {
+					if (requestSent)
+						return;
+					requestSent = true;
+					this.out.close();
 				}
 			};
-			serverConnectionPool.put(srvCon.toString(), srvCon);
+			return this.requestOut;
+		}
+		public void close() throws IOException {
+			try {
+				
+				//	read any small remainder of response data so the JVM can re-use the underlying connection
+				boolean reusable = ((this.responseIn != null) && skipRemaining(this.responseIn));
+				super.close();
+				
+				//	response never retrieved, or too much of it left to wait for, underlying connection cannot be re-used
+				if (!reusable)
+					this.httpCon.disconnect();
+			}
+			finally {
+				this.releaseHostConnection();
+			}
+		}
+		private synchronized void releaseHostConnection() {
+			if (this.hostConnectionLimit != null)
+				this.hostConnectionLimit.release();
+			this.hostConnectionLimit = null;
+		}
+		private static boolean skipRemaining(InputStream in) {
+			try {
+				byte[] buffer = new byte[1024];
+				for (int skipped = 0, read; skipped < MAX_CLOSE_SKIP; skipped += read) {
+					read = in.read(buffer, 0, buffer.length);
+					if (read == -1)
+						return true;
+				}
+				return false; // too much data left, dropping connection is faster than waiting for it
+			}
+			catch (IOException ioe) {
+				return false;
+			}
 		}
-		return srvCon;
 	}
 	
 	/**
@@ -250,6 +250,7 @@ public class GoldenGateELS extends AbstractGoldenGateServerComponent implements
 				handleLinks(dataId);
 			}
 		};
+		this.linkHandler.setPersistInterval(Integer.parseInt(this.configuration.getSetting("linkPersistInterval", "0")));
 		
 		//	load IDs of all data objects with suspended links
 		String loadQuery = "SELECT distinct(" + DATA_ID_COLUMN_NAME + ")" +
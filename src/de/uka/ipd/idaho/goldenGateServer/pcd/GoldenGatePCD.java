@@ -42,7 +42,10 @@ import java.util.Map;
 
 import de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.util.AsynchronousDataActionHandler;
+import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
+import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.IdentifierKeyedDataObjectStore;
+import de.uka.ipd.idaho.goldenGateServer.util.IdentifierKeyedDataObjectStore.DataObjectInputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.LruCache;
 import de.uka.ipd.idaho.stringUtils.StringUtils;
 
@@ -85,7 +88,20 @@ public class GoldenGatePCD extends AbstractGoldenGateServerComponent {
 			dataFolder = new File(dataFolderName);
 		else dataFolder = new File(this.dataPath, dataFolderName);
 		dataFolder.mkdirs();
-		this.pcdStore = new IdentifierKeyedDataObjectStore("ProcessControlData", dataFolder, ".txt", false, this);
+		//	pack data into segment files if configured (only for new installations, as existing data files are not migrated)
+		if ("true".equals(this.configuration.getSetting("useSegmentFiles", "false")))
+			this.pcdStore = new IdentifierKeyedDataObjectStore("ProcessControlData", dataFolder, false, (Integer.parseInt(this.configuration.getSetting("segmentFileSizeMB", "64")) * 1024L * 1024L), this);
+		else {
+			this.pcdStore = new IdentifierKeyedDataObjectStore("ProcessControlData", dataFolder, ".txt", false, this);
+			this.pcdStore.setUsePathIndex("true".equals(this.configuration.getSetting("usePathIndex", "false")));
+		}
+		this.pcdStore.setMaintenanceWorkerCount(Integer.parseInt(this.configuration.getSetting("maintenanceWorkers", "1")));
+		String dataDurability = this.configuration.getSetting("dataDurability", "buffered");
+		if ("sync".equals(dataDurability))
+			this.pcdStore.setDurability(IdentifierKeyedDataObjectStore.DURABILITY_SYNC_EACH);
+		else if ("group".equals(dataDurability))
+			this.pcdStore.setDurability(IdentifierKeyedDataObjectStore.DURABILITY_GROUP_SYNC);
+		this.pcdStore.setAsyncWriteBack("true".equals(this.configuration.getSetting("asyncWriteBack", "false")));
 		
 		//	initialize delay-timed process control data persisting
 		this.pcdPersister = new AsynchronousDataActionHandler("ProcessControlDataPersister", this) {
@@ -126,12 +142,52 @@ public class GoldenGatePCD extends AbstractGoldenGateServerComponent {
 	
 	private static final String PERSIST_DATA_COMMAND = "persistAll";
 	
+	private static final String GET_DATA = "PCD_GET_DATA";
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent#getActions()
 	 */
 	public ComponentAction[] getActions() {
 		ArrayList cal = new ArrayList();
-		ComponentActionConsole ca;
+		ComponentAction ca;
+		
+		//	deliver persisted process control data of a data object (e.g. to replicating peers)
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_DATA;
+			}
+			public void performActionNetwork(BufferedLineInputStream input, BufferedLineOutputStream output) throws IOException {
+				
+				//	get data ID
+				String dataId = input.readLine();
+				
+				//	make sure stored data is up to date
+				synchronized (processControlDataCache) {
+					ProcessControlData pcd = ((ProcessControlData) processControlDataCache.get(dataId));
+					if (pcd != null)
+						persistProcessControlData(dataId, pcd);
+				}
+				
+				//	check if we have any data
+				if (!pcdStore.isDataObjectAvailable(dataId)) {
+					output.write("No process control data for data object '" + dataId + "'");
+					output.newLine();
+					return;
+				}
+				
+				//	send data (straight from file, this might not even go through the heap)
+				DataObjectInputStream pcdIn = pcdStore.getInputStream(dataId);
+				try {
+					output.write(GET_DATA);
+					output.newLine();
+					pcdIn.writeTo(output);
+				}
+				finally {
+					pcdIn.close();
+				}
+			}
+		};
+		cal.add(ca);
 		
 		//	TODO add any other console actions we might need
 		
@@ -651,6 +651,10 @@ IN THE LONG HAUL, implement AbstractResBasedReplicator extends AbstractGoldenGat
 				
 				res.active = "true".equals(remoteResData.getSetting(RES_ACTIVE_SETTING, "false"));
 				
+				//	compress event lists (only if remote RES supports it)
+				if ("true".equals(remoteResData.getSetting(RES_COMPRESS_SETTING, "false")))
+					res.serverConnection.setCompression(true);
+				
 				this.remoteResFederators.put(res.domainName, res);
 			}
 		}
@@ -1362,6 +1366,7 @@ IN THE LONG HAUL, implement AbstractResBasedReplicator extends AbstractGoldenGat
 	private static final String RES_UPDATE_INTERVAL_SETTING = "updateInterval";
 	private static final String RES_LATEST_UPDATE_SETTING = "lastUpdate";
 	private static final String RES_ACTIVE_SETTING = "active";
+	private static final String RES_COMPRESS_SETTING = "compress";
 	
 	private static final String ADD_RES_COMMAND = "add";
 	private static final String IMPORT_RES_CONNECTIONS_COMMAND = "importCons";
@@ -1381,6 +1386,8 @@ IN THE LONG HAUL, implement AbstractResBasedReplicator extends AbstractGoldenGat
 		resData.setSetting(RES_UPDATE_INTERVAL_SETTING, ("" + res.updateInterval));
 		resData.setSetting(RES_LATEST_UPDATE_SETTING, ("" + res.latestUpdate));
 		resData.setSetting(RES_ACTIVE_SETTING, (res.active ? "true" : "false"));
+		if (res.serverConnection.isCompression())
+			resData.setSetting(RES_COMPRESS_SETTING, "true");
 		resData.storeAsText(this.getResFile(res));
 	}
 	
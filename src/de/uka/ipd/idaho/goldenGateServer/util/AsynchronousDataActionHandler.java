@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -166,8 +167,9 @@ public abstract class AsynchronousDataActionHandler {
 	
 //	private DataActionThread actionThread;
 //	private AsynchronousWorkQueue actionQueueMonitor;
-	final int actionThreadCount;
+	int actionThreadCount;
 	DataActionThreadTray[] actionThreadTrays = null;
+	private final Object actionThreadLock = new Object();
 	boolean run = true;
 	boolean workFast = false;
 	boolean pause = false;
@@ -318,6 +320,10 @@ public abstract class AsynchronousDataActionHandler {
 	private static final String UNPAUSE_COMMAND = "unpause";
 	private static final String WORK_NOW_COMMAND = "workNow";
 	private static final String DUMP_STACK_COMMAND = "dumpStack";
+	private static final String PERSIST_INTERVAL_COMMAND = "persistInterval";
+	private static final String SET_THREADS_COMMAND = "setThreads";
+	private static final String SCHEDULER_MODE_COMMAND = "schedulerMode";
+	private static final String THROTTLE_COMMAND = "throttle";
 	
 	//	TODO make commands public
 	
@@ -449,6 +455,8 @@ public abstract class AsynchronousDataActionHandler {
 //					this.reportResult(" " + dataActions.size() + " data actions scheduled for execution, next due in " + dataActions.getNextDueIn() + "ms");
 					this.reportResult(" " + dataActions.size() + " data actions scheduled for execution, next due in " + dataActions.getNextDueIn(actionThreadCount) + "ms");
 				}
+				if (getActionPersister() != null)
+					this.reportResult(" " + getPersistPending() + " data action changes pending persisting.");
 			}
 		};
 		cal.add(cac);
@@ -606,6 +614,145 @@ public abstract class AsynchronousDataActionHandler {
 		};
 		cal.add(cac);
 		
+		//	adjust number of action threads
+		cac = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return SET_THREADS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						SET_THREADS_COMMAND + " <threads>",
+						"Show or set the number of action worker threads:",
+						"- <threads>: the number of threads to use (optional, omit to show current number)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					DataActionThreadTray[] actionThreadTrays = AsynchronousDataActionHandler.this.actionThreadTrays;
+					this.reportResult(" Using " + actionThreadCount + " action worker threads:");
+					if (actionThreadTrays != null)
+						for (int t = 0; t < actionThreadTrays.length; t++) {
+							if (actionThreadTrays[t] != null)
+								this.reportResult(" - " + actionThreadTrays[t].actionQueueMonitor.getStatus());
+						}
+				}
+				else if (arguments.length == 1) try {
+					int threads = Integer.parseInt(arguments[0]);
+					if (threads < 1)
+						this.reportError(" Invalid number of threads " + threads + ", specify at least 1.");
+					else {
+						setActionThreadCount(threads);
+						this.reportResult(" Number of action worker threads set to " + actionThreadCount + ".");
+					}
+				}
+				catch (NumberFormatException nfe) {
+					this.reportError(" Invalid number of threads '" + arguments[0] + "'.");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the number of threads.");
+			}
+		};
+		cal.add(cac);
+		
+		//	switch scheduler mode
+		cac = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return SCHEDULER_MODE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						SCHEDULER_MODE_COMMAND + " <mode>",
+						"Show or set the scheduler mode:",
+						"- <mode>: the mode to use, 'shared' for a single shared queue, 'stealing' for work stealing (optional, omit to show current mode)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0)
+					this.reportResult(" Scheduler mode is " + ((getSchedulerMode() == SCHEDULER_WORK_STEALING) ? "stealing" : "shared") + ".");
+				else if (arguments.length == 1) {
+					if ("shared".equals(arguments[0]))
+						setSchedulerMode(SCHEDULER_SHARED_QUEUE);
+					else if ("stealing".equals(arguments[0]))
+						setSchedulerMode(SCHEDULER_WORK_STEALING);
+					else {
+						this.reportError(" Invalid scheduler mode '" + arguments[0] + "', use 'shared' or 'stealing'.");
+						return;
+					}
+					this.reportResult(" Scheduler mode set to " + arguments[0] + ".");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the mode.");
+			}
+		};
+		cal.add(cac);
+		
+		//	adjust throughput control
+		cac = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return THROTTLE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						THROTTLE_COMMAND + " <rate> <burst>",
+						"Show or set the throughput control for the action worker threads:",
+						"- <rate>: the maximum number of data actions per second, 0 for no limit, or 'adaptive' or 'fixed' to switch adapting to server load on or off (optional, omit to show current status)",
+						"- <burst>: the maximum number of data actions to start in immediate succession (optional, defaults to 1)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0)
+					this.reportResult(" Throughput control: " + throttle.getStatus());
+				else if (arguments.length > 2)
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the rate limit and burst size.");
+				else if ("adaptive".equals(arguments[0]) || "fixed".equals(arguments[0])) {
+					if (arguments.length == 1) {
+						throttle.setAdaptive("adaptive".equals(arguments[0]));
+						this.reportResult(" Throughput control set to " + arguments[0] + ".");
+					}
+					else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify only '" + arguments[0] + "'.");
+				}
+				else try {
+					throttle.setRateLimit(Double.parseDouble(arguments[0]), ((arguments.length == 1) ? 1 : Integer.parseInt(arguments[1])));
+					this.reportResult(" Throughput control set to " + throttle.getStatus() + ".");
+				}
+				catch (NumberFormatException nfe) {
+					this.reportError(" Invalid rate limit or burst size '" + arguments[0] + ((arguments.length == 1) ? "" : (" " + arguments[1])) + "'.");
+				}
+			}
+		};
+		cal.add(cac);
+		
+		//	adjust persisting interval
+		if (this.io != null) {
+			cac = new ComponentActionConsole() {
+				public String getActionCommand() {
+					return PERSIST_INTERVAL_COMMAND;
+				}
+				public String[] getExplanation() {
+					String[] explanation = {
+							PERSIST_INTERVAL_COMMAND + " <interval>",
+							"Show or set the interval for writing changes to scheduled data actions to the database in batches:",
+							"- <interval>: the interval in milliseconds, 0 to write changes right away (optional, omit to show current interval)"
+						};
+					return explanation;
+				}
+				public void performActionConsole(String[] arguments) {
+					if (arguments.length == 0)
+						this.reportResult(" Persisting interval is " + getPersistInterval() + "ms, " + getPersistPending() + " changes pending.");
+					else if (arguments.length == 1) try {
+						setPersistInterval(Integer.parseInt(arguments[0]));
+						this.reportResult(" Persisting interval set to " + getPersistInterval() + "ms.");
+					}
+					catch (NumberFormatException nfe) {
+						this.reportError(" Invalid persisting interval '" + arguments[0] + "'.");
+					}
+					else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the interval.");
+				}
+			};
+			cal.add(cac);
+		}
+		
 		//	offer function dumpStack printing stack trace of event processor (to help investigating hang-ups)
 		cac = new ComponentActionConsole() {
 			public String getActionCommand() {
@@ -657,23 +804,6 @@ public abstract class AsynchronousDataActionHandler {
 		return array;
 	}
 	
-	/* TODO Make number of parallel threads in ADA adjustable via console:
-- simply create more worker threads on increase
-- simply let worker threads with high numbers run out on decease
-- keeps (temporary) single thread in multi-thread behavior ... BUT SO ?!?
-- still use maximum number as config parameter ...
-- ... but add initial number of threads to that
-- add "setThreads" command:
-  - no arguments: show status
-  - one int argument: set number ...
-  - ... throwing error if above maximum
-  - more arguments: error
-  ==> maybe configure overall maximum via ADA console component ...
-  ==> ... or via main server config ...
-  ==> ... and check per-ADA maximums against that
-==> allows for shifting threads between IMI and IMP as needed ... STONKS
-	 */
-	
 	/**
 	 * Start the scheduler. This method should only be called once the code
 	 * called from the <code>performAction()</code> method is ready to work.
@@ -747,33 +877,198 @@ public abstract class AsynchronousDataActionHandler {
 	}
 	
 	boolean startActionHandler() {
+		synchronized (this.actionThreadLock) {
+			
+			//	create array for action worker threads (we fill it below)
+			if (this.actionThreadTrays == null)
+				this.actionThreadTrays = new DataActionThreadTray[this.actionThreadCount];
+			
+			//	check all action worker threads
+			else for (int t = 0; t < this.actionThreadTrays.length; t++) {
+				if (this.actionThreadTrays[t] == null)
+					continue; // added slot, filled below
+				if (this.actionThreadTrays[t].actionThread.isAlive())
+					continue;
+				this.actionThreadTrays[t].actionQueueMonitor.dispose();
+				this.actionThreadTrays[t] = null;
+			}
+			
+			//	create and start action worker threads
+			int actionThreadStartCount = 0;
+			for (int t = 0; t < this.actionThreadTrays.length; t++) {
+				if (this.actionThreadTrays[t] != null)
+					continue;
+				String number = ((this.actionThreadCount == 1) ? "" : ("" + (t+1)));
+				DataActionThread actionThread = new DataActionThread(this.name + "ActionWorker" + number, t);
+				this.actionThreadTrays[t] = new DataActionThreadTray(actionThread, (this.name + number));
+				actionThread.start(); // start only after linking up, so thread doesn't consider itself retired
+				actionThreadStartCount++;
+			}
+			
+			//	did we create anything?
+			return (actionThreadStartCount != 0);
+		}
+	}
+	
+	/**
+	 * Change the number of action threads while the handler is running. On an
+	 * increase, additional threads start right away. On a decrease, the
+	 * surplus threads finish any data action they are working on, as well as
+	 * any ones they have claimed in work stealing mode, and then terminate.
+	 * Subclasses must make sure their implementation of
+	 * <code>performDataAction()</code> can handle executing more than once at
+	 * the same time before increasing the number of threads beyond one, or
+	 * activate keyed serial execution.
+	 * @param threads the new number of action threads
+	 */
+	public void setActionThreadCount(int threads) {
+		threads = Math.max(threads, 1);
+		DataActionThreadTray[] retiredTrays = null;
+		synchronized (this.actionThreadLock) {
+			if (threads == this.actionThreadCount)
+				return;
+			this.actionThreadCount = threads;
+			if (this.actionThreadTrays == null)
+				return; // not started yet, start() takes care of creating threads
+			
+			//	add slots for additional threads (filled by startActionHandler() below)
+			if (this.actionThreadTrays.length < threads) {
+				DataActionThreadTray[] actionThreadTrays = new DataActionThreadTray[threads];
+				System.arraycopy(this.actionThreadTrays, 0, actionThreadTrays, 0, this.actionThreadTrays.length);
+				this.actionThreadTrays = actionThreadTrays;
+			}
+			
+			//	cut surplus threads (they terminate on their own, after finishing their current action)
+			else {
+				retiredTrays = new DataActionThreadTray[this.actionThreadTrays.length - threads];
+				System.arraycopy(this.actionThreadTrays, threads, retiredTrays, 0, retiredTrays.length);
+				DataActionThreadTray[] actionThreadTrays = new DataActionThreadTray[threads];
+				System.arraycopy(this.actionThreadTrays, 0, actionThreadTrays, 0, threads);
+				this.actionThreadTrays = actionThreadTrays;
+			}
+		}
 		
-		//	create array for action worker threads (we fill it below)
-		if (this.actionThreadTrays == null)
-			this.actionThreadTrays = new DataActionThreadTray[this.actionThreadCount];
-		
-		//	check all action worker threads
-		else for (int t = 0; t < this.actionThreadTrays.length; t++) {
-			if (this.actionThreadTrays[t].actionThread.isAlive())
-				continue;
-			this.actionThreadTrays[t].actionQueueMonitor.dispose();
-			this.actionThreadTrays[t] = null;
+		//	start additional threads
+		if (retiredTrays == null) {
+			this.startActionHandler();
+			return;
 		}
 		
-		//	create and start action worker threads
-		int actionThreadStartCount = 0;
-		for (int t = 0; t < this.actionThreadTrays.length; t++) {
-			if (this.actionThreadTrays[t] != null)
+		//	wake up surplus threads so they can terminate, and detach them from monitoring
+		for (int t = 0; t < retiredTrays.length; t++) {
+			if (retiredTrays[t] == null)
 				continue;
-			String number = ((this.actionThreadCount == 1) ? "" : ("" + (t+1)));
-			DataActionThread actionThread = new DataActionThread(this.name + "ActionWorker" + number);
-			actionThread.start();
-			this.actionThreadTrays[t] = new DataActionThreadTray(actionThread, (this.name + number));
-			actionThreadStartCount++;
+			
+			//	hand back actions claimed by surplus threads, as others cannot steal from them any longer
+			DataActionThread retiredThread = retiredTrays[t].actionThread;
+			DataAction[] unclaimActions;
+			synchronized (retiredThread.localActions) {
+				unclaimActions = ((DataAction[]) retiredThread.localActions.toArray(new DataAction[retiredThread.localActions.size()]));
+				retiredThread.localActions.clear();
+			}
+			if (unclaimActions.length != 0) synchronized (this.dataActions) {
+				for (int a = 0; a < unclaimActions.length; a++)
+					this.dataActions.unclaim(unclaimActions[a], retiredThread);
+				this.dataActions.sortDown(false);
+			}
+			synchronized (retiredThread.sleepLock) {
+				retiredThread.sleepLock.notify();
+			}
+			retiredTrays[t].actionQueueMonitor.dispose();
+		}
+		synchronized (this.dataActions) {
+			this.dataActions.notifyAll();
+		}
+	}
+	
+	/** scheduler mode with all action threads taking data actions from a single shared queue, the default */
+	public static final int SCHEDULER_SHARED_QUEUE = 0;
+	
+	/** scheduler mode with action threads claiming due data actions in batches to local queues, and stealing from each other when running out */
+	public static final int SCHEDULER_WORK_STEALING = 1;
+	
+	private static final int MAX_CLAIM_BATCH_SIZE = 16;
+	private static final long MAX_BACKOFF = 1000;
+	
+	private int schedulerMode = SCHEDULER_SHARED_QUEUE;
+	
+	/**
+	 * Set the scheduler mode. In <code>SCHEDULER_SHARED_QUEUE</code> mode,
+	 * the default, action threads take data actions from the shared queue
+	 * one by one, and they pause for at least one second plus the time the
+	 * last action took after each action, unless fast working is active. In
+	 * <code>SCHEDULER_WORK_STEALING</code> mode, action threads claim due
+	 * data actions from the shared queue in batches into local queues, and
+	 * threads whose local queue runs empty steal data actions from the local
+	 * queues of other threads. Further, the pause after each data action
+	 * adapts to the number of due data actions, shrinking towards zero while
+	 * there are more due data actions than action threads, and growing back
+	 * to the same pause as in shared queue mode when there are fewer. This
+	 * lets multiple threads work off a large backlog, while still leaving
+	 * resources to other server activity when there is little to do.
+	 * @param schedulerMode the scheduler mode
+	 */
+	public void setSchedulerMode(int schedulerMode) {
+		if ((schedulerMode != SCHEDULER_SHARED_QUEUE) && (schedulerMode != SCHEDULER_WORK_STEALING))
+			throw new IllegalArgumentException("Invalid scheduler mode " + schedulerMode);
+		this.schedulerMode = schedulerMode;
+		synchronized (this.dataActions) {
+			this.dataActions.notifyAll();
+		}
+	}
+	
+	/**
+	 * Retrieve the scheduler mode.
+	 * @return the scheduler mode
+	 */
+	public int getSchedulerMode() {
+		return this.schedulerMode;
+	}
+	
+	private final BackgroundWorkThrottle throttle = new BackgroundWorkThrottle();
+	
+	/**
+	 * Retrieve the throttle controlling the throughput of the action threads.
+	 * Via the throttle, client code can set a rate limit for executing data
+	 * actions, and have the pauses between data actions as well as the rate
+	 * limit adapt to the load of the surrounding server. Neither applies
+	 * while fast working is active.
+	 * @return the throttle
+	 */
+	public BackgroundWorkThrottle getThrottle() {
+		return this.throttle;
+	}
+	
+	/**
+	 * Activate or deactivate keyed serial execution. If active, data actions
+	 * are serialized per data ID, so no two data actions for the same data ID
+	 * are ever in progress at the same time, and data actions for the same
+	 * data ID are executed in the order they are due. Data actions for
+	 * different data IDs still use all available action threads. Scheduling
+	 * a data action that is already pending with the same arguments does not
+	 * create a second one, but only changes the due time of the pending one,
+	 * so each data action is executed exactly once per scheduling cycle. If a
+	 * data action is re-scheduled while in progress, it is executed once more
+	 * after finishing. This is a prerequisite for safely using multiple action
+	 * threads in subclasses whose implementation of
+	 * <code>performDataAction()</code> modifies the data object behind the
+	 * argument data ID. Keyed serial execution is inactive by default.
+	 * @param keyedSerial activate keyed serial execution?
+	 */
+	public void setKeyedSerialExecution(boolean keyedSerial) {
+		synchronized (this.dataActions) {
+			this.dataActions.setKeyedSerial(keyedSerial);
+			this.dataActions.notifyAll();
 		}
-		
-		//	did we create anything?
-		return (actionThreadStartCount != 0);
+	}
+	
+	/**
+	 * Check whether or not keyed serial execution is active, i.e., whether
+	 * or not data actions are serialized per data ID.
+	 * @return true if keyed serial execution is active
+	 */
+	public boolean isKeyedSerialExecution() {
+		return this.dataActions.isKeyedSerial();
 	}
 	
 	/**
@@ -781,6 +1076,19 @@ public abstract class AsynchronousDataActionHandler {
 	 * and thus should be called on system shutdown.
 	 */
 	public void shutdown() {
+		
+		//	write any pending changes to database before clearing queue
+		ActionPersisterThread actionPersister;
+		synchronized (this.actionPersisterLock) {
+			actionPersister = this.actionPersister;
+			this.actionPersister = null;
+		}
+		if (actionPersister != null)
+			actionPersister.shutdown();
+		
+		//	release any threads waiting on rate limit
+		this.throttle.close();
+		
 		if (this.actionThreadTrays == null)
 			return;
 		
@@ -1021,6 +1329,16 @@ public abstract class AsynchronousDataActionHandler {
 			this.dataActions.clear();
 			this.dataActionsById.clear();
 		}
+		DataActionThreadTray[] actionThreadTrays = this.actionThreadTrays;
+		if (actionThreadTrays != null)
+			for (int t = 0; t < actionThreadTrays.length; t++) {
+				if (actionThreadTrays[t] != null) synchronized (actionThreadTrays[t].actionThread.localActions) {
+					actionThreadTrays[t].actionThread.localActions.clear();
+				}
+			}
+		ActionPersisterThread actionPersister = this.getActionPersister();
+		if (actionPersister != null)
+			actionPersister.clear();
 		String deleteQuery = "DELETE FROM " + ACTION_TABLE_NAME + ";";
 		if (this.io != null) try {
 			this.io.executeUpdateQuery(deleteQuery);
@@ -1033,14 +1351,19 @@ public abstract class AsynchronousDataActionHandler {
 	}
 	
 	private class DataActionThread extends Thread {
+		final int index;
 		long actionStart = -1;
 		long actionEnd = -1;
 		final Object sleepLock = new Object();
 		long sleepStart = -1;
 		long sleepEnd = -1;
 		final Object pauseLock = new Object();
-		DataActionThread(String name) {
+		final LinkedList localActions = new LinkedList();
+		long backoff = MAX_BACKOFF;
+		boolean haveToken = false;
+		DataActionThread(String name, int index) {
 			super(name);
+			this.index = index;
 		}
 		public void run() {
 			
@@ -1057,15 +1380,41 @@ public abstract class AsynchronousDataActionHandler {
 				if (!run)
 					return;
 				
-				//	get next due data action
-				DataAction da;
-				synchronized (dataActions) {
-					da = dataActions.getFirstIfDue(actionThreadCount, this);
+				//	wait for rate limit (unless working fast) before claiming next action, so we don't hold back other actions on same data ID while waiting
+				if (!workFast && !this.haveToken) {
+					throttle.acquire();
+					this.haveToken = true; // keep token if nothing due, so we don't waste it
+					if (!run)
+						return;
+				}
+				
+				//	get next due data action, from local queue first
+				DataAction da = this.getLocalAction();
+				
+				//	terminate if number of threads reduced (after working off local queue)
+				if ((da == null) && this.isRetired())
+					return;
+				
+				//	claim or steal next due data action in work stealing mode
+				if ((da == null) && (schedulerMode == SCHEDULER_WORK_STEALING)) {
+					da = this.claimDataActions();
+					if (da == null)
+						da = this.stealDataAction();
+				}
+				
+				//	get next due data action from shared queue otherwise (no need to synchronize on mode, as both modes can run side by side)
+				if (da == null) synchronized (dataActions) {
+					if (schedulerMode == SCHEDULER_SHARED_QUEUE)
+						da = dataActions.getFirstIfDue(actionThreadCount, this);
 					if (da == null) {
-						workFast = false; // deactivate fast working if queue empty or nothing due
+						if (!dataActions.isHoldingBack(this.getCheckWindow()))
+							workFast = false; // deactivate fast working if queue empty or nothing due
+						long nextDueIn = dataActions.getNextDueIn(this.getCheckWindow());
+						if ((nextDueIn == 0) && (schedulerMode == SCHEDULER_WORK_STEALING))
+							nextDueIn = MAX_BACKOFF; // actions claimed by others might show up for stealing
 						try {
 							dataActionWaiting.add(this);
-							dataActions.wait(dataActions.getNextDueIn(actionThreadCount));
+							dataActions.wait(nextDueIn);
 						} catch (InterruptedException ie) {}
 						finally {
 							dataActionWaiting.remove(this);
@@ -1074,7 +1423,8 @@ public abstract class AsynchronousDataActionHandler {
 					}
 				}
 				
-				//	perform data action
+				//	perform data action (consuming token)
+				this.haveToken = false;
 				long actionStartTime = System.currentTimeMillis();
 				long actionHandlingTime;
 				try {
@@ -1087,13 +1437,18 @@ public abstract class AsynchronousDataActionHandler {
 					//	mark action as done if not re-scheduled
 					if (da.isInProgress()) {
 						synchronized (dataActions) {
-							da.setDone(this); // need to synchronize update and sorting in case of multiple threads
+							dataActions.setDone(da, this); // need to synchronize update and sorting in case of multiple threads
 							dataActions.cleanupDone();
 							dataActionsById.remove(da.id);
 						}
 						cleanupPerformedAction(da);
 					}
 					
+					//	release re-scheduled action for execution at its new due time
+					else synchronized (dataActions) {
+						dataActions.release(da, this);
+					}
+					
 					//	clean any recorded error
 					synchronized (dataActionErrors) {
 						dataActionErrors.remove(da.dataId);
@@ -1106,10 +1461,13 @@ public abstract class AsynchronousDataActionHandler {
 					//	mark action as erroneous if not re-scheduled, and move to end of queue
 					if (da.isInProgress()) {
 						synchronized (dataActions) {
-							da.setError(this); // need to synchronize update and sorting in case of multiple threads
-							dataActions.sortUp(actionThreadCount);
+							dataActions.setError(da, this); // need to synchronize update and sorting in case of multiple threads
+							dataActions.sortUp(this.getCheckWindow());
 						}
 					}
+					else synchronized (dataActions) {
+						dataActions.release(da, this);
+					}
 					
 					//	record error
 					synchronized (dataActionErrors) {
@@ -1132,10 +1490,29 @@ public abstract class AsynchronousDataActionHandler {
 					continue;
 				
 				//	sleep a little
-				long sleepTime = (0 + 
+				long sleepTime;
+				if (schedulerMode == SCHEDULER_WORK_STEALING) {
+					
+					//	adapt backoff to backlog, shrinking while more actions are due than we have threads, and growing back otherwise or if server under load
+					int dueBacklog = this.getLocalActionCount();
+					synchronized (dataActions) {
+						dueBacklog += dataActions.countDue(this.getCheckWindow(), actionThreadCount);
+					}
+					if ((dueBacklog >= actionThreadCount) && !throttle.isSlowingDown())
+						this.backoff = (this.backoff / 2);
+					else this.backoff = Math.min(MAX_BACKOFF, Math.max(10, (this.backoff * 2)));
+					if (this.backoff == 0)
+						continue;
+					sleepTime = (0 + 
+							this.backoff + // adaptive base sleep
+							((actionHandlingTime * this.backoff) / MAX_BACKOFF) + // share of the time we just occupied the CPU or other resources
+							0);
+				}
+				else sleepTime = (0 + 
 						1000 + // base sleep
 						actionHandlingTime + // the time we just occupied the CPU or other resources
 						0);
+				sleepTime = throttle.adjustPause(sleepTime);
 				logger.logInfo(name + ": sleeping for " + sleepTime + "ms");
 				this.sleepStart = this.actionEnd;
 				this.sleepEnd = (this.sleepStart + sleepTime);
@@ -1155,6 +1532,104 @@ public abstract class AsynchronousDataActionHandler {
 			}
 		}
 		
+		private boolean isRetired() {
+			DataActionThreadTray[] actionThreadTrays = AsynchronousDataActionHandler.this.actionThreadTrays;
+			if ((actionThreadTrays == null) || (actionThreadTrays.length <= this.index))
+				return true;
+			return ((actionThreadTrays[this.index] == null) || (actionThreadTrays[this.index].actionThread != this));
+		}
+		
+		private int getCheckWindow() {
+			return ((schedulerMode == SCHEDULER_WORK_STEALING) ? (actionThreadCount * (MAX_CLAIM_BATCH_SIZE + 1)) : actionThreadCount);
+		}
+		
+		private int getLocalActionCount() {
+			synchronized (this.localActions) {
+				return this.localActions.size();
+			}
+		}
+		
+		private DataAction getLocalAction() {
+			while (true) {
+				DataAction da;
+				synchronized (this.localActions) {
+					if (this.localActions.isEmpty())
+						return null;
+					da = ((DataAction) this.localActions.removeFirst());
+				}
+				
+				//	make sure action wasn't re-scheduled since we claimed it
+				synchronized (dataActions) {
+					if (da.isInProgress() && (da.thread == this))
+						return da;
+					dataActions.release(da, this);
+				}
+			}
+		}
+		
+		private DataAction claimDataActions() {
+			
+			//	claim a fair share of the due actions (at least one, though)
+			DataAction[] claimed;
+			synchronized (dataActions) {
+				int due = dataActions.countDue(this.getCheckWindow(), Integer.MAX_VALUE);
+				if (due == 0)
+					return null;
+				int claim = Math.max(1, Math.min(MAX_CLAIM_BATCH_SIZE, (due / actionThreadCount)));
+				if (!workFast && (throttle.getEffectiveRateLimit() > 0))
+					claim = 1; // claimed actions would only wait for rate limit in local queue
+				claimed = dataActions.claimDue(this.getCheckWindow(), claim, this);
+			}
+			if (claimed.length == 0)
+				return null;
+			
+			//	keep the rest for later
+			synchronized (this.localActions) {
+				for (int c = 1; c < claimed.length; c++)
+					this.localActions.addLast(claimed[c]);
+			}
+			return claimed[0];
+		}
+		
+		private DataAction stealDataAction() {
+			DataActionThreadTray[] actionThreadTrays = AsynchronousDataActionHandler.this.actionThreadTrays;
+			if (actionThreadTrays == null)
+				return null;
+			
+			//	find thread with longest local queue
+			DataActionThread victim = null;
+			int victimActionCount = 0;
+			for (int t = 0; t < actionThreadTrays.length; t++) {
+				if ((actionThreadTrays[t] == null) || (actionThreadTrays[t].actionThread == this))
+					continue;
+				int actionCount = actionThreadTrays[t].actionThread.getLocalActionCount();
+				if (actionCount > victimActionCount) {
+					victim = actionThreadTrays[t].actionThread;
+					victimActionCount = actionCount;
+				}
+			}
+			if (victim == null)
+				return null;
+			
+			//	steal from tail, so victim keeps working off its queue front to back
+			DataAction da;
+			synchronized (victim.localActions) {
+				if (victim.localActions.isEmpty())
+					return null;
+				da = ((DataAction) victim.localActions.removeLast());
+			}
+			
+			//	take over action (unless re-scheduled in the meantime)
+			synchronized (dataActions) {
+				if (da.isInProgress() && (da.thread == victim)) {
+					da.thread = this;
+					return da;
+				}
+				dataActions.release(da, victim);
+				return null;
+			}
+		}
+		
 		private void checkPause() {
 			if (!pause)
 				return;
@@ -1192,6 +1667,9 @@ public abstract class AsynchronousDataActionHandler {
 			this.actionQueueMonitor = new AsynchronousWorkQueue(name) {
 				public String getStatus() {
 					String actionBufferStatus = (dataActions.size() + " actions scheduled, next due in " + dataActions.getNextDueIn(actionThreadCount) + "ms");
+					int localActionCount = DataActionThreadTray.this.actionThread.getLocalActionCount();
+					if (localActionCount != 0)
+						actionBufferStatus += (", " + localActionCount + " claimed");
 					String actionThreadStatus;
 					if (DataActionThreadTray.this.actionThread.actionStart != -1)
 						actionThreadStatus = ("working since " + (System.currentTimeMillis() - DataActionThreadTray.this.actionThread.actionStart) + "ms");
@@ -1326,6 +1804,19 @@ public abstract class AsynchronousDataActionHandler {
 			}
 			else throw new IllegalStateException("Cannot change state from " + thread.getName());
 		}
+		boolean release(DataActionThread thread) {
+			if ((this.thread != thread) || this.isInProgress())
+				return false;
+			this.thread = null; // re-scheduled while in progress, make available again
+			return true;
+		}
+		boolean unclaim(DataActionThread thread) {
+			if ((this.thread != thread) || !this.isInProgress())
+				return false;
+			this.thread = null; // claimed, but never started, make available again
+			this.due = System.currentTimeMillis(); // was due when claimed
+			return true;
+		}
 		boolean isError() {
 			return (this.due == Long.MAX_VALUE);
 		}
@@ -1348,6 +1839,7 @@ public abstract class AsynchronousDataActionHandler {
 			return;
 		String daId = computeDataActionId(dataId, arguments);
 		DataAction da;
+		long due;
 		String persistQuery;
 		synchronized (this.dataActions) {
 			da = ((DataAction) this.dataActionsById.get(daId));
@@ -1357,39 +1849,10 @@ public abstract class AsynchronousDataActionHandler {
 				this.dataActions.addLast(da);
 				this.dataActionsById.put(da.id, da);
 				this.dataActions.notify();
-				StringBuffer argValueString = new StringBuffer();
-				for (int a = 0; a < this.argumentColumns.length; a++) {
-					argValueString.append(", ");
-					if (TableDefinition.INT_DATATYPE.equals(this.argumentColumns[a].getDataType()))
-						argValueString.append((a < arguments.length) ? Integer.parseInt(arguments[a]) : 0);
-					else if (TableDefinition.BIGINT_DATATYPE.equals(this.argumentColumns[a].getDataType()))
-						argValueString.append((a < arguments.length) ? Long.parseLong(arguments[a]) : 0);
-					else if (TableDefinition.REAL_DATATYPE.equals(this.argumentColumns[a].getDataType()))
-						argValueString.append((a < arguments.length) ? Double.parseDouble(arguments[a]) : 0.0);
-					else if (TableDefinition.CHAR_DATATYPE.equals(this.argumentColumns[a].getDataType())) {
-						argValueString.append("'");
-						StringBuffer argValue = new StringBuffer((a < arguments.length) ? arguments[a] : "");
-						while (argValue.length() < this.argumentColumns[a].getColumnLength())
-							argValue.append(" ");
-						if (argValue.length() > this.argumentColumns[a].getColumnLength())
-							argValue.delete(this.argumentColumns[a].getColumnLength(), argValue.length());
-						argValueString.append(EasyIO.sqlEscape(argValue.toString()));
-						argValueString.append("'");
-					}
-					else if (TableDefinition.VARCHAR_DATATYPE.equals(this.argumentColumns[a].getDataType())) {
-						argValueString.append("'");
-						String argValue = ((a < arguments.length) ? arguments[a] : "");
-						if (argValue.length() > this.argumentColumns[a].getColumnLength())
-							argValue = argValue.substring(0, this.argumentColumns[a].getColumnLength());
-						argValueString.append(EasyIO.sqlEscape(argValue));
-						argValueString.append("'");
-					}
-					else argValueString.delete((argValueString.length() - ", ".length()), argValueString.length());
-				}
 				persistQuery = "INSERT INTO " + ACTION_TABLE_NAME +
 						" (" + DATA_ID_COLUMN_NAME + ", " + DATA_ID_HASH_COLUMN_NAME + ", " + DUE_TIME_COLUMN_NAME + this.argumentColumnString + ")" +
 						" VALUES" +
-						" ('" + EasyIO.sqlEscape(da.dataId) + "', " + da.dataId.hashCode() + ", " + da.due + argValueString + ")" +
+						" ('" + EasyIO.sqlEscape(da.dataId) + "', " + da.dataId.hashCode() + ", " + da.due + this.getArgumentValueString(arguments) + ")" +
 						";";
 			}
 			else {
@@ -1407,10 +1870,18 @@ public abstract class AsynchronousDataActionHandler {
 						" AND " + DATA_ID_HASH_COLUMN_NAME + " = " + da.dataId.hashCode() +
 						";";
 			}
+			due = da.due;
 		}
 		
-		//	persist scheduled action if set up to do so
-		if (this.io != null) try {
+		//	hand scheduled action to background persister if active
+		if (this.io == null)
+			return;
+		ActionPersisterThread actionPersister = this.getActionPersister();
+		if ((actionPersister != null) && actionPersister.persist(da, due))
+			return;
+		
+		//	persist scheduled action right away otherwise
+		try {
 			this.io.executeUpdateQuery(persistQuery);
 		}
 		catch (SQLException sqle) {
@@ -1419,9 +1890,56 @@ public abstract class AsynchronousDataActionHandler {
 		}
 	}
 	
+	private String getArgumentValueString(String[] arguments) {
+		StringBuffer argValueString = new StringBuffer();
+		for (int a = 0; a < this.argumentColumns.length; a++) {
+			String argValue = this.getArgumentValue(arguments, a);
+			if (argValue != null)
+				argValueString.append(", " + argValue);
+		}
+		return argValueString.toString();
+	}
+	
+	private String getArgumentMatchString(String[] arguments) {
+		StringBuffer argMatchString = new StringBuffer();
+		for (int a = 0; a < this.argumentColumns.length; a++) {
+			String argValue = this.getArgumentValue(arguments, a);
+			if (argValue != null)
+				argMatchString.append(" AND " + this.argumentColumns[a].getColumnName() + " = " + argValue);
+		}
+		return argMatchString.toString();
+	}
+	
+	private String getArgumentValue(String[] arguments, int a) {
+		if (TableDefinition.INT_DATATYPE.equals(this.argumentColumns[a].getDataType()))
+			return ("" + ((a < arguments.length) ? Integer.parseInt(arguments[a]) : 0));
+		else if (TableDefinition.BIGINT_DATATYPE.equals(this.argumentColumns[a].getDataType()))
+			return ("" + ((a < arguments.length) ? Long.parseLong(arguments[a]) : 0));
+		else if (TableDefinition.REAL_DATATYPE.equals(this.argumentColumns[a].getDataType()))
+			return ("" + ((a < arguments.length) ? Double.parseDouble(arguments[a]) : 0.0));
+		else if (TableDefinition.CHAR_DATATYPE.equals(this.argumentColumns[a].getDataType())) {
+			StringBuffer argValue = new StringBuffer((a < arguments.length) ? arguments[a] : "");
+			while (argValue.length() < this.argumentColumns[a].getColumnLength())
+				argValue.append(" ");
+			if (argValue.length() > this.argumentColumns[a].getColumnLength())
+				argValue.delete(this.argumentColumns[a].getColumnLength(), argValue.length());
+			return ("'" + EasyIO.sqlEscape(argValue.toString()) + "'");
+		}
+		else if (TableDefinition.VARCHAR_DATATYPE.equals(this.argumentColumns[a].getDataType())) {
+			String argValue = ((a < arguments.length) ? arguments[a] : "");
+			if (argValue.length() > this.argumentColumns[a].getColumnLength())
+				argValue = argValue.substring(0, this.argumentColumns[a].getColumnLength());
+			return ("'" + EasyIO.sqlEscape(argValue) + "'");
+		}
+		else return null;
+	}
+	
 	private void cleanupPerformedAction(DataAction da) {
 		if (this.io == null)
 			return;
+		ActionPersisterThread actionPersister = this.getActionPersister();
+		if ((actionPersister != null) && actionPersister.cleanup(da))
+			return;
 		String deleteQuery = "DELETE FROM " + ACTION_TABLE_NAME +
 				" WHERE " + DATA_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(da.dataId) + "'" +
 				" AND " + DATA_ID_HASH_COLUMN_NAME + " = " + da.dataId.hashCode() +
@@ -1435,14 +1953,280 @@ public abstract class AsynchronousDataActionHandler {
 		}
 	}
 	
+	
+	private static final int PERSIST_BATCH_SIZE = 256;
+	private static final int PERSIST_DELETE_BATCH_SIZE = 64;
+	private static final int PERSIST_FLUSH_THRESHOLD = 4096;
+	
+	private int persistInterval = 0;
+	private ActionPersisterThread actionPersister = null;
+	private final Object actionPersisterLock = new Object();
+	
+	/**
+	 * Set the interval for persisting changes to the queue of scheduled data
+	 * actions, in milliseconds. With an interval of 0, the default, each data
+	 * action is written to the database right when it is scheduled or done,
+	 * on the calling thread. With a positive interval, a background persister
+	 * collects these changes instead, coalescing multiple changes to the same
+	 * data action, and writes them to the database in batches, at the latest
+	 * after the argument number of milliseconds. This saves a lot of database
+	 * round trips when scheduling large numbers of data actions, at the cost
+	 * of losing the changes of at most that many milliseconds in a crash.
+	 * Without database persistence, this method has no effect. Reducing the
+	 * interval to 0 writes any pending changes to the database right away.
+	 * @param persistInterval the persisting interval
+	 */
+	public void setPersistInterval(int persistInterval) {
+		ActionPersisterThread actionPersister = null;
+		synchronized (this.actionPersisterLock) {
+			this.persistInterval = Math.max(0, persistInterval);
+			if (this.io == null)
+				return;
+			if ((this.persistInterval != 0) && (this.actionPersister == null)) {
+				this.actionPersister = new ActionPersisterThread();
+				this.actionPersister.start();
+			}
+			else if ((this.persistInterval == 0) && (this.actionPersister != null)) {
+				actionPersister = this.actionPersister;
+				this.actionPersister = null;
+			}
+		}
+		if (actionPersister != null)
+			actionPersister.shutdown();
+	}
+	
+	/**
+	 * Retrieve the interval for persisting changes to the queue of scheduled
+	 * data actions, in milliseconds. A return value of 0 indicates that data
+	 * actions are persisted right away.
+	 * @return the persisting interval
+	 */
+	public int getPersistInterval() {
+		return this.persistInterval;
+	}
+	
+	/**
+	 * Retrieve the number of data actions whose changes are waiting to be
+	 * written to the database by the background persister.
+	 * @return the number of pending changes
+	 */
+	public int getPersistPending() {
+		ActionPersisterThread actionPersister = this.getActionPersister();
+		return ((actionPersister == null) ? 0 : actionPersister.getPendingCount());
+	}
+	
+	private ActionPersisterThread getActionPersister() {
+		synchronized (this.actionPersisterLock) {
+			return this.actionPersister;
+		}
+	}
+	
+	private static class PendingPersist {
+		final DataAction da;
+		final long due;
+		PendingPersist(DataAction da, long due) {
+			this.da = da;
+			this.due = due;
+		}
+	}
+	
+	private class ActionPersisterThread extends Thread {
+		private LinkedHashMap pending = new LinkedHashMap();
+		private boolean run = true;
+		ActionPersisterThread() {
+			super(name + "ActionPersister");
+		}
+		synchronized boolean persist(DataAction da, long due) {
+			if (!this.run)
+				return false;
+			this.pending.put(da.id, new PendingPersist(da, due));
+			if (this.pending.size() >= PERSIST_FLUSH_THRESHOLD)
+				this.notify();
+			return true;
+		}
+		synchronized boolean cleanup(DataAction da) {
+			if (!this.run)
+				return false;
+			PendingPersist pp = ((PendingPersist) this.pending.get(da.id));
+			if ((pp == null) || (pp.da == da)) // don't overwrite pending persist of re-scheduled action
+				this.pending.put(da.id, new PendingPersist(da, -1));
+			if (this.pending.size() >= PERSIST_FLUSH_THRESHOLD)
+				this.notify();
+			return true;
+		}
+		synchronized void clear() {
+			this.pending.clear();
+		}
+		synchronized int getPendingCount() {
+			return this.pending.size();
+		}
+		public void run() {
+			while (true) {
+				
+				//	wait for flush to become due
+				PendingPersist[] pps;
+				synchronized (this) {
+					if (this.run && (this.pending.size() < PERSIST_FLUSH_THRESHOLD)) try {
+						this.wait(Math.max(1, persistInterval));
+					} catch (InterruptedException ie) {}
+					if (this.pending.isEmpty()) {
+						if (this.run)
+							continue;
+						else return;
+					}
+					pps = ((PendingPersist[]) this.pending.values().toArray(new PendingPersist[this.pending.size()]));
+					this.pending.clear();
+				}
+				
+				//	write changes to database
+				try {
+					persistDataActions(pps);
+				}
+				catch (SQLException sqle) {
+					
+					//	put back changes for another attempt, unless replaced in the meantime
+					synchronized (this) {
+						for (int p = 0; p < pps.length; p++) {
+							if (!this.pending.containsKey(pps[p].da.id))
+								this.pending.put(pps[p].da.id, pps[p]);
+						}
+					}
+					if (this.run) try {
+						sleep(1000); // give database a little time
+					} catch (InterruptedException ie) {}
+					else return; // no endless retries on shutdown
+				}
+			}
+		}
+		void shutdown() {
+			synchronized (this) {
+				this.run = false;
+				this.notify();
+			}
+			try {
+				this.join();
+			} catch (InterruptedException ie) {}
+		}
+	}
+	
+	private void persistDataActions(PendingPersist[] pps) throws SQLException {
+		
+		//	sort out which data actions to insert, as we have to delete and re-insert updated ones
+		ArrayList insertPps = new ArrayList();
+		synchronized (this.dataActions) {
+			for (int p = 0; p < pps.length; p++) {
+				if ((pps[p].due != -1) && (this.dataActionsById.get(pps[p].da.id) == pps[p].da))
+					insertPps.add(pps[p]);
+			}
+		}
+		
+		//	delete existing rows in chunks, matching arguments as well, so we don't lose rows of other actions on same data IDs
+		for (int c = 0; c < pps.length; c += PERSIST_DELETE_BATCH_SIZE) {
+			StringBuffer deleteQuery = new StringBuffer("DELETE FROM " + ACTION_TABLE_NAME + " WHERE");
+			for (int d = c; d < Math.min(pps.length, (c + PERSIST_DELETE_BATCH_SIZE)); d++) {
+				if (d != c)
+					deleteQuery.append(" OR");
+				deleteQuery.append(" (" + DATA_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(pps[d].da.dataId) + "'");
+				deleteQuery.append(" AND " + DATA_ID_HASH_COLUMN_NAME + " = " + pps[d].da.dataId.hashCode());
+				deleteQuery.append(this.getArgumentMatchString(pps[d].da.arguments) + ")");
+			}
+			deleteQuery.append(";");
+			try {
+				this.io.executeUpdateQuery(deleteQuery.toString());
+			}
+			catch (SQLException sqle) {
+				this.logger.logError(this.name + ": " + sqle.getMessage() + " while deleting persisted actions.");
+				this.logger.logError("  query was " + deleteQuery.toString());
+				throw sqle;
+			}
+		}
+		
+		//	insert current rows in chunks
+		for (int c = 0; c < insertPps.size(); c += PERSIST_BATCH_SIZE) {
+			StringBuffer valueString = new StringBuffer();
+			for (int i = c; i < Math.min(insertPps.size(), (c + PERSIST_BATCH_SIZE)); i++) {
+				PendingPersist pp = ((PendingPersist) insertPps.get(i));
+				if (i != c)
+					valueString.append(", ");
+				valueString.append("('" + EasyIO.sqlEscape(pp.da.dataId) + "', " + pp.da.dataId.hashCode() + ", " + pp.due + this.getArgumentValueString(pp.da.arguments) + ")");
+			}
+			String insertQuery = "INSERT INTO " + ACTION_TABLE_NAME +
+					" (" + DATA_ID_COLUMN_NAME + ", " + DATA_ID_HASH_COLUMN_NAME + ", " + DUE_TIME_COLUMN_NAME + this.argumentColumnString + ")" +
+					" VALUES " + valueString +
+					";";
+			try {
+				this.io.executeUpdateQuery(insertQuery);
+			}
+			catch (SQLException sqle) {
+				this.logger.logError(this.name + ": " + sqle.getMessage() + " while persisting scheduled actions.");
+				this.logger.logError("  query was " + insertQuery);
+				throw sqle;
+			}
+		}
+	}
+	
 	private static class DataActionBuffer {
 		private DataAction[] actions;
 		private int first = 0;
 		private int last = 0;
+		private boolean keyedSerial = false;
+		private HashMap busyDataIdCounts = new HashMap();
 		DataActionBuffer(int capacity) {
 			this.actions = new DataAction[capacity];
 		}
 		
+		void setKeyedSerial(boolean keyedSerial) {
+			this.keyedSerial = keyedSerial;
+		}
+		
+		boolean isKeyedSerial() {
+			return this.keyedSerial;
+		}
+		
+		private boolean isBlocked(DataAction da) {
+			return (this.keyedSerial && (da.thread == null) && this.busyDataIdCounts.containsKey(da.dataId));
+		}
+		
+		private void setInProgress(DataAction da, DataActionThread thread) {
+			da.setInProgress(thread);
+			int[] busyCount = ((int[]) this.busyDataIdCounts.get(da.dataId));
+			if (busyCount == null)
+				this.busyDataIdCounts.put(da.dataId, new int[1]);
+			else busyCount[0]++;
+		}
+		
+		void setDone(DataAction da, DataActionThread thread) {
+			da.setDone(thread);
+			this.setIdle(da);
+		}
+		
+		void setError(DataAction da, DataActionThread thread) {
+			da.setError(thread);
+			this.setIdle(da);
+		}
+		
+		void release(DataAction da, DataActionThread thread) {
+			if (da.release(thread))
+				this.setIdle(da);
+		}
+		
+		void unclaim(DataAction da, DataActionThread thread) {
+			if (da.unclaim(thread))
+				this.setIdle(da);
+			else this.release(da, thread); // re-scheduled in the meantime
+		}
+		
+		private void setIdle(DataAction da) {
+			int[] busyCount = ((int[]) this.busyDataIdCounts.get(da.dataId));
+			if (busyCount == null)
+				return;
+			if (busyCount[0] == 0)
+				this.busyDataIdCounts.remove(da.dataId);
+			else busyCount[0]--;
+			if (this.keyedSerial)
+				this.notify(); // let waiting thread check for any data actions held back for the same data ID
+		}
+		
 		long getNextDueIn(int maxCheck) {
 			
 			//	anything to return?
@@ -1450,9 +2234,16 @@ public abstract class AsynchronousDataActionHandler {
 				return 0;
 			
 			//	time until first action is due (queue is sorted, but some might be in progress), making sure to stay above 0
-			for (int a = this.first; a < Math.min(this.last, (this.first + maxCheck)); a++) {
-				if (this.actions[a].thread != null)
+			int end = Math.min(this.last, (this.first + maxCheck));
+			for (int a = this.first; a < end; a++) {
+				if (this.actions[a].thread != null) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
 					continue; // this one's in the works
+				}
+				if (this.isBlocked(this.actions[a])) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // held back behind another data action for same data ID
+				}
 				return Math.max(1, this.actions[a].getDueIn());
 			}
 			
@@ -1467,11 +2258,18 @@ public abstract class AsynchronousDataActionHandler {
 				return null;
 			
 			//	find first action due (queue is sorted, but some might be in progress)
-			for (int a = this.first; a < Math.min(this.last, (this.first + maxCheck)); a++) {
-				if (this.actions[a].thread != null)
+			int end = Math.min(this.last, (this.first + maxCheck));
+			for (int a = this.first; a < end; a++) {
+				if (this.actions[a].thread != null) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
 					continue; // this one's in the works
+				}
+				if (this.isBlocked(this.actions[a])) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // held back behind another data action for same data ID
+				}
 				if (this.actions[a].isDue()) {
-					this.actions[a].setInProgress(forThread);
+					this.setInProgress(this.actions[a], forThread);
 					return this.actions[a];
 				}
 			}
@@ -1480,6 +2278,66 @@ public abstract class AsynchronousDataActionHandler {
 			return null;
 		}
 		
+		boolean isHoldingBack(int maxCheck) {
+			if (!this.keyedSerial)
+				return false;
+			int end = Math.min(this.last, (this.first + maxCheck));
+			for (int a = this.first; a < end; a++) {
+				if (this.actions[a].thread != null) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // this one's in the works
+				}
+				if (this.isBlocked(this.actions[a])) {
+					if (this.actions[a].isDue())
+						return true; // held back behind another data action for same data ID
+					end = Math.min(this.last, (end + 1));
+				}
+			}
+			return false;
+		}
+		
+		int countDue(int maxCheck, int maxCount) {
+			int count = 0;
+			int end = Math.min(this.last, (this.first + maxCheck));
+			for (int a = this.first; a < end; a++) {
+				if (this.actions[a].thread != null) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // this one's in the works
+				}
+				if (this.isBlocked(this.actions[a])) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // held back behind another data action for same data ID
+				}
+				if (!this.actions[a].isDue())
+					continue; // might be re-scheduled while in progress, and not yet sorted into position
+				if (++count >= maxCount)
+					break;
+			}
+			return count;
+		}
+		
+		DataAction[] claimDue(int maxCheck, int maxCount, DataActionThread forThread) {
+			ArrayList claimed = new ArrayList(maxCount);
+			int end = Math.min(this.last, (this.first + maxCheck));
+			for (int a = this.first; a < end; a++) {
+				if (this.actions[a].thread != null) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // this one's in the works
+				}
+				if (this.isBlocked(this.actions[a])) {
+					end = Math.min(this.last, (end + 1)); // doesn't count towards window, as not available to any thread
+					continue; // held back behind another data action for same data ID
+				}
+				if (!this.actions[a].isDue())
+					continue; // might be re-scheduled while in progress, and not yet sorted into position
+				this.setInProgress(this.actions[a], forThread);
+				claimed.add(this.actions[a]);
+				if (claimed.size() >= maxCount)
+					break;
+			}
+			return ((DataAction[]) claimed.toArray(new DataAction[claimed.size()]));
+		}
+		
 		int addLast(DataAction da) {
 			
 			//	make sure we have enough room
@@ -1577,6 +2435,7 @@ public abstract class AsynchronousDataActionHandler {
 		}
 		
 		void clear() {
+			this.busyDataIdCounts.clear();
 			Arrays.fill(this.actions, this.first, this.last, null);
 			this.first = 0;
 			this.last = 0;
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+import de.uka.ipd.idaho.goldenGateServer.GoldenGateServer;
+import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerNetworkActionListener;
+
+/**
+ * Throughput control for background workers like asynchronous data action
+ * handlers and event processors. Each throttle combines a token bucket rate
+ * limit with an optional adaptive slowdown factor shared by all throttles in
+ * a server. The latter observes the network actions called by clients and
+ * the system load average. It increases the slowdown factor when network
+ * actions take longer than usual, queue up before execution, or the CPUs are
+ * saturated while serving network actions, and decreases it, down to below 1,
+ * when the server is idle. CPU load caused by background work alone does not
+ * count as pressure, as there are no interactive users to make room for.
+ * Adaptive throttles divide their rate limit by the slowdown factor and
+ * multiply the pauses of their owners by it, so background work soaks up
+ * idle capacity without getting in the way of interactive users.
+ * 
+ * @author sautter
+ */
+public class BackgroundWorkThrottle {
+	
+	private double rateLimit = 0;
+	private int burstSize = 1;
+	private boolean adaptive = false;
+	
+	private double tokens = 1;
+	private long lastRefill = System.currentTimeMillis();
+	private boolean closed = false;
+	
+	/** Constructor creating a throttle with no rate limit and no adaptive slowdown
+	 */
+	public BackgroundWorkThrottle() {}
+	
+	/**
+	 * Set the rate limit, i.e., the maximum number of work units per second
+	 * the owner of the throttle is allowed to start. The burst size is the
+	 * number of work units that can start in immediate succession after a
+	 * phase of inactivity. A rate limit of 0 or less deactivates rate
+	 * limiting.
+	 * @param rateLimit the maximum number of work units per second
+	 * @param burstSize the maximum number of work units to start at once
+	 */
+	public synchronized void setRateLimit(double rateLimit, int burstSize) {
+		this.rateLimit = Math.max(rateLimit, 0);
+		this.burstSize = Math.max(burstSize, 1);
+		this.tokens = Math.min(this.tokens, this.burstSize);
+		this.notifyAll();
+	}
+	
+	/**
+	 * Retrieve the rate limit, i.e., the maximum number of work units per
+	 * second, not accounting for any adaptive slowdown. A value of 0
+	 * indicates no rate limit is set.
+	 * @return the rate limit
+	 */
+	public double getRateLimit() {
+		return this.rateLimit;
+	}
+	
+	/**
+	 * Retrieve the burst size, i.e., the maximum number of work units to
+	 * start in immediate succession.
+	 * @return the burst size
+	 */
+	public int getBurstSize() {
+		return this.burstSize;
+	}
+	
+	/**
+	 * Retrieve the rate limit currently in effect, i.e., the rate limit set
+	 * via <code>setRateLimit()</code> divided by the current adaptive slowdown
+	 * factor, if the throttle is adaptive. A value of 0 indicates no rate
+	 * limit is set.
+	 * @return the effective rate limit
+	 */
+	public double getEffectiveRateLimit() {
+		if (this.rateLimit <= 0)
+			return 0;
+		return (this.adaptive ? (this.rateLimit / getSlowdownFactor()) : this.rateLimit);
+	}
+	
+	/**
+	 * Activate or deactivate adaptive slowdown for this throttle. Activating
+	 * adaptive slowdown on any throttle starts monitoring network actions and
+	 * system load server wide.
+	 * @param adaptive adapt to server load?
+	 */
+	public synchronized void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		if (adaptive)
+			LoadMonitor.getInstance();
+		this.notifyAll();
+	}
+	
+	/**
+	 * Check whether or not the throttle adapts to server load.
+	 * @return true if the throttle is adaptive
+	 */
+	public boolean isAdaptive() {
+		return this.adaptive;
+	}
+	
+	/**
+	 * Wait until the rate limit permits starting another work unit, and
+	 * consume the respective token. This method returns immediately if no
+	 * rate limit is set, or after the throttle was closed.
+	 * @return the time spent waiting (in milliseconds)
+	 */
+	public synchronized long acquire() {
+		long start = System.currentTimeMillis();
+		while (!this.closed) {
+			double rate = this.getEffectiveRateLimit();
+			if (rate <= 0)
+				break;
+			
+			//	refill bucket
+			long time = System.currentTimeMillis();
+			this.tokens = Math.min(this.burstSize, (this.tokens + (((time - this.lastRefill) * rate) / 1000)));
+			this.lastRefill = time;
+			
+			//	consume token if available
+			if (this.tokens >= 1) {
+				this.tokens--;
+				break;
+			}
+			
+			//	wait for next token (at most a second, to react to changes in adaptive slowdown)
+			long wait = ((long) Math.ceil(((1 - this.tokens) * 1000) / rate));
+			try {
+				this.wait(Math.max(1, Math.min(wait, 1000)));
+			} catch (InterruptedException ie) {}
+		}
+		return (System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Adjust a pause time computed by the owner of the throttle to current
+	 * server load. If the throttle is adaptive, this method multiplies the
+	 * argument pause time with the current slowdown factor; otherwise, it
+	 * returns the argument pause time unchanged.
+	 * @param pause the pause time to adjust (in milliseconds)
+	 * @return the adjusted pause time (in milliseconds)
+	 */
+	public long adjustPause(long pause) {
+		if (!this.adaptive || (pause <= 0))
+			return pause;
+		return ((long) (pause * getSlowdownFactor()));
+	}
+	
+	/**
+	 * Check whether or not the throttle is currently slowing down its owner,
+	 * i.e., whether or not it is adaptive and the server is under load.
+	 * Owners can use this to refrain from any speedup of their own.
+	 * @return true if the throttle is slowing down its owner
+	 */
+	public boolean isSlowingDown() {
+		return (this.adaptive && (getSlowdownFactor() > 1));
+	}
+	
+	/**
+	 * Close the throttle, making any waiting and future calls to
+	 * <code>acquire()</code> return right away. This method is intended for
+	 * shutdown of the throttle owner.
+	 */
+	public synchronized void close() {
+		this.closed = true;
+		this.notifyAll();
+	}
+	
+	/**
+	 * Retrieve a description of the throttle status, for use in console
+	 * output.
+	 * @return the status of the throttle
+	 */
+	public String getStatus() {
+		String status = ((this.rateLimit <= 0) ? "no rate limit" : ("rate limit " + this.rateLimit + "/s, burst " + this.burstSize));
+		if (this.adaptive) {
+			if (this.rateLimit > 0)
+				status += (" (effective " + (Math.round(this.getEffectiveRateLimit() * 100) / 100.0) + "/s)");
+			status += (", adaptive, " + LoadMonitor.getInstance().getStatus());
+		}
+		return status;
+	}
+	
+	/**
+	 * Retrieve the current adaptive slowdown factor. A factor above 1
+	 * indicates background work should slow down, a factor below 1 indicates
+	 * it may speed up. If no throttle has been made adaptive so far, this
+	 * method returns 1.
+	 * @return the current slowdown factor
+	 */
+	public static double getSlowdownFactor() {
+		return ((LoadMonitor.instance == null) ? 1 : LoadMonitor.instance.slowdown);
+	}
+	
+	private static final double MIN_SLOWDOWN = 0.25;
+	private static final double MAX_SLOWDOWN = 16;
+	private static final long MONITOR_INTERVAL = 1000;
+	private static final double LATENCY_TOLERANCE = 1.5;
+	private static final int MIN_LATENCY_MARGIN = 50;
+	private static final int MAX_QUEUE_WAIT = 100;
+	private static final double BUSY_LOAD = 0.9;
+	private static final double IDLE_LOAD = 0.5;
+	
+	private static class LoadMonitor extends Thread implements GoldenGateServerNetworkActionListener {
+		private static LoadMonitor instance = null;
+		static synchronized LoadMonitor getInstance() {
+			if (instance == null) {
+				instance = new LoadMonitor();
+				GoldenGateServer.addNetworkActionListener(instance);
+				instance.start();
+			}
+			return instance;
+		}
+		
+		private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+		volatile double slowdown = 1;
+		
+		private int activeActions = 0;
+		private int finishedActions = 0;
+		private long finishedActionTime = 0;
+		private long finishedActionWait = 0;
+		private double baselineTime = -1;
+		private double loadPerCpu = -1;
+		private double lastTime = -1;
+		
+		LoadMonitor() {
+			super("BackgroundWorkLoadMonitor");
+			this.setDaemon(true);
+		}
+		
+		public synchronized void networkActionStarted(String command, int wait) {
+			this.activeActions++;
+		}
+		
+		public synchronized void networkActionFinished(String command, int wait, int time) {
+			this.activeActions = Math.max(0, (this.activeActions - 1));
+			this.finishedActions++;
+			this.finishedActionTime += time;
+			this.finishedActionWait += wait;
+		}
+		
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(MONITOR_INTERVAL);
+				} catch (InterruptedException ie) {}
+				this.adjustSlowdown();
+			}
+		}
+		
+		private void adjustSlowdown() {
+			
+			//	get and reset statistics for last interval
+			int activeActions;
+			int finishedActions;
+			long finishedActionTime;
+			long finishedActionWait;
+			synchronized (this) {
+				activeActions = this.activeActions;
+				finishedActions = this.finishedActions;
+				finishedActionTime = this.finishedActionTime;
+				finishedActionWait = this.finishedActionWait;
+				this.finishedActions = 0;
+				this.finishedActionTime = 0;
+				this.finishedActionWait = 0;
+			}
+			
+			//	get CPU load (average is negative if unavailable on platform)
+			double loadAverage = this.osBean.getSystemLoadAverage();
+			this.loadPerCpu = ((loadAverage < 0) ? -1 : (loadAverage / this.osBean.getAvailableProcessors()));
+			
+			//	assess network action latency against baseline
+			boolean slowActions = false;
+			if (finishedActions != 0) {
+				double time = (((double) finishedActionTime) / finishedActions);
+				double wait = (((double) finishedActionWait) / finishedActions);
+				this.lastTime = time;
+				if (this.baselineTime < 0)
+					this.baselineTime = time;
+				slowActions = ((time > Math.max((this.baselineTime * LATENCY_TOLERANCE), (this.baselineTime + MIN_LATENCY_MARGIN))) || (wait > MAX_QUEUE_WAIT));
+				
+				//	learn baseline only from unobstructed actions, so it doesn't drift upward under load
+				if (!slowActions)
+					this.baselineTime = ((this.baselineTime * 0.9) + (time * 0.1));
+			}
+			
+			//	CPU load only counts while serving interactive users, as otherwise it's background work keeping CPUs busy (and load average lags behind by a minute or so)
+			boolean interactive = ((activeActions != 0) || (finishedActions != 0));
+			
+			//	back off quickly under pressure ...
+			if (slowActions || (interactive && (this.loadPerCpu > BUSY_LOAD)))
+				this.slowdown = Math.min(MAX_SLOWDOWN, (this.slowdown * 2));
+			
+			//	... speed up gradually if idle ...
+			else if (!interactive && (this.loadPerCpu < IDLE_LOAD))
+				this.slowdown = Math.max(MIN_SLOWDOWN, (this.slowdown * 0.8));
+			
+			//	... and return to normal pace while serving interactive users without trouble, or while background work keeps CPUs busy
+			else if (this.slowdown > 1)
+				this.slowdown = Math.max(1, (this.slowdown * 0.8));
+			else if (interactive)
+				this.slowdown = 1;
+		}
+		
+		String getStatus() {
+			return ("slowdown " + (Math.round(this.slowdown * 100) / 100.0) + 
+					((this.loadPerCpu < 0) ? "" : (", load " + (Math.round(this.loadPerCpu * 100) / 100.0) + "/CPU")) + 
+					((this.lastTime < 0) ? "" : (", network actions " + Math.round(this.lastTime) + "ms (usually " + Math.round(this.baselineTime) + "ms)")));
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Binary delta encoding used by IdentifierKeyedDataObjectStore for storing
+ * previous versions of data objects relative to their successors. A delta
+ * describes a target byte array as a sequence of instructions that either
+ * copy a range of bytes from a source byte array, or insert literal bytes.
+ * Matches are found by indexing the source in fixed size blocks and rolling
+ * a hash over the target, then extending any verified block match in both
+ * directions. This works well for the typical case of consecutive versions
+ * of a data object differing in a few local edits.
+ *
+ * @author sautter
+ */
+class BinaryDelta {
+	private static final int DELTA_MARKER = 0x49424446; // 'IBDF'
+	private static final byte COPY = ((byte) 'C');
+	private static final byte INSERT = ((byte) 'I');
+	private static final byte END = ((byte) 'E');
+	
+	private static final int BLOCK_SIZE = 16;
+	private static final int HASH_BASE = 31;
+	
+	private BinaryDelta() {}
+	
+	/**
+	 * Create a delta that reconstructs a target byte array from a source byte
+	 * array.
+	 * @param source the source bytes
+	 * @param target the target bytes
+	 * @return the delta
+	 */
+	static byte[] createDelta(byte[] source, byte[] target) {
+		ByteArrayOutputStream delta = new ByteArrayOutputStream(Math.max(64, (target.length / 8)));
+		writeInt(delta, DELTA_MARKER);
+		writeInt(delta, source.length);
+		writeInt(delta, target.length);
+		
+		//	index start offsets of source blocks by hash (first occurrence wins)
+		int blockCount = (source.length / BLOCK_SIZE);
+		int tableSize = 16;
+		while (tableSize < (blockCount * 2))
+			tableSize <<= 1;
+		int[] blockHashes = new int[tableSize];
+		int[] blockOffsets = new int[tableSize];
+		Arrays.fill(blockOffsets, -1);
+		for (int b = 0; b < blockCount; b++) {
+			int hash = hashBlock(source, (b * BLOCK_SIZE));
+			for (int s = (hash & (tableSize - 1));; s = ((s + 1) & (tableSize - 1))) {
+				if (blockOffsets[s] == -1) {
+					blockHashes[s] = hash;
+					blockOffsets[s] = (b * BLOCK_SIZE);
+					break;
+				}
+				if ((blockHashes[s] == hash) && blockEquals(source, blockOffsets[s], source, (b * BLOCK_SIZE)))
+					break;
+			}
+		}
+		
+		//	compute factor for removing leading byte from rolling hash
+		int leadFactor = 1;
+		for (int i = 1; i < BLOCK_SIZE; i++)
+			leadFactor *= HASH_BASE;
+		
+		//	roll over target, emitting copies for matches and inserts for the gaps in between
+		int literalStart = 0;
+		int pos = 0;
+		int hash = ((target.length < BLOCK_SIZE) ? 0 : hashBlock(target, 0));
+		while ((blockCount != 0) && ((pos + BLOCK_SIZE) <= target.length)) {
+			int matchOffset = -1;
+			for (int s = (hash & (tableSize - 1)); blockOffsets[s] != -1; s = ((s + 1) & (tableSize - 1)))
+				if ((blockHashes[s] == hash) && blockEquals(source, blockOffsets[s], target, pos)) {
+					matchOffset = blockOffsets[s];
+					break;
+				}
+			
+			//	no match, roll on by one byte
+			if (matchOffset == -1) {
+				if ((pos + BLOCK_SIZE) < target.length)
+					hash = (((hash - ((target[pos] & 0xFF) * leadFactor)) * HASH_BASE) + (target[pos + BLOCK_SIZE] & 0xFF));
+				pos++;
+				continue;
+			}
+			
+			//	extend match backward into pending literals, and forward as far as possible
+			int matchStart = pos;
+			while ((literalStart < matchStart) && (0 < matchOffset) && (source[matchOffset - 1] == target[matchStart - 1])) {
+				matchStart--;
+				matchOffset--;
+			}
+			int matchEnd = (pos + BLOCK_SIZE);
+			int sourceEnd = (matchOffset + (matchEnd - matchStart));
+			while ((matchEnd < target.length) && (sourceEnd < source.length) && (source[sourceEnd] == target[matchEnd])) {
+				matchEnd++;
+				sourceEnd++;
+			}
+			
+			//	emit pending literals and copy
+			if (literalStart < matchStart)
+				writeInsert(delta, target, literalStart, (matchStart - literalStart));
+			delta.write(COPY);
+			writeInt(delta, matchOffset);
+			writeInt(delta, (matchEnd - matchStart));
+			
+			//	continue after match
+			literalStart = matchEnd;
+			pos = matchEnd;
+			if ((pos + BLOCK_SIZE) <= target.length)
+				hash = hashBlock(target, pos);
+		}
+		
+		//	emit trailing literals
+		if (literalStart < target.length)
+			writeInsert(delta, target, literalStart, (target.length - literalStart));
+		delta.write(END);
+		return delta.toByteArray();
+	}
+	
+	/**
+	 * Reconstruct a target byte array from the source byte array a delta was
+	 * created against, and the delta proper.
+	 * @param source the source bytes
+	 * @param delta the delta
+	 * @return the target bytes
+	 * @throws IOException if the delta is malformed or does not match the
+	 *            source bytes
+	 */
+	static byte[] applyDelta(byte[] source, byte[] delta) throws IOException {
+		if ((delta.length < 13) || (readInt(delta, 0) != DELTA_MARKER))
+			throw new IOException("Invalid delta marker");
+		if (readInt(delta, 4) != source.length)
+			throw new IOException("Delta source length mismatch, expected " + readInt(delta, 4) + " bytes, got " + source.length);
+		byte[] target = new byte[readInt(delta, 8)];
+		int targetPos = 0;
+		int pos = 12;
+		try {
+			while (delta[pos] != END) {
+				byte op = delta[pos++];
+				if (op == COPY) {
+					int offset = readInt(delta, pos);
+					int length = readInt(delta, (pos + 4));
+					pos += 8;
+					System.arraycopy(source, offset, target, targetPos, length);
+					targetPos += length;
+				}
+				else if (op == INSERT) {
+					int length = readInt(delta, pos);
+					pos += 4;
+					System.arraycopy(delta, pos, target, targetPos, length);
+					pos += length;
+					targetPos += length;
+				}
+				else throw new IOException("Invalid delta instruction " + op + " at " + (pos - 1));
+			}
+		}
+		catch (IndexOutOfBoundsException ioobe) {
+			throw new IOException("Truncated or corrupted delta: " + ioobe.getMessage());
+		}
+		if (targetPos != target.length)
+			throw new IOException("Delta target length mismatch, expected " + target.length + " bytes, got " + targetPos);
+		return target;
+	}
+	
+	private static int hashBlock(byte[] data, int offset) {
+		int hash = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++)
+			hash = ((hash * HASH_BASE) + (data[offset + i] & 0xFF));
+		return hash;
+	}
+	
+	private static boolean blockEquals(byte[] data1, int offset1, byte[] data2, int offset2) {
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			if (data1[offset1 + i] != data2[offset2 + i])
+				return false;
+		}
+		return true;
+	}
+	
+	private static void writeInsert(ByteArrayOutputStream delta, byte[] data, int offset, int length) {
+		delta.write(INSERT);
+		writeInt(delta, length);
+		delta.write(data, offset, length);
+	}
+	
+	private static void writeInt(ByteArrayOutputStream out, int i) {
+		out.write((i >>> 24) & 0xFF);
+		out.write((i >>> 16) & 0xFF);
+		out.write((i >>> 8) & 0xFF);
+		out.write(i & 0xFF);
+	}
+	
+	private static int readInt(byte[] data, int offset) {
+		return (((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF));
+	}
+}
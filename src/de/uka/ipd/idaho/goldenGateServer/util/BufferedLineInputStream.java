@@ -33,6 +33,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 
 /**
  * Hybrid of a BufferedInputStream and a BufferedReader, to facilitate reading
@@ -44,9 +45,16 @@ import java.io.InputStreamReader;
  */
 public class BufferedLineInputStream extends BufferedInputStream {
 	private static final int defaultLineBufferLength = 512;
+	private static final Charset LATIN1_CHARSET = Charset.forName("ISO-8859-1"); // same as ASCII on 7 bit bytes, and cheapest to decode
 	private String encoding;
+	private Charset charset;
+	private boolean asciiCompatible;
 	private BufferedReader reader = null;
 	
+	private byte[] lineBuffer = null;
+	private boolean skipLF = false;
+	private boolean markSkipLF = false;
+	
 	/** Constructor
 	 * @param in the input stream to wrap
 	 * @param encoding the character encoding for string data
@@ -54,6 +62,9 @@ public class BufferedLineInputStream extends BufferedInputStream {
 	public BufferedLineInputStream(InputStream in, String encoding) {
 		super(in);
 		this.encoding = encoding;
+		this.charset = Charset.forName(encoding);
+		String csn = this.charset.name();
+		this.asciiCompatible = ("UTF-8".equals(csn) || "US-ASCII".equals(csn) || csn.startsWith("ISO-8859-") || csn.startsWith("windows-125"));
 	}
 	
 	/**
@@ -66,64 +77,146 @@ public class BufferedLineInputStream extends BufferedInputStream {
 	 * @return the next line of string data
 	 * @throws IOException
 	 */
-	public String readLine() throws IOException {
-		return this.readLine(defaultLineBufferLength);
-	}
-	private String readLine(int lineBufferLength) throws IOException {
-		
-		//	buffer bytes
-		this.mark(lineBufferLength);
-		byte[] lineBuffer = new byte[lineBufferLength];
-		int lineBufferLevel = this.read(lineBuffer, 0, lineBuffer.length);
-		if (lineBufferLevel == -1)
-			return null;
-		
-		//	find end of line
-		int lineEnd = 0;
-		while ((lineEnd < lineBufferLevel)) {
+	public synchronized String readLine() throws IOException {
+		this.checkSkipLF();
+		int lineLength = 0;
+		while (true) {
 			
-			//	newline, definitely line end
-			if (lineBuffer[lineEnd] == '\n') {
-				this.reset();
-				this.skip(lineEnd + 1);
-				return new String(lineBuffer, 0, lineEnd, this.encoding);
+			//	buffer exhausted, refill (reading a single byte has the super class fill the buffer, and we put the byte back right away)
+			if (this.count <= this.pos) {
+				if (super.read() == -1)
+					return ((lineLength == 0) ? null : this.decode(this.lineBuffer, 0, lineLength));
+				this.pos--;
 			}
 			
-			//	carriage return, line end, possibly with subsequent newline
-			else if (lineBuffer[lineEnd] == '\r') {
-				
-				//	there might be a newline looming, better recurse (slow, but also a highly improbable case in the intended application)
-				if ((lineEnd+1) == lineBufferLength) {
-					this.reset();
-					return this.readLine(lineBufferLength + 8);
-				}
-				
-				//	return line (make sure to skip over both bytes in a cross platform line end)
-				else {
-					this.reset();
-					this.skip(lineEnd + ((lineBuffer[lineEnd + 1] == '\n') ? 2 : 1));
-					return new String(lineBuffer, 0, lineEnd, this.encoding);
-				}
+			//	find end of line in buffer
+			byte[] buf = this.buf;
+			int lineEnd = this.pos;
+			while ((lineEnd < this.count) && (buf[lineEnd] != '\n') && (buf[lineEnd] != '\r'))
+				lineEnd++;
+			
+			//	no line end in buffer, store what we have and keep going
+			if (lineEnd == this.count) {
+				lineLength = this.bufferLineBytes(buf, this.pos, (lineEnd - this.pos), lineLength);
+				this.pos = lineEnd;
+				continue;
 			}
 			
-			//	keep looking
-			else lineEnd++;
+			//	decode line (straight from buffer if line didn't span a refill)
+			String line;
+			if (lineLength == 0)
+				line = this.decode(buf, this.pos, (lineEnd - this.pos));
+			else {
+				lineLength = this.bufferLineBytes(buf, this.pos, (lineEnd - this.pos), lineLength);
+				line = this.decode(this.lineBuffer, 0, lineLength);
+			}
+			this.pos = (lineEnd + 1);
+			
+			//	skip over newline following carriage return, or remember to do so if it's not buffered yet (no use blocking to find out)
+			if (buf[lineEnd] == '\r') {
+				if (this.pos < this.count) {
+					if (buf[this.pos] == '\n')
+						this.pos++;
+				}
+				else this.skipLF = true;
+			}
+			return line;
 		}
-		
-		//	didn't find line end before end of buffer, increase buffer size
-		if (lineEnd == lineBufferLength) {
-			this.reset();
-			return this.readLine(lineBufferLength + defaultLineBufferLength);
+	}
+	
+	private int bufferLineBytes(byte[] bytes, int off, int len, int lineLength) {
+		if (this.lineBuffer == null)
+			this.lineBuffer = new byte[Math.max(defaultLineBufferLength, len)];
+		else if (this.lineBuffer.length < (lineLength + len)) {
+			byte[] lineBuffer = new byte[Math.max((this.lineBuffer.length * 2), (lineLength + len))]; // double buffer size, so long lines take linear effort
+			System.arraycopy(this.lineBuffer, 0, lineBuffer, 0, lineLength);
+			this.lineBuffer = lineBuffer;
+		}
+		System.arraycopy(bytes, off, this.lineBuffer, lineLength, len);
+		return (lineLength + len);
+	}
+	
+	private String decode(byte[] bytes, int off, int len) {
+		if (this.asciiCompatible) {
+			boolean ascii = true;
+			for (int b = off; b < (off + len); b++)
+				if (bytes[b] < 0) {
+					ascii = false;
+					break;
+				}
+			if (ascii)
+				return new String(bytes, off, len, LATIN1_CHARSET);
+		}
+		return new String(bytes, off, len, this.charset);
+	}
+	
+	/* after a line ending in a carriage return, check if the next byte is a
+	 * newline, and skip over it if so, which might block if the next byte is
+	 * not buffered yet */
+	private void checkSkipLF() throws IOException {
+		if (!this.skipLF)
+			return;
+		this.skipLF = false;
+		if (this.pos < this.count) {
+			if (this.buf[this.pos] == '\n')
+				this.pos++;
 		}
-		
-		//	we must have reached the end of the stream without encountering a carriage return or newline
 		else {
-			this.reset();
-			this.skip(lineBufferLevel);
-			return new String(lineBuffer, 0, lineBufferLevel, this.encoding);
+			int b = super.read();
+			if ((b != -1) && (b != '\n'))
+				this.pos--;
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see java.io.BufferedInputStream#read()
+	 */
+	public synchronized int read() throws IOException {
+		this.checkSkipLF();
+		return super.read();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.BufferedInputStream#read(byte[], int, int)
+	 */
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		this.checkSkipLF();
+		return super.read(b, off, len);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.BufferedInputStream#skip(long)
+	 */
+	public synchronized long skip(long n) throws IOException {
+		this.checkSkipLF();
+		return super.skip(n);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.BufferedInputStream#available()
+	 */
+	public synchronized int available() throws IOException {
+		if (this.skipLF && ((this.pos < this.count) || (super.available() > 0)))
+			this.checkSkipLF(); // won't block, as we have data
+		return super.available();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.BufferedInputStream#mark(int)
+	 */
+	public synchronized void mark(int readlimit) {
+		super.mark(readlimit);
+		this.markSkipLF = this.skipLF;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.BufferedInputStream#reset()
+	 */
+	public synchronized void reset() throws IOException {
+		super.reset();
+		this.skipLF = this.markSkipLF;
+	}
+	
 	/**
 	 * Wrap the input stream in an actual reader, using the encoding handed to
 	 * the constructor. The stream proper should not be read from by client
@@ -152,5 +245,45 @@ public class BufferedLineInputStream extends BufferedInputStream {
 			System.out.print((char) b);
 		System.out.println("-----");
 		blin.close();
+		
+		//	same data one byte at a time, so carriage returns are the last byte available
+		blin = new BufferedLineInputStream(new ByteArrayInputStream(str.getBytes("UTF-8")) {
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+			public synchronized int available() {
+				return 0;
+			}
+		}, "UTF-8");
+		for (String line; (line = blin.readLine()) != null;)
+			System.out.println("'" + line + "'");
+		System.out.println("-----");
+		blin.close();
+		
+		//	time short command lines
+		StringBuffer commands = new StringBuffer();
+		for (int c = 0; c < 100000; c++)
+			commands.append("GET_DOCUMENT\r\n" + c + "\r\n");
+		byte[] commandBytes = commands.toString().getBytes("UTF-8");
+		for (int r = 0; r < 5; r++) {
+			long start = System.nanoTime();
+			blin = new BufferedLineInputStream(new ByteArrayInputStream(commandBytes), "UTF-8");
+			int lines = 0;
+			while (blin.readLine() != null)
+				lines++;
+			System.out.println(lines + " short lines in " + ((System.nanoTime() - start) / 1000) + "us");
+		}
+		
+		//	time multi-megabyte single line
+		byte[] longLineBytes = new byte[8 * 1024 * 1024];
+		for (int b = 0; b < longLineBytes.length; b++)
+			longLineBytes[b] = ((byte) ('a' + (b % 26)));
+		longLineBytes[longLineBytes.length - 1] = ((byte) '\n');
+		for (int r = 0; r < 5; r++) {
+			long start = System.nanoTime();
+			blin = new BufferedLineInputStream(new ByteArrayInputStream(longLineBytes), "UTF-8");
+			String line = blin.readLine();
+			System.out.println(line.length() + " byte line in " + ((System.nanoTime() - start) / 1000) + "us");
+		}
 	}
 }
\ No newline at end of file
@@ -29,9 +29,13 @@ package de.uka.ipd.idaho.goldenGateServer.util;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Hybrid of a BufferedOutputStream and a BufferedWriter, to facilitate writing
@@ -44,6 +48,7 @@ import java.io.OutputStreamWriter;
 public class BufferedLineOutputStream extends BufferedOutputStream {
 	private String encoding;
 	private BufferedWriter writer = null;
+	private WritableByteChannel channel = null;
 	
 	/** Constructor
 	 * @param out the output stream to wrap
@@ -54,6 +59,19 @@ public class BufferedLineOutputStream extends BufferedOutputStream {
 		this.encoding = encoding;
 	}
 	
+	/** Constructor
+	 * @param out the output stream to wrap
+	 * @param channel a channel writing to the same destination as the wrapped
+	 *            output stream, e.g. a socket channel, for transferring file
+	 *            data directly (may be null)
+	 * @param encoding the character encoding for string data
+	 */
+	public BufferedLineOutputStream(OutputStream out, WritableByteChannel channel, String encoding) {
+		super(out);
+		this.channel = channel;
+		this.encoding = encoding;
+	}
+	
 	/**
 	 * Write a string of character data. This method converts the argument
 	 * string into bytes using the encoding handed to the constructor.
@@ -107,6 +125,61 @@ public class BufferedLineOutputStream extends BufferedOutputStream {
 //		else super.close();
 //	}
 //	
+	/**
+	 * Write a region of a file. This method first flushes any buffered data.
+	 * If this stream was created with a channel, e.g. by the server core for
+	 * a network socket, the file data goes straight to that channel, without
+	 * being copied through the Java heap where the platform supports this. If
+	 * the wrapped stream is a BufferedLineOutputStream or ChunkedOutputStream,
+	 * the file region is handed on to it, so the direct transfer also works
+	 * through these layers. Otherwise, the file data is copied to the wrapped
+	 * stream through the internal buffer. This method does not change the
+	 * position of the argument file channel.
+	 * @param fileChannel the channel to read file data from
+	 * @param position the position in the file to start from
+	 * @param count the number of bytes to write
+	 * @throws IOException
+	 */
+	public void writeFile(FileChannel fileChannel, long position, long count) throws IOException {
+		if (this.writer != null)
+			this.writer.flush();
+		this.flush();
+		
+		//	transfer directly to channel
+		if (this.channel != null)
+			while (count > 0) {
+				long transferred = fileChannel.transferTo(position, count, this.channel);
+				if ((transferred <= 0) && (fileChannel.size() <= position))
+					throw new EOFException("File region exceeds file size");
+				position += transferred;
+				count -= transferred;
+			}
+		
+		//	hand on to wrapped stream
+		else if (this.out instanceof BufferedLineOutputStream)
+			((BufferedLineOutputStream) this.out).writeFile(fileChannel, position, count);
+		else if (this.out instanceof ChunkedOutputStream)
+			((ChunkedOutputStream) this.out).writeFile(fileChannel, position, count);
+		
+		//	copy through buffer (empty after flush)
+		else copyFile(fileChannel, position, count, this.out, this.buf);
+	}
+	
+	static void copyFile(FileChannel fileChannel, long position, long count, OutputStream out, byte[] buffer) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		while (count > 0) {
+			bb.clear();
+			if (count < bb.capacity())
+				bb.limit((int) count);
+			int read = fileChannel.read(bb, position);
+			if (read == -1)
+				throw new EOFException("File region exceeds file size");
+			out.write(buffer, 0, read);
+			position += read;
+			count -= read;
+		}
+	}
+	
 	/**
 	 * Wrap the output stream in an actual writer, using the encoding handed to
 	 * the constructor. The stream proper should not be written to by client
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream reading data framed in chunks of explicit length, as written by
+ * a ChunkedOutputStream. This stream reports the end of the data when
+ * encountering the end marker (a chunk of length 0), while the underlying
+ * stream can still be read beyond that point, e.g. for reading the next
+ * request or response sent over the same connection. Closing this stream
+ * skips any remaining data up to and including the end marker, but does not
+ * close the underlying stream. Any chunk extension following a semicolon
+ * after a chunk length is ignored, save for the one of the end marker, which
+ * is available from the getEndMarkerExtension() method.
+ * 
+ * @author sautter
+ */
+public class ChunkedInputStream extends InputStream {
+	private BufferedLineInputStream in;
+	private int chunkRemaining = 0;
+	private boolean endReached = false;
+	private String endMarkerExtension = null;
+	
+	/** Constructor
+	 * @param in the input stream to read from
+	 */
+	public ChunkedInputStream(BufferedLineInputStream in) {
+		this.in = in;
+	}
+	
+	private boolean fillChunk() throws IOException {
+		if (this.endReached)
+			return false;
+		if (this.chunkRemaining > 0)
+			return true;
+		String chunkHead = this.in.readLine();
+		if (chunkHead == null)
+			throw new IOException("Unexpected end of chunked data.");
+		int extensionStart = chunkHead.indexOf(';');
+		String chunkLength = ((extensionStart == -1) ? chunkHead : chunkHead.substring(0, extensionStart));
+		try {
+			this.chunkRemaining = Integer.parseInt(chunkLength.trim());
+		}
+		catch (NumberFormatException nfe) {
+			throw new IOException("Invalid chunk length '" + chunkHead + "'.");
+		}
+		if (this.chunkRemaining < 0)
+			throw new IOException("Invalid chunk length '" + chunkHead + "'.");
+		if (this.chunkRemaining == 0) {
+			this.endReached = true;
+			if (extensionStart != -1)
+				this.endMarkerExtension = chunkHead.substring(extensionStart + 1).trim();
+		}
+		return !this.endReached;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	public synchronized int read() throws IOException {
+		if (this.in == null) throw new IOException("Closed.");
+		
+		if (!this.fillChunk())
+			return -1;
+		int b = this.in.read();
+		if (b == -1)
+			throw new IOException("Unexpected end of chunked data.");
+		this.chunkRemaining--;
+		return b;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (this.in == null) throw new IOException("Closed.");
+		
+		if (len == 0)
+			return 0;
+		if (!this.fillChunk())
+			return -1;
+		int read = this.in.read(b, off, Math.min(len, this.chunkRemaining));
+		if (read == -1)
+			throw new IOException("Unexpected end of chunked data.");
+		this.chunkRemaining -= read;
+		return read;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	public synchronized int available() throws IOException {
+		if (this.in == null) throw new IOException("Closed.");
+		
+		return Math.min(this.chunkRemaining, this.in.available());
+	}
+	
+	/**
+	 * Check whether or not the end marker of the chunked data has been read.
+	 * @return true if the end of the chunked data has been reached
+	 */
+	public boolean isEndReached() {
+		return this.endReached;
+	}
+	
+	/**
+	 * Retrieve the extension sent along with the end marker of the chunked
+	 * data, i.e., anything after a semicolon following the zero chunk length.
+	 * If the end marker has not been read yet, or if it did not come with an
+	 * extension, this method returns null.
+	 * @return the end marker extension
+	 */
+	public String getEndMarkerExtension() {
+		return this.endMarkerExtension;
+	}
+	
+	/**
+	 * Closes this input stream. This will skip any data remaining up to and
+	 * including the end marker, so the underlying stream is positioned right
+	 * after the chunked data. The underlying stream is not closed, however.
+	 * Closing an already closed chunked input stream has no effect.
+	 * @see java.io.InputStream#close()
+	 */
+	public synchronized void close() throws IOException {
+		if (this.in == null)
+			return;
+		
+		while (this.fillChunk()) {
+			long skipped = this.in.skip(this.chunkRemaining);
+			if (skipped <= 0) {
+				if (this.in.read() == -1)
+					throw new IOException("Unexpected end of chunked data.");
+				skipped = 1;
+			}
+			this.chunkRemaining -= ((int) skipped);
+		}
+		this.in = null;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output stream framing the data written to it in chunks of explicit length,
+ * so multiple requests or responses can be sent over one and the same
+ * connection. Each chunk consists of a line holding the number of bytes in
+ * the chunk (in decimal notation), followed by that many bytes of data. A
+ * chunk of length 0 marks the end of the data. Flushing this stream sends any
+ * buffered data as a chunk right away. Closing this stream writes the end
+ * marker and flushes the underlying stream, but does not close the latter.
+ * Like in HTTP chunked transfer encoding, the end marker can carry an
+ * extension after a semicolon, e.g. to signal the receiving side that the
+ * connection will be closed.
+ * 
+ * @author sautter
+ */
+public class ChunkedOutputStream extends OutputStream {
+	private static final int defaultChunkSize = 8192;
+	private OutputStream out;
+	private byte[] buffer;
+	private int bufferLevel = 0;
+	private String endMarkerExtension = null;
+	
+	/** Constructor
+	 * @param out the output stream to write to
+	 */
+	public ChunkedOutputStream(OutputStream out) {
+		this(out, defaultChunkSize);
+	}
+	
+	/** Constructor
+	 * @param out the output stream to write to
+	 * @param chunkSize the maximum number of bytes to send per chunk
+	 */
+	public ChunkedOutputStream(OutputStream out, int chunkSize) {
+		this.out = out;
+		this.buffer = new byte[Math.max(chunkSize, 16)];
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	public synchronized void write(int b) throws IOException {
+		if (this.out == null) throw new IOException("Closed.");
+		
+		if (this.bufferLevel == this.buffer.length)
+			this.writeChunk();
+		this.buffer[this.bufferLevel++] = ((byte) b);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (this.out == null) throw new IOException("Closed.");
+		
+		while (len > 0) {
+			if (this.bufferLevel == this.buffer.length)
+				this.writeChunk();
+			int copy = Math.min(len, (this.buffer.length - this.bufferLevel));
+			System.arraycopy(b, off, this.buffer, this.bufferLevel, copy);
+			this.bufferLevel += copy;
+			off += copy;
+			len -= copy;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#flush()
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.out == null)
+			return; // nothing left to send after end marker, but wrapping streams might still flush on closing
+		
+		this.writeChunk();
+		this.out.flush();
+	}
+	
+	/**
+	 * Set an extension to append to the end marker, separated by a semicolon.
+	 * This is to transport information about the connection to the receiving
+	 * side, e.g. that it will be closed after the current data. Setting the
+	 * extension to null sends a plain end marker.
+	 * @param extension the end marker extension to send
+	 */
+	public synchronized void setEndMarkerExtension(String extension) {
+		this.endMarkerExtension = extension;
+	}
+	
+	/**
+	 * Closes this output stream. This will write any buffered data as a final
+	 * chunk, succeeded by the end marker, and then flush the underlying
+	 * output stream. The latter is not closed, however, so further chunked
+	 * data can be written to it. Closing or flushing an already closed
+	 * chunked output stream has no effect.
+	 * @see java.io.OutputStream#close()
+	 */
+	public synchronized void close() throws IOException {
+		if (this.out == null)
+			return;
+		
+		this.writeChunk();
+		this.out.write(("0" + ((this.endMarkerExtension == null) ? "" : (";" + this.endMarkerExtension)) + "\r\n").getBytes("UTF-8"));
+		this.out.flush();
+		this.out = null;
+	}
+	
+	/**
+	 * Write a region of a file as one or more chunks of their own. If the
+	 * underlying stream is a BufferedLineOutputStream, the file data is handed
+	 * on to it, so it can transfer the data directly.
+	 * @param fileChannel the channel to read file data from
+	 * @param position the position in the file to start from
+	 * @param count the number of bytes to write
+	 * @throws IOException
+	 * @see de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream#writeFile(FileChannel, long, long)
+	 */
+	public synchronized void writeFile(FileChannel fileChannel, long position, long count) throws IOException {
+		if (this.out == null) throw new IOException("Closed.");
+		
+		this.writeChunk();
+		while (count > 0) {
+			int chunkSize = ((int) Math.min(count, maxFileChunkSize));
+			this.out.write((chunkSize + "\r\n").getBytes("UTF-8"));
+			if (this.out instanceof BufferedLineOutputStream)
+				((BufferedLineOutputStream) this.out).writeFile(fileChannel, position, chunkSize);
+			else BufferedLineOutputStream.copyFile(fileChannel, position, chunkSize, this.out, this.buffer);
+			position += chunkSize;
+			count -= chunkSize;
+		}
+	}
+	private static final int maxFileChunkSize = (1024 * 1024 * 1024);
+	
+	private void writeChunk() throws IOException {
+		if (this.bufferLevel == 0)
+			return;
+		this.out.write((this.bufferLevel + "\r\n").getBytes("UTF-8"));
+		this.out.write(this.buffer, 0, this.bufferLevel);
+		this.bufferLevel = 0;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream deciding whether or not to compress the data written to it
+ * depending on its size. The first bytes are buffered up to a threshold; if
+ * the stream is finished or closed before the threshold is reached, the data
+ * is sent as is, otherwise it is sent gzip compressed.
+ * Either way, the data is preceded by a single flag byte indicating whether
+ * or not the data is compressed, so a DecompressingInputStream on the
+ * receiving end can handle both cases. This keeps small replies from being
+ * penalized by the overhead of compression. Flushing this stream before the
+ * threshold is reached decides against compression and sends the buffered
+ * data right away, so a receiver waiting for partial output does not stall.
+ * Flushing this stream after the decision for compression sends all data
+ * written so far.
+ * 
+ * @author sautter
+ */
+public class CompressingOutputStream extends OutputStream {
+	
+	/** the flag byte indicating uncompressed data */
+	public static final int FLAG_PLAIN = 'P';
+	
+	/** the flag byte indicating gzip compressed data */
+	public static final int FLAG_GZIP = 'Z';
+	
+	/** the name of the compression method, for use in request headers */
+	public static final String COMPRESSION_GZIP = "gzip";
+	
+	private static final int defaultThreshold = 4096;
+	private OutputStream out;
+	private OutputStream dataOut = null;
+	private byte[] buffer;
+	private int bufferLevel = 0;
+	private boolean finished = false;
+	
+	/** Constructor
+	 * @param out the output stream to write to
+	 */
+	public CompressingOutputStream(OutputStream out) {
+		this(out, defaultThreshold);
+	}
+	
+	/** Constructor
+	 * @param out the output stream to write to
+	 * @param threshold the number of bytes from which on to compress data
+	 */
+	public CompressingOutputStream(OutputStream out, int threshold) {
+		this.out = out;
+		this.buffer = new byte[Math.max(threshold, 0)];
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	public void write(int b) throws IOException {
+		this.write(new byte[] {((byte) b)}, 0, 1);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (this.out == null) throw new IOException("Closed.");
+		if (this.finished) throw new IOException("Finished.");
+		
+		if (this.dataOut == null) {
+			if ((this.bufferLevel + len) < this.buffer.length) {
+				System.arraycopy(b, off, this.buffer, this.bufferLevel, len);
+				this.bufferLevel += len;
+				return;
+			}
+			this.startData(true);
+		}
+		this.dataOut.write(b, off, len);
+	}
+	
+	/**
+	 * Check whether or not the data written to this stream is compressed.
+	 * Before the decision is made, this method returns false.
+	 * @return true if the data is compressed
+	 */
+	public boolean isCompressed() {
+		return (this.dataOut instanceof GZIPOutputStream);
+	}
+	
+	private void startData(boolean compress) throws IOException {
+		this.out.write(compress ? FLAG_GZIP : FLAG_PLAIN);
+		this.dataOut = (compress ? new GZIPOutputStream(this.out, 8192, true) : this.out);
+		if (this.bufferLevel != 0)
+			this.dataOut.write(this.buffer, 0, this.bufferLevel);
+		this.buffer = null;
+		this.bufferLevel = 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#flush()
+	 */
+	public void flush() throws IOException {
+		if (this.out == null) throw new IOException("Closed.");
+		if (this.finished)
+			return;
+		
+		if (this.dataOut == null) {
+			if (this.bufferLevel == 0) {
+				this.out.flush();
+				return; // nothing to send just yet, no need to decide
+			}
+			this.startData(false); // receiver might be waiting for what we have so far
+		}
+		this.dataOut.flush();
+	}
+	
+	/**
+	 * Finish writing data to this stream. This writes any buffered data to
+	 * the underlying stream, and completes the compressed data (if any), but
+	 * does not close the underlying stream. Writing data after invoking this
+	 * method results in an exception. Finishing an already finished stream
+	 * has no effect.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (this.out == null) throw new IOException("Closed.");
+		if (this.finished)
+			return;
+		
+		if (this.dataOut == null)
+			this.startData(false);
+		if (this.dataOut instanceof GZIPOutputStream)
+			((GZIPOutputStream) this.dataOut).finish();
+		this.out.flush();
+		this.finished = true;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#close()
+	 */
+	public void close() throws IOException {
+		if (this.out == null)
+			return;
+		
+		this.finish();
+		if (this.dataOut instanceof GZIPOutputStream)
+			this.dataOut.close(); // releases deflater, also closes underlying stream
+		else this.out.close();
+		this.out = null;
+	}
+}
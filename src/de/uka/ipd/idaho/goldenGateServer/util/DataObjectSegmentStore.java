@@ -0,0 +1,817 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerActivityLogger;
+import de.uka.ipd.idaho.goldenGateServer.util.IdentifierKeyedDataObjectStore.DataObjectNotFoundException;
+
+/**
+ * Storage backend packing data objects into large append-only segment files,
+ * used by IdentifierKeyedDataObjectStore in segment file mode. Each segment
+ * file holds a sequence of records, each consisting of a fixed size header
+ * and the bytes of a data object version, or of the header alone for the
+ * marker records flagging deletions, restorations, and irreversible
+ * deletions. An in-memory index maps data object IDs to the locations of
+ * their records; it is built from the record headers on startup. New records
+ * always go to the end of the active segment file, and once the latter has
+ * reached the configured size, a new one is started. Records of superseded
+ * or destroyed data objects become garbage, and segment files with more than
+ * half garbage are compacted by copying the remaining live records to the
+ * active segment file and then deleting them. Copied records retain their
+ * sequence numbers, so the index comes out the same regardless of the order
+ * records are read in on startup.
+ *
+ * @author sautter
+ */
+class DataObjectSegmentStore {
+	static final String SEGMENT_FOLDER_NAME = "segments";
+	static final String SEGMENT_FILE_EXTENSION = ".seg";
+	
+	private static final int RECORD_MARKER = 0x49534547; // 'ISEG'
+	private static final byte DATA_RECORD = ((byte) 'D');
+	private static final byte DELETE_RECORD = ((byte) 'X');
+	private static final byte RESTORE_RECORD = ((byte) 'R');
+	private static final byte DESTROY_RECORD = ((byte) 'E');
+	private static final int HEADER_SIZE = (4 + 1 + 32 + 4 + 8 + 8 + 4 + 4); // marker, type, data ID, version, sequence number, timestamp, length, checksum
+	private static final byte[] NO_DATA = {};
+	
+	private static class Segment {
+		final int number;
+		final File file;
+		final FileChannel channel;
+		long size;
+		long liveBytes = 0;
+		int readers = 0;
+		Segment(int number, File file, FileChannel channel, long size) {
+			this.number = number;
+			this.file = file;
+			this.channel = channel;
+			this.size = size;
+		}
+	}
+	
+	private static class Record {
+		final byte type;
+		final String dataId;
+		final int version;
+		final long sequence;
+		final long timestamp;
+		final int length;
+		final int checksum;
+		final Segment segment;
+		final long offset;
+		Record(byte type, String dataId, int version, long sequence, long timestamp, int length, int checksum, Segment segment, long offset) {
+			this.type = type;
+			this.dataId = dataId;
+			this.version = version;
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.length = length;
+			this.checksum = checksum;
+			this.segment = segment;
+			this.offset = offset;
+		}
+		long getSize() {
+			return (HEADER_SIZE + this.length);
+		}
+		boolean isAt(Record rec) {
+			return ((rec != null) && (this.segment == rec.segment) && (this.offset == rec.offset));
+		}
+	}
+	
+	private static class IndexEntry {
+		final TreeMap versions = new TreeMap();
+		Record deleteMarker = null;
+		Record restoreMarker = null;
+		Record destroyMarker = null;
+		long dataSequence = -1;
+		int getCurrentVersion() {
+			return (this.versions.isEmpty() ? 0 : ((Integer) this.versions.lastKey()).intValue());
+		}
+		long getLastModified() {
+			long lastModified = (this.versions.isEmpty() ? -1 : ((Record) this.versions.get(this.versions.lastKey())).timestamp);
+			if ((this.deleteMarker != null) && (lastModified < this.deleteMarker.timestamp))
+				lastModified = this.deleteMarker.timestamp;
+			if ((this.restoreMarker != null) && (lastModified < this.restoreMarker.timestamp))
+				lastModified = this.restoreMarker.timestamp;
+			return lastModified;
+		}
+		boolean isDeleted() {
+			if (this.deleteMarker == null)
+				return false;
+			long liveSequence = Math.max(this.dataSequence, ((this.restoreMarker == null) ? -1 : this.restoreMarker.sequence));
+			return (liveSequence < this.deleteMarker.sequence);
+		}
+	}
+	
+	/**
+	 * Input stream reading the data of a single record from its segment
+	 * file. While any such stream is open, the segment file is exempt from
+	 * deletion after compaction.
+	 *
+	 * @author sautter
+	 */
+	class RecordInputStream extends InputStream {
+		private Record record;
+		private boolean currentVersion;
+		private long position;
+		private long end;
+		private long mark;
+		RecordInputStream(Record record, boolean currentVersion) {
+			this.record = record;
+			this.currentVersion = currentVersion;
+			this.position = (record.offset + HEADER_SIZE);
+			this.end = (this.position + record.length);
+			this.mark = this.position;
+		}
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return ((this.read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF));
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.record == null)
+				throw new IOException("Stream closed");
+			if (len == 0)
+				return 0;
+			if (this.end <= this.position)
+				return -1;
+			len = ((int) Math.min(len, (this.end - this.position)));
+			int read = this.record.segment.channel.read(ByteBuffer.wrap(b, off, len), this.position);
+			if (read == -1)
+				throw new EOFException("Unexpected end of segment file " + this.record.segment.file.getName());
+			this.position += read;
+			return read;
+		}
+		public long skip(long n) throws IOException {
+			if (n <= 0)
+				return 0;
+			long skip = Math.min(n, (this.end - this.position));
+			this.position += skip;
+			return skip;
+		}
+		public int available() throws IOException {
+			return ((int) (this.end - this.position));
+		}
+		public synchronized void mark(int readlimit) {
+			this.mark = this.position;
+		}
+		public synchronized void reset() throws IOException {
+			this.position = this.mark;
+		}
+		public boolean markSupported() {
+			return true;
+		}
+		public void close() throws IOException {
+			if (this.record == null)
+				return;
+			releaseSegment(this.record.segment);
+			this.record = null;
+		}
+		String getDataId() {
+			return this.record.dataId;
+		}
+		int getVersion() {
+			return this.record.version;
+		}
+		boolean isCurrentVersion() {
+			return this.currentVersion;
+		}
+		int getLength() {
+			return this.record.length;
+		}
+		long getTimestamp() {
+			return this.record.timestamp;
+		}
+		FileChannel getChannel() {
+			return this.record.segment.channel;
+		}
+		long getDataOffset() {
+			return (this.record.offset + HEADER_SIZE);
+		}
+	}
+	
+	private File segmentFolder;
+	private long segmentSize;
+	private boolean doVersioning;
+	private GoldenGateServerActivityLogger logger;
+	
+	private TreeMap segments = new TreeMap();
+	private Segment activeSegment;
+	private HashSet unsyncedSegments = new HashSet();
+	private HashMap index = new HashMap();
+	private long nextSequence = 0;
+	private boolean loaded = false;
+	private int compactionHolds = 0;
+	
+	/** Constructor
+	 * @param segmentFolder the folder to store the segment files in
+	 * @param segmentSize the size at which to start a new segment file
+	 * @param doVersioning keep previous versions of data objects available?
+	 * @param logger logger for loading and compaction activity
+	 * @throws IOException if the existing segment files cannot be loaded
+	 */
+	DataObjectSegmentStore(File segmentFolder, long segmentSize, boolean doVersioning, GoldenGateServerActivityLogger logger) throws IOException {
+		this.segmentFolder = segmentFolder;
+		this.segmentFolder.mkdirs();
+		this.segmentSize = segmentSize;
+		this.doVersioning = doVersioning;
+		this.logger = logger;
+		
+		//	list and sort segment files
+		File[] segmentFiles = this.segmentFolder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return (file.isFile() && file.getName().matches("[0-9]{8}\\" + SEGMENT_FILE_EXTENSION));
+			}
+		});
+		Arrays.sort(segmentFiles);
+		
+		//	load record headers, verifying checksums in last segment file (the only one that can have suffered from a crash in the middle of a write)
+		long start = System.currentTimeMillis();
+		for (int s = 0; s < segmentFiles.length; s++) {
+			boolean isLast = ((s + 1) == segmentFiles.length);
+			int number = Integer.parseInt(segmentFiles[s].getName().substring(0, 8));
+			FileChannel channel = (new RandomAccessFile(segmentFiles[s], (isLast ? "rw" : "r"))).getChannel();
+			Segment segment = new Segment(number, segmentFiles[s], channel, channel.size());
+			this.segments.put(new Integer(number), segment);
+			this.loadSegment(segment, isLast);
+			if (isLast)
+				this.activeSegment = segment;
+		}
+		if (this.activeSegment == null)
+			this.startSegment();
+		this.loaded = true;
+		this.logger.logInfo("Loaded " + this.index.size() + " data object IDs from " + this.segments.size() + " segment files in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	private void loadSegment(Segment segment, boolean verify) throws IOException {
+		long offset = 0;
+		while (offset < segment.size) {
+			Record rec = this.readRecord(segment, offset);
+			if ((rec == null) || (verify && !this.checkRecord(rec))) {
+				if (verify) {
+					this.logger.logWarning("Truncating incomplete record at offset " + offset + " in segment file " + segment.file.getName());
+					segment.channel.truncate(offset);
+					segment.size = offset;
+				}
+				else this.logger.logError("Invalid record at offset " + offset + " in segment file " + segment.file.getName() + ", ignoring remainder");
+				break;
+			}
+			this.applyRecord(rec);
+			if (this.nextSequence <= rec.sequence)
+				this.nextSequence = (rec.sequence + 1);
+			offset += rec.getSize();
+		}
+	}
+	
+	private Record readRecord(Segment segment, long offset) throws IOException {
+		if ((segment.size - offset) < HEADER_SIZE)
+			return null;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(segment.channel, header, offset);
+		header.flip();
+		if (header.getInt() != RECORD_MARKER)
+			return null;
+		byte type = header.get();
+		byte[] dataIdBytes = new byte[32];
+		header.get(dataIdBytes);
+		int version = header.getInt();
+		long sequence = header.getLong();
+		long timestamp = header.getLong();
+		int length = header.getInt();
+		int checksum = header.getInt();
+		if ((length < 0) || ((segment.size - offset - HEADER_SIZE) < length))
+			return null;
+		return new Record(type, new String(dataIdBytes, "US-ASCII"), version, sequence, timestamp, length, checksum, segment, offset);
+	}
+	
+	private boolean checkRecord(Record rec) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(this.readData(rec));
+		return (((int) crc.getValue()) == rec.checksum);
+	}
+	
+	private byte[] readData(Record rec) throws IOException {
+		byte[] data = new byte[rec.length];
+		readFully(rec.segment.channel, ByteBuffer.wrap(data), (rec.offset + HEADER_SIZE));
+		return data;
+	}
+	
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read == -1)
+				throw new EOFException();
+			position += read;
+		}
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+	
+	private void startSegment() throws IOException {
+		int number = (this.segments.isEmpty() ? 0 : (((Integer) this.segments.lastKey()).intValue() + 1));
+		String fileName = ("" + number);
+		while (fileName.length() < 8)
+			fileName = ("0" + fileName);
+		File file = new File(this.segmentFolder, (fileName + SEGMENT_FILE_EXTENSION));
+		Segment segment = new Segment(number, file, (new RandomAccessFile(file, "rw")).getChannel(), 0);
+		Segment exSegment = this.activeSegment;
+		this.segments.put(new Integer(number), segment);
+		this.activeSegment = segment;
+		if (exSegment != null)
+			this.checkCompaction(exSegment, false);
+	}
+	
+	private Record appendRecord(byte type, String dataId, int version, long sequence, long timestamp, byte[] data, int length) throws IOException {
+		if ((this.activeSegment.size != 0) && (this.segmentSize <= (this.activeSegment.size + HEADER_SIZE + length)))
+			this.startSegment();
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(RECORD_MARKER);
+		header.put(type);
+		header.put(dataId.getBytes("US-ASCII"));
+		header.putInt(version);
+		header.putLong(sequence);
+		header.putLong(timestamp);
+		header.putInt(length);
+		header.putInt((int) crc.getValue());
+		header.flip();
+		Segment segment = this.activeSegment;
+		long offset = segment.size;
+		writeFully(segment.channel, header, offset);
+		writeFully(segment.channel, ByteBuffer.wrap(data, 0, length), (offset + HEADER_SIZE));
+		segment.size += (HEADER_SIZE + length);
+		this.unsyncedSegments.add(segment);
+		return new Record(type, dataId, version, sequence, timestamp, length, ((int) crc.getValue()), segment, offset);
+	}
+	
+	private void applyRecord(Record rec) {
+		IndexEntry ie = ((IndexEntry) this.index.get(rec.dataId));
+		if (ie == null) {
+			ie = new IndexEntry();
+			this.index.put(rec.dataId, ie);
+		}
+		
+		//	data object version
+		if (rec.type == DATA_RECORD) {
+			if ((ie.destroyMarker != null) && (rec.sequence < ie.destroyMarker.sequence))
+				return; // destroyed before
+			Integer version = new Integer(rec.version);
+			Record exRec = ((Record) ie.versions.get(version));
+			if ((exRec != null) && (rec.sequence < exRec.sequence))
+				return; // outdated
+			ie.versions.put(version, rec);
+			this.addLive(rec);
+			this.discard(exRec); // also covers records copied during compaction, which retain their sequence number
+			if (ie.dataSequence < rec.sequence)
+				ie.dataSequence = rec.sequence;
+			while (!this.doVersioning && (ie.versions.size() > 1))
+				this.discard((Record) ie.versions.remove(ie.versions.firstKey()));
+		}
+		
+		//	reversible deletion
+		else if (rec.type == DELETE_RECORD) {
+			if ((ie.destroyMarker != null) && (rec.sequence < ie.destroyMarker.sequence))
+				return; // destroyed before
+			if ((ie.deleteMarker != null) && (rec.sequence < ie.deleteMarker.sequence))
+				return; // outdated
+			this.addLive(rec);
+			this.discard(ie.deleteMarker);
+			ie.deleteMarker = rec;
+		}
+		
+		//	restoration
+		else if (rec.type == RESTORE_RECORD) {
+			if ((ie.destroyMarker != null) && (rec.sequence < ie.destroyMarker.sequence))
+				return; // destroyed before
+			if ((ie.restoreMarker != null) && (rec.sequence < ie.restoreMarker.sequence))
+				return; // outdated
+			this.addLive(rec);
+			this.discard(ie.restoreMarker);
+			ie.restoreMarker = rec;
+		}
+		
+		//	irreversible deletion
+		else if (rec.type == DESTROY_RECORD) {
+			if ((ie.destroyMarker != null) && (rec.sequence < ie.destroyMarker.sequence))
+				return; // outdated
+			this.addLive(rec);
+			this.discard(ie.destroyMarker);
+			ie.destroyMarker = rec;
+			for (Iterator vit = ie.versions.values().iterator(); vit.hasNext();) {
+				Record vRec = ((Record) vit.next());
+				if (vRec.sequence < rec.sequence) {
+					vit.remove();
+					this.discard(vRec);
+				}
+			}
+			if ((ie.deleteMarker != null) && (ie.deleteMarker.sequence < rec.sequence)) {
+				this.discard(ie.deleteMarker);
+				ie.deleteMarker = null;
+			}
+			if ((ie.restoreMarker != null) && (ie.restoreMarker.sequence < rec.sequence)) {
+				this.discard(ie.restoreMarker);
+				ie.restoreMarker = null;
+			}
+		}
+	}
+	
+	private boolean isLive(Record rec) {
+		IndexEntry ie = ((IndexEntry) this.index.get(rec.dataId));
+		if (ie == null)
+			return false;
+		if (rec.type == DATA_RECORD)
+			return rec.isAt((Record) ie.versions.get(new Integer(rec.version)));
+		else if (rec.type == DELETE_RECORD)
+			return rec.isAt(ie.deleteMarker);
+		else if (rec.type == RESTORE_RECORD)
+			return rec.isAt(ie.restoreMarker);
+		else if (rec.type == DESTROY_RECORD)
+			return rec.isAt(ie.destroyMarker);
+		else return false;
+	}
+	
+	private void addLive(Record rec) {
+		rec.segment.liveBytes += rec.getSize();
+	}
+	
+	private void discard(Record rec) {
+		if (rec == null)
+			return;
+		rec.segment.liveBytes -= rec.getSize();
+		if (this.loaded)
+			this.checkCompaction(rec.segment, false);
+	}
+	
+	private void checkCompaction(Segment segment, boolean anyGarbage) {
+		if (segment == this.activeSegment)
+			return;
+		if (anyGarbage ? (segment.liveBytes < segment.size) : ((segment.liveBytes * 2) < segment.size))
+			this.compactionDue(segment.number);
+	}
+	
+	/**
+	 * Notify the owner of this segment store that a segment file has become
+	 * eligible for compaction, which happens once more than half of its bytes
+	 * are garbage. This default implementation does nothing, sub classes have
+	 * to overwrite it to schedule the compaction.
+	 * @param segmentNumber the number of the segment file
+	 */
+	void compactionDue(int segmentNumber) {}
+	
+	/**
+	 * Check all segment files for eligibility for compaction.
+	 * @param anyGarbage consider any segment file holding garbage eligible,
+	 *            rather than only ones with more than half garbage?
+	 */
+	synchronized void checkCompaction(boolean anyGarbage) {
+		for (Iterator sit = this.segments.values().iterator(); sit.hasNext();)
+			this.checkCompaction(((Segment) sit.next()), anyGarbage);
+	}
+	
+	/**
+	 * Compact a segment file, copying its remaining live records to the active
+	 * segment file and then deleting it. If the segment file is still being
+	 * read from, or if compaction is on hold, this method returns false,
+	 * indicating that the compaction has to be retried later.
+	 * @param segmentNumber the number of the segment file to compact
+	 * @return true if compaction is complete
+	 * @throws IOException
+	 */
+	boolean compactSegment(int segmentNumber) throws IOException {
+		Segment segment;
+		synchronized (this) {
+			if (this.compactionHolds != 0)
+				return false;
+			segment = ((Segment) this.segments.get(new Integer(segmentNumber)));
+			if ((segment == null) || (segment == this.activeSegment))
+				return true; // compacted before, or still active
+		}
+		
+		//	copy live records (segment file is immutable once no longer active, so we can read headers without synchronization)
+		int copied = 0;
+		for (long offset = 0; offset < segment.size;) {
+			Record rec = this.readRecord(segment, offset);
+			if (rec == null)
+				break; // invalid rest ignored on loading
+			offset += rec.getSize();
+			synchronized (this) {
+				if (this.compactionHolds != 0)
+					return false;
+				if (!this.isLive(rec))
+					continue;
+				this.applyRecord(this.appendRecord(rec.type, rec.dataId, rec.version, rec.sequence, rec.timestamp, ((rec.length == 0) ? NO_DATA : this.readData(rec)), rec.length));
+				copied++;
+			}
+		}
+		
+		//	delete segment file once no longer in use (a hold might have come in since last check, e.g. for a backup listing the file)
+		synchronized (this) {
+			if (this.compactionHolds != 0)
+				return false;
+			if (segment.readers != 0)
+				return false;
+			if (segment.liveBytes > 0) {
+				this.logger.logError("Could not compact segment file " + segment.file.getName() + ", " + segment.liveBytes + " live bytes left");
+				return true;
+			}
+			this.segments.remove(new Integer(segmentNumber));
+			segment.channel.close();
+			segment.file.delete();
+		}
+		this.logger.logInfo("Compacted segment file " + segment.file.getName() + ", " + copied + " live records copied");
+		return true;
+	}
+	
+	/**
+	 * Put compaction on hold or release a hold, e.g. while creating a backup
+	 * of the segment files. Holds are counted, so compaction only resumes
+	 * after every hold is released.
+	 * @param hold put compaction on hold?
+	 */
+	synchronized void holdCompaction(boolean hold) {
+		this.compactionHolds = Math.max(0, (this.compactionHolds + (hold ? 1 : -1)));
+	}
+	
+	/**
+	 * Retrieve the segment files, in the order they were created.
+	 * @return an array holding the segment files
+	 */
+	synchronized File[] getSegmentFiles() {
+		ArrayList segmentFiles = new ArrayList();
+		for (Iterator sit = this.segments.values().iterator(); sit.hasNext();)
+			segmentFiles.add(((Segment) sit.next()).file);
+		return ((File[]) segmentFiles.toArray(new File[segmentFiles.size()]));
+	}
+	
+	/**
+	 * Retrieve the length up to which a segment file holds complete records.
+	 * @param segmentFile the segment file
+	 * @return the number of bytes of complete records in the argument file
+	 */
+	synchronized long getSegmentLength(File segmentFile) {
+		for (Iterator sit = this.segments.values().iterator(); sit.hasNext();) {
+			Segment segment = ((Segment) sit.next());
+			if (segment.file.equals(segmentFile))
+				return segment.size;
+		}
+		return -1;
+	}
+	
+	private synchronized void releaseSegment(Segment segment) {
+		segment.readers--;
+	}
+	
+	/**
+	 * Retrieve the current version of a data object. If the data object does
+	 * not exist or is deleted, this method returns 0.
+	 * @param dataId the ID of the data object
+	 * @return the current version of the data object
+	 */
+	synchronized int getCurrentVersion(String dataId) {
+		IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+		if ((ie == null) || ie.isDeleted())
+			return 0;
+		return ie.getCurrentVersion();
+	}
+	
+	private Record getRecord(String dataId, int version) {
+		IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+		if ((ie == null) || ie.isDeleted() || ie.versions.isEmpty())
+			return null;
+		if (version < 0) {
+			version = (ie.getCurrentVersion() + version);
+			if (version <= 0)
+				return null;
+		}
+		else if (version == 0)
+			version = ie.getCurrentVersion();
+		return ((Record) ie.versions.get(new Integer(version)));
+	}
+	
+	/**
+	 * Check whether or not a data object exists in a given version. The
+	 * version number is interpreted as in IdentifierKeyedDataObjectStore.
+	 * @param dataId the ID of the data object
+	 * @param version the version to check
+	 * @return true if the data object exists in the argument version
+	 */
+	synchronized boolean isDataObjectAvailable(String dataId, int version) {
+		return (this.getRecord(dataId, version) != null);
+	}
+	
+	/**
+	 * Open a stream for reading a data object in a given version. The version
+	 * number is interpreted as in IdentifierKeyedDataObjectStore.
+	 * @param dataId the ID of the data object
+	 * @param version the version to read
+	 * @return a stream for reading the data object, or null if the data
+	 *            object does not exist in the argument version
+	 */
+	synchronized RecordInputStream getInputStream(String dataId, int version) {
+		Record rec = this.getRecord(dataId, version);
+		if (rec == null)
+			return null;
+		rec.segment.readers++;
+		return new RecordInputStream(rec, (rec.version == this.getCurrentVersion(dataId)));
+	}
+	
+	/**
+	 * Store a new version of a data object. If the data object was deleted
+	 * before, this restores its previous versions.
+	 * @param dataId the ID of the data object
+	 * @param data an array holding the data to store
+	 * @param length the number of bytes to store
+	 * @return the number of the new version
+	 * @throws IOException
+	 */
+	synchronized int writeDataObject(String dataId, byte[] data, int length) throws IOException {
+		IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+		int version = (((ie == null) ? 0 : ie.getCurrentVersion()) + 1);
+		this.applyRecord(this.appendRecord(DATA_RECORD, dataId, version, this.nextSequence++, System.currentTimeMillis(), data, length));
+		return version;
+	}
+	
+	/**
+	 * Reversibly delete a data object.
+	 * @param dataId the ID of the data object
+	 * @throws IOException
+	 */
+	synchronized void deleteDataObject(String dataId) throws IOException {
+		IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+		if ((ie == null) || ie.versions.isEmpty())
+			throw new DataObjectNotFoundException(dataId);
+		if (ie.isDeleted())
+			return;
+		this.applyRecord(this.appendRecord(DELETE_RECORD, dataId, ie.getCurrentVersion(), this.nextSequence++, System.currentTimeMillis(), NO_DATA, 0));
+	}
+	
+	/**
+	 * Irreversibly delete a data object. The segment files holding its data
+	 * are scheduled for compaction right away, so the data is physically
+	 * erased as soon as possible.
+	 * @param dataId the ID of the data object
+	 * @throws IOException
+	 */
+	synchronized void destroyDataObject(String dataId) throws IOException {
+		IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+		if ((ie == null) || ie.versions.isEmpty())
+			throw new DataObjectNotFoundException(dataId);
+		HashSet segments = new HashSet();
+		for (Iterator vit = ie.versions.values().iterator(); vit.hasNext();)
+			segments.add(((Record) vit.next()).segment);
+		this.applyRecord(this.appendRecord(DESTROY_RECORD, dataId, ie.getCurrentVersion(), this.nextSequence++, System.currentTimeMillis(), NO_DATA, 0));
+		for (Iterator sit = segments.iterator(); sit.hasNext();) {
+			Segment segment = ((Segment) sit.next());
+			if (segment != this.activeSegment)
+				this.compactionDue(segment.number);
+		}
+	}
+	
+	/**
+	 * Restore a reversibly deleted data object.
+	 * @param dataId the ID of the data object
+	 * @return the current version of the restored data object
+	 * @throws IOException
+	 */
+	synchronized int restoreDataObject(String dataId) throws IOException {
+		IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+		if ((ie == null) || ie.versions.isEmpty())
+			throw new DataObjectNotFoundException(dataId);
+		if (!ie.isDeleted())
+			throw new IOException("Data object '" + dataId + "' is not deleted");
+		this.applyRecord(this.appendRecord(RESTORE_RECORD, dataId, ie.getCurrentVersion(), this.nextSequence++, System.currentTimeMillis(), NO_DATA, 0));
+		return ie.getCurrentVersion();
+	}
+	
+	/**
+	 * Retrieve the IDs of the stored data objects.
+	 * @param includeDeleted include IDs of reversibly deleted data objects?
+	 * @return an array holding the data object IDs
+	 */
+	synchronized String[] getDataObjectIDs(boolean includeDeleted) {
+		return this.getDataObjectIDs(includeDeleted, null, null, -1);
+	}
+	
+	/**
+	 * Retrieve the IDs of the stored data objects in a given range, sorted in
+	 * ascending order.
+	 * @param includeDeleted include IDs of reversibly deleted data objects?
+	 * @param startAfterId the ID to start after (null to start with the first)
+	 * @param endBeforeId the ID (or ID prefix) to stop at (null to run to the end)
+	 * @param changedSince the time since when data objects have to be changed
+	 *            to be included (-1 to include all)
+	 * @return an array holding the data object IDs
+	 */
+	synchronized String[] getDataObjectIDs(boolean includeDeleted, String startAfterId, String endBeforeId, long changedSince) {
+		ArrayList dataObjectIDs = new ArrayList();
+		for (Iterator doidit = this.index.keySet().iterator(); doidit.hasNext();) {
+			String dataId = ((String) doidit.next());
+			if ((startAfterId != null) && (dataId.compareTo(startAfterId) <= 0))
+				continue;
+			if ((endBeforeId != null) && (dataId.compareTo(endBeforeId) >= 0))
+				continue;
+			IndexEntry ie = ((IndexEntry) this.index.get(dataId));
+			if (ie.versions.isEmpty())
+				continue;
+			if (!includeDeleted && ie.isDeleted())
+				continue;
+			if ((changedSince != -1) && (ie.getLastModified() < changedSince))
+				continue;
+			dataObjectIDs.add(dataId);
+		}
+		String[] dataIDs = ((String[]) dataObjectIDs.toArray(new String[dataObjectIDs.size()]));
+		Arrays.sort(dataIDs);
+		return dataIDs;
+	}
+	
+	/**
+	 * Retrieve a status description, including number and total size of the
+	 * segment files, and the share of live data.
+	 * @return the status description
+	 */
+	synchronized String getStatus() {
+		long size = 0;
+		long liveBytes = 0;
+		for (Iterator sit = this.segments.values().iterator(); sit.hasNext();) {
+			Segment segment = ((Segment) sit.next());
+			size += segment.size;
+			liveBytes += segment.liveBytes;
+		}
+		return (this.segments.size() + " segment files, " + (size / 1024) + "KB total, " + ((size == 0) ? 100 : ((liveBytes * 100) / size)) + "% live");
+	}
+	
+	/**
+	 * Force all records appended since the last call to this method to disk.
+	 * The actual forcing happens outside the synchronization on the segment
+	 * store, so appending further records can go on in the meantime.
+	 * @throws IOException
+	 */
+	void syncSegments() throws IOException {
+		Segment[] segments;
+		synchronized (this) {
+			segments = ((Segment[]) this.unsyncedSegments.toArray(new Segment[this.unsyncedSegments.size()]));
+			this.unsyncedSegments.clear();
+		}
+		for (int s = 0; s < segments.length; s++) try {
+			segments[s].channel.force(false);
+		}
+		catch (ClosedChannelException cce) {
+			//	segment compacted away in the meantime, live records went to active segment
+		}
+	}
+	
+	/**
+	 * Close the segment store, closing all segment files.
+	 */
+	synchronized void close() {
+		for (Iterator sit = this.segments.values().iterator(); sit.hasNext();) try {
+			((Segment) sit.next()).channel.close();
+		} catch (IOException ioe) {}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Input stream reading data written by a CompressingOutputStream. The flag
+ * byte preceding the data is read on the first attempt to read data from
+ * this stream, and the latter then transparently decompresses the data if
+ * required.
+ * 
+ * @author sautter
+ */
+public class DecompressingInputStream extends InputStream {
+	private InputStream in;
+	private InputStream dataIn = null;
+	
+	/** Constructor
+	 * @param in the input stream to read from
+	 */
+	public DecompressingInputStream(InputStream in) {
+		this.in = in;
+	}
+	
+	private InputStream getDataIn() throws IOException {
+		if (this.dataIn != null)
+			return this.dataIn;
+		int flag = this.in.read();
+		if ((flag == -1) || (flag == CompressingOutputStream.FLAG_PLAIN))
+			this.dataIn = this.in;
+		else if (flag == CompressingOutputStream.FLAG_GZIP)
+			this.dataIn = new GZIPInputStream(this.in, 8192);
+		else throw new IOException("Invalid compression flag: " + flag);
+		return this.dataIn;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException {
+		return this.getDataIn().read();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		return this.getDataIn().read(b, off, len);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() throws IOException {
+		return ((this.dataIn == null) ? 0 : this.dataIn.available());
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#close()
+	 */
+	public void close() throws IOException {
+		if (this.dataIn == null)
+			this.in.close();
+		else this.dataIn.close();
+	}
+}
@@ -29,6 +29,10 @@ package de.uka.ipd.idaho.goldenGateServer.util;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -36,7 +40,15 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -44,19 +56,21 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
-import de.uka.ipd.idaho.gamta.util.CountingSet;
 import de.uka.ipd.idaho.goldenGateServer.AsynchronousWorkQueue;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerActivityLogger;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActionConsole;
@@ -72,13 +86,23 @@ import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActi
  * steps are taken from consecutive two-character prefixes of the data object
  * (UU)ID. When the number of files in one such folder exceeds the configured
  * threshold (512 by default), the depth of the hierarchy increases by one more
- * step, moving data objects transparent to client code.
+ * step, moving data objects transparent to client code.<br>
+ * As an alternative for large numbers of small single-file data objects, this
+ * component can also pack data objects into large append-only segment files,
+ * with an in-memory index pointing to the individual data objects. This saves
+ * file system entries and makes backups a lot faster. Space taken by outdated
+ * data objects is reclaimed by background compaction of the segment files.
  * 
  * @author sautter
  */
 public class IdentifierKeyedDataObjectStore {
 	private static final String PATH_FOLDER_MARKER_FILE_NAME = ".pathFolder";
+	private static final long MAX_REORGANIZATION_WAIT = (210 * 1000); // reorganization is most likely stuck if taking any longer
 	private static final String DELETED_ZIP_FILE_EXTENSION = ".zip.old";
+	private static final String LINK_ENTRY_SUFFIX = ".link";
+	private static final String DELTA_ENTRY_SUFFIX = ".delta";
+	private static final int DELTA_SNAPSHOT_INTERVAL = 16; // store every 16th version in full to bound delta chains
+	private static final int MAX_DELTA_DATA_SIZE = (16 * 1024 * 1024);
 	
 	/**
 	 * Exception indicating that a data object or a specific version of one
@@ -100,7 +124,11 @@ public class IdentifierKeyedDataObjectStore {
 	 * stream provides the total number of data object bytes via the
 	 * <code>getDataObjectSize()</code> method. Instances of this class use a
 	 * <code>BufferedInputStream</code> internally, so there is no need for
-	 * external buffering.
+	 * external buffering. If memory mapped reads are activated in the backing
+	 * data object store and the data object is stored in a plain (non-zipped)
+	 * file of sufficient size, instances of this class read from a memory
+	 * mapping of that file instead, and the data is also available as a
+	 * <code>ByteBuffer</code> via the <code>getDataBuffer()</code> method.
 	 * 
 	 * @author sautter
 	 */
@@ -110,7 +138,13 @@ public class IdentifierKeyedDataObjectStore {
 		private boolean currentVersion;
 		private int dataFileSize;
 		private long dataLastModified;
-		private BufferedInputStream in;
+		private InputStream in;
+		private FileInputStream fileIn = null;
+		private InputStream recordIn = null;
+		private FileChannel dataChannel = null;
+		private long dataOffset = 0;
+		private MappedByteBuffer dataBuffer = null;
+		private boolean dataRead = false;
 		private ZipFile zipFile;
 		DataObjectInputStream(String dataId, File dataFile, int version) throws IOException {
 			this.dataId = dataId;
@@ -122,40 +156,115 @@ public class IdentifierKeyedDataObjectStore {
 				this.dataVersion = 0;
 				this.currentVersion = true;
 			}
+			
+			//	follow any links from deduplicated previous versions to the version actually holding the data
+			File versionFile = dataFile;
+			if (dataFile.getName().endsWith(zipFileExtension))
+				dataFile = this.resolveVersionLinks(dataFile);
+			boolean linked = (dataFile != versionFile);
+			
 			if (dataFile.getName().endsWith(zipFileExtension)) {
 				this.zipFile = new ZipFile(dataFile);
 				ZipEntry zipEntry = ((ZipEntry) this.zipFile.entries().nextElement()); // make sure to position input at contained data
 //				ZipInputStream would be more elegant, but fails to read entry properties like size ...
 //				ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
 //				ZipEntry zipEntry = zipIn.getNextEntry(); // make sure to position input at contained data
-				this.dataFileSize = ((int) zipEntry.getSize());
-				this.dataLastModified = zipEntry.getTime();
-//				this.in = new BufferedInputStream(zipIn);
-				this.in = new BufferedInputStream(this.zipFile.getInputStream(zipEntry));
+				if (!linked)
+					this.dataLastModified = zipEntry.getTime();
+				
+				//	reconstruct previous version stored as delta against its successor
+				if (zipEntry.getName().endsWith(DELTA_ENTRY_SUFFIX)) {
+					byte[] data;
+					try {
+						data = readVersionDelta(this.dataId, this.zipFile, zipEntry);
+					}
+					finally {
+						this.zipFile.close();
+						this.zipFile = null;
+					}
+					this.dataFileSize = data.length;
+					this.in = new ByteArrayInputStream(data);
+				}
+				else {
+					this.dataFileSize = ((int) zipEntry.getSize());
+//					this.in = new BufferedInputStream(zipIn);
+					this.in = new BufferedInputStream(this.zipFile.getInputStream(zipEntry));
+				}
 			}
 			else {
 				this.dataFileSize = ((int) dataFile.length());
-				this.dataLastModified = dataFile.lastModified();
-				this.in = new BufferedInputStream(new FileInputStream(dataFile));
+				if (!linked)
+					this.dataLastModified = dataFile.lastModified();
+				this.fileIn = new FileInputStream(dataFile);
+				this.dataChannel = this.fileIn.getChannel();
+				if ((memoryMapThreshold != -1) && (memoryMapThreshold <= this.dataFileSize)) {
+					this.dataBuffer = this.dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, this.dataFileSize);
+					this.in = new ByteBufferInputStream(this.dataBuffer.duplicate());
+				}
+				else this.in = new BufferedInputStream(this.fileIn);
+			}
+			registerDataObjectReference(this.dataId);
+		}
+		private File resolveVersionLinks(File dataFile) throws IOException {
+			for (boolean firstLink = true; dataFile.getName().endsWith(zipFileExtension); firstLink = false) {
+				int linkedVersion;
+				ZipFile zipFile = new ZipFile(dataFile);
+				try {
+					ZipEntry zipEntry = ((ZipEntry) zipFile.entries().nextElement());
+					if (!zipEntry.getName().endsWith(LINK_ENTRY_SUFFIX))
+						break;
+					linkedVersion = readVersionLink(zipFile, zipEntry);
+					if (firstLink)
+						this.dataLastModified = zipEntry.getTime(); // keep timestamp of requested version
+				}
+				finally {
+					zipFile.close();
+				}
+				int linkedFileVersion = computeFileVersion(this.dataId, linkedVersion);
+				File linkedDataFile = ((linkedFileVersion == -1) ? null : getDataFile(this.dataId, linkedFileVersion));
+				if ((linkedDataFile == null) || !linkedDataFile.exists())
+					throw new FileNotFoundException("Linked version " + linkedVersion + " of data object '" + this.dataId + "' not found");
+				dataFile = linkedDataFile;
+			}
+			return dataFile;
+		}
+		DataObjectInputStream(DataObjectSegmentStore.RecordInputStream recordIn) throws IOException {
+			this.dataId = recordIn.getDataId();
+			this.dataVersion = (doVersioning ? recordIn.getVersion() : 0);
+			this.currentVersion = recordIn.isCurrentVersion();
+			this.dataFileSize = recordIn.getLength();
+			this.dataLastModified = recordIn.getTimestamp();
+			this.recordIn = recordIn;
+			this.dataChannel = recordIn.getChannel();
+			this.dataOffset = recordIn.getDataOffset();
+			if ((memoryMapThreshold != -1) && (memoryMapThreshold <= this.dataFileSize)) {
+				this.dataBuffer = this.dataChannel.map(FileChannel.MapMode.READ_ONLY, this.dataOffset, this.dataFileSize);
+				this.in = new ByteBufferInputStream(this.dataBuffer.duplicate());
 			}
+			else this.in = new BufferedInputStream(this.recordIn);
 			registerDataObjectReference(this.dataId);
 		}
 		public int read() throws IOException {
+			this.dataRead = true;
 			return this.in.read();
 		}
 		public int read(byte[] b) throws IOException {
+			this.dataRead = true;
 			return this.in.read(b);
 		}
 		public int read(byte[] b, int off, int len) throws IOException {
+			this.dataRead = true;
 			return this.in.read(b, off, len);
 		}
 		public long skip(long n) throws IOException {
+			this.dataRead = true;
 			return this.in.skip(n);
 		}
 		public int available() throws IOException {
 			return this.in.available();
 		}
 		public synchronized void mark(int readlimit) {
+			this.dataRead = true;
 			this.in.mark(readlimit);
 		}
 		public synchronized void reset() throws IOException {
@@ -169,6 +278,10 @@ public class IdentifierKeyedDataObjectStore {
 				return;
 			this.in.close();
 			this.in = null;
+			if (this.fileIn != null)
+				this.fileIn.close(); // need to close explicitly if memory mapped
+			if (this.recordIn != null)
+				this.recordIn.close(); // need to close explicitly if memory mapped
 			if (this.zipFile != null)
 				this.zipFile.close();
 			unregisterDataObjectReference(this.dataId);
@@ -178,6 +291,76 @@ public class IdentifierKeyedDataObjectStore {
 			this.close();
 		}
 		
+		/**
+		 * Write the (remaining) data object bytes to an output stream. If the
+		 * data object is stored in a plain (non-zipped) file or in a segment
+		 * file and nothing has been read from this input stream before, the
+		 * file region holding the data object is handed to the output stream,
+		 * which can then transfer it to a network socket without copying the
+		 * data through the Java heap. Otherwise, the data is copied. Either
+		 * way, this input stream is at its end afterwards.
+		 * @param out the output stream to write to
+		 * @throws IOException
+		 * @see de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream#writeFile(java.nio.channels.FileChannel, long, long)
+		 */
+		public void writeTo(BufferedLineOutputStream out) throws IOException {
+			if ((this.dataChannel != null) && !this.dataRead) {
+				out.writeFile(this.dataChannel, this.dataOffset, this.dataFileSize);
+				this.dataRead = true;
+				this.in.skip(this.dataFileSize); // nothing buffered, so this simply positions the file at its end
+			}
+			else {
+				this.dataRead = true;
+				byte[] buffer = new byte[1024];
+				for (int r; (r = this.in.read(buffer, 0, buffer.length)) != -1;)
+					out.write(buffer, 0, r);
+			}
+		}
+		
+		/**
+		 * Check whether or not this input stream reads from a memory mapping
+		 * of the underlying data object file.
+		 * @return true if the data object file is memory mapped
+		 */
+		public boolean isMemoryMapped() {
+			return (this.dataBuffer != null);
+		}
+		
+		/**
+		 * Retrieve the data object bytes as a read-only buffer backed by the
+		 * memory mapping of the underlying data object file. The returned
+		 * buffer is independent of the position of this input stream, and it
+		 * remains valid after the latter is closed.
+		 * @return a buffer holding the data object bytes
+		 * @throws IllegalStateException if the data object file is not memory
+		 *            mapped
+		 */
+		public ByteBuffer getDataBuffer() {
+			return this.getDataBuffer(0, this.dataFileSize);
+		}
+		
+		/**
+		 * Retrieve a range of the data object bytes as a read-only buffer
+		 * backed by the memory mapping of the underlying data object file. The
+		 * returned buffer is independent of the position of this input stream,
+		 * and it remains valid after the latter is closed.
+		 * @param offset the offset of the range in the data object
+		 * @param length the number of bytes in the range
+		 * @return a buffer holding the argument range of the data object bytes
+		 * @throws IllegalStateException if the data object file is not memory
+		 *            mapped
+		 */
+		public ByteBuffer getDataBuffer(int offset, int length) {
+			if (this.dataBuffer == null)
+				throw new IllegalStateException("Data object '" + this.dataId + "' is not memory mapped");
+			if ((offset < 0) || (length < 0) || (this.dataFileSize < (offset + length)))
+				throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length + " for " + this.dataFileSize + " bytes");
+			ByteBuffer data = this.dataBuffer.duplicate();
+			data.limit(offset + length);
+			data.position(offset);
+			return data.slice();
+		}
+		
 		/**
 		 * Retrieve the size of the underlying data object file, in bytes.
 		 * @return the size of the underlying data object file
@@ -218,12 +401,61 @@ public class IdentifierKeyedDataObjectStore {
 		}
 	}
 	
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer data;
+		ByteBufferInputStream(ByteBuffer data) {
+			this.data = data;
+		}
+		public int read() throws IOException {
+			return (this.data.hasRemaining() ? (this.data.get() & 0xFF) : -1);
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!this.data.hasRemaining())
+				return -1;
+			len = Math.min(len, this.data.remaining());
+			this.data.get(b, off, len);
+			return len;
+		}
+		public long skip(long n) throws IOException {
+			if (n <= 0)
+				return 0;
+			int skip = ((int) Math.min(n, this.data.remaining()));
+			this.data.position(this.data.position() + skip);
+			return skip;
+		}
+		public int available() throws IOException {
+			return this.data.remaining();
+		}
+		public synchronized void mark(int readlimit) {
+			this.data.mark();
+		}
+		public synchronized void reset() throws IOException {
+			try {
+				this.data.reset();
+			}
+			catch (InvalidMarkException ime) {
+				throw new IOException("Mark not set");
+			}
+		}
+		public boolean markSupported() {
+			return true;
+		}
+	}
+	
 	/**
 	 * Output stream for writing data objects in file based mode. After closing
 	 * the output stream, the now-current version of the data object becomes
 	 * available via the <code>getVersion()</code> method. Instances of this
 	 * class use a <code>BufferedOutputStream</code> internally, so there is no
-	 * need for external buffering.
+	 * need for external buffering. If asynchronous write-back is active in the
+	 * backing data object store, closing an instance of this class in file
+	 * based mode only hands the written data object to a background writer,
+	 * and the <code>getVersion()</code> method blocks until the new version
+	 * is actually in place. Client code that needs to know whether or not
+	 * the background write succeeded can use the <code>awaitWriteBack()</code>
+	 * method, which reports any errors.
 	 * 
 	 * @author sautter
 	 */
@@ -232,26 +464,42 @@ public class IdentifierKeyedDataObjectStore {
 		private String dataId;
 		private int exVersion;
 		private File outFile;
-		private BufferedOutputStream out;
+		private FileOutputStream fileOut;
+		private OutputStream out;
+		private MessageDigest dataHash = null;
 		private int version = -1;
+		private boolean writeBackPending = false;
+		private IOException writeBackError = null;
 		DataObjectOutputStream(File dataFile, String dataId, int exVersion) throws IOException {
 			this.dataFile = dataFile;
 			this.dataId = dataId;
 			this.exVersion = exVersion;
 			this.outFile = new File(this.dataFile.getParentFile(), (this.dataId + dataFileExtension + ".new"));
 			this.outFile.createNewFile();
-			this.out = new BufferedOutputStream(new FileOutputStream(this.outFile));
+			this.fileOut = new FileOutputStream(this.outFile);
+			this.out = new BufferedOutputStream(this.fileOut);
+			if (doVersioning && deduplicateVersions)
+				this.dataHash = getDataHash();
+			registerDataObjectReference(this.dataId);
+		}
+		DataObjectOutputStream(String dataId) {
+			this.dataId = dataId;
+			this.out = new ByteArrayOutputStream(); // data goes to segment file as a whole on closing
 			registerDataObjectReference(this.dataId);
 		}
 		
 		public void write(int b) throws IOException {
 			this.out.write(b);
+			if (this.dataHash != null)
+				this.dataHash.update((byte) b);
 		}
 		public void write(byte[] b) throws IOException {
-			this.out.write(b);
+			this.write(b, 0, b.length);
 		}
 		public void write(byte[] b, int off, int len) throws IOException {
 			this.out.write(b, off, len);
+			if (this.dataHash != null)
+				this.dataHash.update(b, off, len);
 		}
 		public void flush() throws IOException {
 			this.out.flush();
@@ -264,10 +512,55 @@ public class IdentifierKeyedDataObjectStore {
 			if (this.out == null)
 				return; // closed before
 			
-			//	close underlying stream
-			this.out.close();
+			//	append data to segment file in segment mode
+			if (segmentStore != null) {
+				this.out.close();
+				byte[] data = ((ByteArrayOutputStream) this.out).toByteArray();
+				this.out = null;
+				try {
+					int version = segmentStore.writeDataObject(this.dataId, data, data.length);
+					syncData(null);
+					if (doVersioning)
+						this.version = version;
+				}
+				finally {
+					unregisterDataObjectReference(this.dataId);
+				}
+				return;
+			}
+			
+			//	flush buffered data to underlying file (keeping the latter open for syncing)
+			this.out.flush();
 			this.out = null;
 			
+			//	hand over to background writer if active
+			WriteBackThread writeBackThread = getWriteBackThread();
+			if (writeBackThread != null) {
+				synchronized (this) {
+					this.writeBackPending = true;
+				}
+				startCommit(this.dataId);
+				if (writeBackThread.enqueue(this))
+					return;
+				this.endWriteBack(null); // background writer shut down in the meantime
+			}
+			
+			//	sync data to disk as configured, and switch new version live
+			try {
+				syncData(this.fileOut);
+			}
+			catch (IOException ioe) {
+				this.fileOut.close();
+				this.outFile.delete();
+				unregisterDataObjectReference(this.dataId);
+				throw ioe;
+			}
+			this.commit();
+		}
+		
+		void commit() throws IOException {
+			this.fileOut.close();
+			
 			//	get parent folder and preserve data file path and name
 			File parentFolder = this.dataFile.getParentFile();
 			String dataFileName = this.dataFile.getAbsolutePath();
@@ -285,10 +578,18 @@ public class IdentifierKeyedDataObjectStore {
 				//	rename existing file (if any) and zip it up
 				if (doVersioning) {
 					File exVersionFile = new File(parentFolder, (this.dataId + "." + this.exVersion + dataFileExtension));
-					this.dataFile.renameTo(exVersionFile);
+					
+					//	previous version byte-identical to new one, store link instead of copy
+					if ((this.dataHash != null) && (this.dataFile.length() == this.outFile.length()) && MessageDigest.isEqual(this.dataHash.digest(), computeDataHash(this.dataFile))) {
+						writeVersionLink(exVersionFile, (this.exVersion + 1), this.dataFile.lastModified());
+						this.dataFile.delete();
+					}
 					
 					//	zip previous version in separate thread
-					scheduleMaintenanceJob(new OldVersionZipUp(exVersionFile.getName(), exVersionFile.getAbsolutePath()));
+					else {
+						this.dataFile.renameTo(exVersionFile);
+						scheduleMaintenanceJob(new OldVersionZipUp(exVersionFile.getName(), exVersionFile.getAbsolutePath()));
+					}
 				}
 				
 				//	delete existing file
@@ -300,10 +601,15 @@ public class IdentifierKeyedDataObjectStore {
 			
 			//	set data object version
 			if (doVersioning) {
-				this.version = (this.exVersion + 1);
-				dataObjectVersionCache.put(this.dataId, new Integer(this.version));
+				synchronized (this) {
+					this.version = (this.exVersion + 1);
+				}
+				dataObjectVersionCache.put(this.dataId, this.version);
 			}
 			
+			//	update path index
+			indexDataObject(this.dataId, parentFolder, (doVersioning ? this.version : 1));
+			
 			//	free up data object reference
 			unregisterDataObjectReference(this.dataId);
 			
@@ -315,13 +621,55 @@ public class IdentifierKeyedDataObjectStore {
 			this.close();
 		}
 		
+		void discard() throws IOException {
+			try {
+				this.fileOut.close();
+			}
+			finally {
+				this.outFile.delete();
+				unregisterDataObjectReference(this.dataId);
+			}
+		}
+		
+		void endWriteBack(IOException writeBackError) {
+			synchronized (this) {
+				this.writeBackPending = false;
+				this.writeBackError = writeBackError;
+				this.notifyAll();
+			}
+			endCommit(this.dataId);
+		}
+		
+		/**
+		 * Wait for asynchronous write-back of the closed stream to complete,
+		 * and report any error that occurred in the process. If write-back
+		 * failed, the data object retains the version it had before this
+		 * stream was opened. If asynchronous write-back is inactive, this
+		 * method returns right away, as <code>close()</code> reports errors
+		 * directly in that case.
+		 * @throws IOException if writing back the data failed
+		 */
+		public synchronized void awaitWriteBack() throws IOException {
+			while (this.writeBackPending) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			if (this.writeBackError != null)
+				throw this.writeBackError;
+		}
+		
 		/**
 		 * Retrieve the now-current version of the data object after the stream
 		 * is closed. Before that, the this method returns -1, just as it does
-		 * if file versioning is deactivated.
+		 * if file versioning is deactivated. If the closed stream is still
+		 * waiting for asynchronous write-back, this method blocks until the
+		 * latter is complete. If asynchronous write-back failed, this method
+		 * returns -1 as well.
 		 * @return the now-current version of the written data object
 		 */
-		public int getVersion() {
+		public synchronized int getVersion() {
+			while (this.writeBackPending) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
 			return this.version;
 		}
 	}
@@ -348,9 +696,7 @@ public class IdentifierKeyedDataObjectStore {
 		public boolean exists() {
 			
 			//	wait for any deletions and restorations in progress
-			while (removingDataIDs.contains(this.getName()) || restoringDataIDs.contains(this.getName())) try {
-				Thread.sleep(1 * 1000);
-			} catch (InterruptedException ie) {}
+			awaitDataObjectOperations(this.getName(), true);
 			
 			//	check underlying folder in file system
 			return super.exists();
@@ -376,6 +722,7 @@ public class IdentifierKeyedDataObjectStore {
 			boolean created = super.mkdir();
 			if (created) {
 				File parentFolder = this.getParentFile();
+				indexDataObject(this.getName(), parentFolder, 0);
 				scheduleMaintenanceJob(new FolderReorganizationCheck(getFolderPath(parentFolder), parentFolder));
 			}
 			return created;
@@ -429,96 +776,302 @@ public class IdentifierKeyedDataObjectStore {
 		}
 	}
 	
+	/**
+	 * Iterator over the IDs of the data objects stored in an IKS. Instances of
+	 * this class walk the folder tree lazily, only ever holding the listings
+	 * of the folders on the current path in memory, and return the data object
+	 * IDs in ascending order. The latter facilitates resuming an interrupted
+	 * iteration from the last ID returned. The <code>next()</code> method
+	 * returns the data object IDs as strings.
+	 * 
+	 * @author sautter
+	 */
+	public class DataObjectIdIterator implements Iterator {
+		private final boolean includeDeleted;
+		private final String endBeforeId;
+		private final long changedSince;
+		private LinkedList pending = new LinkedList(); // data IDs and folders yet to list, in iteration order
+		private String nextDataId = null;
+		private String lastDataId;
+		DataObjectIdIterator(boolean includeDeleted, String startAfterId, String endBeforeId, long changedSince) {
+			this.includeDeleted = includeDeleted;
+			this.lastDataId = startAfterId;
+			this.endBeforeId = endBeforeId;
+			this.changedSince = changedSince;
+			
+			//	segment index is in memory anyway
+			if (segmentStore != null)
+				this.pending.addAll(Arrays.asList(segmentStore.getDataObjectIDs(includeDeleted, startAfterId, endBeforeId, changedSince)));
+			else this.pending.add(new IdIteratorFolder(rootFolder, "", null));
+		}
+		public boolean hasNext() {
+			while ((this.nextDataId == null) && !this.pending.isEmpty()) {
+				Object next = this.pending.removeFirst();
+				if (next instanceof IdIteratorFolder)
+					this.listFolder((IdIteratorFolder) next);
+				else if ((this.lastDataId == null) || (this.lastDataId.compareTo((String) next) < 0))
+					this.nextDataId = ((String) next); // never go backwards, as reorganization might have us see an ID twice
+			}
+			return (this.nextDataId != null);
+		}
+		public Object next() {
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			this.lastDataId = this.nextDataId;
+			this.nextDataId = null;
+			return this.lastDataId;
+		}
+		
+		/**
+		 * Retrieve the next data object ID. This method is a typed shorthand
+		 * for <code>next()</code>.
+		 * @return the next data object ID
+		 */
+		public String nextDataId() {
+			return ((String) this.next());
+		}
+		
+		/**
+		 * Retrieve the data object ID most recently returned by the iterator.
+		 * Handing this ID to <code>getDataObjectIdIterator()</code> as the ID
+		 * to start after resumes the iteration where it left off.
+		 * @return the last data object ID returned
+		 */
+		public String getLastDataId() {
+			return this.lastDataId;
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException("Data objects cannot be removed via ID iterator");
+		}
+		
+		private void listFolder(IdIteratorFolder folder) {
+			String folderPath = getFolderPath(folder.folder);
+			int reorganizationCount = getReorganizationCount();
+			File[] files = folder.folder.listFiles();
+			if (files == null)
+				files = new File[0]; // folder removed since we queued it
+			int depth = (folder.prefix.length() / 2);
+			
+			//	sort out path folders and data objects (folders in mid-reorganization can contain both)
+			TreeMap subFolders = new TreeMap();
+			TreeMap dataObjects = ((folder.dataObjects == null) ? new TreeMap() : folder.dataObjects);
+			for (int f = 0; f < files.length; f++) {
+				String fileName = files[f].getName();
+				if (files[f].isDirectory() && fileName.matches("[0-9A-Fa-f]{2}")) {
+					subFolders.put(fileName.toUpperCase(), files[f]);
+					continue;
+				}
+				String dataId;
+				if (dataObjectsAreFiles) {
+					if (!files[f].isFile() || !fileName.matches("[0-9A-Fa-f]{32}\\..*"))
+						continue;
+					if (fileName.endsWith(dataFileExtension) || fileName.endsWith(zipFileExtension) || (this.includeDeleted && fileName.endsWith(DELETED_ZIP_FILE_EXTENSION)))
+						dataId = fileName.substring(0, 32).toUpperCase();
+					else continue;
+				}
+				else if (files[f].isDirectory() && fileName.matches("[0-9A-Fa-f]{32}"))
+					dataId = fileName.toUpperCase();
+				else if (this.includeDeleted && files[f].isFile() && fileName.matches("[0-9A-Fa-f]{32}\\.zip\\.old"))
+					dataId = fileName.substring(0, 32).toUpperCase();
+				else continue;
+				if ((this.lastDataId != null) && (dataId.compareTo(this.lastDataId) <= 0))
+					continue;
+				if ((this.endBeforeId != null) && (dataId.compareTo(this.endBeforeId) >= 0))
+					continue;
+				
+				//	keep latest modification time of any file belonging to data object for filtering
+				long lastModified = ((this.changedSince == -1) ? 0 : getLastModified(files[f]));
+				Long exLastModified = ((Long) dataObjects.get(dataId));
+				if ((exLastModified == null) || (exLastModified.longValue() < lastModified))
+					dataObjects.put(dataId, new Long(lastModified));
+			}
+			
+			/* if folder was reorganized while we were listing it, we might
+			 * have missed data files moving into path folders created only
+			 * after we were past them, but those path folders have to exist
+			 * by now */
+			if (isReorganizingFolderPath(folderPath) || (reorganizationCount != getReorganizationCount())) {
+				File[] pathFolders = folder.folder.listFiles(new FileFilter() {
+					public boolean accept(File file) {
+						return (file.isDirectory() && file.getName().matches("[0-9A-Fa-f]{2}"));
+					}
+				});
+				for (int f = 0; (pathFolders != null) && (f < pathFolders.length); f++)
+					subFolders.put(pathFolders[f].getName().toUpperCase(), pathFolders[f]);
+			}
+			
+			//	go through path steps in order, handing data objects down to the path folder they are moving to if it exists
+			ArrayList listed = new ArrayList();
+			while ((subFolders.size() + dataObjects.size()) != 0) {
+				String subFolderStep = (subFolders.isEmpty() ? null : ((String) subFolders.firstKey()));
+				String dataObjectStep = (dataObjects.isEmpty() ? null : getPathStep(((String) dataObjects.firstKey()), depth));
+				String step = (((subFolderStep == null) || ((dataObjectStep != null) && (dataObjectStep.compareTo(subFolderStep) < 0))) ? dataObjectStep : subFolderStep);
+				TreeMap stepDataObjects = new TreeMap();
+				while (!dataObjects.isEmpty() && getPathStep(((String) dataObjects.firstKey()), depth).equals(step)) {
+					Object dataId = dataObjects.firstKey();
+					stepDataObjects.put(dataId, dataObjects.remove(dataId));
+				}
+				File subFolder = ((File) subFolders.remove(step));
+				String subFolderPrefix = (folder.prefix + step);
+				if (subFolder == null) {
+					for (Iterator doidit = stepDataObjects.keySet().iterator(); doidit.hasNext();) {
+						String dataId = ((String) doidit.next());
+						if ((this.changedSince == -1) || (this.changedSince <= ((Long) stepDataObjects.get(dataId)).longValue()))
+							listed.add(dataId);
+					}
+				}
+				else if ((this.lastDataId != null) && (subFolderPrefix.compareTo(this.lastDataId.substring(0, subFolderPrefix.length())) < 0))
+					continue; // all IDs in folder come before start
+				else if ((this.endBeforeId != null) && (subFolderPrefix.compareTo(this.endBeforeId) >= 0))
+					continue; // all IDs in folder come after end
+				else listed.add(new IdIteratorFolder(subFolder, subFolderPrefix, stepDataObjects));
+			}
+			this.pending.addAll(0, listed);
+		}
+	}
+	
+	private static class IdIteratorFolder {
+		final File folder;
+		final String prefix;
+		final TreeMap dataObjects; // data objects from parent folder moving here in reorganization
+		IdIteratorFolder(File folder, String prefix, TreeMap dataObjects) {
+			this.folder = folder;
+			this.prefix = prefix;
+			this.dataObjects = dataObjects;
+		}
+	}
+	
+	private static long getLastModified(File file) {
+		long lastModified = file.lastModified();
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			for (int f = 0; (files != null) && (f < files.length); f++)
+				lastModified = Math.max(lastModified, files[f].lastModified());
+		}
+		return lastModified;
+	}
+	
 	private class MaintenanceWorkerThread extends Thread {
 		private boolean run = true;
 		boolean wait = true;
-		MaintenanceWorkerThread(String name) {
-			super(name + "MaintenanceWorker");
+		final MaintenanceJobQueue queue = new MaintenanceJobQueue();
+		private final Object sleepLock = new Object();
+		int jobsDone = 0;
+		int jobsSuspended = 0;
+		int jobsFailed = 0;
+		long jobTime = 0;
+		MaintenanceWorkerThread(String name, boolean wait) {
+			super(name);
+			this.wait = wait;
 		}
 		public void run() {
 			
 			//	give the others a little time to come up
-			try {
-				sleep(5 * 1000);
-			} catch (InterruptedException ie) {}
+			this.pause(5 * 1000);
 			
 			//	keep going as long as there is work
 			while (this.run) {
 				
 				//	get next job
 				MaintenanceJob job;
-				synchronized (maintenanceQueue) {
-					if (maintenanceQueue.isEmpty()) try {
-						maintenanceQueue.wait();
+				synchronized (this.queue) {
+					if (this.queue.isEmpty()) try {
+						this.queue.wait();
 					} catch (InterruptedException ie) {}
-					if (maintenanceQueue.isEmpty())
+					if (this.queue.isEmpty())
 						continue;
-					job = ((MaintenanceJob) maintenanceQueue.removeFirst());
+					job = ((MaintenanceJob) this.queue.removeFirst());
 				}
 				
+				//	make sure no other worker is busy in same subtree (can only happen right after changing number of workers)
+				startMaintenanceShard(job.shard);
+				
 				//	execute job
+				long start = System.currentTimeMillis();
 				try {
 					logger.logInfo(this.getName() + ": performing " + job.name);
-					long start = System.currentTimeMillis();
 					boolean done = job.doMaintenance();
 					long time = (System.currentTimeMillis() - start);
-					if (done)
+					if (done) {
 						logger.logInfo(this.getName() + ": " + job.name + " done in " + time + "ms");
+						this.jobsDone++;
+					}
 					else {
-						(new MaintenanceJobRescheduler(job)).start(); // re-enqueue job for another attempt in 10 seconds
+						(new MaintenanceJobRescheduler(job, this.getName())).start(); // re-enqueue job for another attempt in 10 seconds
 						logger.logInfo(this.getName() + ": " + job.name + " suspended and re-scheduled after " + time + "ms");
+						this.jobsSuspended++;
 					}
 				}
 				catch (Exception e) {
 					logger.logError("Exception performing " + job.name + ": " + e.getMessage());
 					logger.logError(e);
+					this.jobsFailed++;
 				}
 				catch (Throwable t) {
 					logger.logError("Error performing " + job.name + ": " + t.getMessage());
 					logger.logError(t);
+					this.jobsFailed++;
+				}
+				finally {
+					this.jobTime += (System.currentTimeMillis() - start);
+					endMaintenanceShard(job.shard);
+					countMaintenanceJob();
 				}
 				
 				//	stop hurrying if job queue empty (no need for synchronizing here)
-				if (!this.wait && maintenanceQueue.isEmpty())
+				if (!this.wait && this.queue.isEmpty())
 					this.wait = true;
 				
 				//	give the others a little time
-				if (this.wait) try {
-					sleep(1 * 1000);
+				if (this.wait)
+					this.pause(1 * 1000);
+			}
+		}
+		private void pause(long millis) {
+			synchronized (this.sleepLock) {
+				if (this.run) try {
+					this.sleepLock.wait(millis);
 				} catch (InterruptedException ie) {}
 			}
 		}
 		void shutdown() {
+			
+			//	no interrupting, as that would close any file channel the current job is busy with (e.g. the active segment), just let job finish
 			this.run = false;
-			ArrayList mjrs;
-			synchronized (maintenanceJobReschedulers) {
-				mjrs = new ArrayList(maintenanceJobReschedulers);
-				maintenanceJobReschedulers.clear();
+			synchronized (this.queue) {
+				this.queue.clear();
+				this.queue.notify();
 			}
-			for (int r = 0; r < mjrs.size(); r++)
-				((MaintenanceJobRescheduler) mjrs.get(r)).interrupt();
-			synchronized (maintenanceQueue) {
-				maintenanceQueue.clear();
-				maintenanceQueue.notify();
+			synchronized (this.sleepLock) {
+				this.sleepLock.notify();
 			}
-			this.interrupt();
 		}
-		void setWaitAfterJobs(boolean wait, ComponentActionConsole cac) {
-			if (this.wait == wait)
-				cac.reportError("Already " + (this.wait ? "dragging" : "hurrying") + " jobs");
-			else {
-				this.wait = wait;
-				cac.reportResult("Started " + (this.wait ? "dragging" : "hurrying") + " jobs");
-			}
+	}
+	
+	private static class MaintenanceJobQueue extends LinkedList {
+		private HashSet jobNames = new HashSet(); // keeps us duplicate free
+		public Object removeFirst() {
+			Object first = super.removeFirst();
+			this.jobNames.remove(((MaintenanceJob) first).name);
+			return first;
+		}
+		public void addLast(Object obj) {
+			if (this.jobNames.add(((MaintenanceJob) obj).name))
+				super.addLast(obj);
+		}
+		public void clear() {
+			this.jobNames.clear();
+			super.clear();
 		}
 	}
 	
 	private class MaintenanceJobRescheduler extends Thread {
 		private MaintenanceJob job;
 		private String parentName;
-		MaintenanceJobRescheduler(MaintenanceJob job) {
+		MaintenanceJobRescheduler(MaintenanceJob job, String parentName) {
 			this.job = job;
-			this.parentName = maintenanceWorker.getName();
+			this.parentName = parentName;
 			synchronized (maintenanceJobReschedulers) {
 				maintenanceJobReschedulers.add(this);
 			}
@@ -553,9 +1106,13 @@ public class IdentifierKeyedDataObjectStore {
 	}
 	
 	private abstract class MaintenanceJob {
+		final String type;
 		final String name;
-		MaintenanceJob(String name) {
+		final String shard;
+		MaintenanceJob(String type, String name, String shard) {
+			this.type = type;
 			this.name = name;
+			this.shard = shard;
 		}
 		public abstract boolean doMaintenance() throws Exception;
 	}
@@ -564,7 +1121,7 @@ public class IdentifierKeyedDataObjectStore {
 		private String folderPath;
 		private File folder;
 		FolderReorganizationCheck(String folderPath, File folder) {
-			super("Reorganization Check on " + folderPath);
+			super("Reorganization Check", ("Reorganization Check on " + folderPath), getMaintenanceShard(folderPath));
 			this.folderPath = folderPath;
 			this.folder = folder;
 		}
@@ -579,7 +1136,7 @@ public class IdentifierKeyedDataObjectStore {
 		private File folder;
 		private boolean isContinuation;
 		FolderReorganization(String folderPath, File folder, boolean isContinuation) {
-			super("Reorganization of " + folderPath);
+			super("Reorganization", ("Reorganization of " + folderPath), getMaintenanceShard(folderPath));
 			this.folderPath = folderPath;
 			this.folder = folder;
 			this.isContinuation = isContinuation;
@@ -592,7 +1149,7 @@ public class IdentifierKeyedDataObjectStore {
 	private class OldVersionZipUp extends MaintenanceJob {
 		private String filePathAndName;
 		OldVersionZipUp(String fileName, String filePathAndName) {
-			super("Zip-Up of " + fileName);
+			super("Zip-Up", ("Zip-Up of " + fileName), getMaintenanceShard(getFolderPath((new File(filePathAndName)).getParentFile())));
 			this.filePathAndName = filePathAndName;
 		}
 		public boolean doMaintenance() throws Exception {
@@ -601,6 +1158,230 @@ public class IdentifierKeyedDataObjectStore {
 		}
 	}
 	
+	private class SegmentCompaction extends MaintenanceJob {
+		private int segmentNumber;
+		SegmentCompaction(int segmentNumber) {
+			super("Compaction", ("Compaction of segment " + segmentNumber), ("#" + segmentNumber));
+			this.segmentNumber = segmentNumber;
+		}
+		public boolean doMaintenance() throws Exception {
+			DataObjectSegmentStore segmentStore = IdentifierKeyedDataObjectStore.this.segmentStore;
+			return ((segmentStore == null) || segmentStore.compactSegment(this.segmentNumber));
+		}
+	}
+	
+	/* Bounded cache mapping data object IDs to their current version, split
+	 * into independently synchronized stripes to keep concurrent readers from
+	 * queueing up on a single lock. Each stripe is an open addressing hash
+	 * table with primitive int values, evicting entries in CLOCK order (an
+	 * approximation of LRU that does not need to re-link entries on reads). */
+	private static class VersionCache {
+		private static final int STRIPE_COUNT = 16; // needs to be a power of 2
+		private VersionCacheStripe[] stripes = new VersionCacheStripe[STRIPE_COUNT];
+		VersionCache(int maxSize) {
+			int stripeMaxSize = Math.max(1, ((maxSize + STRIPE_COUNT - 1) / STRIPE_COUNT));
+			for (int s = 0; s < this.stripes.length; s++)
+				this.stripes[s] = new VersionCacheStripe(stripeMaxSize);
+		}
+		private static int getHash(String dataId) {
+			int hash = dataId.hashCode();
+			return (hash ^ (hash >>> 16));
+		}
+		int get(String dataId) {
+			int hash = getHash(dataId);
+			return this.stripes[hash & (STRIPE_COUNT - 1)].get(dataId, hash);
+		}
+		void put(String dataId, int version) {
+			int hash = getHash(dataId);
+			this.stripes[hash & (STRIPE_COUNT - 1)].put(dataId, hash, version);
+		}
+		void remove(String dataId) {
+			int hash = getHash(dataId);
+			this.stripes[hash & (STRIPE_COUNT - 1)].remove(dataId, hash);
+		}
+		int size() {
+			int size = 0;
+			for (int s = 0; s < this.stripes.length; s++)
+				size += this.stripes[s].size;
+			return size;
+		}
+		long getHitCount() {
+			long hitCount = 0;
+			for (int s = 0; s < this.stripes.length; s++)
+				hitCount += this.stripes[s].hitCount;
+			return hitCount;
+		}
+		long getMissCount() {
+			long missCount = 0;
+			for (int s = 0; s < this.stripes.length; s++)
+				missCount += this.stripes[s].missCount;
+			return missCount;
+		}
+	}
+	
+	private static class VersionCacheStripe {
+		private String[] dataIDs;
+		private int[] hashes;
+		private int[] versions;
+		private boolean[] referenced;
+		private final int mask;
+		private final int maxSize;
+		int size = 0;
+		private int clockHand = 0;
+		long hitCount = 0;
+		long missCount = 0;
+		VersionCacheStripe(int maxSize) {
+			int capacity = 4;
+			while (capacity < (maxSize * 2)) // keep load factor at or below 0.5
+				capacity *= 2;
+			this.dataIDs = new String[capacity];
+			this.hashes = new int[capacity];
+			this.versions = new int[capacity];
+			this.referenced = new boolean[capacity];
+			this.mask = (capacity - 1);
+			this.maxSize = maxSize;
+		}
+		private int getSlot(String dataId, int hash) {
+			for (int s = ((hash >>> 4) & this.mask);; s = ((s + 1) & this.mask)) {
+				if (this.dataIDs[s] == null)
+					return s;
+				if ((this.hashes[s] == hash) && this.dataIDs[s].equals(dataId))
+					return s;
+			}
+		}
+		synchronized int get(String dataId, int hash) {
+			int s = this.getSlot(dataId, hash);
+			if (this.dataIDs[s] == null) {
+				this.missCount++;
+				return -1;
+			}
+			this.referenced[s] = true;
+			this.hitCount++;
+			return this.versions[s];
+		}
+		synchronized void put(String dataId, int hash, int version) {
+			int s = this.getSlot(dataId, hash);
+			if (this.dataIDs[s] == null) {
+				if (this.size >= this.maxSize) {
+					this.evict();
+					s = this.getSlot(dataId, hash); // eviction might have shifted entries
+				}
+				this.dataIDs[s] = dataId;
+				this.hashes[s] = hash;
+				this.size++;
+			}
+			this.versions[s] = version;
+			this.referenced[s] = true;
+		}
+		synchronized void remove(String dataId, int hash) {
+			int s = this.getSlot(dataId, hash);
+			if (this.dataIDs[s] != null)
+				this.removeSlot(s);
+		}
+		private void evict() {
+			while (true) {
+				int s = this.clockHand;
+				this.clockHand = ((this.clockHand + 1) & this.mask);
+				if (this.dataIDs[s] == null)
+					continue;
+				if (this.referenced[s])
+					this.referenced[s] = false; // second chance
+				else {
+					this.removeSlot(s);
+					return;
+				}
+			}
+		}
+		private void removeSlot(int s) {
+			
+			//	shift back any subsequent entries that would become unreachable through the gap (saves us tombstones)
+			for (int n = ((s + 1) & this.mask); this.dataIDs[n] != null; n = ((n + 1) & this.mask)) {
+				int home = ((this.hashes[n] >>> 4) & this.mask);
+				if ((s <= n) ? ((s < home) && (home <= n)) : ((s < home) || (home <= n)))
+					continue; // entry can stay where it is
+				this.dataIDs[s] = this.dataIDs[n];
+				this.hashes[s] = this.hashes[n];
+				this.versions[s] = this.versions[n];
+				this.referenced[s] = this.referenced[n];
+				s = n;
+			}
+			this.dataIDs[s] = null;
+			this.referenced[s] = false;
+			this.size--;
+		}
+	}
+	
+	/* Counts of open references to data objects, split into independently
+	 * synchronized stripes, as references are opened and closed with every
+	 * single read and write. */
+	private static class ReferenceCounts {
+		private static final int STRIPE_COUNT = 16; // needs to be a power of 2
+		private HashMap[] stripes = new HashMap[STRIPE_COUNT];
+		ReferenceCounts() {
+			for (int s = 0; s < this.stripes.length; s++)
+				this.stripes[s] = new HashMap();
+		}
+		private HashMap getStripe(String dataId) {
+			int hash = dataId.hashCode();
+			return this.stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+		}
+		void add(String dataId) {
+			HashMap stripe = this.getStripe(dataId);
+			synchronized (stripe) {
+				ReferenceCount rc = ((ReferenceCount) stripe.get(dataId));
+				if (rc == null) {
+					rc = new ReferenceCount();
+					stripe.put(dataId, rc);
+				}
+				rc.count++;
+				rc.lastOpened = System.currentTimeMillis();
+			}
+		}
+		void remove(String dataId) {
+			HashMap stripe = this.getStripe(dataId);
+			synchronized (stripe) {
+				ReferenceCount rc = ((ReferenceCount) stripe.get(dataId));
+				if ((rc != null) && (--rc.count < 1))
+					stripe.remove(dataId);
+			}
+		}
+		boolean contains(String dataId) {
+			HashMap stripe = this.getStripe(dataId);
+			synchronized (stripe) {
+				return stripe.containsKey(dataId);
+			}
+		}
+		TreeMap getReferenceCounts() {
+			TreeMap referenceCounts = new TreeMap();
+			for (int s = 0; s < this.stripes.length; s++)
+				synchronized (this.stripes[s]) {
+					for (Iterator doidit = this.stripes[s].keySet().iterator(); doidit.hasNext();) {
+						String dataId = ((String) doidit.next());
+						ReferenceCount rc = ((ReferenceCount) this.stripes[s].get(dataId));
+						referenceCounts.put(dataId, rc.copy());
+					}
+				}
+			return referenceCounts;
+		}
+		void clear() {
+			for (int s = 0; s < this.stripes.length; s++)
+				synchronized (this.stripes[s]) {
+					this.stripes[s].clear();
+				}
+		}
+	}
+	
+	private static class ReferenceCount {
+		int count = 0;
+		long lastOpened = 0;
+		ReferenceCount copy() {
+			ReferenceCount rc = new ReferenceCount();
+			rc.count = this.count;
+			rc.lastOpened = this.lastOpened;
+			return rc;
+		}
+	}
+	
 	private File rootFolder;
 	private String name;
 	private int minFolderDepth;
@@ -609,40 +1390,28 @@ public class IdentifierKeyedDataObjectStore {
 	private String zipFileExtension;
 	private boolean doVersioning;
 	private boolean dataObjectsAreFiles;
+	private DataObjectSegmentStore segmentStore = null;
 	
-	private Map dataObjectVersionCache = Collections.synchronizedMap(new LinkedHashMap(16, 0.75f, true) {
-		protected boolean removeEldestEntry(Entry eldest) {
-			return (this.size() > 8192);
-		}
-	});
+	private VersionCache dataObjectVersionCache = new VersionCache(8192);
 	
-	private CountingSet dataObjectReferences = new CountingSet(new LinkedHashMap());
-	private LinkedHashMap lastDataObjectReferences = new LinkedHashMap();
+	private ReferenceCounts dataObjectReferences = new ReferenceCounts();
 	
-	private MaintenanceWorkerThread maintenanceWorker;
-	private LinkedList maintenanceQueue = new LinkedList() {
-		private HashSet jobNames = new HashSet(); // keeps us duplicate free
-		public Object removeFirst() {
-			Object first = super.removeFirst();
-			this.jobNames.remove(((MaintenanceJob) first).name);
-			return first;
-		}
-		public void addLast(Object obj) {
-			if (this.jobNames.add(((MaintenanceJob) obj).name))
-				super.addLast(obj);
-		}
-		public void clear() {
-			this.jobNames.clear();
-			super.clear();
-		}
-	};
+	private MaintenanceWorkerThread[] maintenanceWorkers;
+	private final Object maintenanceWorkerLock = new Object();
+	private HashSet activeMaintenanceShards = new HashSet();
+	private int waitingRootMaintenanceJobs = 0;
+	private long[] maintenanceJobEndTimes = new long[256];
+	private int maintenanceJobCount = 0;
 	private HashSet maintenanceJobReschedulers = new HashSet();
 	private AsynchronousWorkQueue maintenanceQueueMonitor;
 	
 	private Set removingDataIDs = Collections.synchronizedSet(new HashSet());
 	private Set restoringDataIDs = Collections.synchronizedSet(new HashSet());
+	private HashMap committingDataIdCounts = new HashMap();
+	private final Object dataObjectOperationLock = new Object();
 	private Set zippingFileNames = Collections.synchronizedSet(new HashSet());
 	private Set reorganizingFolderPaths = Collections.synchronizedSet(new HashSet());
+	private int reorganizationCount = 0; // counts starts and ends of reorganizations
 	
 	private GoldenGateServerActivityLogger logger;
 	
@@ -699,17 +1468,48 @@ public class IdentifierKeyedDataObjectStore {
 		this(name, rootFolder, minFolderDepth, maxFolderObjects, dataFileExtension, (dataFileExtension != null), logger);
 	}
 	
-	/** Constructor
+	/** Constructor for segment file based mode, packing data objects into
+	 * append-only segment files rather than storing each in a file of its own.
+	 * Data objects are buffered in memory while being written, so this mode
+	 * is intended for small data objects.
 	 * @param name a name for the data object store, for distinguishing instances in log and console (defaults to root folder name if null)
 	 * @param rootFolder the root folder of the storage hierarchy
-	 * @param minFolderDepth the minimum number of path steps before actual data (must be at least 0 and at most 16)
-	 * @param maxFolderObjects the maximum number of data objects in a folder before adding a path step to the hierarchy (must be 256 or larger)
-	 * @param dataFileExtension the file extension for data files (null indicates folder based data objects)
-	 * @param doVersioning keep previous versions of data objects available (in file based mode only)?
+	 * @param doVersioning keep previous versions of data objects available?
+	 * @param segmentFileSize the size at which to start a new segment file (must be 1MB or larger)
 	 * @param logger logger for background maintenance activity
 	 */
-	public IdentifierKeyedDataObjectStore(String name, File rootFolder, int minFolderDepth, int maxFolderObjects, String dataFileExtension, boolean doVersioning, GoldenGateServerActivityLogger logger) {
-		this.name = ((name == null) ? rootFolder.getName() : name);
+	public IdentifierKeyedDataObjectStore(String name, File rootFolder, boolean doVersioning, long segmentFileSize, GoldenGateServerActivityLogger logger) {
+		this(name, rootFolder, 0, 256, DataObjectSegmentStore.SEGMENT_FILE_EXTENSION, doVersioning, logger);
+		if (segmentFileSize < (1024 * 1024)) {
+			this.shutdown();
+			throw new IllegalArgumentException("Segment file size must be 1MB or larger");
+		}
+		try {
+			this.segmentStore = new DataObjectSegmentStore(new File(this.rootFolder, DataObjectSegmentStore.SEGMENT_FOLDER_NAME), segmentFileSize, doVersioning, this.logger) {
+				void compactionDue(int segmentNumber) {
+					scheduleMaintenanceJob(new SegmentCompaction(segmentNumber));
+				}
+			};
+		}
+		catch (IOException ioe) {
+			this.logger.logError(ioe);
+			this.shutdown();
+			throw new IllegalStateException("Could not load segment files: " + ioe.getMessage());
+		}
+		this.segmentStore.checkCompaction(false);
+	}
+	
+	/** Constructor
+	 * @param name a name for the data object store, for distinguishing instances in log and console (defaults to root folder name if null)
+	 * @param rootFolder the root folder of the storage hierarchy
+	 * @param minFolderDepth the minimum number of path steps before actual data (must be at least 0 and at most 16)
+	 * @param maxFolderObjects the maximum number of data objects in a folder before adding a path step to the hierarchy (must be 256 or larger)
+	 * @param dataFileExtension the file extension for data files (null indicates folder based data objects)
+	 * @param doVersioning keep previous versions of data objects available (in file based mode only)?
+	 * @param logger logger for background maintenance activity
+	 */
+	public IdentifierKeyedDataObjectStore(String name, File rootFolder, int minFolderDepth, int maxFolderObjects, String dataFileExtension, boolean doVersioning, GoldenGateServerActivityLogger logger) {
+		this.name = ((name == null) ? rootFolder.getName() : name);
 		this.rootFolder = rootFolder;
 		this.rootFolder.mkdirs();
 		if (minFolderDepth < 0)
@@ -737,13 +1537,15 @@ public class IdentifierKeyedDataObjectStore {
 		this.logger = ((logger == null) ? GoldenGateServerActivityLogger.sysOut : logger);
 		
 		//	create and start maintenance worker
-		this.maintenanceWorker = new MaintenanceWorkerThread(this.name);
-		this.maintenanceWorker.start();
+		this.maintenanceWorkers = new MaintenanceWorkerThread[1];
+		this.maintenanceWorkers[0] = new MaintenanceWorkerThread(this.getMaintenanceWorkerName(0), true);
+		this.maintenanceWorkers[0].start();
 		
 		//	link up to monitoring
 		this.maintenanceQueueMonitor = new AsynchronousWorkQueue(this.name) {
 			public String getStatus() {
-				return (this.name + ": " + maintenanceQueue.size() + " maintenance jobs pending" + (IdentifierKeyedDataObjectStore.this.maintenanceWorker.wait ? "" : " (HURRYING)") + ", " + maintenanceJobReschedulers.size() + " ones deferred");
+				MaintenanceWorkerThread[] maintenanceWorkers = getMaintenanceWorkers();
+				return (this.name + ": " + getPendingMaintenanceJobCount(maintenanceWorkers) + " maintenance jobs pending with " + maintenanceWorkers.length + " workers" + (((maintenanceWorkers.length == 0) || maintenanceWorkers[0].wait) ? "" : " (HURRYING)") + ", " + maintenanceJobReschedulers.size() + " ones deferred" + ((segmentStore == null) ? (", " + dataObjectVersionCache.size() + " versions cached (" + dataObjectVersionCache.getHitCount() + " hits, " + dataObjectVersionCache.getMissCount() + " misses)") : (", " + segmentStore.getStatus())));
 			}
 		};
 		
@@ -753,130 +1555,210 @@ public class IdentifierKeyedDataObjectStore {
 				return (IdentifierKeyedDataObjectStore.this.name + "." + super.getActionName());
 			}
 			protected void performAction(String[] arguments) throws Exception {
-				String backupName = ("Backup." + backupTimestamper.format(new Date()) + ".zip");
+				String backupName = ("Backup." + backupTimestamper.format(new Date()));
+				File backupFolder = getBackupFolder((arguments.length == 0) ? null : arguments[0]);
+				String mode = ((arguments.length < 2) ? "-f" : arguments[1]);
+				boolean full = !"-c".equals(mode);
+				int threads = ((arguments.length < 3) ? getDefaultBackupThreads() : Integer.parseInt(arguments[2]));
+				long started = System.currentTimeMillis();
 				
-				String target = ((arguments.length == 0) ? null : arguments[0]);
-				File backupFile;
-				if (target == null)
-					backupFile = new File(IdentifierKeyedDataObjectStore.this.rootFolder, backupName);
-				else if ((target.indexOf(':') == -1) && !target.startsWith("/"))
-					backupFile = new File(new File(IdentifierKeyedDataObjectStore.this.rootFolder, target), backupName);
-				else backupFile = new File(target, backupName);
+				this.log(IdentifierKeyedDataObjectStore.this.name + ": start backing up data object archive ...");
 				
-				boolean full = ((arguments.length < 2) || "-f".equals(arguments[1]));
+				//	find base of incremental backup
+				String baseName = null;
+				long changedSince = -1;
+				if ("-i".equals(mode)) {
+					File baseManifestFile = getLatestBackupManifest(backupFolder);
+					if (baseManifestFile == null)
+						this.log(" - no previous backup found, including all files.");
+					else {
+						Map baseHeader = readBackupManifestHeader(baseManifestFile);
+						baseName = ((String) baseHeader.get(BACKUP_NAME_HEADER));
+						changedSince = Long.parseLong((String) baseHeader.get(BACKUP_STARTED_HEADER));
+						this.log(" - including files changed since " + baseName + ".");
+					}
+				}
 				
-				this.log(IdentifierKeyedDataObjectStore.this.name + ": start backing up data object archive ...");
+				//	start manifest (we only give it its final name once complete, so failed backups never become the base of incremental ones)
+				backupFolder.mkdirs();
+				File manifestFile = new File(backupFolder, (backupName + BACKUP_MANIFEST_FILE_SUFFIX));
+				File manifestTempFile = new File(backupFolder, (backupName + BACKUP_MANIFEST_FILE_SUFFIX + ".tmp"));
+				BackupManifestWriter manifest = new BackupManifestWriter(manifestTempFile);
+				manifest.writeHeader(BACKUP_NAME_HEADER, backupName);
+				manifest.writeHeader(BACKUP_STARTED_HEADER, ("" + started));
+				manifest.writeHeader(BACKUP_MODE_HEADER, mode);
+				if (baseName != null)
+					manifest.writeHeader(BACKUP_BASE_HEADER, baseName);
 				
-				//	collect files to add to backup
-				ArrayList backupFileNames = new ArrayList();
-				ArrayList folderList = new ArrayList();
-				folderList.add(IdentifierKeyedDataObjectStore.this.rootFolder);
+				//	create archive writers, one archive per thread
+				BackupQueue backupQueue = new BackupQueue(1024);
+				HashMap backupFileSizes = new HashMap();
+				BackupWriter[] backupWriters = new BackupWriter[threads];
+				for (int w = 0; w < backupWriters.length; w++) {
+					String archiveName = (backupName + ((backupWriters.length == 1) ? "" : ("." + (w+1))) + ".zip");
+					backupWriters[w] = new BackupWriter(backupQueue, new File(backupFolder, archiveName), manifest, backupFileSizes);
+				}
 				
-				//	process folders
-				for (int f = 0; f < folderList.size(); f++) {
-					File folder = ((File) folderList.get(f));
-					String folderPath = getFolderPath(folder);
+				//	queue up files as we go, so archive writers can start right away
+				DataObjectSegmentStore segmentStore = IdentifierKeyedDataObjectStore.this.segmentStore;
+				File[] segmentFiles = null;
+				int queuedFileCount = 0;
+				int unchangedFileCount = 0;
+				try {
 					
-					//	path folder, process recursively
-					if (isPathFolder(folder, folderPath)) {
-						File[] files = folder.listFiles(new FileFilter() {
-							public boolean accept(File file) {
-								return (file.isDirectory() && (file.getName().matches("[0-9A-Fa-f]{2}")));
-							}
-						});
-						folderList.addAll(Arrays.asList(files));
+					//	use segment files in segment mode, and keep them from being compacted away until we're done
+					if (segmentStore != null) {
+						segmentStore.holdCompaction(true);
+						segmentFiles = segmentStore.getSegmentFiles();
+						for (int s = 0; s < segmentFiles.length; s++)
+							backupFileSizes.put((DataObjectSegmentStore.SEGMENT_FOLDER_NAME + "/" + segmentFiles[s].getName()), new Long(segmentStore.getSegmentLength(segmentFiles[s])));
 					}
+					for (int w = 0; w < backupWriters.length; w++)
+						backupWriters[w].start();
+					this.enteringMainLoop("0 data object files added to backup.");
 					
-					//	use list of data files in file based mode
-					else if (dataObjectsAreFiles) {
-						File[] dataFiles = folder.listFiles(new FileFilter() {
-							public boolean accept(File file) {
-								return (true
-									&& file.isFile()
-									&& (file.getName().endsWith(IdentifierKeyedDataObjectStore.this.dataFileExtension) || file.getName().endsWith(IdentifierKeyedDataObjectStore.this.zipFileExtension))
-									&& file.getName().matches("[0-9A-Fa-f]{32}\\..*")
-								);
+					//	queue segment files in segment mode
+					if (segmentFiles != null)
+						for (int s = 0; this.continueAction() && (s < segmentFiles.length); s++) {
+							if (segmentFiles[s].lastModified() < changedSince) {
+								unchangedFileCount++;
+								continue;
 							}
-						});
-						for (int d = 0; d < dataFiles.length; d++) {
-							String dataFileName = dataFiles[d].getName();
-							if (dataFileName.endsWith(IdentifierKeyedDataObjectStore.this.dataFileExtension)) { /* current data object version */}
-							else if (full && dataFileName.endsWith(IdentifierKeyedDataObjectStore.this.zipFileExtension)) { /* (zipped) older data object version, only include in full backup */}
-							else continue; // skip anything else
-							backupFileNames.add(folderPath + "/" + dataFileName);
+							backupQueue.put(DataObjectSegmentStore.SEGMENT_FOLDER_NAME + "/" + segmentFiles[s].getName());
+							queuedFileCount++;
+							this.loopRoundComplete(backupQueue.getAddedFileCount() + " of " + queuedFileCount + " data object files added to backup.");
 						}
-					}
 					
-					//	use list of data folders and recurse in folder based mode
-					else {
-						File[] dataFolders = folder.listFiles(new FileFilter() {
-							public boolean accept(File file) {
-								return (file.isDirectory() && file.getName().matches("[0-9A-Fa-f]{32}"));
+					//	process folders otherwise
+					ArrayList folderList = new ArrayList();
+					if (segmentStore == null)
+						folderList.add(IdentifierKeyedDataObjectStore.this.rootFolder);
+					for (int f = 0; this.continueAction() && (f < folderList.size()); f++) {
+						File folder = ((File) folderList.get(f));
+						String folderPath = getFolderPath(folder);
+						
+						//	path folder, process recursively
+						if (isPathFolder(folder, folderPath)) {
+							File[] files = folder.listFiles(new FileFilter() {
+								public boolean accept(File file) {
+									return (file.isDirectory() && (file.getName().matches("[0-9A-Fa-f]{2}")));
+								}
+							});
+							folderList.addAll(Arrays.asList(files));
+						}
+						
+						//	use list of data files in file based mode
+						else if (dataObjectsAreFiles) {
+							File[] dataFiles = folder.listFiles(new FileFilter() {
+								public boolean accept(File file) {
+									return (true
+										&& file.isFile()
+										&& (file.getName().endsWith(IdentifierKeyedDataObjectStore.this.dataFileExtension) || file.getName().endsWith(IdentifierKeyedDataObjectStore.this.zipFileExtension))
+										&& file.getName().matches("[0-9A-Fa-f]{32}\\..*")
+									);
+								}
+							});
+							for (int d = 0; this.continueAction() && (d < dataFiles.length); d++) {
+								String dataFileName = dataFiles[d].getName();
+								if (dataFileName.endsWith(IdentifierKeyedDataObjectStore.this.dataFileExtension)) { /* current data object version */}
+								else if (full && dataFileName.endsWith(IdentifierKeyedDataObjectStore.this.zipFileExtension)) { /* (zipped) older data object version, only include in full backup */}
+								else continue; // skip anything else
+								if (dataFiles[d].lastModified() < changedSince) {
+									unchangedFileCount++;
+									continue;
+								}
+								backupQueue.put(folderPath + ((folderPath.length() == 0) ? "" : "/") + dataFileName);
+								queuedFileCount++;
+								this.loopRoundComplete(backupQueue.getAddedFileCount() + " of " + queuedFileCount + " data object files added to backup.");
+							}
+						}
+						
+						//	use list of data folders and recurse in folder based mode
+						else {
+							File[] dataFolders = folder.listFiles(new FileFilter() {
+								public boolean accept(File file) {
+									return (file.isDirectory() && file.getName().matches("[0-9A-Fa-f]{32}"));
+								}
+							});
+							for (int d = 0; this.continueAction() && (d < dataFolders.length); d++) {
+								File[] dataFiles = dataFolders[d].listFiles();
+								
+								//	list all files present in incremental backup, so restoring can tell removed files from unchanged ones
+								if ((changedSince != -1) && (dataFiles != null)) {
+									ArrayList dataFileNames = new ArrayList();
+									for (int df = 0; df < dataFiles.length; df++) {
+										if (dataFiles[df].isFile())
+											dataFileNames.add(dataFiles[df].getName());
+									}
+									manifest.writeListing((folderPath + ((folderPath.length() == 0) ? "" : "/") + dataFolders[d].getName()), dataFileNames);
+								}
+								for (int df = 0; (dataFiles != null) && (df < dataFiles.length); df++) {
+									if (!dataFiles[df].isFile())
+										continue;
+									if (dataFiles[df].lastModified() < changedSince) {
+										unchangedFileCount++;
+										continue;
+									}
+									backupQueue.put(folderPath + ((folderPath.length() == 0) ? "" : "/") + dataFolders[d].getName() + "/" + dataFiles[df].getName());
+									queuedFileCount++;
+								}
+								this.loopRoundComplete(backupQueue.getAddedFileCount() + " of " + queuedFileCount + " data object files added to backup.");
 							}
-						});
-						for (int d = 0; d < dataFolders.length; d++) {
-							File[] dataFiles = dataFolders[d].listFiles();
-							for (int df = 0; df < dataFiles.length; df++)
-								backupFileNames.add(folderPath + "/" + dataFolders[d].getName() + "/" + dataFiles[df].getName());
 						}
 					}
 				}
-				this.log(" - got " + backupFileNames.size() + " files to backup.");
-				this.enteringMainLoop("0 of " + backupFileNames.size() + " data object files added to backup.");
 				
-				//	create backup file
-				backupFile.getParentFile().mkdirs();
-				backupFile.createNewFile();
-				ZipOutputStream backup = new ZipOutputStream(new FileOutputStream(backupFile));
-				
-				//	add data object files to backup
-				for (int f = 0; this.continueAction() && (f < backupFileNames.size()); f++) {
-					String backupEntryFileName = ((String) backupFileNames.get(f));
-					File backupEntryFile = new File(IdentifierKeyedDataObjectStore.this.rootFolder, backupEntryFileName);
-					InputStream backupEntrySource = new BufferedInputStream(new FileInputStream(backupEntryFile));
-					
-					ZipEntry backupEntry = new ZipEntry(backupEntryFileName);
-					backupEntry.setSize(backupEntryFile.length());
-					backupEntry.setTime(backupEntryFile.lastModified());
-					backup.putNextEntry(backupEntry);
-					
-					byte[] buffer = new byte[1024];
-					int read;
-					while ((read = backupEntrySource.read(buffer)) != -1)
-						backup.write(buffer, 0, read);
-					
-					backup.closeEntry();
-					backupEntrySource.close();
-					
-					this.loopRoundComplete((f+1) + " of " + backupFileNames.size() + " data object files added to backup.");
+				//	wait for archive writers to finish
+				finally {
+					if (!this.continueAction())
+						backupQueue.clear();
+					backupQueue.close();
+					for (int w = 0; w < backupWriters.length; w++)
+						backupWriters[w].join();
+					if (segmentStore != null)
+						segmentStore.holdCompaction(false);
+					manifest.close();
 				}
 				
 				//	finalize backup
-				backup.flush();
-				backup.close();
+				backupQueue.checkError();
+				if (this.continueAction()) {
+					manifestTempFile.renameTo(manifestFile);
+					this.log(" - added " + backupQueue.getAddedFileCount() + " files (" + backupQueue.getAddedByteCount() + " bytes) to backup in " + (System.currentTimeMillis() - started) + "ms" + ((changedSince == -1) ? "" : (", " + unchangedFileCount + " files unchanged")) + ((backupQueue.getSkippedFileCount() == 0) ? "" : (", " + backupQueue.getSkippedFileCount() + " files moved or deleted before added")) + ".");
+				}
+				else this.log(" - backup aborted after adding " + backupQueue.getAddedFileCount() + " files.");
 			}
 			protected String[] getArgumentNames() {
-				if (IdentifierKeyedDataObjectStore.this.dataObjectsAreFiles) {
-					String[] argumentNames = {"target", "mode"};
-					return argumentNames;
-				}
-				else {
-					String[] argumentNames = {"target"};
-					return argumentNames;
-				}
+				String[] argumentNames = {"target", "mode", "threads"};
+				return argumentNames;
 			}
 			protected String[] getArgumentExplanation(String argument) {
 				if ("target".equals(argument)) {
 					String[] explanation = {
-							"the file to write the backup to (an absolute file path or a relative file path (relative to the archive root), will backup to archive root if not specified)"
+							"the folder to write the backup to (an absolute folder path or a relative folder path (relative to the archive root), will backup to archive root if not specified)"
+						};
+					return explanation;
+				}
+				else if ("mode".equals(argument) && IdentifierKeyedDataObjectStore.this.dataObjectsAreFiles) {
+					String[] explanation = {
+							"the backup mode, specifying what to include in the backup:",
+							"'-c': backup of current data object versions",
+							"'-f': full backup including all versions of all data objects, the default",
+							"'-i': incremental backup, including all versions changed since the last backup in the target folder"
 						};
 					return explanation;
 				}
-				else if (IdentifierKeyedDataObjectStore.this.dataObjectsAreFiles && "mode".equals(argument)) {
+				else if ("mode".equals(argument)) {
 					String[] explanation = {
 							"the backup mode, specifying what to include in the backup:",
-							"'-c': backup of current data object versions, the default",
-							"'-f': full backup including all versions of all data objects"
+							"'-f': full backup, the default",
+							"'-i': incremental backup, including all files changed since the last backup in the target folder"
+						};
+					return explanation;
+				}
+				else if ("threads".equals(argument)) {
+					String[] explanation = {
+							"the number of threads compressing data in parallel, each writing a separate archive (defaults to half the available processors)"
 						};
 					return explanation;
 				}
@@ -885,14 +1767,22 @@ public class IdentifierKeyedDataObjectStore {
 			protected String checkArguments(String[] arguments) {
 				if (arguments.length < 2)
 					return null;
-				else if (IdentifierKeyedDataObjectStore.this.dataObjectsAreFiles) {
-					if (arguments.length > 2)
-						return "Specify only the target and mode.";
-					else if ("-c".equals(arguments[1]) || "-f".equals(arguments[1]))
-						return null;
-					else return ("Invalid backup mode '" + arguments[1] + "', use '-c' and '-f' only.");
+				else if (arguments.length > 3)
+					return "Specify only the target, mode, and number of threads.";
+				else if ("-c".equals(arguments[1]) && !IdentifierKeyedDataObjectStore.this.dataObjectsAreFiles)
+					return ("Invalid backup mode '" + arguments[1] + "', use '-f' and '-i' only.");
+				else if (!"-c".equals(arguments[1]) && !"-f".equals(arguments[1]) && !"-i".equals(arguments[1]))
+					return ("Invalid backup mode '" + arguments[1] + "', use " + (IdentifierKeyedDataObjectStore.this.dataObjectsAreFiles ? "'-c', " : "") + "'-f' and '-i' only.");
+				else if (arguments.length < 3)
+					return null;
+				try {
+					if (Integer.parseInt(arguments[2]) < 1)
+						return ("Invalid number of threads '" + arguments[2] + "', specify 1 or more.");
 				}
-				else return "Specify only the target.";
+				catch (NumberFormatException nfe) {
+					return ("Invalid number of threads '" + arguments[2] + "', specify a number.");
+				}
+				return null;
 			}
 		};	
 	}
@@ -902,12 +1792,39 @@ public class IdentifierKeyedDataObjectStore {
 	 * maintenance background thread.
 	 */
 	public void shutdown() {
+		WriteBackThread writeBackThread;
+		GroupSyncThread groupSyncThread;
+		synchronized (this.writeThreadLock) {
+			writeBackThread = this.writeBackThread;
+			this.writeBackThread = null;
+			groupSyncThread = this.groupSyncThread;
+			this.groupSyncThread = null;
+		}
+		if (writeBackThread != null)
+			writeBackThread.shutdown(); // completes pending write-backs before maintenance shuts down
+		if (groupSyncThread != null)
+			groupSyncThread.shutdown();
 		if (this.maintenanceQueueMonitor != null)
 			this.maintenanceQueueMonitor.dispose();
 		this.maintenanceQueueMonitor = null;
-		if (this.maintenanceWorker != null)
-			this.maintenanceWorker.shutdown();
-		this.maintenanceWorker = null;
+		MaintenanceWorkerThread[] maintenanceWorkers;
+		synchronized (this.maintenanceWorkerLock) {
+			maintenanceWorkers = this.maintenanceWorkers;
+			this.maintenanceWorkers = null;
+		}
+		if (maintenanceWorkers != null) {
+			for (int w = 0; w < maintenanceWorkers.length; w++)
+				maintenanceWorkers[w].shutdown();
+		}
+		ArrayList mjrs;
+		synchronized (this.maintenanceJobReschedulers) {
+			mjrs = new ArrayList(this.maintenanceJobReschedulers);
+			this.maintenanceJobReschedulers.clear();
+		}
+		for (int r = 0; r < mjrs.size(); r++)
+			((MaintenanceJobRescheduler) mjrs.get(r)).interrupt();
+		if (this.segmentStore != null)
+			this.segmentStore.close();
 	}
 	
 	private void rescheduleMaintenanceJobs() {
@@ -923,39 +1840,233 @@ public class IdentifierKeyedDataObjectStore {
 		}
 	}
 	
+	/**
+	 * Set the number of background maintenance workers. Maintenance jobs are
+	 * distributed to the workers by the top-level folder they work in, so
+	 * jobs in independent subtrees run in parallel, while jobs in the same
+	 * subtree still run one after another. Pending jobs are re-distributed
+	 * if the number of workers changes, and surplus workers finish the job
+	 * they are busy with before they exit. The default is 1.
+	 * @param workerCount the number of maintenance workers to use
+	 */
+	public void setMaintenanceWorkerCount(int workerCount) {
+		if (workerCount < 1)
+			throw new IllegalArgumentException("The number of maintenance workers must be 1 or more");
+		synchronized (this.maintenanceWorkerLock) {
+			if (this.maintenanceWorkers == null)
+				return; // shut down
+			if (this.maintenanceWorkers.length == workerCount)
+				return;
+			
+			//	collect pending jobs, and shut down surplus workers
+			ArrayList pendingJobs = new ArrayList();
+			MaintenanceWorkerThread[] maintenanceWorkers = new MaintenanceWorkerThread[workerCount];
+			for (int w = 0; w < this.maintenanceWorkers.length; w++) {
+				synchronized (this.maintenanceWorkers[w].queue) {
+					pendingJobs.addAll(this.maintenanceWorkers[w].queue);
+					this.maintenanceWorkers[w].queue.clear();
+				}
+				if (w < workerCount)
+					maintenanceWorkers[w] = this.maintenanceWorkers[w];
+				else this.maintenanceWorkers[w].shutdown();
+			}
+			
+			//	start any additional workers
+			boolean wait = this.maintenanceWorkers[0].wait;
+			for (int w = this.maintenanceWorkers.length; w < workerCount; w++) {
+				maintenanceWorkers[w] = new MaintenanceWorkerThread(this.getMaintenanceWorkerName(w), wait);
+				maintenanceWorkers[w].start();
+			}
+			this.maintenanceWorkers = maintenanceWorkers;
+			
+			//	re-distribute pending jobs
+			for (int j = 0; j < pendingJobs.size(); j++)
+				this.scheduleMaintenanceJob((MaintenanceJob) pendingJobs.get(j));
+		}
+		this.logger.logInfo(this.name + ": now using " + workerCount + " maintenance workers");
+	}
+	
+	/**
+	 * Retrieve the number of background maintenance workers.
+	 * @return the number of maintenance workers
+	 */
+	public int getMaintenanceWorkerCount() {
+		return this.getMaintenanceWorkers().length;
+	}
+	
+	/**
+	 * Retrieve the number of lookups of current data object versions that were
+	 * answered from the version cache. Lookups are not cached if the in-memory
+	 * path index is active or in segment mode, as both hold all versions in
+	 * memory anyway.
+	 * @return the number of version cache hits
+	 */
+	public long getVersionCacheHitCount() {
+		return this.dataObjectVersionCache.getHitCount();
+	}
+	
+	/**
+	 * Retrieve the number of lookups of current data object versions that had
+	 * to go to the file system because the version was not in the cache.
+	 * @return the number of version cache misses
+	 */
+	public long getVersionCacheMissCount() {
+		return this.dataObjectVersionCache.getMissCount();
+	}
+	
+	private String getMaintenanceWorkerName(int index) {
+		return (this.name + "MaintenanceWorker" + ((index == 0) ? "" : ("." + index)));
+	}
+	
+	private MaintenanceWorkerThread[] getMaintenanceWorkers() {
+		synchronized (this.maintenanceWorkerLock) {
+			return ((this.maintenanceWorkers == null) ? new MaintenanceWorkerThread[0] : this.maintenanceWorkers);
+		}
+	}
+	
+	private static int getPendingMaintenanceJobCount(MaintenanceWorkerThread[] maintenanceWorkers) {
+		int pendingJobCount = 0;
+		for (int w = 0; w < maintenanceWorkers.length; w++)
+			pendingJobCount += maintenanceWorkers[w].queue.size();
+		return pendingJobCount;
+	}
+	
 	private void scheduleMaintenanceJob(MaintenanceJob job) {
-		synchronized (this.maintenanceQueue) {
-			this.maintenanceQueue.addLast(job);
-			this.maintenanceQueue.notify();
+		synchronized (this.maintenanceWorkerLock) {
+			if (this.maintenanceWorkers == null)
+				return; // shut down
+			MaintenanceWorkerThread worker = this.maintenanceWorkers[(job.shard.hashCode() & 0x7FFFFFFF) % this.maintenanceWorkers.length];
+			synchronized (worker.queue) {
+				worker.queue.addLast(job);
+				worker.queue.notify();
+			}
 		}
 	}
 	
-	private void registerDataObjectReference(String dataId) {
-		synchronized (this.dataObjectReferences) {
-			this.dataObjectReferences.add(dataId);
-			this.lastDataObjectReferences.put(dataId, new Long(System.currentTimeMillis()));
+	private static String getMaintenanceShard(String folderPath) {
+		int stepEnd = folderPath.indexOf('/');
+		return ((stepEnd == -1) ? folderPath : folderPath.substring(0, stepEnd));
+	}
+	
+	private void startMaintenanceShard(String shard) {
+		synchronized (this.activeMaintenanceShards) {
+			
+			//	jobs in root folder (empty shard) conflict with all others
+			if (shard.length() == 0) {
+				this.waitingRootMaintenanceJobs++;
+				try {
+					while (this.activeMaintenanceShards.size() != 0) try {
+						this.activeMaintenanceShards.wait(1000);
+					} catch (InterruptedException ie) {}
+				}
+				finally {
+					this.waitingRootMaintenanceJobs--;
+				}
+			}
+			
+			//	hold back jobs in other shards while root folder job waits, so latter doesn't starve under steady load
+			else while (this.activeMaintenanceShards.contains(shard) || this.activeMaintenanceShards.contains("") || (this.waitingRootMaintenanceJobs != 0)) try {
+				this.activeMaintenanceShards.wait(1000);
+			} catch (InterruptedException ie) {}
+			this.activeMaintenanceShards.add(shard);
 		}
 	}
-	private void unregisterDataObjectReference(String dataId) {
-		synchronized (this.dataObjectReferences) {
-			if (this.dataObjectReferences.remove(dataId))
-				this.lastDataObjectReferences.remove(dataId);
+	
+	private void endMaintenanceShard(String shard) {
+		synchronized (this.activeMaintenanceShards) {
+			this.activeMaintenanceShards.remove(shard);
+			this.activeMaintenanceShards.notifyAll();
 		}
 	}
-	private boolean hasDataObjectReference(String dataId) {
-		synchronized (this.dataObjectReferences) {
-			return this.dataObjectReferences.contains(dataId);
+	
+	private void countMaintenanceJob() {
+		synchronized (this.maintenanceJobEndTimes) {
+			this.maintenanceJobEndTimes[this.maintenanceJobCount % this.maintenanceJobEndTimes.length] = System.currentTimeMillis();
+			this.maintenanceJobCount++;
+		}
+	}
+	
+	private double getMaintenanceJobThroughput() {
+		synchronized (this.maintenanceJobEndTimes) {
+			int jobCount = Math.min(this.maintenanceJobCount, this.maintenanceJobEndTimes.length);
+			if (jobCount == 0)
+				return 0;
+			long time = (System.currentTimeMillis() - this.maintenanceJobEndTimes[(this.maintenanceJobCount - jobCount) % this.maintenanceJobEndTimes.length]);
+			return ((jobCount * 60000.0) / Math.max(time, 1000)); // jobs per minute
+		}
+	}
+	
+	private void setMaintenanceWaitAfterJobs(boolean wait, ComponentActionConsole cac) {
+		MaintenanceWorkerThread[] maintenanceWorkers = this.getMaintenanceWorkers();
+		if (maintenanceWorkers.length == 0)
+			return;
+		if (maintenanceWorkers[0].wait == wait)
+			cac.reportError("Already " + (wait ? "dragging" : "hurrying") + " jobs");
+		else {
+			for (int w = 0; w < maintenanceWorkers.length; w++)
+				maintenanceWorkers[w].wait = wait;
+			cac.reportResult("Started " + (wait ? "dragging" : "hurrying") + " jobs");
+		}
+	}
+	
+	private void listPendingMaintenanceJobs(ComponentActionConsole cac) {
+		MaintenanceWorkerThread[] maintenanceWorkers = this.getMaintenanceWorkers();
+		int pendingJobCount = getPendingMaintenanceJobCount(maintenanceWorkers);
+		cac.reportResult("There are currently " + pendingJobCount + " pending maintenance jobs, " + this.maintenanceJobReschedulers.size() + " more ones deferred, handled by " + maintenanceWorkers.length + " workers" + (((maintenanceWorkers.length == 0) || maintenanceWorkers[0].wait) ? "" : " (HURRYING)") + ".");
+		
+		//	count pending jobs by type
+		TreeMap pendingJobTypeCounts = new TreeMap();
+		for (int w = 0; w < maintenanceWorkers.length; w++)
+			synchronized (maintenanceWorkers[w].queue) {
+				for (Iterator jit = maintenanceWorkers[w].queue.iterator(); jit.hasNext();) {
+					MaintenanceJob job = ((MaintenanceJob) jit.next());
+					Integer count = ((Integer) pendingJobTypeCounts.get(job.type));
+					pendingJobTypeCounts.put(job.type, new Integer((count == null) ? 1 : (count.intValue() + 1)));
+				}
+			}
+		for (Iterator tit = pendingJobTypeCounts.keySet().iterator(); tit.hasNext();) {
+			String type = ((String) tit.next());
+			cac.reportResult(" - " + type + ": " + pendingJobTypeCounts.get(type));
 		}
+		
+		//	show individual workers
+		for (int w = 0; w < maintenanceWorkers.length; w++) {
+			int jobCount = (maintenanceWorkers[w].jobsDone + maintenanceWorkers[w].jobsSuspended + maintenanceWorkers[w].jobsFailed);
+			cac.reportResult(" - " + maintenanceWorkers[w].getName() + ": " + maintenanceWorkers[w].queue.size() + " pending, " + maintenanceWorkers[w].jobsDone + " done, " + maintenanceWorkers[w].jobsSuspended + " suspended, " + maintenanceWorkers[w].jobsFailed + " failed" + ((jobCount == 0) ? "" : (", " + (maintenanceWorkers[w].jobTime / jobCount) + "ms per job on average")));
+		}
+		
+		//	show throughput and estimated time to clear backlog
+		double throughput = this.getMaintenanceJobThroughput();
+		if (throughput == 0)
+			cac.reportResult("No recent maintenance job throughput.");
+		else cac.reportResult("Recent throughput is " + (Math.round(throughput * 10) / 10.0) + " jobs per minute" + ((pendingJobCount == 0) ? "" : (", backlog will take about " + Math.round(Math.ceil(pendingJobCount / throughput)) + " minutes to clear")) + ".");
+		
+		//	show pending write-backs
+		if (this.isUsingAsyncWriteBack())
+			cac.reportResult("There are currently " + this.getPendingWriteBackCount() + " data objects pending write-back" + ((this.failedWriteBackCount == 0) ? "" : (", " + this.failedWriteBackCount + " write-backs failed so far")) + ".");
+	}
+	
+	private void registerDataObjectReference(String dataId) {
+		this.dataObjectReferences.add(dataId);
+	}
+	private void unregisterDataObjectReference(String dataId) {
+		this.dataObjectReferences.remove(dataId);
+	}
+	private boolean hasDataObjectReference(String dataId) {
+		return this.dataObjectReferences.contains(dataId);
 	}
 	
 	private void registerReorganizingFolderPath(String folderPath) {
 		synchronized (this.reorganizingFolderPaths) {
 			this.reorganizingFolderPaths.add(folderPath);
+			this.reorganizationCount++;
 		}
 	}
 	private void unregisterReorganizingFolderPath(String folderPath) {
 		synchronized (this.reorganizingFolderPaths) {
 			this.reorganizingFolderPaths.remove(folderPath);
+			this.reorganizationCount++;
+			this.reorganizingFolderPaths.notifyAll();
 		}
 	}
 	private boolean isReorganizingFolderPath(String folderPath) {
@@ -963,74 +2074,552 @@ public class IdentifierKeyedDataObjectStore {
 			return this.reorganizingFolderPaths.contains(folderPath);
 		}
 	}
+	private int getReorganizationCount() {
+		synchronized (this.reorganizingFolderPaths) {
+			return this.reorganizationCount;
+		}
+	}
+	private boolean awaitFolderReorganization(String folderPath) {
+		long deadline = (System.currentTimeMillis() + MAX_REORGANIZATION_WAIT);
+		synchronized (this.reorganizingFolderPaths) {
+			while (this.reorganizingFolderPaths.contains(folderPath)) {
+				long wait = (deadline - System.currentTimeMillis());
+				if (wait <= 0)
+					return false;
+				try {
+					this.reorganizingFolderPaths.wait(wait);
+				} catch (InterruptedException ie) {}
+			}
+			return true;
+		}
+	}
+	
+	private void awaitDataObjectOperations(String dataId, boolean includeRemovals) {
+		this.awaitDataObjectOperations(dataId, includeRemovals, true);
+	}
+	private void awaitDataObjectOperations(String dataId, boolean includeRemovals, boolean includeCommits) {
+		synchronized (this.dataObjectOperationLock) {
+			while ((includeRemovals && this.removingDataIDs.contains(dataId)) || this.restoringDataIDs.contains(dataId) || (includeCommits && this.committingDataIdCounts.containsKey(dataId))) try {
+				this.dataObjectOperationLock.wait();
+			} catch (InterruptedException ie) {}
+		}
+	}
+	private void startCommit(String dataId) {
+		synchronized (this.dataObjectOperationLock) {
+			int[] count = ((int[]) this.committingDataIdCounts.get(dataId));
+			if (count == null)
+				this.committingDataIdCounts.put(dataId, new int[] {1});
+			else count[0]++;
+		}
+	}
+	private void endCommit(String dataId) {
+		synchronized (this.dataObjectOperationLock) {
+			int[] count = ((int[]) this.committingDataIdCounts.get(dataId));
+			if ((count != null) && (--count[0] <= 0))
+				this.committingDataIdCounts.remove(dataId);
+			this.dataObjectOperationLock.notifyAll();
+		}
+	}
+	private void endDataObjectOperation(Set operationDataIDs, String dataId) {
+		synchronized (this.dataObjectOperationLock) {
+			operationDataIDs.remove(dataId);
+			this.dataObjectOperationLock.notifyAll();
+		}
+	}
 	
-	private static final SimpleDateFormat backupTimestamper = new SimpleDateFormat("yyyyMMdd-HHmm");
+	private static final SimpleDateFormat backupTimestamper = new SimpleDateFormat("yyyyMMdd-HHmmss");
 	private AsynchronousConsoleAction backupAction;
 	
-	private static final String CHECK_FOLDER_REORGANIZATION_COMMAND = "checkFolderReorg";
-	private static final String MARK_PATH_FOLDERS_COMMAND = "markPathFolders";
-	private static final String ZIP_OLD_VERSIONS_COMMAND = "zipOldVersions";
-	private static final String SHOW_REFERENCES_COMMAND = "showRefs";
-	private static final String CLEAR_REFERENCES_COMMAND = "clearRefs";
-	private static final String JOB_QUEUE_SIZE_COMMAND = "jobsPending";
-	private static final String RESCHEDULE_JOBS_COMMAND = "rescheduleJobs";
-	private static final String HURRY_JOBS_COMMAND = "hurryJobs";
-	private static final String DRAG_JOBS_COMMAND = "dragJobs";
+	private static final String BACKUP_MANIFEST_FILE_SUFFIX = ".manifest.txt";
+	private static final String BACKUP_NAME_HEADER = "name";
+	private static final String BACKUP_STARTED_HEADER = "started";
+	private static final String BACKUP_MODE_HEADER = "mode";
+	private static final String BACKUP_BASE_HEADER = "base";
+	private static final String BACKUP_LISTING_PREFIX = "@";
 	
-	//	TODO make commands public
+	private File getBackupFolder(String target) {
+		if (target == null)
+			return this.rootFolder;
+		else if ((target.indexOf(':') == -1) && !target.startsWith("/"))
+			return new File(this.rootFolder, target);
+		else return new File(target);
+	}
 	
-	//	TODO provide getActions() method taking mapping of generic default commands to custom names and explanations
+	private static int getDefaultBackupThreads() {
+		return Math.max(1, (Runtime.getRuntime().availableProcessors() / 2));
+	}
+	
+	private static File getLatestBackupManifest(File backupFolder) {
+		File[] manifestFiles = backupFolder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return (file.isFile() && file.getName().endsWith(BACKUP_MANIFEST_FILE_SUFFIX));
+			}
+		});
+		if ((manifestFiles == null) || (manifestFiles.length == 0))
+			return null;
+		Arrays.sort(manifestFiles); // time stamps in file names sort chronologically
+		return manifestFiles[manifestFiles.length - 1];
+	}
+	
+	private static Map readBackupManifestHeader(File manifestFile) throws IOException {
+		HashMap header = new HashMap();
+		BufferedReader manifestIn = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+		try {
+			for (String line; (line = manifestIn.readLine()) != null;) {
+				if (!line.startsWith("#"))
+					break; // end of header
+				int split = line.indexOf('=');
+				if (split != -1)
+					header.put(line.substring(1, split), line.substring(split + 1));
+			}
+		}
+		finally {
+			manifestIn.close();
+		}
+		return header;
+	}
 	
 	/**
-	 * Retrieve the actions for accessing and managing the data object store
-	 * from the component server console inside the scope of a host server
-	 * component. Access though network is not possible without a respective
-	 * host server component, and is not intended to be.
-	 * @return an array holding actions for accessing and managing the data
-	 *         object store from the component server console
+	 * Restore a data object from a chain of backups created by the backup
+	 * action. Starting with the most recent backup in the argument folder, and
+	 * going back from incremental backups to the ones they are based upon all
+	 * the way to the full backup, the data object is restored from the most
+	 * recent backed up version of each of its files. In file based mode, the
+	 * content of the backed up current version is stored as a new version of
+	 * the data object. In folder based mode, the backed up files are written
+	 * to the data object folder, replacing any existing files of the same
+	 * names, while files removed before the most recent backup containing the
+	 * data object are left out. Restoring individual data objects is not
+	 * supported in segment mode.
+	 * @param dataId the ID of the data object to restore
+	 * @param backupFolder the folder holding the backups
+	 * @return the name of the most recent backup the data object was restored
+	 *            from, or null if none of the backups in the chain contains it
+	 * @throws IOException
 	 */
-	public ComponentActionConsole[] getActions() {
-		ArrayList cal = new ArrayList();
-		ComponentActionConsole ca;
-		
-		//	backup data object archive
-		cal.add(this.backupAction);
+	public String restoreFromBackup(String dataId, File backupFolder) throws IOException {
+		if (this.segmentStore != null)
+			throw new IOException("Restoring individual data objects from backups is not supported in segment mode");
+		dataId = this.checkDataId(dataId);
 		
-		//	add command triggering depth analysis and reorganization
-		ca = new ComponentActionConsole() {
-			private Thread checker = null;
-			public String getActionCommand() {
-				return CHECK_FOLDER_REORGANIZATION_COMMAND;
+		//	go through whole backup chain, starting with most recent backup, and collect most recent entry for each file
+		LinkedHashMap entriesByName = new LinkedHashMap();
+		HashSet presentFileNames = null;
+		String restoreBackupName = null;
+		for (File manifestFile = getLatestBackupManifest(backupFolder); manifestFile != null;) {
+			Map header = readBackupManifestHeader(manifestFile);
+			ArrayList entries = new ArrayList();
+			HashSet listedFileNames = this.readBackupManifestEntries(manifestFile, dataId, entries);
+			for (int e = 0; e < entries.size(); e++) {
+				BackupManifestEntry entry = ((BackupManifestEntry) entries.get(e));
+				String fileName = entry.fileName.substring(entry.fileName.lastIndexOf('/') + 1);
+				if (entriesByName.containsKey(fileName))
+					continue; // we already have a more recent version
+				if ((presentFileNames != null) && !presentFileNames.contains(fileName))
+					continue; // removed before a more recent backup
+				entriesByName.put(fileName, entry);
 			}
-			public String[] getExplanation() {
-				String[] explanation = {
-						CHECK_FOLDER_REORGANIZATION_COMMAND,
-						"Check data folders for reorganization, i.e., if they contain too many data objects."
-					};
-				return explanation;
+			if ((restoreBackupName == null) && ((entries.size() != 0) || (listedFileNames != null)))
+				restoreBackupName = ((String) header.get(BACKUP_NAME_HEADER));
+			if ((presentFileNames == null) && (listedFileNames != null))
+				presentFileNames = listedFileNames; // most recent listing rules which files belong to restored data object
+			
+			//	file based mode only backs up current version, so most recent one is all we need
+			if (this.dataObjectsAreFiles && (entriesByName.size() != 0))
+				break;
+			
+			String baseName = ((String) header.get(BACKUP_BASE_HEADER));
+			if (baseName == null)
+				break;
+			manifestFile = new File(backupFolder, (baseName + BACKUP_MANIFEST_FILE_SUFFIX));
+			if (!manifestFile.exists())
+				throw new IOException("Incomplete backup chain, could not find base backup " + baseName);
+		}
+		if (entriesByName.isEmpty())
+			return null;
+		this.restoreFromBackup(dataId, backupFolder, new ArrayList(entriesByName.values()));
+		return restoreBackupName;
+	}
+	
+	private HashSet readBackupManifestEntries(File manifestFile, String dataId, ArrayList entries) throws IOException {
+		HashSet listedFileNames = null;
+		BufferedReader manifestIn = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+		try {
+			for (String line; (line = manifestIn.readLine()) != null;) {
+				if (line.startsWith("#"))
+					continue;
+				String[] entryData = line.split("\\t");
+				
+				//	listing of files present in data object folder in folder based mode
+				if (line.startsWith(BACKUP_LISTING_PREFIX)) {
+					String folderName = entryData[0].substring(BACKUP_LISTING_PREFIX.length());
+					if (!this.dataObjectsAreFiles && (folderName.endsWith("/" + dataId) || folderName.equals(dataId))) {
+						listedFileNames = new HashSet();
+						for (int n = 1; n < entryData.length; n++)
+							listedFileNames.add(entryData[n]);
+					}
+					continue;
+				}
+				if (entryData.length < 5)
+					continue;
+				
+				//	current version in file based mode, or any file in data object folder in folder based mode
+				String fileName = entryData[0];
+				if (this.dataObjectsAreFiles ? (fileName.endsWith("/" + dataId + this.dataFileExtension) || fileName.equals(dataId + this.dataFileExtension)) : ((fileName.indexOf("/" + dataId + "/") != -1) || fileName.startsWith(dataId + "/")))
+					entries.add(new BackupManifestEntry(fileName, Long.parseLong(entryData[3], 16), entryData[4]));
 			}
-			public void performActionConsole(String[] arguments) {
-				if (arguments.length != 0)
-					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
-				else if (this.checker != null)
-					this.reportError(" Already checking data folders for reorganization");
-				else {
-					final ComponentActionConsole cac = this;
-					this.checker = new Thread() {
-						public void run() {
-							try {
-								checkFolderReorganization(cac);
-							}
-							finally {
-								checker = null;
-							}
+		}
+		finally {
+			manifestIn.close();
+		}
+		return listedFileNames;
+	}
+	
+	private void restoreFromBackup(String dataId, File backupFolder, ArrayList entries) throws IOException {
+		DataObjectFolder dataObjectFolder = null;
+		try {
+			for (int e = 0; e < entries.size(); e++) {
+				BackupManifestEntry entry = ((BackupManifestEntry) entries.get(e));
+				ZipFile archive = new ZipFile(new File(backupFolder, entry.archiveName));
+				try {
+					ZipEntry archiveEntry = archive.getEntry(entry.fileName);
+					if (archiveEntry == null)
+						throw new IOException("Could not find " + entry.fileName + " in " + entry.archiveName);
+					
+					//	verify checksum before we touch any live data
+					CRC32 crc = new CRC32();
+					byte[] buffer = new byte[65536];
+					InputStream entryIn = archive.getInputStream(archiveEntry);
+					for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
+						crc.update(buffer, 0, r);
+					entryIn.close();
+					if (crc.getValue() != entry.crc)
+						throw new IOException("Checksum mismatch on " + entry.fileName + " in " + entry.archiveName);
+					
+					//	copy data
+					OutputStream dataOut;
+					if (this.dataObjectsAreFiles)
+						dataOut = this.getOutputStream(dataId);
+					else {
+						if (dataObjectFolder == null) {
+							dataObjectFolder = this.getDataObjectFolder(dataId);
+							dataObjectFolder.mkdirs();
 						}
-					};
-					this.checker.start();
+						dataOut = new BufferedOutputStream(new FileOutputStream(new File(dataObjectFolder, entry.fileName.substring(entry.fileName.lastIndexOf('/') + 1))));
+					}
+					entryIn = archive.getInputStream(archiveEntry);
+					for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
+						dataOut.write(buffer, 0, r);
+					entryIn.close();
+					dataOut.flush();
+					dataOut.close();
+				}
+				finally {
+					archive.close();
 				}
 			}
-		};
-		cal.add(ca);
+		}
+		finally {
+			if (dataObjectFolder != null)
+				dataObjectFolder.close();
+		}
+	}
+	
+	private static class BackupManifestEntry {
+		final String fileName;
+		final long crc;
+		final String archiveName;
+		BackupManifestEntry(String fileName, long crc, String archiveName) {
+			this.fileName = fileName;
+			this.crc = crc;
+			this.archiveName = archiveName;
+		}
+	}
+	
+	private static class BackupManifestWriter {
+		private BufferedWriter manifestOut;
+		BackupManifestWriter(File manifestFile) throws IOException {
+			this.manifestOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8"));
+		}
+		synchronized void writeHeader(String name, String value) throws IOException {
+			this.manifestOut.write("#" + name + "=" + value + "\n");
+		}
+		synchronized void writeListing(String folderName, ArrayList fileNames) throws IOException {
+			this.manifestOut.write(BACKUP_LISTING_PREFIX + folderName);
+			for (int f = 0; f < fileNames.size(); f++)
+				this.manifestOut.write("\t" + fileNames.get(f));
+			this.manifestOut.write("\n");
+		}
+		synchronized void writeEntry(String fileName, long length, long lastModified, long crc, String archiveName) throws IOException {
+			this.manifestOut.write(fileName + "\t" + length + "\t" + lastModified + "\t" + Long.toHexString(crc) + "\t" + archiveName + "\n");
+		}
+		synchronized void close() throws IOException {
+			this.manifestOut.flush();
+			this.manifestOut.close();
+		}
+	}
+	
+	/* Bounded hand-over of file names from the thread listing the files to
+	 * the threads writing the backup archives, so listing and compressing run
+	 * in parallel without ever holding all the file names in memory. */
+	private static class BackupQueue {
+		private LinkedList fileNames = new LinkedList();
+		private int maxSize;
+		private boolean closed = false;
+		private Exception error = null;
+		private int addedFileCount = 0;
+		private long addedByteCount = 0;
+		private int skippedFileCount = 0;
+		BackupQueue(int maxSize) {
+			this.maxSize = maxSize;
+		}
+		synchronized void put(String fileName) throws IOException {
+			while ((this.fileNames.size() >= this.maxSize) && (this.error == null)) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			this.checkError();
+			this.fileNames.addLast(fileName);
+			this.notifyAll();
+		}
+		synchronized String take() {
+			while (this.fileNames.isEmpty() && !this.closed) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			if (this.fileNames.isEmpty())
+				return null;
+			this.notifyAll();
+			return ((String) this.fileNames.removeFirst());
+		}
+		synchronized void clear() {
+			this.fileNames.clear();
+			this.notifyAll();
+		}
+		synchronized void close() {
+			this.closed = true;
+			this.notifyAll();
+		}
+		synchronized void setError(Exception error) {
+			if (this.error == null)
+				this.error = error;
+			this.fileNames.clear();
+			this.closed = true;
+			this.notifyAll();
+		}
+		synchronized void checkError() throws IOException {
+			if (this.error instanceof IOException)
+				throw ((IOException) this.error);
+			else if (this.error != null)
+				throw new IOException(this.error.getClass().getName() + " writing backup: " + this.error.getMessage());
+		}
+		synchronized void fileAdded(long bytes) {
+			this.addedFileCount++;
+			this.addedByteCount += bytes;
+		}
+		synchronized void fileSkipped() {
+			this.skippedFileCount++;
+		}
+		synchronized int getAddedFileCount() {
+			return this.addedFileCount;
+		}
+		synchronized long getAddedByteCount() {
+			return this.addedByteCount;
+		}
+		synchronized int getSkippedFileCount() {
+			return this.skippedFileCount;
+		}
+	}
+	
+	private class BackupWriter extends Thread {
+		private BackupQueue queue;
+		private File archiveFile;
+		private BackupManifestWriter manifest;
+		private Map fileSizes;
+		BackupWriter(BackupQueue queue, File archiveFile, BackupManifestWriter manifest, Map fileSizes) {
+			super(name + "BackupWriter");
+			this.queue = queue;
+			this.archiveFile = archiveFile;
+			this.manifest = manifest;
+			this.fileSizes = fileSizes;
+		}
+		public void run() {
+			ZipOutputStream archive = null;
+			try {
+				archive = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(this.archiveFile)));
+				byte[] buffer = new byte[65536];
+				CRC32 crc = new CRC32();
+				for (String fileName; (fileName = this.queue.take()) != null;) {
+					File file = new File(rootFolder, fileName);
+					InputStream source;
+					try {
+						source = new FileInputStream(file);
+					}
+					catch (FileNotFoundException fnfe) {
+						this.queue.fileSkipped(); // moved by reorganization or deleted since listed
+						continue;
+					}
+					
+					//	active segment file might grow while we're copying it, so only include complete records present at time of listing
+					Long fileSize = ((Long) this.fileSizes.get(fileName));
+					long length = ((fileSize == null) ? Long.MAX_VALUE : fileSize.longValue());
+					long lastModified = file.lastModified();
+					
+					ZipEntry entry = new ZipEntry(fileName);
+					entry.setTime(lastModified);
+					archive.putNextEntry(entry);
+					crc.reset();
+					long copied = 0;
+					for (int r; (copied < length) && ((r = source.read(buffer, 0, ((int) Math.min(buffer.length, (length - copied))))) != -1);) {
+						archive.write(buffer, 0, r);
+						crc.update(buffer, 0, r);
+						copied += r;
+					}
+					archive.closeEntry();
+					source.close();
+					
+					this.manifest.writeEntry(fileName, copied, lastModified, crc.getValue(), this.archiveFile.getName());
+					this.queue.fileAdded(copied);
+				}
+				archive.flush();
+			}
+			catch (Exception e) {
+				this.queue.setError(e);
+			}
+			finally {
+				if (archive != null) try {
+					archive.close();
+				}
+				catch (IOException ioe) {
+					this.queue.setError(ioe);
+				}
+			}
+		}
+	}
+	
+	private static final String CHECK_FOLDER_REORGANIZATION_COMMAND = "checkFolderReorg";
+	private static final String MARK_PATH_FOLDERS_COMMAND = "markPathFolders";
+	private static final String ZIP_OLD_VERSIONS_COMMAND = "zipOldVersions";
+	private static final String SHOW_REFERENCES_COMMAND = "showRefs";
+	private static final String CLEAR_REFERENCES_COMMAND = "clearRefs";
+	private static final String JOB_QUEUE_SIZE_COMMAND = "jobsPending";
+	private static final String RESCHEDULE_JOBS_COMMAND = "rescheduleJobs";
+	private static final String HURRY_JOBS_COMMAND = "hurryJobs";
+	private static final String DRAG_JOBS_COMMAND = "dragJobs";
+	private static final String SET_JOB_WORKERS_COMMAND = "setJobWorkers";
+	private static final String COMPACT_SEGMENTS_COMMAND = "compactSegments";
+	private static final String RESTORE_FROM_BACKUP_COMMAND = "restoreFromBackup";
+	
+	//	TODO make commands public
+	
+	//	TODO provide getActions() method taking mapping of generic default commands to custom names and explanations
+	
+	/**
+	 * Retrieve the actions for accessing and managing the data object store
+	 * from the component server console inside the scope of a host server
+	 * component. Access though network is not possible without a respective
+	 * host server component, and is not intended to be.
+	 * @return an array holding actions for accessing and managing the data
+	 *         object store from the component server console
+	 */
+	public ComponentActionConsole[] getActions() {
+		ArrayList cal = new ArrayList();
+		ComponentActionConsole ca;
+		
+		//	backup data object archive
+		cal.add(this.backupAction);
+		
+		//	restore individual data object from backup (not in segment mode, where data objects are not stored in individual files)
+		if (this.segmentStore == null) {
+			ca = new ComponentActionConsole() {
+				public String getActionCommand() {
+					return RESTORE_FROM_BACKUP_COMMAND;
+				}
+				public String[] getExplanation() {
+					String[] explanation = {
+							RESTORE_FROM_BACKUP_COMMAND + " <dataId> <source>",
+							"Restore a data object from the most recent backup containing it:",
+							"- <dataId>: the ID of the data object to restore",
+							"- <source>: the folder holding the backups (an absolute folder path or a relative folder path (relative to the archive root), will use archive root if not specified)"
+						};
+					return explanation;
+				}
+				public void performActionConsole(String[] arguments) {
+					if ((arguments.length == 1) || (arguments.length == 2)) try {
+						String backupName = restoreFromBackup(arguments[0], getBackupFolder((arguments.length == 1) ? null : arguments[1]));
+						if (backupName == null)
+							this.reportError(" Could not find data object '" + arguments[0] + "' in any backup.");
+						else this.reportResult("Data object '" + arguments[0] + "' restored from " + backupName + ".");
+					}
+					catch (Exception e) {
+						this.reportError(" Error restoring data object '" + arguments[0] + "': " + e.getMessage());
+						this.reportError(e);
+					}
+					else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify the data object ID and optionally the backup folder only.");
+				}
+			};
+			cal.add(ca);
+		}
+		
+		//	compact segment files (only in segment mode, where folder hierarchy is not used)
+		if (this.segmentStore != null) {
+			ca = new ComponentActionConsole() {
+				public String getActionCommand() {
+					return COMPACT_SEGMENTS_COMMAND;
+				}
+				public String[] getExplanation() {
+					String[] explanation = {
+							COMPACT_SEGMENTS_COMMAND,
+							"Compact all segment files holding any outdated data, not only ones with more than half outdated data."
+						};
+					return explanation;
+				}
+				public void performActionConsole(String[] arguments) {
+					if (arguments.length != 0)
+						this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+					else {
+						segmentStore.checkCompaction(true);
+						this.reportResult("Scheduled segment files for compaction, " + segmentStore.getStatus() + ".");
+					}
+				}
+			};
+			cal.add(ca);
+		}
+		
+		//	add command triggering depth analysis and reorganization
+		ca = new ComponentActionConsole() {
+			private Thread checker = null;
+			public String getActionCommand() {
+				return CHECK_FOLDER_REORGANIZATION_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						CHECK_FOLDER_REORGANIZATION_COMMAND,
+						"Check data folders for reorganization, i.e., if they contain too many data objects."
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length != 0)
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+				else if (this.checker != null)
+					this.reportError(" Already checking data folders for reorganization");
+				else {
+					final ComponentActionConsole cac = this;
+					this.checker = new Thread() {
+						public void run() {
+							try {
+								checkFolderReorganization(cac);
+							}
+							finally {
+								checker = null;
+							}
+						}
+					};
+					this.checker.start();
+				}
+			}
+		};
+		if (this.segmentStore == null) // folder hierarchy not used in segment mode
+			cal.add(ca);
 		
 		//	add action marking path folders in existing repos
 		ca = new ComponentActionConsole() {
@@ -1066,10 +2655,11 @@ public class IdentifierKeyedDataObjectStore {
 				}
 			}
 		};
-		cal.add(ca);
+		if (this.segmentStore == null) // folder hierarchy not used in segment mode
+			cal.add(ca);
 		
 		//	zip up older versions of data object files (only in file based mode)
-		if (this.dataObjectsAreFiles) {
+		if (this.dataObjectsAreFiles && (this.segmentStore == null)) {
 			ca = new ComponentActionConsole() {
 				private Thread zipper = null;
 				public String getActionCommand() {
@@ -1122,12 +2712,13 @@ public class IdentifierKeyedDataObjectStore {
 				if (arguments.length != 0)
 					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 				else {
-					this.reportResult("There are currently references to " + dataObjectReferences.elementCount() + " data objects:");
+					TreeMap referenceCounts = dataObjectReferences.getReferenceCounts();
+					this.reportResult("There are currently references to " + referenceCounts.size() + " data objects:");
 					long time = System.currentTimeMillis();
-					for (Iterator doidit = dataObjectReferences.iterator(); doidit.hasNext();) {
+					for (Iterator doidit = referenceCounts.keySet().iterator(); doidit.hasNext();) {
 						String dataId = ((String) doidit.next());
-						Long lastOpened = ((Long) lastDataObjectReferences.get(dataId));
-						this.reportResult(" - " + dataId + ": " + dataObjectReferences.getCount(dataId) + " refs" + ((lastOpened == null) ? "" : (", last opened " + (time - lastOpened.longValue()) + "ms ago")));
+						ReferenceCount rc = ((ReferenceCount) referenceCounts.get(dataId));
+						this.reportResult(" - " + dataId + ": " + rc.count + " refs, last opened " + (time - rc.lastOpened) + "ms ago");
 					}
 				}
 			}
@@ -1151,7 +2742,6 @@ public class IdentifierKeyedDataObjectStore {
 					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 				else {
 					dataObjectReferences.clear();
-					lastDataObjectReferences.clear();
 					this.reportResult("Open references cleared.");
 				}
 			}
@@ -1166,13 +2756,13 @@ public class IdentifierKeyedDataObjectStore {
 			public String[] getExplanation() {
 				String[] explanation = {
 						JOB_QUEUE_SIZE_COMMAND,
-						"Show the number of pending background maintenance jobs."
+						"Show the number of pending background maintenance jobs, as well as throughput and backlog metrics."
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
 				if (arguments.length == 0)
-					this.reportResult("There are currently " + maintenanceQueue.size() + " pending maintenance jobs.");
+					listPendingMaintenanceJobs(this);
 				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 			}
 		};
@@ -1212,7 +2802,7 @@ public class IdentifierKeyedDataObjectStore {
 			}
 			public void performActionConsole(String[] arguments) {
 				if (arguments.length == 0)
-					maintenanceWorker.setWaitAfterJobs(false, this);
+					setMaintenanceWaitAfterJobs(false, this);
 				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 			}
 		};
@@ -1232,12 +2822,43 @@ public class IdentifierKeyedDataObjectStore {
 			}
 			public void performActionConsole(String[] arguments) {
 				if (arguments.length == 0)
-					maintenanceWorker.setWaitAfterJobs(true, this);
+					setMaintenanceWaitAfterJobs(true, this);
 				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 			}
 		};
 		cal.add(ca);
 		
+		//	change number of maintenance workers
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return SET_JOB_WORKERS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						SET_JOB_WORKERS_COMMAND + " <workers>",
+						"Set the number of workers handling background maintenance jobs:",
+						"- <workers>: the number of workers to use (1 or more)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 1) try {
+					int workerCount = Integer.parseInt(arguments[0]);
+					if (workerCount < 1)
+						this.reportError(" Invalid number of workers '" + arguments[0] + "', specify 1 or more.");
+					else {
+						setMaintenanceWorkerCount(workerCount);
+						this.reportResult("Now using " + getMaintenanceWorkerCount() + " maintenance workers.");
+					}
+				}
+				catch (NumberFormatException nfe) {
+					this.reportError(" Invalid number of workers '" + arguments[0] + "', specify a number.");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify the number of workers only.");
+			}
+		};
+		cal.add(ca);
+		
 		//	finally ...
 		return ((ComponentActionConsole[]) cal.toArray(new ComponentActionConsole[cal.size()]));
 	}
@@ -1392,6 +3013,7 @@ public class IdentifierKeyedDataObjectStore {
 		//	move files to sub folders
 		String subFolderName = null;
 		File subFolder = null;
+		String subFolderPath = null;
 		int subFolderFileCount = 0;
 		HashSet subFolderDataIDs = new HashSet();
 		boolean subFolderMoved = true;
@@ -1402,167 +3024,909 @@ public class IdentifierKeyedDataObjectStore {
 			//	switch to new sub folder (files are sorted lexicographically)
 			if (!fSubFolderName.equals(subFolderName)) {
 				
-				//	schedule reorganization for just-completed sub folder if too large
-				//	(unless we only have a single data ID inside, in which case another reorganization is pointless)
-				if (subFolderMoved && (subFolderDataIDs.size() > 1) && (subFolderFileCount > this.maxFolderObjects)) {
-					this.scheduleMaintenanceJob(new FolderReorganization((folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName), subFolder, false));
-					this.logger.logInfo(" - scheduled reorganization of folder " + folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName + " (" + subFolderFileCount + " files)");
+				//	schedule reorganization for just-completed sub folder if too large
+				//	(unless we only have a single data ID inside, in which case another reorganization is pointless)
+				if (subFolderMoved && (subFolderDataIDs.size() > 1) && (subFolderFileCount > this.maxFolderObjects)) {
+					this.scheduleMaintenanceJob(new FolderReorganization((folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName), subFolder, false));
+					this.logger.logInfo(" - scheduled reorganization of folder " + folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName + " (" + subFolderFileCount + " files)");
+				}
+				
+				//	create new sub folder
+				subFolderName = fSubFolderName;
+				subFolder = new File(folder, subFolderName);
+				subFolderPath = (folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName);
+				subFolder.mkdir();
+				this.logger.logInfo(" - created sub folder " + folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName);
+				subFolderFileCount = 0;
+				subFolderDataIDs.clear();
+				subFolderMoved = true;
+			}
+			
+			//	extract data ID
+			String fileDataId = files[f].getName();
+			if (fileDataId.indexOf('.') != -1)
+				fileDataId = fileDataId.substring(0, fileDataId.indexOf('.'));
+			
+			//	move file, failing overall success on failure (might happen if file open for reading, so we need to come back)
+			File movedFile = new File(subFolder, files[f].getName());
+			this.logger.logInfo(" - moving " + folderPath + ((folderPath.length() == 0) ? "" : "/") + files[f].getName() + " to " + folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName + "/" + files[f].getName());
+			if (files[f].renameTo(movedFile)) {
+				this.logger.logInfo("   ==> file moved successfully");
+				subFolderFileCount++;
+				subFolderDataIDs.add(fileDataId);
+				this.reindexDataObject(fileDataId.toUpperCase(), subFolder, subFolderPath);
+			}
+			else {
+				this.logger.logInfo("   ==> failed to move file");
+				subFolderMoved = false;
+				folderMoved = false;
+			}
+		}
+		
+		//	schedule reorganization for last completed sub folder if too large
+		//	(unless we only have a single data ID inside, in which case another reorganization is pointless)
+		if (subFolderMoved && (subFolderDataIDs.size() > 1) && (subFolderFileCount > this.maxFolderObjects)) {
+			this.scheduleMaintenanceJob(new FolderReorganization((folderPath + "/" + subFolderName), subFolder, false));
+			this.logger.logInfo(" - scheduled reorganization of folder " + folderPath + "/" + subFolderName + " (" + subFolderFileCount + " files)");
+		}
+		
+		//	mark as path folder once all files moved
+		if (folderMoved) {
+			try {
+				if (this.markPathFolder(folder, folderPath)) {
+					this.unregisterReorganizingFolderPath(folderPath);
+					this.logger.logInfo(" - marked path folder " + folderPath);
+					return true;
+				}
+				else {
+					this.logger.logInfo(" - failed to mark path folder " + folderPath);
+					return false;
+				}
+			}
+			catch (IOException ioe) {
+				this.logger.logError("Error marking path folder " + folderPath + ":" + ioe.getMessage());
+				this.logger.logError(ioe);
+				return false;
+			}
+		}
+		
+		//	some file failed to move
+		else return false;
+	}
+	
+	private void zipOldVersions(ComponentActionConsole cac) {
+		cac.reportResult(this.name + ": start zipping up old data object versions ...");
+		ArrayList folderList = new ArrayList();
+		folderList.add(this.rootFolder);
+		int zipFileCount = 0;
+		
+		//	process folders
+		for (int f = 0; f < folderList.size(); f++) {
+			File folder = ((File) folderList.get(f));
+			String folderPath = this.getFolderPath(folder);
+			
+			//	path folder, process recursively
+			if (this.isPathFolder(folder, folderPath)) {
+				File[] files = folder.listFiles(new FileFilter() {
+					public boolean accept(File file) {
+						return (file.isDirectory() && (file.getName().matches("[0-9A-Fa-f]{2}")));
+					}
+				});
+				folderList.addAll(Arrays.asList(files));
+			}
+			
+			//	use list of data files (if we get here, we are surely in file based mode)
+			else {
+				File[] dataFiles = folder.listFiles(new FileFilter() {
+					public boolean accept(File file) {
+						return (true
+							&& file.isFile()
+							&& file.getName().endsWith(dataFileExtension)
+							&& file.getName().matches("[0-9A-Fa-f]{32}\\.[0-9]+\\..*")
+						);
+					}
+				});
+				for (int d = 0; d < dataFiles.length; d++) {
+					this.scheduleMaintenanceJob(new OldVersionZipUp((folderPath + "/" + dataFiles[d].getName()), dataFiles[d].getAbsolutePath()));
+					cac.reportResult(" - " + folderPath + "/" + dataFiles[d].getName());
+					zipFileCount++;
+				}
+			}
+		}
+		cac.reportResult("Scheduled " + zipFileCount + " files for zipping up.");
+	}
+	
+	private void zipDataFile(String filePathAndName) {
+		File dataFile = new File(filePathAndName);
+		if (!dataFile.exists()) {
+			String dataFileName = dataFile.getName();
+			String dataId = dataFileName.substring(0, dataFileName.indexOf('.'));
+			File newDataFile = this.getDataFile(dataId, 0);
+			if (newDataFile.exists() && newDataFile.isFile()) {
+				dataFile = new File(newDataFile.getParentFile(), dataFileName);
+				filePathAndName = dataFile.getAbsolutePath();
+				this.logger.logInfo("Switched zipping up data file to re-organized path '" + filePathAndName + "'");
+			}
+			else {
+				this.logger.logError("Error zipping up data file '" + filePathAndName + "': " + (dataFile.exists() ? "File is a folder." : "File does not exist."));
+				return;
+			}
+		}
+		File zipFile = new File(filePathAndName + ".zip");
+		
+		try {
+			
+			//	mark file as zipping
+			this.zippingFileNames.add(filePathAndName);
+			
+			//	zip up data file, as a delta against its successor if configured and worthwhile ...
+			byte[] delta = (this.deltaVersions ? this.getVersionDelta(dataFile) : null);
+			ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+			if (delta == null) {
+				InputStream dataIn = new BufferedInputStream(new FileInputStream(dataFile));
+				ZipEntry zipEntry = new ZipEntry(dataFile.getName());
+				zipEntry.setSize(dataFile.length());
+				zipEntry.setTime(dataFile.lastModified());
+				zipOut.putNextEntry(zipEntry);
+				byte[] buffer = new byte[1024];
+				for (int r; (r = dataIn.read(buffer, 0, buffer.length)) != -1;)
+					zipOut.write(buffer, 0, r);
+				dataIn.close();
+			}
+			else {
+				ZipEntry zipEntry = new ZipEntry(dataFile.getName() + DELTA_ENTRY_SUFFIX);
+				zipEntry.setSize(delta.length);
+				zipEntry.setTime(dataFile.lastModified());
+				zipOut.putNextEntry(zipEntry);
+				zipOut.write(delta);
+			}
+			zipOut.closeEntry();
+			zipOut.flush();
+			zipOut.close();
+			
+			//	... and delete it afterwards
+			dataFile.delete();
+		}
+		catch (Exception e) {
+			this.logger.logError("Error zipping up data file '" + filePathAndName + "': " + e.getMessage());
+			this.logger.logError(e);
+		}
+		finally {
+			//	un-mark file as zipping, and wake up anyone waiting for the zip file
+			synchronized (this.zippingFileNames) {
+				this.zippingFileNames.remove(filePathAndName);
+				this.zippingFileNames.notifyAll();
+			}
+		}
+	}
+	
+	private int memoryMapThreshold = -1;
+	
+	/**
+	 * Set the minimum size for data object files to read via memory mapping
+	 * rather than through a buffered stream. Data objects read via memory
+	 * mapping come right from the operating system page cache, without any
+	 * copying to the Java heap. This is beneficial for large data objects
+	 * that are read repeatedly, whereas for small ones, the cost of setting
+	 * up the mapping outweighs the benefits. Only applies to data object
+	 * files that are not zipped up, i.e., the current versions. Mind that on
+	 * some platforms, memory mapped files cannot be renamed or deleted until
+	 * the mapping is garbage collected. A negative argument deactivates
+	 * memory mapped reads, which is the default.
+	 * @param minSize the minimum size of data object files to memory map
+	 */
+	public void setMemoryMapThreshold(int minSize) {
+		this.memoryMapThreshold = ((minSize < 0) ? -1 : minSize);
+	}
+	
+	/**
+	 * Retrieve the minimum size for data object files to read via memory
+	 * mapping. A return value of -1 indicates memory mapped reads are
+	 * deactivated.
+	 * @return the memory mapping threshold
+	 */
+	public int getMemoryMapThreshold() {
+		return this.memoryMapThreshold;
+	}
+	
+	private boolean deduplicateVersions = false;
+	private boolean deltaVersions = false;
+	
+	/**
+	 * Activate or deactivate deduplication of data object versions. With
+	 * deduplication active, the content of data objects is hashed as it is
+	 * written, and if a new version turns out byte-identical to the current
+	 * one, the latter is not stored a second time, but replaced with a link to
+	 * the new version. This only applies to file based mode with versioning
+	 * activated. Deactivating deduplication does not affect any previous
+	 * versions already stored as links. Deduplication is deactivated by
+	 * default.
+	 * @param deduplicateVersions deduplicate byte-identical versions?
+	 */
+	public void setDeduplicateVersions(boolean deduplicateVersions) {
+		this.deduplicateVersions = deduplicateVersions;
+	}
+	
+	/**
+	 * Check whether or not deduplication of data object versions is active.
+	 * @return true if byte-identical versions are deduplicated
+	 */
+	public boolean isDeduplicatingVersions() {
+		return this.deduplicateVersions;
+	}
+	
+	/**
+	 * Activate or deactivate storing previous versions of data objects as
+	 * binary deltas. With deltas active, previous versions are zipped up as a
+	 * delta against their immediate successor rather than in full, provided
+	 * the delta comes out at most half the size of the full data. To keep the
+	 * chains of deltas to resolve for reading old versions short, every 16th
+	 * version is still stored in full, as are data objects larger than 16MB.
+	 * Reading previous versions stored as deltas requires the successor
+	 * version to be reconstructed first, so this trades read speed of old
+	 * versions for disk space. This only applies to file based mode with
+	 * versioning activated. Deactivating deltas does not affect any previous
+	 * versions already stored as deltas. Deltas are deactivated by default.
+	 * @param deltaVersions store previous versions as deltas?
+	 */
+	public void setDeltaVersions(boolean deltaVersions) {
+		this.deltaVersions = deltaVersions;
+	}
+	
+	/**
+	 * Check whether or not previous versions of data objects are stored as
+	 * binary deltas against their successors.
+	 * @return true if previous versions are stored as deltas
+	 */
+	public boolean isUsingDeltaVersions() {
+		return this.deltaVersions;
+	}
+	
+	private static MessageDigest getDataHash() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			return null; // deduplication simply doesn't happen
+		}
+	}
+	
+	private static byte[] computeDataHash(File dataFile) throws IOException {
+		MessageDigest dataHash = getDataHash();
+		if (dataHash == null)
+			return null;
+		InputStream dataIn = new FileInputStream(dataFile);
+		try {
+			byte[] buffer = new byte[8192];
+			for (int r; (r = dataIn.read(buffer, 0, buffer.length)) != -1;)
+				dataHash.update(buffer, 0, r);
+		}
+		finally {
+			dataIn.close();
+		}
+		return dataHash.digest();
+	}
+	
+	private void writeVersionLink(File versionFile, int linkedVersion, long lastModified) throws IOException {
+		String filePathAndName = versionFile.getAbsolutePath();
+		
+		//	mark file as zipping to have readers wait for link to be complete
+		this.zippingFileNames.add(filePathAndName);
+		try {
+			byte[] link = ("" + linkedVersion).getBytes("UTF-8");
+			ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(filePathAndName + ".zip")));
+			ZipEntry zipEntry = new ZipEntry(versionFile.getName() + LINK_ENTRY_SUFFIX);
+			zipEntry.setSize(link.length);
+			zipEntry.setTime(lastModified);
+			zipOut.putNextEntry(zipEntry);
+			zipOut.write(link);
+			zipOut.closeEntry();
+			zipOut.flush();
+			zipOut.close();
+		}
+		finally {
+			synchronized (this.zippingFileNames) {
+				this.zippingFileNames.remove(filePathAndName);
+				this.zippingFileNames.notifyAll();
+			}
+		}
+	}
+	
+	private static int readVersionLink(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+		byte[] link = readZipEntry(zipFile, zipEntry);
+		try {
+			return Integer.parseInt(new String(link, "UTF-8").trim());
+		}
+		catch (NumberFormatException nfe) {
+			throw new IOException("Invalid version link in '" + zipEntry.getName() + "'");
+		}
+	}
+	
+	private byte[] getVersionDelta(File dataFile) {
+		
+		//	get data object ID and version from file name ('<dataId>.<version><dataFileExtension>')
+		String dataFileName = dataFile.getName();
+		String dataId = dataFileName.substring(0, dataFileName.indexOf('.'));
+		int version = this.getFileVersionNumber(dataId, dataFileName);
+		
+		//	store snapshots and large data objects in full
+		if ((version < 1) || ((version % DELTA_SNAPSHOT_INTERVAL) == 0))
+			return null;
+		if (MAX_DELTA_DATA_SIZE < dataFile.length())
+			return null;
+		
+		//	compute delta against successor version
+		try {
+			byte[] base = this.readDataObjectVersion(dataId, (version + 1));
+			if (MAX_DELTA_DATA_SIZE < base.length)
+				return null;
+			byte[] data = new byte[(int) dataFile.length()];
+			InputStream dataIn = new FileInputStream(dataFile);
+			try {
+				for (int r = 0; r < data.length;) {
+					int rr = dataIn.read(data, r, (data.length - r));
+					if (rr == -1)
+						throw new IOException("Unexpected end of data file '" + dataFileName + "'");
+					r += rr;
+				}
+			}
+			finally {
+				dataIn.close();
+			}
+			byte[] delta = BinaryDelta.createDelta(base, data);
+			return ((delta.length <= (data.length / 2)) ? delta : null);
+		}
+		catch (IOException ioe) {
+			this.logger.logWarning("Could not compute delta for data file '" + dataFileName + "', storing in full: " + ioe.getMessage());
+			return null;
+		}
+	}
+	
+	private byte[] readVersionDelta(String dataId, ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+		String dataFileName = zipEntry.getName().substring(0, (zipEntry.getName().length() - DELTA_ENTRY_SUFFIX.length()));
+		int version = this.getFileVersionNumber(dataId, dataFileName);
+		if (version < 1)
+			throw new IOException("Invalid delta entry '" + zipEntry.getName() + "'");
+		byte[] delta = readZipEntry(zipFile, zipEntry);
+		byte[] base = this.readDataObjectVersion(dataId, (version + 1));
+		return BinaryDelta.applyDelta(base, delta);
+	}
+	
+	private int getFileVersionNumber(String dataId, String dataFileName) {
+		if (!dataFileName.startsWith(dataId + ".") || !dataFileName.endsWith(this.dataFileExtension))
+			return -1;
+		try {
+			return Integer.parseInt(dataFileName.substring((dataId.length() + 1), (dataFileName.length() - this.dataFileExtension.length())));
+		}
+		catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+	
+	private byte[] readDataObjectVersion(String dataId, int version) throws IOException {
+		DataObjectInputStream dataIn = this.getInputStream(dataId, version);
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream(Math.max(dataIn.getDataObjectSize(), 16));
+			byte[] buffer = new byte[8192];
+			for (int r; (r = dataIn.read(buffer, 0, buffer.length)) != -1;)
+				data.write(buffer, 0, r);
+			return data.toByteArray();
+		}
+		finally {
+			dataIn.close();
+		}
+	}
+	
+	private static byte[] readZipEntry(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+		InputStream entryIn = zipFile.getInputStream(zipEntry);
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream(Math.max(((int) zipEntry.getSize()), 16));
+			byte[] buffer = new byte[8192];
+			for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
+				data.write(buffer, 0, r);
+			return data.toByteArray();
+		}
+		finally {
+			entryIn.close();
+		}
+	}
+	
+	/** durability policy leaving it to the operating system when to write data objects to disk, the default */
+	public static final int DURABILITY_OS_BUFFERED = 0;
+	
+	/** durability policy forcing each data object to disk before closing its output stream returns */
+	public static final int DURABILITY_SYNC_EACH = 1;
+	
+	/** durability policy forcing data objects to disk in groups, with closing output streams waiting for the group they are in */
+	public static final int DURABILITY_GROUP_SYNC = 2;
+	
+	private int durability = DURABILITY_OS_BUFFERED;
+	private int groupSyncInterval = 10;
+	private GroupSyncThread groupSyncThread = null;
+	private WriteBackThread writeBackThread = null;
+	private final Object writeThreadLock = new Object();
+	
+	/**
+	 * Set the durability policy for newly written data objects, i.e., when
+	 * their data is forced to disk. With <code>DURABILITY_OS_BUFFERED</code>,
+	 * the default, data objects are never explicitly forced to disk, leaving
+	 * it to the operating system when to write them. This is fastest, but
+	 * data objects written shortly before a power outage or operating system
+	 * crash may be lost. With <code>DURABILITY_SYNC_EACH</code>, each data
+	 * object is forced to disk before closing its output stream returns. This
+	 * is safest, but slow for large numbers of small data objects. With
+	 * <code>DURABILITY_GROUP_SYNC</code>, data objects closed within a short
+	 * interval of one another are forced to disk together, with closing their
+	 * output streams waiting for the whole group. This offers the same safety
+	 * as forcing each data object, but lets concurrent writers share the cost.
+	 * @param durability the durability policy
+	 * @see #setGroupSyncInterval(int)
+	 */
+	public void setDurability(int durability) {
+		if ((durability != DURABILITY_OS_BUFFERED) && (durability != DURABILITY_SYNC_EACH) && (durability != DURABILITY_GROUP_SYNC))
+			throw new IllegalArgumentException("Invalid durability policy " + durability);
+		GroupSyncThread groupSyncThread = null;
+		synchronized (this.writeThreadLock) {
+			this.durability = durability;
+			if ((this.durability != DURABILITY_GROUP_SYNC) && (this.groupSyncThread != null)) {
+				groupSyncThread = this.groupSyncThread;
+				this.groupSyncThread = null;
+			}
+		}
+		if (groupSyncThread != null)
+			groupSyncThread.shutdown();
+	}
+	
+	/**
+	 * Retrieve the durability policy for newly written data objects.
+	 * @return the durability policy
+	 */
+	public int getDurability() {
+		return this.durability;
+	}
+	
+	/**
+	 * Set the interval for collecting data objects to force to disk as a
+	 * group, in milliseconds. This only has an effect with the durability
+	 * policy set to <code>DURABILITY_GROUP_SYNC</code>. Longer intervals make
+	 * for larger groups, but also for longer waits on closing output streams.
+	 * The default is 10 milliseconds.
+	 * @param groupSyncInterval the group sync interval
+	 */
+	public void setGroupSyncInterval(int groupSyncInterval) {
+		this.groupSyncInterval = Math.max(0, groupSyncInterval);
+	}
+	
+	/**
+	 * Retrieve the interval for collecting data objects to force to disk as a
+	 * group, in milliseconds.
+	 * @return the group sync interval
+	 */
+	public int getGroupSyncInterval() {
+		return this.groupSyncInterval;
+	}
+	
+	/**
+	 * Activate or deactivate asynchronous write-back in file based mode. With
+	 * write-back active, closing a data object output stream only hands the
+	 * written data to a background writer, which then forces it to disk as
+	 * the durability policy requires, renames the file of the previous version,
+	 * and switches the new one live. The thread closing the output stream
+	 * does not wait for any of this. Reading or writing the data object in
+	 * the meantime waits for the background writer to finish with it, so any
+	 * thread always sees its own writes. The background writer processes the
+	 * data objects in groups, so with the durability policy set to anything
+	 * but <code>DURABILITY_OS_BUFFERED</code>, each group is forced to disk
+	 * together before any of them is switched live. Deactivating write-back
+	 * completes any pending writes first. Write-back is deactivated by
+	 * default.
+	 * @param asyncWriteBack write back data objects asynchronously?
+	 */
+	public void setAsyncWriteBack(boolean asyncWriteBack) {
+		if (this.segmentStore != null)
+			return; // nothing to rename in segment mode
+		WriteBackThread writeBackThread = null;
+		synchronized (this.writeThreadLock) {
+			if (asyncWriteBack == (this.writeBackThread != null))
+				return;
+			if (asyncWriteBack) {
+				this.writeBackThread = new WriteBackThread();
+				this.writeBackThread.start();
+			}
+			else {
+				writeBackThread = this.writeBackThread;
+				this.writeBackThread = null;
+			}
+		}
+		if (writeBackThread != null)
+			writeBackThread.shutdown();
+	}
+	
+	/**
+	 * Check whether or not asynchronous write-back is active.
+	 * @return true if data objects are written back asynchronously
+	 */
+	public boolean isUsingAsyncWriteBack() {
+		return (this.writeBackThread != null);
+	}
+	
+	/**
+	 * Retrieve the number of data objects whose output streams have been
+	 * closed, but that are still waiting for asynchronous write-back.
+	 * @return the number of pending write-backs
+	 */
+	public int getPendingWriteBackCount() {
+		WriteBackThread writeBackThread = this.writeBackThread;
+		return ((writeBackThread == null) ? 0 : writeBackThread.getPendingCount());
+	}
+	
+	/**
+	 * Retrieve the number of data objects whose asynchronous write-back has
+	 * failed since the data object store was created, either because their
+	 * data could not be synced to disk as required by the durability policy,
+	 * or because switching the new version live failed. The new versions of
+	 * these data objects were discarded.
+	 * @return the number of failed write-backs
+	 */
+	public int getFailedWriteBackCount() {
+		return this.failedWriteBackCount;
+	}
+	private int failedWriteBackCount = 0;
+	
+	private WriteBackThread getWriteBackThread() {
+		synchronized (this.writeThreadLock) {
+			return this.writeBackThread;
+		}
+	}
+	
+	/* Force data written to a file to disk as the durability policy requires,
+	 * with a null argument indicating the segment files in segment mode */
+	private void syncData(FileOutputStream fileOut) throws IOException {
+		if (this.durability == DURABILITY_SYNC_EACH)
+			this.doSyncData(fileOut);
+		else if (this.durability == DURABILITY_GROUP_SYNC) {
+			GroupSyncThread groupSyncThread;
+			synchronized (this.writeThreadLock) {
+				if (this.groupSyncThread == null) {
+					this.groupSyncThread = new GroupSyncThread();
+					this.groupSyncThread.start();
+				}
+				groupSyncThread = this.groupSyncThread;
+			}
+			groupSyncThread.sync(fileOut);
+		}
+	}
+	private void doSyncData(FileOutputStream fileOut) throws IOException {
+		if (fileOut == null)
+			this.segmentStore.syncSegments();
+		else fileOut.getFD().sync();
+	}
+	
+	private static class PendingSync {
+		final FileOutputStream fileOut;
+		boolean done = false;
+		IOException error = null;
+		PendingSync(FileOutputStream fileOut) {
+			this.fileOut = fileOut;
+		}
+	}
+	
+	private class GroupSyncThread extends Thread {
+		private LinkedList pending = new LinkedList();
+		private boolean run = true;
+		GroupSyncThread() {
+			super(name + "GroupSync");
+		}
+		void sync(FileOutputStream fileOut) throws IOException {
+			PendingSync ps = new PendingSync(fileOut);
+			synchronized (this) {
+				if (this.run) {
+					this.pending.addLast(ps);
+					this.notifyAll();
+					while (!ps.done) try {
+						this.wait();
+					} catch (InterruptedException ie) {}
+				}
+			}
+			if (!ps.done) // shut down before we got here
+				doSyncData(fileOut);
+			else if (ps.error != null)
+				throw ps.error;
+		}
+		public void run() {
+			while (true) {
+				
+				//	wait for first data object to sync
+				synchronized (this) {
+					while (this.run && this.pending.isEmpty()) try {
+						this.wait();
+					} catch (InterruptedException ie) {}
+					if (this.pending.isEmpty())
+						return; // shut down and nothing left to sync
 				}
 				
-				//	create new sub folder
-				subFolderName = fSubFolderName;
-				subFolder = new File(folder, subFolderName);
-				subFolder.mkdir();
-				this.logger.logInfo(" - created sub folder " + folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName);
-				subFolderFileCount = 0;
-				subFolderDataIDs.clear();
-				subFolderMoved = true;
-			}
-			
-			//	extract data ID
-			String fileDataId = files[f].getName();
-			if (fileDataId.indexOf('.') != -1)
-				fileDataId = fileDataId.substring(0, fileDataId.indexOf('.'));
-			
-			//	move file, failing overall success on failure (might happen if file open for reading, so we need to come back)
-			File movedFile = new File(subFolder, files[f].getName());
-			this.logger.logInfo(" - moving " + folderPath + ((folderPath.length() == 0) ? "" : "/") + files[f].getName() + " to " + folderPath + ((folderPath.length() == 0) ? "" : "/") + subFolderName + "/" + files[f].getName());
-			if (files[f].renameTo(movedFile)) {
-				this.logger.logInfo("   ==> file moved successfully");
-				subFolderFileCount++;
-				subFolderDataIDs.add(fileDataId);
+				//	give concurrent writers a moment to join the group
+				if (this.run && (groupSyncInterval != 0)) try {
+					sleep(groupSyncInterval);
+				} catch (InterruptedException ie) {}
+				
+				//	get group
+				PendingSync[] group;
+				synchronized (this) {
+					group = ((PendingSync[]) this.pending.toArray(new PendingSync[this.pending.size()]));
+					this.pending.clear();
+				}
+				
+				//	sync files individually (most file systems flush the data of later files along with the journal commit of the first), and segment files only once
+				IOException segmentError = null;
+				boolean segmentsSynced = false;
+				for (int s = 0; s < group.length; s++) {
+					if (group[s].fileOut == null) {
+						if (!segmentsSynced) try {
+							doSyncData(null);
+						}
+						catch (IOException ioe) {
+							segmentError = ioe;
+						}
+						segmentsSynced = true;
+						group[s].error = segmentError;
+					}
+					else try {
+						doSyncData(group[s].fileOut);
+					}
+					catch (IOException ioe) {
+						group[s].error = ioe;
+					}
+				}
+				
+				//	release waiting writers
+				synchronized (this) {
+					for (int s = 0; s < group.length; s++)
+						group[s].done = true;
+					this.notifyAll();
+				}
 			}
-			else {
-				this.logger.logInfo("   ==> failed to move file");
-				subFolderMoved = false;
-				folderMoved = false;
+		}
+		void shutdown() {
+			synchronized (this) {
+				this.run = false;
+				this.notifyAll();
 			}
+			try {
+				this.join();
+			} catch (InterruptedException ie) {}
 		}
-		
-		//	schedule reorganization for last completed sub folder if too large
-		//	(unless we only have a single data ID inside, in which case another reorganization is pointless)
-		if (subFolderMoved && (subFolderDataIDs.size() > 1) && (subFolderFileCount > this.maxFolderObjects)) {
-			this.scheduleMaintenanceJob(new FolderReorganization((folderPath + "/" + subFolderName), subFolder, false));
-			this.logger.logInfo(" - scheduled reorganization of folder " + folderPath + "/" + subFolderName + " (" + subFolderFileCount + " files)");
+	}
+	
+	private class WriteBackThread extends Thread {
+		private LinkedList pending = new LinkedList();
+		private boolean run = true;
+		private int batchSize = 0;
+		WriteBackThread() {
+			super(name + "WriteBack");
 		}
-		
-		//	mark as path folder once all files moved
-		if (folderMoved) {
-			try {
-				if (this.markPathFolder(folder, folderPath)) {
-					this.unregisterReorganizingFolderPath(folderPath);
-					this.logger.logInfo(" - marked path folder " + folderPath);
-					return true;
+		synchronized boolean enqueue(DataObjectOutputStream out) {
+			if (!this.run)
+				return false;
+			this.pending.addLast(out);
+			this.notifyAll();
+			return true;
+		}
+		synchronized int getPendingCount() {
+			return (this.pending.size() + this.batchSize);
+		}
+		public void run() {
+			while (true) {
+				
+				//	get all pending data objects
+				DataObjectOutputStream[] batch;
+				synchronized (this) {
+					while (this.run && this.pending.isEmpty()) try {
+						this.wait();
+					} catch (InterruptedException ie) {}
+					if (this.pending.isEmpty())
+						return; // shut down and nothing left to write back
+					batch = ((DataObjectOutputStream[]) this.pending.toArray(new DataObjectOutputStream[this.pending.size()]));
+					this.pending.clear();
+					this.batchSize = batch.length;
 				}
-				else {
-					this.logger.logInfo(" - failed to mark path folder " + folderPath);
-					return false;
+				
+				//	force whole batch to disk first if required ...
+				IOException[] errors = new IOException[batch.length];
+				if (durability != DURABILITY_OS_BUFFERED) {
+					for (int b = 0; b < batch.length; b++) try {
+						doSyncData(batch[b].fileOut);
+					}
+					catch (IOException ioe) {
+						logger.logError("Error syncing data object '" + batch[b].dataId + "': " + ioe.getMessage());
+						logger.logError(ioe);
+						errors[b] = ioe;
+					}
+				}
+				
+				//	... and then switch data objects live (discarding any ones we failed to sync, as we cannot vouch for their durability)
+				for (int b = 0; b < batch.length; b++) try {
+					if (errors[b] == null)
+						batch[b].commit();
+					else batch[b].discard();
+				}
+				catch (Exception e) {
+					logger.logError("Error writing back data object '" + batch[b].dataId + "': " + e.getMessage());
+					logger.logError(e);
+					if (errors[b] == null)
+						errors[b] = ((e instanceof IOException) ? ((IOException) e) : new IOException(e.getMessage()));
+				}
+				finally {
+					if (errors[b] != null)
+						failedWriteBackCount++;
+					batch[b].endWriteBack(errors[b]);
+				}
+				synchronized (this) {
+					this.batchSize = 0;
 				}
 			}
-			catch (IOException ioe) {
-				this.logger.logError("Error marking path folder " + folderPath + ":" + ioe.getMessage());
-				this.logger.logError(ioe);
-				return false;
+		}
+		void shutdown() {
+			synchronized (this) {
+				this.run = false;
+				this.notifyAll();
 			}
+			try {
+				this.join();
+			} catch (InterruptedException ie) {}
 		}
-		
-		//	some file failed to move
-		else return false;
 	}
 	
-	private void zipOldVersions(ComponentActionConsole cac) {
-		cac.reportResult(this.name + ": start zipping up old data object versions ...");
+	private Map pathIndex = null;
+	
+	private static class PathIndexEntry {
+		final File folder;
+		final String folderPath;
+		final int version;
+		PathIndexEntry(File folder, String folderPath, int version) {
+			this.folder = folder;
+			this.folderPath = folderPath;
+			this.version = version;
+		}
+	}
+	
+	/**
+	 * Activate or deactivate the in-memory path index. If active, the data
+	 * object store keeps the folder and current version of every data object
+	 * in memory, so checking the existence and version of a data object and
+	 * locating its file requires no access to the file system. The index uses
+	 * some 100 bytes per data object, and it is built by a full traversal of
+	 * the folder hierarchy when activated, so client code should activate it
+	 * right after creating the data object store, before starting to use the
+	 * latter. The index is kept up to date on writes, deletions, restorations,
+	 * and folder reorganizations. In folder based mode, this only works if
+	 * client code deletes data object folders only via this class. In segment
+	 * file based mode, this method has no effect.
+	 * @param usePathIndex use the in-memory path index?
+	 */
+	public void setUsePathIndex(boolean usePathIndex) {
+		if (this.segmentStore != null)
+			return; // segment mode works off an index anyway
+		if (usePathIndex == (this.pathIndex != null))
+			return;
+		if (usePathIndex) {
+			long start = System.currentTimeMillis();
+			this.pathIndex = this.buildPathIndex();
+			this.logger.logInfo(this.name + ": path index built in " + (System.currentTimeMillis() - start) + "ms, " + this.pathIndex.size() + " data objects");
+		}
+		else this.pathIndex = null;
+	}
+	
+	/**
+	 * Check whether or not the in-memory path index is active.
+	 * @return true if the path index is active
+	 */
+	public boolean isUsingPathIndex() {
+		return (this.pathIndex != null);
+	}
+	
+	private Map buildPathIndex() {
+		Map pathIndex = Collections.synchronizedMap(new HashMap());
 		ArrayList folderList = new ArrayList();
 		folderList.add(this.rootFolder);
-		int zipFileCount = 0;
 		
 		//	process folders
 		for (int f = 0; f < folderList.size(); f++) {
 			File folder = ((File) folderList.get(f));
 			String folderPath = this.getFolderPath(folder);
 			
-			//	path folder, process recursively
-			if (this.isPathFolder(folder, folderPath)) {
-				File[] files = folder.listFiles(new FileFilter() {
-					public boolean accept(File file) {
-						return (file.isDirectory() && (file.getName().matches("[0-9A-Fa-f]{2}")));
-					}
-				});
-				folderList.addAll(Arrays.asList(files));
-			}
+			//	process path folders recursively, and also sub folders of any unfinished reorganization
+			File[] subFolders = folder.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return (file.isDirectory() && (file.getName().matches("[0-9A-Fa-f]{2}")));
+				}
+			});
+			folderList.addAll(Arrays.asList(subFolders));
+			if (this.isPathFolder(folder, folderPath))
+				continue;
 			
-			//	use list of data files (if we get here, we are surely in file based mode)
-			else {
+			//	use list of data files in file based mode, computing current version from any previous ones
+			if (this.dataObjectsAreFiles) {
 				File[] dataFiles = folder.listFiles(new FileFilter() {
 					public boolean accept(File file) {
 						return (true
 							&& file.isFile()
-							&& file.getName().endsWith(dataFileExtension)
-							&& file.getName().matches("[0-9A-Fa-f]{32}\\.[0-9]+\\..*")
+							&& (file.getName().endsWith(dataFileExtension) || file.getName().endsWith(zipFileExtension))
+							&& file.getName().matches("[0-9A-Fa-f]{32}\\..*")
 						);
 					}
 				});
+				HashSet currentDataIDs = new HashSet();
+				HashMap previousVersions = new HashMap();
 				for (int d = 0; d < dataFiles.length; d++) {
-					this.scheduleMaintenanceJob(new OldVersionZipUp((folderPath + "/" + dataFiles[d].getName()), dataFiles[d].getAbsolutePath()));
-					cac.reportResult(" - " + folderPath + "/" + dataFiles[d].getName());
-					zipFileCount++;
+					String dataFileName = dataFiles[d].getName();
+					String dataId = dataFileName.substring(0, 32).toUpperCase();
+					dataFileName = dataFileName.substring(32);
+					if (dataFileName.equals(this.dataFileExtension)) {
+						currentDataIDs.add(dataId);
+						continue;
+					}
+					if (dataFileName.endsWith(this.zipFileExtension))
+						dataFileName = dataFileName.substring(0, (dataFileName.length() - this.zipFileExtension.length()));
+					else dataFileName = dataFileName.substring(0, (dataFileName.length() - this.dataFileExtension.length()));
+					try {
+						int version = Integer.parseInt(dataFileName.substring(".".length()));
+						Integer exVersion = ((Integer) previousVersions.get(dataId));
+						if ((exVersion == null) || (exVersion.intValue() < version))
+							previousVersions.put(dataId, new Integer(version));
+					} catch (NumberFormatException nfe) {}
+				}
+				for (Iterator doidit = currentDataIDs.iterator(); doidit.hasNext();) {
+					String dataId = ((String) doidit.next());
+					Integer previousVersion = ((Integer) previousVersions.get(dataId));
+					pathIndex.put(dataId, new PathIndexEntry(folder, folderPath, ((previousVersion == null) ? 1 : (previousVersion.intValue() + 1))));
 				}
 			}
-		}
-		cac.reportResult("Scheduled " + zipFileCount + " files for zipping up.");
-	}
-	
-	private void zipDataFile(String filePathAndName) {
-		File dataFile = new File(filePathAndName);
-		if (!dataFile.exists()) {
-			String dataFileName = dataFile.getName();
-			String dataId = dataFileName.substring(0, dataFileName.indexOf('.'));
-			File newDataFile = this.getDataFile(dataId, 0);
-			if (newDataFile.exists() && newDataFile.isFile()) {
-				dataFile = new File(newDataFile.getParentFile(), dataFileName);
-				filePathAndName = dataFile.getAbsolutePath();
-				this.logger.logInfo("Switched zipping up data file to re-organized path '" + filePathAndName + "'");
-			}
+			
+			//	use list of data folders in folder based mode
 			else {
-				this.logger.logError("Error zipping up data file '" + filePathAndName + "': " + (dataFile.exists() ? "File is a folder." : "File does not exist."));
-				return;
+				File[] dataFolders = folder.listFiles(new FileFilter() {
+					public boolean accept(File file) {
+						return (file.isDirectory() && file.getName().matches("[0-9A-Fa-f]{32}"));
+					}
+				});
+				for (int d = 0; d < dataFolders.length; d++)
+					pathIndex.put(dataFolders[d].getName().toUpperCase(), new PathIndexEntry(folder, folderPath, 0));
 			}
 		}
-		File zipFile = new File(filePathAndName + ".zip");
 		
-		try {
-			
-			//	mark file as zipping
-			this.zippingFileNames.add(filePathAndName);
-			
-			//	zip up data file ...
-			InputStream dataIn = new BufferedInputStream(new FileInputStream(dataFile));
-			ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
-			ZipEntry zipEntry = new ZipEntry(dataFile.getName());
-			zipEntry.setSize(dataFile.length());
-			zipEntry.setTime(dataFile.lastModified());
-			zipOut.putNextEntry(zipEntry);
-			byte[] buffer = new byte[1024];
-			for (int r; (r = dataIn.read(buffer, 0, buffer.length)) != -1;)
-				zipOut.write(buffer, 0, r);
-			zipOut.closeEntry();
-			zipOut.flush();
-			zipOut.close();
-			dataIn.close();
-			
-			//	... and delete it afterwards
-			dataFile.delete();
-		}
-		catch (Exception e) {
-			this.logger.logError("Error zipping up data file '" + filePathAndName + "': " + e.getMessage());
-			this.logger.logError(e);
-		}
-		finally {
-			//	un-mark file as zipping
-			this.zippingFileNames.remove(filePathAndName);
+		//	finally ...
+		return pathIndex;
+	}
+	
+	private PathIndexEntry getPathIndexEntry(String dataId) {
+		Map pathIndex = this.pathIndex;
+		return ((pathIndex == null) ? null : ((PathIndexEntry) pathIndex.get(dataId)));
+	}
+	
+	private void indexDataObject(String dataId, File folder, int version) {
+		Map pathIndex = this.pathIndex;
+		if (pathIndex != null)
+			pathIndex.put(dataId, new PathIndexEntry(folder, this.getFolderPath(folder), version));
+	}
+	
+	private void reindexDataObject(String dataId, File folder, String folderPath) {
+		Map pathIndex = this.pathIndex;
+		if (pathIndex == null)
+			return;
+		synchronized (pathIndex) {
+			PathIndexEntry pie = ((PathIndexEntry) pathIndex.get(dataId));
+			if ((pie != null) && (pie.folder != folder))
+				pathIndex.put(dataId, new PathIndexEntry(folder, folderPath, pie.version));
 		}
 	}
 	
+	private void unindexDataObject(String dataId) {
+		Map pathIndex = this.pathIndex;
+		if (pathIndex != null)
+			pathIndex.remove(dataId);
+	}
+	
 	private Set pathFolderPaths = Collections.synchronizedSet(new HashSet());
 	private boolean isPathFolder(File folder, String folderPath) {
 		if (this.pathFolderPaths.contains(folderPath))
@@ -1600,31 +3964,35 @@ public class IdentifierKeyedDataObjectStore {
 	}
 	
 	private File getDataFile(String dataId, int version) {
-		return this.getDataFile(dataId, version, 1);
-	}
-	private File getDataFile(String dataId, int version, int attempt) {
 		File dataFolder = this.rootFolder;
 		String folderPath = "";
 		String dataFileName = (dataId + ((version == 0) ? "" : ("." + version)) + this.dataFileExtension);
 		String zipFileName = (dataId + ((version == 0) ? "" : ("." + version)) + this.zipFileExtension);
+		
+		//	use indexed folder if available (and not in reorganization)
+		PathIndexEntry pie = this.getPathIndexEntry(dataId);
+		if ((pie != null) && this.isReorganizingFolderPath(pie.folderPath))
+			pie = null; // walk down path folders from root instead, waiting for reorganization on the way
+		if (pie != null) {
+			dataFolder = pie.folder;
+			folderPath = pie.folderPath;
+		}
+		
 		for (int depth = 0; depth < 16; depth++) {
 			
-			//	continue down path folders
-			if (this.isPathFolder(dataFolder, folderPath)) {
+			//	continue down path folders (unless we have the folder from the index)
+			if ((pie == null) && this.isPathFolder(dataFolder, folderPath)) {
 				String pathStep = this.getPathStep(dataId, depth);
 				dataFolder = new File(dataFolder, pathStep);
 				folderPath = (folderPath + ((folderPath.length() == 0) ? "" : "/") + pathStep);
 				continue;
 			}
 			
-			//	parent folder in reorganization, wait and recurse (maintenance should be fast, and a rare event (at most once per folder))
+			//	parent folder in reorganization, wait and start over (maintenance should be fast, and a rare event (at most once per folder))
 			if (this.isReorganizingFolderPath(folderPath)) {
-				if (attempt > 20)
+				if (!this.awaitFolderReorganization(folderPath))
 					throw new IllegalStateException("Folder '" + folderPath + "' is reorganizing");
-				try {
-					Thread.sleep((attempt) * 1000);
-				} catch (InterruptedException ie) {}
-				return this.getDataFile(dataId, version, (attempt + 1));
+				return this.getDataFile(dataId, version);
 			}
 			
 			//	check zipped previous version in file mode
@@ -1634,9 +4002,11 @@ public class IdentifierKeyedDataObjectStore {
 					
 					//	zip file is being created, wait for it to finish (preventing exceptions for empty zip files)
 					String pathAndFileName = (new File(dataFolder, dataFileName)).getAbsolutePath();
-					while (this.zippingFileNames.contains(pathAndFileName)) try {
-						Thread.sleep(100);
-					} catch (InterruptedException ie) {}
+					synchronized (this.zippingFileNames) {
+						while (this.zippingFileNames.contains(pathAndFileName)) try {
+							this.zippingFileNames.wait();
+						} catch (InterruptedException ie) {}
+					}
 					
 					//	return existing zip file 
 					return zipFile;
@@ -1687,18 +4057,24 @@ public class IdentifierKeyedDataObjectStore {
 		//	sanitize data object ID
 		dataId = this.checkDataId(dataId);
 		
+		//	check index in segment mode
+		if (this.segmentStore != null)
+			return this.segmentStore.isDataObjectAvailable(dataId, version);
+		
 		//	treat deletions in progress as already deleted, and wait for any restorations in progress
 		if (this.removingDataIDs.contains(dataId))
 			return false;
-		while (this.restoringDataIDs.contains(dataId)) try {
-			Thread.sleep(1 * 1000);
-		} catch (InterruptedException ie) {}
+		this.awaitDataObjectOperations(dataId, false);
 		
 		//	resolve relative version
 		int fileVersion = this.computeFileVersion(dataId, version);
 		if (fileVersion == -1)
 			return false;
 		
+		//	current version is available exactly if indexed
+		if ((this.pathIndex != null) && (fileVersion == 0))
+			return (this.getPathIndexEntry(dataId) != null);
+		
 		//	check file
 		File dataFile = this.getDataFile(dataId, fileVersion);
 		return ((dataFile != null) && dataFile.exists() && (this.dataObjectsAreFiles ? dataFile.isFile() : dataFile.isDirectory()));
@@ -1721,23 +4097,30 @@ public class IdentifierKeyedDataObjectStore {
 		//	sanitize data object ID
 		dataId = this.checkDataId(dataId);
 		
+		//	check index in segment mode
+		if (this.segmentStore != null)
+			return this.segmentStore.getCurrentVersion(dataId);
+		
 		//	treat deletions in progress as already deleted, and wait for any restorations in progress
 		if (this.removingDataIDs.contains(dataId))
 			return 0;
-		while (this.restoringDataIDs.contains(dataId)) try {
-			Thread.sleep(1 * 1000);
-		} catch (InterruptedException ie) {}
+		this.awaitDataObjectOperations(dataId, false);
 		
 		//	compute and return version
 		return this.doGetCurrentVersion(dataId);
 	}
 	
 	private int doGetCurrentVersion(String dataId) {
-		if (this.dataObjectVersionCache.containsKey(dataId))
-			return ((Integer) this.dataObjectVersionCache.get(dataId)).intValue();
-		int version = this.computeCurrentVersion(dataId);
+		if (this.pathIndex != null) {
+			PathIndexEntry pie = this.getPathIndexEntry(dataId);
+			return ((pie == null) ? 0 : pie.version);
+		}
+		int version = this.dataObjectVersionCache.get(dataId);
+		if (version != -1)
+			return version;
+		version = this.computeCurrentVersion(dataId);
 		if (version != 0)
-			this.dataObjectVersionCache.put(dataId, new Integer(version));
+			this.dataObjectVersionCache.put(dataId, version);
 		return version;
 	}
 	
@@ -1842,12 +4225,24 @@ public class IdentifierKeyedDataObjectStore {
 		//	sanitize data object ID
 		dataId = this.checkDataId(dataId);
 		
+		//	read from segment file in segment mode
+		if (this.segmentStore != null) {
+			DataObjectSegmentStore.RecordInputStream recordIn = this.segmentStore.getInputStream(dataId, version);
+			if (recordIn == null)
+				throw new DataObjectNotFoundException(dataId, version);
+			try {
+				return new DataObjectInputStream(recordIn);
+			}
+			catch (IOException ioe) {
+				recordIn.close();
+				throw ioe;
+			}
+		}
+		
 		//	treat deletions in progress as already deleted, and wait for any restorations in progress
 		if (this.removingDataIDs.contains(dataId))
 			throw new DataObjectNotFoundException(dataId, version);
-		while (this.restoringDataIDs.contains(dataId)) try {
-			Thread.sleep(1 * 1000);
-		} catch (InterruptedException ie) {}
+		this.awaitDataObjectOperations(dataId, false);
 		
 		//	resolve relative version
 		int fileVersion = this.computeFileVersion(dataId, version);
@@ -1857,8 +4252,10 @@ public class IdentifierKeyedDataObjectStore {
 		//	finally ...
 		try {
 			File dataFile = this.getDataFile(dataId, fileVersion);
-			if ((dataFile == null) || !dataFile.exists())
+			if (dataFile == null)
 				throw new DataObjectNotFoundException(dataId, version);
+			if (((this.pathIndex == null) || (fileVersion != 0)) && !dataFile.exists())
+				throw new DataObjectNotFoundException(dataId, version); // opening indexed current version fails on its own if file is missing
 			return new DataObjectInputStream(dataId, dataFile, fileVersion);
 		}
 		catch (FileNotFoundException fnfe) {
@@ -1897,10 +4294,12 @@ public class IdentifierKeyedDataObjectStore {
 		//	sanitize data object ID
 		dataId = this.checkDataId(dataId);
 		
+		//	buffer data for segment file in segment mode
+		if (this.segmentStore != null)
+			return new DataObjectOutputStream(dataId);
+		
 		//	wait for any deletions or restorations in progress
-		while (this.removingDataIDs.contains(dataId) || this.restoringDataIDs.contains(dataId)) try {
-			Thread.sleep(1 * 1000);
-		} catch (InterruptedException ie) {}
+		this.awaitDataObjectOperations(dataId, true);
 		
 		//	get data file
 		File dataFile = this.getDataFile(dataId, 0);
@@ -1908,7 +4307,7 @@ public class IdentifierKeyedDataObjectStore {
 		
 		//	compute current version
 		final int exVersion;
-		if (dataFile.exists())
+		if ((this.pathIndex == null) ? dataFile.exists() : (this.getPathIndexEntry(dataId) != null))
 			exVersion = this.doGetCurrentVersion(dataId);
 		else {
 			exVersion = 0;
@@ -1949,20 +4348,35 @@ public class IdentifierKeyedDataObjectStore {
 	private void removeDataOject(String dataId, boolean eradicate) throws IOException {
 		dataId = this.checkDataId(dataId);
 		
-		//	treat deletions in progress as already deleted, and wait for any restorations in progress (no need to duplicate former (we emulate that), but need to revert latter)
-		if (this.removingDataIDs.contains(dataId))
+		//	add marker to segment file in segment mode
+		if (this.segmentStore != null) {
+			if (eradicate)
+				this.segmentStore.destroyDataObject(dataId);
+			else this.segmentStore.deleteDataObject(dataId);
 			return;
-		while (this.restoringDataIDs.contains(dataId)) try {
-			Thread.sleep(1 * 1000);
-		} catch (InterruptedException ie) {}
+		}
+		
+		//	treat deletions in progress as already deleted, and wait for any restorations and pending write-back commits in progress (no need to duplicate former (we emulate that), but need to revert latter)
+		synchronized (this.dataObjectOperationLock) {
+			while (true) {
+				if (this.removingDataIDs.contains(dataId))
+					return;
+				if (!this.restoringDataIDs.contains(dataId) && !this.committingDataIdCounts.containsKey(dataId))
+					break;
+				try {
+					this.dataObjectOperationLock.wait();
+				} catch (InterruptedException ie) {}
+			}
+			this.removingDataIDs.add(dataId);
+		}
 		
 		//	delete data object
 		try {
-			this.removingDataIDs.add(dataId);
 			this.doRemoveDataOject(dataId, eradicate);
+			this.unindexDataObject(dataId);
 		}
 		finally {
-			this.removingDataIDs.remove(dataId);
+			this.endDataObjectOperation(this.removingDataIDs, dataId);
 		}
 	}
 	
@@ -2079,18 +4493,22 @@ public class IdentifierKeyedDataObjectStore {
 	int restoreDataObject(String dataId, boolean forNewVersion) throws IOException {
 		dataId = this.checkDataId(dataId);
 		
+		//	add marker to segment file in segment mode
+		if (this.segmentStore != null)
+			return this.segmentStore.restoreDataObject(dataId);
+		
 		//	wait for any deletions or restorations in progress (need to revert former, and latter must be complete when we return)
-		while (this.removingDataIDs.contains(dataId) || this.restoringDataIDs.contains(dataId)) try {
-			Thread.sleep(1 * 1000);
-		} catch (InterruptedException ie) {}
+		synchronized (this.dataObjectOperationLock) {
+			this.awaitDataObjectOperations(dataId, true, !forNewVersion); // restoring for new version happens in the very commit we'd be waiting for
+			this.restoringDataIDs.add(dataId);
+		}
 		
-		//	delete data object
+		//	restore data object
 		try {
-			this.restoringDataIDs.add(dataId);
 			return this.doRestoreDataObject(dataId, forNewVersion);
 		}
 		finally {
-			this.restoringDataIDs.remove(dataId);
+			this.endDataObjectOperation(this.restoringDataIDs, dataId);
 		}
 	}
 	
@@ -2139,8 +4557,10 @@ public class IdentifierKeyedDataObjectStore {
 			//	delete zip file on success
 			deletedZipFile.delete();
 			
-			//	compute current version on restoring
-			return this.doGetCurrentVersion(dataId);
+			//	compute current version on restoring (index still lacks restored data object)
+			int version = ((this.pathIndex == null) ? this.doGetCurrentVersion(dataId) : this.computeCurrentVersion(dataId));
+			this.indexDataObject(dataId, parentFolder, version);
+			return version;
 		}
 		
 		//	restore folder plus any content in folder mode
@@ -2184,6 +4604,7 @@ public class IdentifierKeyedDataObjectStore {
 			
 			//	delete zip file on success
 			deletedZipFile.delete();
+			this.indexDataObject(dataId, parentFolder, 0);
 			
 			//	nothing to do about versions in folder based mode
 			return -1;
@@ -2204,6 +4625,8 @@ public class IdentifierKeyedDataObjectStore {
 	 * @return a list of the IDs of all the data objects stored in this IKS
 	 */
 	public String[] getDataObjectIDs(final boolean includeDeleted) {
+		if (this.segmentStore != null)
+			return this.segmentStore.getDataObjectIDs(includeDeleted);
 		LinkedHashSet dataObjectIDs = new LinkedHashSet();
 		ArrayList folderList = new ArrayList();
 		folderList.add(this.rootFolder);
@@ -2262,6 +4685,71 @@ public class IdentifierKeyedDataObjectStore {
 		return ((String[]) dataObjectIDs.toArray(new String[dataObjectIDs.size()]));
 	}
 	
+	/**
+	 * Obtain an iterator over the IDs of all the data objects stored in this
+	 * IKS. Unlike <code>getDataObjectIDs()</code>, the iterator does not list
+	 * all the IDs up front, but walks the folder tree as it goes.
+	 * @return an iterator over the data object IDs
+	 */
+	public DataObjectIdIterator getDataObjectIdIterator() {
+		return this.getDataObjectIdIterator(false, null, -1);
+	}
+	
+	/**
+	 * Obtain an iterator over the IDs of the data objects stored in this IKS.
+	 * The iterator walks the folder tree as it goes and returns the IDs in
+	 * ascending order, starting after the argument ID. This facilitates paging
+	 * through the IDs and resuming an interrupted iteration. If a change time
+	 * is specified, the iterator only returns the IDs of data objects that
+	 * were stored, deleted, or restored at or after that time.
+	 * @param includeDeleted include IDs of deleted zipped-up data objects?
+	 * @param startAfterId the ID to start after (null to start from the first)
+	 * @param changedSince the time since when data objects have to be changed
+	 *            to be included (-1 to include all)
+	 * @return an iterator over the data object IDs
+	 */
+	public DataObjectIdIterator getDataObjectIdIterator(boolean includeDeleted, String startAfterId, long changedSince) {
+		return new DataObjectIdIterator(includeDeleted, ((startAfterId == null) ? null : this.checkDataId(startAfterId)), null, changedSince);
+	}
+	
+	/**
+	 * Obtain a number of iterators over the IDs of the data objects stored in
+	 * this IKS, covering disjoint ID ranges and thus independent subtrees of
+	 * the folder hierarchy. This facilitates processing the data objects in
+	 * parallel, using one iterator per thread. Taken together in the order in
+	 * which they come in the returned array, the iterators return the same
+	 * IDs as a single iterator obtained from <code>getDataObjectIdIterator()</code>
+	 * with the same arguments.
+	 * @param parts the number of iterators (at most 256)
+	 * @param includeDeleted include IDs of deleted zipped-up data objects?
+	 * @param startAfterId the ID to start after (null to start from the first)
+	 * @param changedSince the time since when data objects have to be changed
+	 *            to be included (-1 to include all)
+	 * @return an array holding the iterators over the data object IDs
+	 */
+	public DataObjectIdIterator[] getDataObjectIdIterators(int parts, boolean includeDeleted, String startAfterId, long changedSince) {
+		if ((parts < 1) || (parts > 256))
+			throw new IllegalArgumentException("The number of parts must be between 1 and 256");
+		if (startAfterId != null)
+			startAfterId = this.checkDataId(startAfterId);
+		DataObjectIdIterator[] doidits = new DataObjectIdIterator[parts];
+		String partStartAfterId = startAfterId;
+		for (int p = 0; p < parts; p++) {
+			String partEndBeforeId = ((p == (parts - 1)) ? null : getFirstPathStep(((p + 1) * 256) / parts));
+			doidits[p] = new DataObjectIdIterator(includeDeleted, partStartAfterId, partEndBeforeId, changedSince);
+			
+			//	start next part after the last possible ID before its first path step, unless explicit start ID comes later
+			String lastIdBefore = getFirstPathStep((((p + 1) * 256) / parts) - 1) + "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFF";
+			partStartAfterId = (((startAfterId == null) || (startAfterId.compareTo(lastIdBefore) < 0)) ? lastIdBefore : startAfterId);
+		}
+		return doidits;
+	}
+	
+	private static String getFirstPathStep(int step) {
+		String pathStep = Integer.toString(step, 16).toUpperCase();
+		return ((pathStep.length() < 2) ? ("0" + pathStep) : pathStep);
+	}
+	
 	/* TODO in the long haul, use strategy pattern for handling data object IDs:
 	 * - implement checkDataObjectId(String dataId) --> String
 	 * - implement isPathFolder(File file) --> boolean